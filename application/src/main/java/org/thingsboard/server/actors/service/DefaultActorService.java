@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.actors.service;
 
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,10 +23,11 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
-import org.thingsboard.common.util.ThingsBoardExecutors;
-import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.actors.ActorSystemContext;
 import org.thingsboard.server.actors.DefaultTbActorSystem;
+import org.thingsboard.server.actors.TbActorDispatcherType;
+import org.thingsboard.server.actors.TbActorMailboxOverflowStrategy;
+import org.thingsboard.server.actors.TbActorMailboxStats;
 import org.thingsboard.server.actors.TbActorRef;
 import org.thingsboard.server.actors.TbActorSystem;
 import org.thingsboard.server.actors.TbActorSystemSettings;
@@ -33,13 +35,17 @@ import org.thingsboard.server.actors.app.AppActor;
 import org.thingsboard.server.actors.app.AppInitMsg;
 import org.thingsboard.server.actors.stats.StatsActor;
 import org.thingsboard.server.common.msg.queue.PartitionChangeMsg;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.common.stats.StatsType;
 import org.thingsboard.server.queue.discovery.TbApplicationEventListener;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @Slf4j
@@ -53,6 +59,9 @@ public class DefaultActorService extends TbApplicationEventListener<PartitionCha
     @Autowired
     private ActorSystemContext actorContext;
 
+    @Autowired
+    private StatsFactory statsFactory;
+
     private TbActorSystem system;
 
     private TbActorRef appActor;
@@ -78,17 +87,48 @@ public class DefaultActorService extends TbApplicationEventListener<PartitionCha
     @Value("${actors.system.rule_dispatcher_pool_size:4}")
     private int ruleDispatcherSize;
 
+    @Value("${actors.system.app_dispatcher_type:WORK_STEALING}")
+    private TbActorDispatcherType appDispatcherType;
+
+    @Value("${actors.system.tenant_dispatcher_type:WORK_STEALING}")
+    private TbActorDispatcherType tenantDispatcherType;
+
+    @Value("${actors.system.device_dispatcher_type:WORK_STEALING}")
+    private TbActorDispatcherType deviceDispatcherType;
+
+    @Value("${actors.system.rule_dispatcher_type:WORK_STEALING}")
+    private TbActorDispatcherType ruleDispatcherType;
+
+    @Value("${actors.system.mailbox.capacity:0}")
+    private int mailboxCapacity;
+
+    @Value("${actors.system.mailbox.overflow_strategy:REJECT}")
+    private TbActorMailboxOverflowStrategy mailboxOverflowStrategy;
+
+    @Value("${actors.system.max_mailboxes_per_drain:0}")
+    private int maxMailboxesPerDrain;
+
+    @Value("${actors.system.mailbox.stats.top_actors:10}")
+    private int mailboxStatsTopActors;
+
+    @Value("${actors.system.mailbox.stats.print_interval_ms:60000}")
+    private long mailboxStatsPrintIntervalMs;
+
+    private final List<DispatcherQueueGauge> dispatcherQueueGauges = new ArrayList<>();
+    private final List<AtomicInteger> topMailboxQueueGauges = new ArrayList<>();
+
     @PostConstruct
     public void initActorSystem() {
         log.info("Initializing actor system.");
         actorContext.setActorService(this);
-        TbActorSystemSettings settings = new TbActorSystemSettings(actorThroughput, schedulerPoolSize, maxActorInitAttempts);
+        TbActorSystemSettings settings = new TbActorSystemSettings(actorThroughput, schedulerPoolSize, maxActorInitAttempts,
+                mailboxCapacity, mailboxOverflowStrategy, maxMailboxesPerDrain);
         system = new DefaultTbActorSystem(settings);
 
-        system.createDispatcher(APP_DISPATCHER_NAME, initDispatcherExecutor(APP_DISPATCHER_NAME, appDispatcherSize));
-        system.createDispatcher(TENANT_DISPATCHER_NAME, initDispatcherExecutor(TENANT_DISPATCHER_NAME, tenantDispatcherSize));
-        system.createDispatcher(DEVICE_DISPATCHER_NAME, initDispatcherExecutor(DEVICE_DISPATCHER_NAME, deviceDispatcherSize));
-        system.createDispatcher(RULE_DISPATCHER_NAME, initDispatcherExecutor(RULE_DISPATCHER_NAME, ruleDispatcherSize));
+        system.createDispatcher(APP_DISPATCHER_NAME, appDispatcherType, getDispatcherPoolSize(appDispatcherSize));
+        system.createDispatcher(TENANT_DISPATCHER_NAME, tenantDispatcherType, getDispatcherPoolSize(tenantDispatcherSize));
+        system.createDispatcher(DEVICE_DISPATCHER_NAME, deviceDispatcherType, getDispatcherPoolSize(deviceDispatcherSize));
+        system.createDispatcher(RULE_DISPATCHER_NAME, ruleDispatcherType, getDispatcherPoolSize(ruleDispatcherSize));
 
         actorContext.setActorSystem(system);
 
@@ -98,19 +138,46 @@ public class DefaultActorService extends TbApplicationEventListener<PartitionCha
         TbActorRef statsActor = system.createRootActor(TENANT_DISPATCHER_NAME, new StatsActor.ActorCreator(actorContext, "StatsActor"));
         actorContext.setStatsActor(statsActor);
 
+        initMailboxStats(APP_DISPATCHER_NAME, TENANT_DISPATCHER_NAME, DEVICE_DISPATCHER_NAME, RULE_DISPATCHER_NAME);
+
         log.info("Actor system initialized.");
     }
 
-    private ExecutorService initDispatcherExecutor(String dispatcherName, int poolSize) {
+    private void initMailboxStats(String... dispatcherNames) {
+        String key = StatsType.ACTORS.getName();
+        for (String dispatcherName : dispatcherNames) {
+            AtomicInteger queueSize = statsFactory.createGauge(key + ".dispatcherQueueSize", new AtomicInteger(0), "dispatcher", dispatcherName);
+            dispatcherQueueGauges.add(new DispatcherQueueGauge(dispatcherName, queueSize));
+        }
+        for (int i = 0; i < mailboxStatsTopActors; i++) {
+            topMailboxQueueGauges.add(statsFactory.createGauge(key + ".topMailboxQueueSize", new AtomicInteger(0), "rank", Integer.toString(i + 1)));
+        }
+        if (mailboxStatsPrintIntervalMs > 0) {
+            system.getScheduler().scheduleWithFixedDelay(this::updateMailboxStats, mailboxStatsPrintIntervalMs, mailboxStatsPrintIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void updateMailboxStats() {
+        try {
+            dispatcherQueueGauges.forEach(gauge -> gauge.getQueueSize().set(system.getDispatcherQueueSize(gauge.getDispatcherName())));
+            List<TbActorMailboxStats> topMailboxes = system.getTopMailboxesByQueueSize(mailboxStatsTopActors);
+            for (int i = 0; i < topMailboxQueueGauges.size(); i++) {
+                topMailboxQueueGauges.get(i).set(i < topMailboxes.size() ? topMailboxes.get(i).getQueueSize() : 0);
+            }
+            if (!topMailboxes.isEmpty()) {
+                log.info("Top actors by mailbox size: {}", topMailboxes);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to update actor mailbox stats", e);
+        }
+    }
+
+    private int getDispatcherPoolSize(int poolSize) {
         if (poolSize == 0) {
             int cores = Runtime.getRuntime().availableProcessors();
             poolSize = Math.max(1, cores / 2);
         }
-        if (poolSize == 1) {
-            return Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName(dispatcherName));
-        } else {
-            return ThingsBoardExecutors.newWorkStealingPool(poolSize, dispatcherName);
-        }
+        return poolSize;
     }
 
     @EventListener(ApplicationReadyEvent.class)
@@ -126,6 +193,12 @@ public class DefaultActorService extends TbApplicationEventListener<PartitionCha
         this.appActor.tellWithHighPriority(new PartitionChangeMsg(event.getServiceQueueKey(), event.getPartitions()));
     }
 
+    @Data
+    private static class DispatcherQueueGauge {
+        private final String dispatcherName;
+        private final AtomicInteger queueSize;
+    }
+
     @PreDestroy
     public void stopActorSystem() {
         if (system != null) {
@@ -415,8 +415,10 @@ public class DeviceController extends BaseController {
         checkNotNull(deviceCredentials);
         try {
             Device device = checkDeviceId(deviceCredentials.getDeviceId(), Operation.WRITE_CREDENTIALS);
+            DeviceCredentials old = deviceCredentialsService.findDeviceCredentialsByDeviceId(getCurrentUser().getTenantId(), device.getId());
             DeviceCredentials result = checkNotNull(deviceCredentialsService.updateDeviceCredentials(getCurrentUser().getTenantId(), deviceCredentials));
             tbClusterService.pushMsgToCore(new DeviceCredentialsUpdateNotificationMsg(getCurrentUser().getTenantId(), deviceCredentials.getDeviceId(), result), null);
+            tbClusterService.onDeviceCredentialsUpdated(result, old, null);
 
             sendEntityNotificationMsg(getTenantId(), device.getId(), EdgeEventActionType.CREDENTIALS_UPDATED);
 
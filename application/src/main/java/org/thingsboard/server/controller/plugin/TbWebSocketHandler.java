@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.controller.plugin;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.BeanCreationNotAllowedException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,8 +23,11 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.adapter.NativeWebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
@@ -38,6 +42,7 @@ import org.thingsboard.server.service.security.model.SecurityUser;
 import org.thingsboard.server.service.security.model.UserPrincipal;
 import org.thingsboard.server.service.telemetry.SessionEvent;
 import org.thingsboard.server.service.telemetry.TelemetryWebSocketMsgEndpoint;
+import org.thingsboard.server.service.telemetry.TelemetryWebSocketProtocol;
 import org.thingsboard.server.service.telemetry.TelemetryWebSocketService;
 import org.thingsboard.server.service.telemetry.TelemetryWebSocketSessionRef;
 
@@ -49,6 +54,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
@@ -59,7 +68,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 @Service
 @TbCoreComponent
 @Slf4j
-public class TbWebSocketHandler extends TextWebSocketHandler implements TelemetryWebSocketMsgEndpoint {
+public class TbWebSocketHandler extends TextWebSocketHandler implements TelemetryWebSocketMsgEndpoint, SubProtocolCapable {
 
     private static final ConcurrentMap<String, SessionMetaData> internalSessionMap = new ConcurrentHashMap<>();
     private static final ConcurrentMap<String, String> externalSessionMap = new ConcurrentHashMap<>();
@@ -111,6 +120,30 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
         }
     }
 
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        try {
+            SessionMetaData sessionMd = internalSessionMap.get(session.getId());
+            if (sessionMd != null) {
+                log.trace("[{}][{}] Processing binary msg of {} bytes", sessionMd.sessionRef.getSecurityCtx().getTenantId(), session.getId(), message.getPayloadLength());
+                ByteBuffer payload = message.getPayload();
+                byte[] msg = new byte[payload.remaining()];
+                payload.get(msg);
+                webSocketService.handleWebSocketMsg(sessionMd.sessionRef, msg);
+            } else {
+                log.trace("[{}] Failed to find session", session.getId());
+                session.close(CloseStatus.SERVER_ERROR.withReason("Session not found!"));
+            }
+        } catch (IOException e) {
+            log.warn("IO error", e);
+        }
+    }
+
+    @Override
+    public List<String> getSubProtocols() {
+        return Arrays.asList(TelemetryWebSocketProtocol.CBOR.getSubProtocol());
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         super.afterConnectionEstablished(session);
@@ -186,7 +219,8 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
             throw new InvalidParameterException("Can't find plugin with specified token!");
         } else {
             SecurityUser currentUser = (SecurityUser) ((Authentication) session.getPrincipal()).getPrincipal();
-            return new TelemetryWebSocketSessionRef(UUID.randomUUID().toString(), currentUser, session.getLocalAddress(), session.getRemoteAddress());
+            TelemetryWebSocketProtocol protocol = TelemetryWebSocketProtocol.fromSubProtocol(session.getAcceptedProtocol());
+            return new TelemetryWebSocketSessionRef(UUID.randomUUID().toString(), currentUser, session.getLocalAddress(), session.getRemoteAddress(), protocol);
         }
     }
 
@@ -196,7 +230,7 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
         private final TelemetryWebSocketSessionRef sessionRef;
 
         private volatile boolean isSending = false;
-        private final Queue<String> msgQueue;
+        private final Queue<WebSocketMessage<?>> msgQueue;
 
         private volatile long lastActivityTime;
 
@@ -226,7 +260,7 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
             }
         }
 
-        synchronized void sendMsg(String msg) {
+        synchronized void sendMsg(WebSocketMessage<?> msg) {
             if (isSending) {
                 try {
                     msgQueue.add(msg);
@@ -248,9 +282,13 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
             }
         }
 
-        private void sendMsgInternal(String msg) {
+        private void sendMsgInternal(WebSocketMessage<?> msg) {
             try {
-                this.asyncRemote.sendText(msg, this);
+                if (msg instanceof BinaryMessage) {
+                    this.asyncRemote.sendBinary(((BinaryMessage) msg).getPayload(), this);
+                } else {
+                    this.asyncRemote.sendText(((TextMessage) msg).getPayload(), this);
+                }
             } catch (Exception e) {
                 log.trace("[{}] Failed to send msg", session.getId(), e);
                 try {
@@ -272,7 +310,7 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
                 }
             } else {
                 lastActivityTime = System.currentTimeMillis();
-                String msg = msgQueue.poll();
+                WebSocketMessage<?> msg = msgQueue.poll();
                 if (msg != null) {
                     sendMsgInternal(msg);
                 } else {
@@ -284,8 +322,18 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
 
     @Override
     public void send(TelemetryWebSocketSessionRef sessionRef, int subscriptionId, String msg) throws IOException {
+        log.debug("[{}] Processing {}", sessionRef.getSessionId(), msg);
+        send(sessionRef, subscriptionId, new TextMessage(msg));
+    }
+
+    @Override
+    public void send(TelemetryWebSocketSessionRef sessionRef, int subscriptionId, byte[] msg) throws IOException {
+        log.debug("[{}] Processing binary msg of {} bytes", sessionRef.getSessionId(), msg.length);
+        send(sessionRef, subscriptionId, new BinaryMessage(msg));
+    }
+
+    private void send(TelemetryWebSocketSessionRef sessionRef, int subscriptionId, WebSocketMessage<?> msg) {
         String externalId = sessionRef.getSessionId();
-        log.debug("[{}] Processing {}", externalId, msg);
         String internalId = externalSessionMap.get(externalId);
         if (internalId != null) {
             SessionMetaData sessionMd = internalSessionMap.get(internalId);
@@ -296,7 +344,7 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
                         if (blacklistedSessions.putIfAbsent(externalId, sessionRef) == null) {
                             log.info("[{}][{}][{}] Failed to process session update. Max session updates limit reached"
                                     , sessionRef.getSecurityCtx().getTenantId(), sessionRef.getSecurityCtx().getId(), externalId);
-                            sessionMd.sendMsg("{\"subscriptionId\":" + subscriptionId + ", \"errorCode\":" + ThingsboardErrorCode.TOO_MANY_UPDATES.getErrorCode() + ", \"errorMsg\":\"Too many updates!\"}");
+                            sessionMd.sendMsg(toTooManyUpdatesMsg(sessionRef, subscriptionId));
                         }
                         return;
                     } else {
@@ -313,6 +361,21 @@ public class TbWebSocketHandler extends TextWebSocketHandler implements Telemetr
         }
     }
 
+    private WebSocketMessage<?> toTooManyUpdatesMsg(TelemetryWebSocketSessionRef sessionRef, int subscriptionId) {
+        if (sessionRef.getProtocol() == TelemetryWebSocketProtocol.CBOR) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("subscriptionId", subscriptionId);
+            error.put("errorCode", ThingsboardErrorCode.TOO_MANY_UPDATES.getErrorCode());
+            error.put("errorMsg", "Too many updates!");
+            try {
+                return new BinaryMessage(TelemetryWebSocketProtocol.CBOR_MAPPER.writeValueAsBytes(error));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new TextMessage("{\"subscriptionId\":" + subscriptionId + ", \"errorCode\":" + ThingsboardErrorCode.TOO_MANY_UPDATES.getErrorCode() + ", \"errorMsg\":\"Too many updates!\"}");
+    }
+
     @Override
     public void sendPing(TelemetryWebSocketSessionRef sessionRef, long currentTime) throws IOException {
         String externalId = sessionRef.getSessionId();
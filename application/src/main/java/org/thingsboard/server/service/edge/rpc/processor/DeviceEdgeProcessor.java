@@ -141,12 +141,14 @@ public class DeviceEdgeProcessor extends BaseEdgeProcessor {
                         device.getName(), deviceCredentialsUpdateMsg.getCredentialsId(), deviceCredentialsUpdateMsg.getCredentialsValue());
                 try {
                     DeviceCredentials deviceCredentials = deviceCredentialsService.findDeviceCredentialsByDeviceId(tenantId, device.getId());
+                    DeviceCredentials old = new DeviceCredentials(deviceCredentials);
                     deviceCredentials.setCredentialsType(DeviceCredentialsType.valueOf(deviceCredentialsUpdateMsg.getCredentialsType()));
                     deviceCredentials.setCredentialsId(deviceCredentialsUpdateMsg.getCredentialsId());
                     if (deviceCredentialsUpdateMsg.hasCredentialsValue()) {
                         deviceCredentials.setCredentialsValue(deviceCredentialsUpdateMsg.getCredentialsValue());
                     }
-                    deviceCredentialsService.updateDeviceCredentials(tenantId, deviceCredentials);
+                    DeviceCredentials result = deviceCredentialsService.updateDeviceCredentials(tenantId, deviceCredentials);
+                    tbClusterService.onDeviceCredentialsUpdated(result, old, null);
                 } catch (Exception e) {
                     log.error("Can't update device credentials for device [{}], deviceCredentialsUpdateMsg [{}]", device.getName(), deviceCredentialsUpdateMsg, e);
                     throw new RuntimeException(e);
@@ -42,6 +42,7 @@ import org.thingsboard.server.common.data.id.EntityId;
 import org.thingsboard.server.common.data.id.RuleChainId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.plugin.ComponentLifecycleEvent;
+import org.thingsboard.server.common.data.security.DeviceCredentials;
 import org.thingsboard.server.common.msg.TbMsg;
 import org.thingsboard.server.common.msg.edge.EdgeEventUpdateMsg;
 import org.thingsboard.server.common.msg.plugin.ComponentLifecycleMsg;
@@ -129,6 +130,14 @@ public class DefaultTbClusterService implements TbClusterService {
         toCoreNfs.incrementAndGet();
     }
 
+    @Override
+    public void pushNotificationToCore(String serviceId, ToCoreNotificationMsg msg, TbQueueCallback callback) {
+        TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_CORE, serviceId);
+        log.trace("PUSHING msg: {} to:{}", msg, tpi);
+        producerProvider.getTbCoreNotificationsMsgProducer().send(tpi, new TbProtoQueueMsg<>(UUID.randomUUID(), msg), callback);
+        toCoreNfs.incrementAndGet();
+    }
+
     @Override
     public void pushMsgToRuleEngine(TopicPartitionInfo tpi, UUID msgId, ToRuleEngineMsg msg, TbQueueCallback callback) {
         log.trace("PUSHING msg: {} to:{}", msg, tpi);
@@ -258,6 +267,21 @@ public class DefaultTbClusterService implements TbClusterService {
         broadcastEntityStateChangeEvent(device.getTenantId(), device.getId(), ComponentLifecycleEvent.DELETED);
     }
 
+    @Override
+    public void onDeviceCredentialsUpdated(DeviceCredentials deviceCredentials, DeviceCredentials old, TbQueueCallback callback) {
+        DeviceId deviceId = deviceCredentials.getDeviceId();
+        log.trace("[{}] Processing device credentials update", deviceId);
+        TransportProtos.DeviceCredentialsUpdateMsg.Builder deviceCredentialsUpdateMsg = TransportProtos.DeviceCredentialsUpdateMsg.newBuilder()
+                .setDeviceIdMSB(deviceId.getId().getMostSignificantBits())
+                .setDeviceIdLSB(deviceId.getId().getLeastSignificantBits())
+                .setCredentialsId(deviceCredentials.getCredentialsId());
+        if (old != null && old.getCredentialsId() != null) {
+            deviceCredentialsUpdateMsg.setPreviousCredentialsId(old.getCredentialsId());
+        }
+        ToTransportMsg transportMsg = ToTransportMsg.newBuilder().setDeviceCredentialsUpdateMsg(deviceCredentialsUpdateMsg).build();
+        broadcast(transportMsg, callback);
+    }
+
     @Override
     public void onResourceChange(TbResource resource, TbQueueCallback callback) {
         TenantId tenantId = resource.getTenantId();
@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.service.queue;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.ProtocolStringList;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -61,6 +62,7 @@ import org.thingsboard.server.service.stats.RuleEngineStatisticsService;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -74,6 +76,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @TbRuleEngineComponent
@@ -104,6 +107,7 @@ public class DefaultTbRuleEngineConsumerService extends AbstractConsumerService<
     private final ConcurrentMap<String, TbRuleEngineConsumerStats> consumerStats = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, TbTopicWithConsumerPerPartition> topicsConsumerPerPartition = new ConcurrentHashMap<>();
     final ExecutorService submitExecutor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("tb-rule-engine-consumer-submit"));
+    final ExecutorService packExecutor = Executors.newCachedThreadPool(ThingsBoardThreadFactory.forName("tb-rule-engine-pack-processor"));
     final ScheduledExecutorService repartitionExecutor = Executors.newScheduledThreadPool(1, ThingsBoardThreadFactory.forName("tb-rule-engine-consumer-repartition"));
 
     public DefaultTbRuleEngineConsumerService(TbRuleEngineProcessingStrategyFactory processingStrategyFactory,
@@ -146,6 +150,7 @@ public class DefaultTbRuleEngineConsumerService extends AbstractConsumerService<
     public void stop() {
         super.destroy();
         submitExecutor.shutdownNow();
+        packExecutor.shutdownNow();
         repartitionExecutor.shutdownNow();
         ruleEngineSettings.getQueues().forEach(config -> consumerConfigurations.put(config.getName(), config));
     }
@@ -242,50 +247,83 @@ public class DefaultTbRuleEngineConsumerService extends AbstractConsumerService<
     }
 
     void launchConsumer(TbQueueConsumer<TbProtoQueueMsg<ToRuleEngineMsg>> consumer, TbRuleEngineQueueConfiguration configuration, TbRuleEngineConsumerStats stats, String threadSuffix) {
-        consumersExecutor.execute(() -> consumerLoop(consumer, configuration, stats, threadSuffix));
+        if (isPipelined(consumer, configuration)) {
+            consumersExecutor.execute(() -> pipelinedConsumerLoop(consumer, configuration, stats, threadSuffix));
+        } else {
+            consumersExecutor.execute(() -> consumerLoop(consumer, configuration, stats, threadSuffix));
+        }
     }
 
     void consumerLoop(TbQueueConsumer<TbProtoQueueMsg<ToRuleEngineMsg>> consumer, TbRuleEngineQueueConfiguration configuration, TbRuleEngineConsumerStats stats, String threadSuffix) {
         updateCurrentThreadName(threadSuffix);
+        AtomicLong pausedSince = new AtomicLong();
         while (!stopped && !consumer.isStopped()) {
             try {
+                if (pauseIfActorSystemOverloaded(pausedSince, pollDuration)) {
+                    log.trace("[{}] Actor system is overloaded, pausing the consumer", configuration.getName());
+                    continue;
+                }
                 List<TbProtoQueueMsg<ToRuleEngineMsg>> msgs = consumer.poll(pollDuration);
                 if (msgs.isEmpty()) {
                     continue;
                 }
-                final TbRuleEngineSubmitStrategy submitStrategy = getSubmitStrategy(configuration);
-                final TbRuleEngineProcessingStrategy ackStrategy = getAckStrategy(configuration);
-                submitStrategy.init(msgs);
-                while (!stopped) {
-                    TbMsgPackProcessingContext ctx = new TbMsgPackProcessingContext(configuration.getName(), submitStrategy);
-                    submitStrategy.submitAttempt((id, msg) -> submitExecutor.submit(() -> submitMessage(configuration, stats, ctx, id, msg)));
-
-                    final boolean timeout = !ctx.await(configuration.getPackProcessingTimeout(), TimeUnit.MILLISECONDS);
-
-                    TbRuleEngineProcessingResult result = new TbRuleEngineProcessingResult(configuration.getName(), timeout, ctx);
-                    if (timeout) {
-                        printFirstOrAll(configuration, ctx, ctx.getPendingMap(), "Timeout");
-                    }
-                    if (!ctx.getFailedMap().isEmpty()) {
-                        printFirstOrAll(configuration, ctx, ctx.getFailedMap(), "Failed");
-                    }
-                    ctx.printProfilerStats();
-
-                    TbRuleEngineProcessingDecision decision = ackStrategy.analyze(result);
-                    if (statsEnabled) {
-                        stats.log(result, decision.isCommit());
+                processPack(msgs, configuration, stats);
+                consumer.commit();
+            } catch (Exception e) {
+                if (!stopped) {
+                    log.warn("Failed to process messages from queue.", e);
+                    try {
+                        Thread.sleep(pollDuration);
+                    } catch (InterruptedException e2) {
+                        log.trace("Failed to wait until the server has capacity to handle new requests", e2);
                     }
+                }
+            }
+        }
+        log.info("TB Rule Engine Consumer stopped.");
+    }
 
-                    ctx.cleanup();
-
-                    if (decision.isCommit()) {
-                        submitStrategy.stop();
-                        break;
-                    } else {
-                        submitStrategy.update(decision.getReprocessMap());
-                    }
+    /**
+     * Keeps up to maxInFlightPacks packs in processing. The consumer thread polls the next pack as soon as there is
+     * a free slot and commits the packs once all the packs polled before them are processed.
+     */
+    void pipelinedConsumerLoop(TbQueueConsumer<TbProtoQueueMsg<ToRuleEngineMsg>> consumer, TbRuleEngineQueueConfiguration configuration, TbRuleEngineConsumerStats stats, String threadSuffix) {
+        updateCurrentThreadName(threadSuffix);
+        TbMsgPackPipeline pipeline = new TbMsgPackPipeline(configuration.getMaxInFlightPacks());
+        AtomicLong pausedSince = new AtomicLong();
+        while (!stopped && !consumer.isStopped()) {
+            try {
+                commitProcessedPacks(consumer, pipeline);
+                if (pauseIfActorSystemOverloaded(pausedSince, pollDuration)) {
+                    log.trace("[{}] Actor system is overloaded, pausing the consumer", configuration.getName());
+                    continue;
                 }
-                consumer.commit();
+                if (!pipeline.tryAcquire(pollDuration, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                List<TbProtoQueueMsg<ToRuleEngineMsg>> msgs;
+                try {
+                    msgs = consumer.poll(pollDuration);
+                } catch (Exception e) {
+                    pipeline.release();
+                    throw e;
+                }
+                if (msgs.isEmpty()) {
+                    pipeline.release();
+                    continue;
+                }
+                TbMsgPackPipeline.Pack pack = pipeline.register(consumer.getPollPosition());
+                packExecutor.execute(() -> {
+                    try {
+                        processPack(msgs, configuration, stats);
+                    } catch (Exception e) {
+                        if (!stopped) {
+                            log.warn("[{}] Failed to process messages from queue.", configuration.getName(), e);
+                        }
+                    } finally {
+                        pipeline.complete(pack);
+                    }
+                });
             } catch (Exception e) {
                 if (!stopped) {
                     log.warn("Failed to process messages from queue.", e);
@@ -297,7 +335,102 @@ public class DefaultTbRuleEngineConsumerService extends AbstractConsumerService<
                 }
             }
         }
-        log.info("TB Rule Engine Consumer stopped.");
+        log.info("TB Rule Engine Consumer stopped. Packs in flight: {}", pipeline.getInFlightCount());
+    }
+
+    private void commitProcessedPacks(TbQueueConsumer<TbProtoQueueMsg<ToRuleEngineMsg>> consumer, TbMsgPackPipeline pipeline) {
+        long commitPosition = pipeline.pollCommitPosition();
+        if (commitPosition >= 0) {
+            consumer.commit(commitPosition);
+        }
+    }
+
+    /**
+     * Splits the messages that carry a batch of TbMsgs, e.g. telemetry of the gateway devices, into the messages
+     * with a single TbMsg, so the submit and processing strategies handle each TbMsg separately.
+     */
+    static List<TbProtoQueueMsg<ToRuleEngineMsg>> unpackBatches(List<TbProtoQueueMsg<ToRuleEngineMsg>> msgs) {
+        int msgCount = 0;
+        boolean hasBatches = false;
+        for (TbProtoQueueMsg<ToRuleEngineMsg> msg : msgs) {
+            int batchSize = msg.getValue().getTbMsgBatchCount();
+            if (batchSize > 0) {
+                hasBatches = true;
+                msgCount += batchSize;
+            } else {
+                msgCount++;
+            }
+        }
+        if (!hasBatches) {
+            return msgs;
+        }
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> result = new ArrayList<>(msgCount);
+        for (TbProtoQueueMsg<ToRuleEngineMsg> msg : msgs) {
+            ToRuleEngineMsg value = msg.getValue();
+            if (value.getTbMsgBatchCount() == 0) {
+                result.add(msg);
+                continue;
+            }
+            for (ByteString tbMsg : value.getTbMsgBatchList()) {
+                result.add(new TbProtoQueueMsg<>(UUID.randomUUID(), ToRuleEngineMsg.newBuilder()
+                        .setTenantIdMSB(value.getTenantIdMSB())
+                        .setTenantIdLSB(value.getTenantIdLSB())
+                        .setTbMsg(tbMsg).build(), msg.getHeaders()));
+            }
+        }
+        return result;
+    }
+
+    void processPack(List<TbProtoQueueMsg<ToRuleEngineMsg>> polledMsgs, TbRuleEngineQueueConfiguration configuration, TbRuleEngineConsumerStats stats) throws InterruptedException {
+        final List<TbProtoQueueMsg<ToRuleEngineMsg>> msgs = unpackBatches(polledMsgs);
+        final TbRuleEngineSubmitStrategy submitStrategy = getSubmitStrategy(configuration);
+        final TbRuleEngineProcessingStrategy ackStrategy = getAckStrategy(configuration);
+        submitStrategy.init(msgs);
+        while (!stopped) {
+            TbMsgPackProcessingContext ctx = new TbMsgPackProcessingContext(configuration.getName(), submitStrategy);
+            submitStrategy.submitAttempt((id, msg) -> submitExecutor.submit(() -> submitMessage(configuration, stats, ctx, id, msg)));
+
+            final boolean timeout = !ctx.await(configuration.getPackProcessingTimeout(), TimeUnit.MILLISECONDS);
+
+            TbRuleEngineProcessingResult result = new TbRuleEngineProcessingResult(configuration.getName(), timeout, ctx);
+            if (timeout) {
+                printFirstOrAll(configuration, ctx, ctx.getPendingMap(), "Timeout");
+            }
+            if (!ctx.getFailedMap().isEmpty()) {
+                printFirstOrAll(configuration, ctx, ctx.getFailedMap(), "Failed");
+            }
+            ctx.printProfilerStats();
+
+            TbRuleEngineProcessingDecision decision = ackStrategy.analyze(result);
+            if (statsEnabled) {
+                stats.log(result, decision.isCommit());
+            }
+
+            ctx.cleanup();
+
+            if (decision.isCommit()) {
+                submitStrategy.stop();
+                break;
+            } else {
+                submitStrategy.update(decision.getReprocessMap());
+            }
+        }
+    }
+
+    boolean isPipelined(TbQueueConsumer<TbProtoQueueMsg<ToRuleEngineMsg>> consumer, TbRuleEngineQueueConfiguration configuration) {
+        if (configuration.getMaxInFlightPacks() <= 1) {
+            return false;
+        }
+        if (!consumer.isCommitByPositionSupported()) {
+            log.warn("[{}] Queue consumer doesn't support commit by position, packs are processed one by one", configuration.getName());
+            return false;
+        }
+        String submitStrategyType = configuration.getSubmitStrategy().getType();
+        if (submitStrategyType != null && (submitStrategyType.toUpperCase().startsWith("SEQUENTIAL") || submitStrategyType.toUpperCase().startsWith("ORDERED"))) {
+            log.warn("[{}] Packs are processed one by one to keep the order of the {} submit strategy", configuration.getName(), submitStrategyType);
+            return false;
+        }
+        return true;
     }
 
     void updateCurrentThreadName(String threadSuffix) {
@@ -341,7 +474,7 @@ public class DefaultTbRuleEngineConsumerService extends AbstractConsumerService<
         log.info("{} to process [{}] messages", prefix, map.size());
         for (Map.Entry<UUID, TbProtoQueueMsg<ToRuleEngineMsg>> pending : map.entrySet()) {
             ToRuleEngineMsg tmp = pending.getValue().getValue();
-            TbMsg tmpMsg = TbMsg.fromBytes(configuration.getName(), tmp.getTbMsg().toByteArray(), TbMsgCallback.EMPTY);
+            TbMsg tmpMsg = TbMsg.fromBytes(configuration.getName(), tmp.getTbMsg(), TbMsgCallback.EMPTY);
             RuleNodeInfo ruleNodeInfo = ctx.getLastVisitedRuleNode(pending.getKey());
             if (printAll) {
                 log.trace("[{}] {} to process message: {}, Last Rule Node: {}", new TenantId(new UUID(tmp.getTenantIdMSB(), tmp.getTenantIdLSB())), prefix, tmpMsg, ruleNodeInfo);
@@ -387,7 +520,7 @@ public class DefaultTbRuleEngineConsumerService extends AbstractConsumerService<
     }
 
     private void forwardToRuleEngineActor(String queueName, TenantId tenantId, ToRuleEngineMsg toRuleEngineMsg, TbMsgCallback callback) {
-        TbMsg tbMsg = TbMsg.fromBytes(queueName, toRuleEngineMsg.getTbMsg().toByteArray(), callback);
+        TbMsg tbMsg = TbMsg.fromBytes(queueName, toRuleEngineMsg.getTbMsg(), callback);
         QueueToRuleEngineMsg msg;
         ProtocolStringList relationTypesList = toRuleEngineMsg.getRelationTypesList();
         Set<String> relationTypes = null;
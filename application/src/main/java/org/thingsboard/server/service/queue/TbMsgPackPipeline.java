@@ -0,0 +1,89 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the packs processed concurrently by the pipelined rule engine consumer.
+ * <p>
+ * Packs are registered by the consumer thread in the poll order and completed by the processing threads in any order.
+ * The commit position is the position of the last pack of the contiguous completed prefix,
+ * so the messages of the pack are never committed before the messages of the previous packs.
+ * A permit is held until the pack leaves the committed prefix, so a slow pack bounds the number of uncommitted packs
+ * polled after it by the max number of packs in flight.
+ */
+public class TbMsgPackPipeline {
+
+    private final Semaphore permits;
+    private final Queue<Pack> packs = new ConcurrentLinkedQueue<>();
+
+    public TbMsgPackPipeline(int maxInFlightPacks) {
+        this.permits = new Semaphore(maxInFlightPacks);
+    }
+
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return permits.tryAcquire(timeout, unit);
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Registers the pack polled with the acquired permit. The permit is released when the pack is committed.
+     */
+    public Pack register(long pollPosition) {
+        Pack pack = new Pack(pollPosition);
+        packs.add(pack);
+        return pack;
+    }
+
+    public void complete(Pack pack) {
+        pack.completed = true;
+    }
+
+    /**
+     * Removes the contiguous completed prefix, releases the permits of its packs
+     * and returns the poll position to commit, or -1 if nothing to commit.
+     */
+    public long pollCommitPosition() {
+        long position = -1;
+        Pack head;
+        while ((head = packs.peek()) != null && head.completed) {
+            packs.poll();
+            permits.release();
+            position = head.pollPosition;
+        }
+        return position;
+    }
+
+    public int getInFlightCount() {
+        return packs.size();
+    }
+
+    public static final class Pack {
+        private final long pollPosition;
+        private volatile boolean completed;
+
+        private Pack(long pollPosition) {
+            this.pollPosition = pollPosition;
+        }
+    }
+}
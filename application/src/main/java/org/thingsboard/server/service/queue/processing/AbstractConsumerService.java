@@ -17,11 +17,13 @@ package org.thingsboard.server.service.queue.processing;
 
 import com.google.protobuf.ByteString;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.Order;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.actors.ActorSystemContext;
+import org.thingsboard.server.actors.TbActorSystem;
 import org.thingsboard.server.common.data.EntityType;
 import org.thingsboard.server.common.data.id.CustomerId;
 import org.thingsboard.server.common.data.id.DeviceId;
@@ -54,6 +56,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -64,6 +67,9 @@ public abstract class AbstractConsumerService<N extends com.google.protobuf.Gene
     protected volatile ExecutorService notificationsConsumerExecutor;
     protected volatile boolean stopped = false;
 
+    @Value("${actors.system.mailbox.max_backpressure_pause_ms:60000}")
+    private long maxBackpressurePauseMs;
+
     protected final ActorSystemContext actorContext;
     protected final DataDecodingEncodingService encodingService;
     protected final TbTenantProfileCache tenantProfileCache;
@@ -99,6 +105,37 @@ public abstract class AbstractConsumerService<N extends com.google.protobuf.Gene
 
     protected abstract ServiceType getServiceType();
 
+    /**
+     * Returns true if one of the actor mailboxes is full and the consumer should pause polling of the new messages.
+     */
+    protected boolean isActorSystemOverloaded() {
+        TbActorSystem actorSystem = actorContext.getActorSystem();
+        return actorSystem != null && actorSystem.isOverloaded();
+    }
+
+    /**
+     * Sleeps for pollDuration if the actor system is overloaded and returns true if the consumer should skip the poll.
+     * The pause is capped by max_backpressure_pause_ms: after that the consumer polls one pack anyway,
+     * so the time between polls never exceeds the max poll interval of the queue.
+     *
+     * @param pausedSince holds the start of the current pause for the calling consumer loop, 0 if not paused
+     */
+    protected boolean pauseIfActorSystemOverloaded(AtomicLong pausedSince, long pollDuration) throws InterruptedException {
+        if (!isActorSystemOverloaded()) {
+            pausedSince.set(0);
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        pausedSince.compareAndSet(0, now);
+        if (now - pausedSince.get() >= maxBackpressurePauseMs) {
+            log.debug("Actor system is overloaded for {} ms, polling the next pack anyway", now - pausedSince.get());
+            pausedSince.set(0);
+            return false;
+        }
+        Thread.sleep(pollDuration);
+        return true;
+    }
+
     protected abstract void launchMainConsumers();
 
     protected abstract void stopMainConsumers();
@@ -0,0 +1,191 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.processing;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.server.common.msg.gen.MsgProtos;
+import org.thingsboard.server.gen.transport.TransportProtos;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the order of messages per originator, but processes different originators in parallel.
+ * <p>
+ * Originators are hashed onto a fixed number of lanes. Each lane is an immutable array of messages with an atomic cursor,
+ * so the next message of the lane is submitted by a single compare-and-set when the previous one is acknowledged.
+ * The lane and the position of the message are encoded into the message id, so no lookup map is needed on success.
+ */
+@Slf4j
+public class OrderedByOriginatorTbRuleEngineSubmitStrategy extends AbstractTbRuleEngineSubmitStrategy {
+
+    private static final int ENTITY_ID_MSB_TAG = MsgProtos.TbMsgProto.ENTITYIDMSB_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+    private static final int ENTITY_ID_LSB_TAG = MsgProtos.TbMsgProto.ENTITYIDLSB_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+    private static final long LOWER_BITS_MASK = 0xFFFFFFFFL;
+
+    private final int lanesCount;
+    private volatile BiConsumer<UUID, TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgConsumer;
+    private volatile Lanes lanes;
+
+    public OrderedByOriginatorTbRuleEngineSubmitStrategy(String queueName, int lanesCount) {
+        super(queueName);
+        this.lanesCount = Math.max(1, lanesCount);
+    }
+
+    @Override
+    public void init(List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgs) {
+        initLanes(msgs);
+    }
+
+    @Override
+    public void submitAttempt(BiConsumer<UUID, TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgConsumer) {
+        this.msgConsumer = msgConsumer;
+        for (Lane lane : lanes.lanes) {
+            if (lane != null) {
+                IdMsgPair<TransportProtos.ToRuleEngineMsg> pair = lane.msgs[0];
+                msgConsumer.accept(pair.uuid, pair.msg);
+            }
+        }
+    }
+
+    @Override
+    public void update(ConcurrentMap<UUID, TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> reprocessMap) {
+        super.update(reprocessMap);
+        List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgs = new ArrayList<>(orderedMsgList.size());
+        for (IdMsgPair<TransportProtos.ToRuleEngineMsg> pair : orderedMsgList) {
+            msgs.add(pair.msg);
+        }
+        initLanes(msgs);
+    }
+
+    @Override
+    protected void doOnSuccess(UUID id) {
+        Lanes current = lanes;
+        long msb = id.getMostSignificantBits();
+        if ((int) (msb >>> 32) != current.salt) {
+            return;
+        }
+        int laneIdx = (int) (msb & LOWER_BITS_MASK);
+        int msgIdx = (int) (id.getLeastSignificantBits() & LOWER_BITS_MASK);
+        if (laneIdx >= current.lanes.length || current.lanes[laneIdx] == null) {
+            return;
+        }
+        Lane lane = current.lanes[laneIdx];
+        int nextIdx = msgIdx + 1;
+        if (lane.cursor.compareAndSet(msgIdx, nextIdx) && nextIdx < lane.msgs.length) {
+            IdMsgPair<TransportProtos.ToRuleEngineMsg> next = lane.msgs[nextIdx];
+            msgConsumer.accept(next.uuid, next.msg);
+        }
+    }
+
+    private void initLanes(List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgs) {
+        int size = msgs.size();
+        int lanesLength = Math.min(lanesCount, Math.max(size, 1));
+        int[] msgLanes = new int[size];
+        int[] laneSizes = new int[lanesLength];
+        for (int i = 0; i < size; i++) {
+            int laneIdx = getLaneIdx(msgs.get(i).getValue(), lanesLength);
+            msgLanes[i] = laneIdx;
+            laneSizes[laneIdx]++;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int salt = random.nextInt();
+        Lane[] newLanes = new Lane[lanesLength];
+        List<IdMsgPair<TransportProtos.ToRuleEngineMsg>> newOrderedMsgList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int laneIdx = msgLanes[i];
+            Lane lane = newLanes[laneIdx];
+            if (lane == null) {
+                lane = new Lane(laneSizes[laneIdx]);
+                newLanes[laneIdx] = lane;
+            }
+            int msgIdx = lane.size++;
+            UUID id = new UUID(((long) salt << 32) | laneIdx, ((long) random.nextInt() << 32) | msgIdx);
+            IdMsgPair<TransportProtos.ToRuleEngineMsg> pair = new IdMsgPair<>(id, msgs.get(i));
+            lane.msgs[msgIdx] = pair;
+            newOrderedMsgList.add(pair);
+        }
+        orderedMsgList = newOrderedMsgList;
+        lanes = new Lanes(salt, newLanes);
+    }
+
+    /**
+     * Reads the originator id only, without parsing the rest of the message.
+     * Messages that can't be parsed are put to the first lane.
+     */
+    private int getLaneIdx(TransportProtos.ToRuleEngineMsg msg, int lanesLength) {
+        long msb = 0;
+        long lsb = 0;
+        try {
+            ByteString tbMsg = msg.getTbMsg();
+            CodedInputStream input = tbMsg.newCodedInput();
+            boolean msbFound = false;
+            boolean lsbFound = false;
+            while (!msbFound || !lsbFound) {
+                int tag = input.readTag();
+                if (tag == 0) {
+                    break;
+                } else if (tag == ENTITY_ID_MSB_TAG) {
+                    msb = input.readInt64();
+                    msbFound = true;
+                } else if (tag == ENTITY_ID_LSB_TAG) {
+                    lsb = input.readInt64();
+                    lsbFound = true;
+                } else if (!input.skipField(tag)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("[{}] Failed to parse TbMsg: {}", queueName, msg);
+            return 0;
+        }
+        long hash = msb ^ lsb;
+        hash ^= hash >>> 32;
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 32) % lanesLength);
+    }
+
+    private static class Lanes {
+        private final int salt;
+        private final Lane[] lanes;
+
+        private Lanes(int salt, Lane[] lanes) {
+            this.salt = salt;
+            this.lanes = lanes;
+        }
+    }
+
+    private static class Lane {
+        private final IdMsgPair<TransportProtos.ToRuleEngineMsg>[] msgs;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        private Lane(int capacity) {
+            this.msgs = new IdMsgPair[capacity];
+        }
+    }
+}
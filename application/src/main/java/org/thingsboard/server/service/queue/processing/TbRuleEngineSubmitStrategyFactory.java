@@ -31,6 +31,8 @@ public class TbRuleEngineSubmitStrategyFactory {
                 return new BatchTbRuleEngineSubmitStrategy(name, configuration.getBatchSize());
             case "SEQUENTIAL_BY_ORIGINATOR":
                 return new SequentialByOriginatorIdTbRuleEngineSubmitStrategy(name);
+            case "ORDERED_BY_ORIGINATOR":
+                return new OrderedByOriginatorTbRuleEngineSubmitStrategy(name, configuration.getLanes());
             case "SEQUENTIAL_BY_TENANT":
                 return new SequentialByTenantIdTbRuleEngineSubmitStrategy(name);
             case "SEQUENTIAL":
@@ -17,6 +17,7 @@ package org.thingsboard.server.service.state;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -32,6 +33,7 @@ import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.data.DataConstants;
 import org.thingsboard.server.common.data.Device;
 import org.thingsboard.server.common.data.Tenant;
+import org.thingsboard.server.common.data.id.CustomerId;
 import org.thingsboard.server.common.data.id.DeviceId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.AttributeKvEntry;
@@ -57,6 +59,7 @@ import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
 import org.thingsboard.server.queue.discovery.PartitionService;
 import org.thingsboard.server.queue.discovery.TbApplicationEventListener;
+import org.thingsboard.server.queue.discovery.TbServiceInfoProvider;
 import org.thingsboard.server.queue.util.TbCoreComponent;
 import org.thingsboard.server.cluster.TbClusterService;
 import org.thingsboard.server.service.telemetry.TelemetrySubscriptionService;
@@ -67,9 +70,12 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
@@ -81,6 +87,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.thingsboard.server.common.data.DataConstants.ACTIVITY_EVENT;
 import static org.thingsboard.server.common.data.DataConstants.CONNECT_EVENT;
@@ -106,6 +113,8 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
     public static final List<String> PERSISTENT_ATTRIBUTES = Arrays.asList(ACTIVITY_STATE, LAST_CONNECT_TIME,
             LAST_DISCONNECT_TIME, LAST_ACTIVITY_TIME, INACTIVITY_ALARM_TIME, INACTIVITY_TIMEOUT);
 
+    private static final long INACTIVITY_TIMER_TICK_MS = 1000;
+
     private final TenantService tenantService;
     private final DeviceService deviceService;
     private final AttributesService attributesService;
@@ -114,6 +123,7 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
     private final PartitionService partitionService;
 
     private TelemetrySubscriptionService tsSubService;
+    private TbServiceInfoProvider serviceInfoProvider;
 
     @Value("${state.defaultInactivityTimeoutInSec}")
     @Getter
@@ -131,10 +141,29 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
     @Getter
     private int initFetchPackSize;
 
+    @Value("${state.handoff.enabled:false}")
+    private boolean handoffEnabled;
+
+    @Value("${state.handoff.wait_time:10000}")
+    private long handoffWaitTime;
+
+    @Value("${state.handoff.snapshot_ttl:60000}")
+    private long handoffSnapshotTtl;
+
+    @Value("${state.handoff.chunk_size:1000}")
+    private int handoffChunkSize;
+
     private ListeningScheduledExecutorService scheduledExecutor;
     private ExecutorService deviceStateExecutor;
     private final ConcurrentMap<TopicPartitionInfo, Set<DeviceId>> partitionedDevices = new ConcurrentHashMap<>();
     final ConcurrentMap<DeviceId, DeviceStateData> deviceStates = new ConcurrentHashMap<>();
+    // Deadlines of the devices that may become inactive. Advanced by the scheduled executor only
+    final InactivityTimingWheel<DeviceId> inactivityTimers = new InactivityTimingWheel<>(INACTIVITY_TIMER_TICK_MS);
+    // Partitions with the states of all devices loaded. Only these partitions are handed off to other services
+    private final Set<TopicPartitionInfo> initializedPartitions = ConcurrentHashMap.newKeySet();
+    // Accessed from the scheduled executor only
+    private final Map<String, DeviceStateSnapshot> receivedSnapshots = new HashMap<>();
+    private final Map<String, TopicPartitionInfo> awaitingHandoff = new HashMap<>();
 
     final Queue<Set<TopicPartitionInfo>> subscribeQueue = new ConcurrentLinkedQueue<>();
 
@@ -154,6 +183,11 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
         this.tsSubService = tsSubService;
     }
 
+    @Autowired
+    public void setServiceInfoProvider(TbServiceInfoProvider serviceInfoProvider) {
+        this.serviceInfoProvider = serviceInfoProvider;
+    }
+
     @PostConstruct
     public void init() {
         deviceStateExecutor = Executors.newFixedThreadPool(
@@ -165,6 +199,13 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
 
     @PreDestroy
     public void stop() {
+        if (handoffEnabled) {
+            try {
+                sendStateSnapshots(partitionedDevices.keySet());
+            } catch (Throwable t) {
+                log.warn("Failed to send device states to other services", t);
+            }
+        }
         if (deviceStateExecutor != null) {
             deviceStateExecutor.shutdownNow();
         }
@@ -206,6 +247,7 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
                 save(deviceId, ACTIVITY_STATE, true);
                 pushRuleEngineMessage(stateData, ACTIVITY_EVENT);
             }
+            scheduleInactivityCheck(deviceId, stateData);
         } else {
             log.debug("updateActivityState - fetched state IN NULL for device {}, lastReportedActivity {}", deviceId, lastReportedActivity);
             cleanUpDeviceStateMap(deviceId);
@@ -338,15 +380,25 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
 
             log.info("REMOVED PARTITIONS: {}", removedPartitions);
 
+            if (handoffEnabled) {
+                sendStateSnapshots(removedPartitions);
+            }
+
             // We no longer manage current partition of devices;
             removedPartitions.forEach(partition -> {
+                initializedPartitions.remove(partition);
+                awaitingHandoff.remove(partition.getFullTopicName());
                 Set<DeviceId> devices = partitionedDevices.remove(partition);
                 devices.forEach(this::cleanUpDeviceStateMap);
             });
 
             addedPartitions.forEach(tpi -> partitionedDevices.computeIfAbsent(tpi, key -> ConcurrentHashMap.newKeySet()));
 
-            initPartitions(addedPartitions);
+            if (handoffEnabled) {
+                initPartitionsFromSnapshots(addedPartitions);
+            } else {
+                initPartitions(addedPartitions);
+            }
 
             scheduledExecutor.submit(() -> {
                 log.info("Managing following partitions:");
@@ -367,16 +419,32 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
         }
 
         List<Tenant> tenants = tenantService.findTenants(new PageLink(Integer.MAX_VALUE)).getData();
+        if (tenants.isEmpty()) {
+            onPartitionsInitialized(addedPartitions);
+            return true;
+        }
+        AtomicInteger pendingTenants = new AtomicInteger(tenants.size());
+        Runnable onTenantInitialized = () -> {
+            if (pendingTenants.decrementAndGet() == 0) {
+                scheduledExecutor.submit(() -> onPartitionsInitialized(addedPartitions));
+            }
+        };
         for (Tenant tenant : tenants) {
             log.debug("Finding devices for tenant [{}]", tenant.getName());
             final PageLink pageLink = new PageLink(initFetchPackSize);
-            scheduledExecutor.submit(() -> processPageAndSubmitNextPage(addedPartitions, tenant, pageLink, scheduledExecutor));
+            final List<ListenableFuture<List<Void>>> tenantFutures = new ArrayList<>();
+            scheduledExecutor.submit(() -> processPageAndSubmitNextPage(addedPartitions, tenant, pageLink, scheduledExecutor, tenantFutures, onTenantInitialized));
 
         }
         return true;
     }
 
-    private void processPageAndSubmitNextPage(final Set<TopicPartitionInfo> addedPartitions, final Tenant tenant, final PageLink pageLink, final ExecutorService executor) {
+    private void onPartitionsInitialized(Set<TopicPartitionInfo> partitions) {
+        partitions.stream().filter(partitionedDevices::containsKey).forEach(initializedPartitions::add);
+    }
+
+    private void processPageAndSubmitNextPage(final Set<TopicPartitionInfo> addedPartitions, final Tenant tenant, final PageLink pageLink, final ExecutorService executor,
+                                              final List<ListenableFuture<List<Void>>> tenantFutures, final Runnable onTenantInitialized) {
         log.trace("[{}] Process page {} from {}", tenant, pageLink.getPage(), pageLink.getPageSize());
         List<ListenableFuture<Void>> fetchFutures = new ArrayList<>();
         PageData<Device> page = deviceService.findDevicesByTenantId(tenant.getId(), pageLink);
@@ -403,7 +471,9 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
             }
         }
 
-        Futures.addCallback(Futures.successfulAsList(fetchFutures), new FutureCallback<List<Void>>() {
+        ListenableFuture<List<Void>> pageFuture = Futures.successfulAsList(fetchFutures);
+        tenantFutures.add(pageFuture);
+        Futures.addCallback(pageFuture, new FutureCallback<List<Void>>() {
             @Override
             public void onSuccess(List<Void> result) {
                 log.trace("[{}] Success init device state from DB for batch size {}", tenant.getId(), result.size());
@@ -419,10 +489,193 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
         final PageLink nextPageLink = page.hasNext() ? pageLink.nextPageLink() : null;
         if (nextPageLink != null) {
             log.trace("[{}] Submit next page {} from {}", tenant, nextPageLink.getPage(), nextPageLink.getPageSize());
-            executor.submit(() -> processPageAndSubmitNextPage(addedPartitions, tenant, nextPageLink, executor));
+            executor.submit(() -> processPageAndSubmitNextPage(addedPartitions, tenant, nextPageLink, executor, tenantFutures, onTenantInitialized));
+        } else {
+            Futures.whenAllComplete(tenantFutures).run(onTenantInitialized, MoreExecutors.directExecutor());
         }
     }
 
+    @Override
+    public void onDeviceStateSnapshot(TransportProtos.DeviceStateSnapshotMsg msg, TbCallback callback) {
+        if (handoffEnabled && !msg.getServiceId().equals(serviceInfoProvider.getServiceId())) {
+            scheduledExecutor.submit(() -> processStateSnapshot(msg));
+        }
+        callback.onSuccess();
+    }
+
+    /**
+     * Partitions with the complete snapshot received from the previous owner are initialized from the snapshot.
+     * Other partitions wait for the snapshot and are loaded from the DB once the handoff wait time elapses.
+     */
+    private void initPartitionsFromSnapshots(Set<TopicPartitionInfo> addedPartitions) {
+        cleanUpExpiredSnapshots();
+        Set<TopicPartitionInfo> awaitingPartitions = new HashSet<>();
+        for (TopicPartitionInfo tpi : addedPartitions) {
+            DeviceStateSnapshot snapshot = receivedSnapshots.get(tpi.getFullTopicName());
+            if (snapshot != null && snapshot.isComplete()) {
+                receivedSnapshots.remove(tpi.getFullTopicName());
+                initPartitionFromSnapshot(tpi, snapshot);
+            } else {
+                awaitingHandoff.put(tpi.getFullTopicName(), tpi);
+                awaitingPartitions.add(tpi);
+            }
+        }
+        if (!awaitingPartitions.isEmpty()) {
+            log.info("Waiting {} ms for the device states of partitions: {}", handoffWaitTime, awaitingPartitions);
+            scheduledExecutor.schedule(() -> onHandoffTimeout(awaitingPartitions), handoffWaitTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onHandoffTimeout(Set<TopicPartitionInfo> partitions) {
+        Set<TopicPartitionInfo> dbPartitions = new HashSet<>();
+        for (TopicPartitionInfo tpi : partitions) {
+            if (awaitingHandoff.remove(tpi.getFullTopicName(), tpi) && partitionedDevices.containsKey(tpi)) {
+                dbPartitions.add(tpi);
+            }
+        }
+        if (!dbPartitions.isEmpty()) {
+            log.info("Device states were not received, loading from DB partitions: {}", dbPartitions);
+            initPartitions(dbPartitions);
+        }
+    }
+
+    private void processStateSnapshot(TransportProtos.DeviceStateSnapshotMsg msg) {
+        cleanUpExpiredSnapshots();
+        UUID snapshotId = new UUID(msg.getSnapshotIdMSB(), msg.getSnapshotIdLSB());
+        DeviceStateSnapshot snapshot = receivedSnapshots.get(msg.getPartition());
+        if (snapshot == null || !snapshot.getId().equals(snapshotId)) {
+            snapshot = new DeviceStateSnapshot(snapshotId, msg.getChunksCount(), System.currentTimeMillis());
+            receivedSnapshots.put(msg.getPartition(), snapshot);
+        }
+        snapshot.addChunk(msg.getChunkIdx(), msg.getStatesList());
+        if (snapshot.isComplete()) {
+            TopicPartitionInfo tpi = awaitingHandoff.remove(msg.getPartition());
+            if (tpi != null && partitionedDevices.containsKey(tpi)) {
+                receivedSnapshots.remove(msg.getPartition());
+                initPartitionFromSnapshot(tpi, snapshot);
+            }
+        }
+    }
+
+    private void initPartitionFromSnapshot(TopicPartitionInfo tpi, DeviceStateSnapshot snapshot) {
+        Set<DeviceId> deviceIds = partitionedDevices.get(tpi);
+        int count = 0;
+        for (List<TransportProtos.DeviceStateProto> chunk : snapshot.getChunks()) {
+            for (TransportProtos.DeviceStateProto proto : chunk) {
+                DeviceStateData state = toDeviceStateData(proto);
+                deviceIds.add(state.getDeviceId());
+                // The state could be already fetched by the device event processed after the rebalance
+                DeviceStateData existing = deviceStates.putIfAbsent(state.getDeviceId(), state);
+                checkAndUpdateState(state.getDeviceId(), existing != null ? existing : state);
+                count++;
+            }
+        }
+        initializedPartitions.add(tpi);
+        log.info("[{}] Initialized states of {} devices from the snapshot of the previous owner", tpi.getFullTopicName(), count);
+    }
+
+    private void cleanUpExpiredSnapshots() {
+        long expirationTs = System.currentTimeMillis() - handoffSnapshotTtl;
+        receivedSnapshots.values().removeIf(snapshot -> snapshot.getCreatedTime() < expirationTs);
+    }
+
+    private void sendStateSnapshots(Collection<TopicPartitionInfo> partitions) {
+        String currentServiceId = serviceInfoProvider.getServiceId();
+        Set<String> targetServiceIds = new HashSet<>(partitionService.getAllServiceIds(ServiceType.TB_CORE));
+        targetServiceIds.remove(currentServiceId);
+        if (targetServiceIds.isEmpty()) {
+            return;
+        }
+        for (TopicPartitionInfo tpi : partitions) {
+            Set<DeviceId> deviceIds = partitionedDevices.get(tpi);
+            if (deviceIds == null || !initializedPartitions.contains(tpi)) {
+                log.debug("[{}] Partition is not initialized, skipping the handoff", tpi.getFullTopicName());
+                continue;
+            }
+            List<TransportProtos.DeviceStateProto> states = new ArrayList<>(deviceIds.size());
+            for (DeviceId deviceId : deviceIds) {
+                DeviceStateData state = deviceStates.get(deviceId);
+                if (state != null) {
+                    states.add(toProto(state));
+                }
+            }
+            List<List<TransportProtos.DeviceStateProto>> chunks = states.isEmpty() ?
+                    Collections.singletonList(Collections.emptyList()) : Lists.partition(states, Math.max(handoffChunkSize, 1));
+            UUID snapshotId = UUID.randomUUID();
+            for (int i = 0; i < chunks.size(); i++) {
+                TransportProtos.DeviceStateSnapshotMsg snapshotMsg = TransportProtos.DeviceStateSnapshotMsg.newBuilder()
+                        .setServiceId(currentServiceId)
+                        .setSnapshotIdMSB(snapshotId.getMostSignificantBits())
+                        .setSnapshotIdLSB(snapshotId.getLeastSignificantBits())
+                        .setPartition(tpi.getFullTopicName())
+                        .setChunkIdx(i)
+                        .setChunksCount(chunks.size())
+                        .addAllStates(chunks.get(i))
+                        .build();
+                TransportProtos.ToCoreNotificationMsg notificationMsg = TransportProtos.ToCoreNotificationMsg.newBuilder()
+                        .setDeviceStateSnapshotMsg(snapshotMsg).build();
+                for (String serviceId : targetServiceIds) {
+                    clusterService.pushNotificationToCore(serviceId, notificationMsg, null);
+                }
+            }
+            log.info("[{}] Sent states of {} devices to services: {}", tpi.getFullTopicName(), states.size(), targetServiceIds);
+        }
+    }
+
+    private TransportProtos.DeviceStateProto toProto(DeviceStateData stateData) {
+        DeviceState state = stateData.getState();
+        TransportProtos.DeviceStateProto.Builder builder = TransportProtos.DeviceStateProto.newBuilder()
+                .setTenantIdMSB(stateData.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(stateData.getTenantId().getId().getLeastSignificantBits())
+                .setDeviceIdMSB(stateData.getDeviceId().getId().getMostSignificantBits())
+                .setDeviceIdLSB(stateData.getDeviceId().getId().getLeastSignificantBits())
+                .setDeviceCreationTime(stateData.getDeviceCreationTime())
+                .setActive(state.isActive())
+                .setLastConnectTime(state.getLastConnectTime())
+                .setLastActivityTime(state.getLastActivityTime())
+                .setLastDisconnectTime(state.getLastDisconnectTime())
+                .setLastInactivityAlarmTime(state.getLastInactivityAlarmTime())
+                .setInactivityTimeout(state.getInactivityTimeout());
+        if (stateData.getCustomerId() != null) {
+            builder.setCustomerIdMSB(stateData.getCustomerId().getId().getMostSignificantBits());
+            builder.setCustomerIdLSB(stateData.getCustomerId().getId().getLeastSignificantBits());
+        }
+        TbMsgMetaData md = stateData.getMetaData();
+        if (md != null) {
+            String deviceName = md.getValue("deviceName");
+            if (deviceName != null) {
+                builder.setDeviceName(deviceName);
+            }
+            String deviceType = md.getValue("deviceType");
+            if (deviceType != null) {
+                builder.setDeviceType(deviceType);
+            }
+        }
+        return builder.build();
+    }
+
+    private DeviceStateData toDeviceStateData(TransportProtos.DeviceStateProto proto) {
+        DeviceState deviceState = DeviceState.builder()
+                .active(proto.getActive())
+                .lastConnectTime(proto.getLastConnectTime())
+                .lastActivityTime(proto.getLastActivityTime())
+                .lastDisconnectTime(proto.getLastDisconnectTime())
+                .lastInactivityAlarmTime(proto.getLastInactivityAlarmTime())
+                .inactivityTimeout(proto.getInactivityTimeout())
+                .build();
+        TbMsgMetaData md = new TbMsgMetaData();
+        md.putValue("deviceName", proto.getDeviceName());
+        md.putValue("deviceType", proto.getDeviceType());
+        return DeviceStateData.builder()
+                .tenantId(new TenantId(new UUID(proto.getTenantIdMSB(), proto.getTenantIdLSB())))
+                .customerId(proto.getCustomerIdMSB() != 0 || proto.getCustomerIdLSB() != 0 ?
+                        new CustomerId(new UUID(proto.getCustomerIdMSB(), proto.getCustomerIdLSB())) : null)
+                .deviceId(new DeviceId(new UUID(proto.getDeviceIdMSB(), proto.getDeviceIdLSB())))
+                .deviceCreationTime(proto.getDeviceCreationTime())
+                .metaData(md)
+                .state(deviceState).build();
+    }
+
     void checkAndUpdateState(@Nonnull DeviceId deviceId, @Nonnull DeviceStateData state) {
         if (state.getState().isActive()) {
             updateInactivityStateIfExpired(System.currentTimeMillis(), deviceId, state);
@@ -432,6 +685,21 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
                 updateActivityState(deviceId, state, state.getState().getLastActivityTime());
             }
         }
+        scheduleInactivityCheck(deviceId, state);
+    }
+
+    /**
+     * Schedules the inactivity check at the moment the device may become inactive.
+     * The timer is not moved on each activity, it is rescheduled on expiry if the device was active meanwhile.
+     */
+    void scheduleInactivityCheck(DeviceId deviceId, DeviceStateData stateData) {
+        DeviceState state = stateData.getState();
+        if (state.getLastInactivityAlarmTime() != 0L && state.getLastInactivityAlarmTime() >= state.getLastActivityTime()) {
+            // Inactivity event is already pushed, the device is scheduled again on the next activity
+            return;
+        }
+        long deadline = Math.max(state.getLastActivityTime(), stateData.getDeviceCreationTime()) + state.getInactivityTimeout();
+        inactivityTimers.schedule(deviceId, deadline);
     }
 
     private void addDeviceUsingState(TopicPartitionInfo tpi, DeviceStateData state) {
@@ -439,6 +707,7 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
         if (deviceIds != null) {
             deviceIds.add(state.getDeviceId());
             deviceStates.put(state.getDeviceId(), state);
+            scheduleInactivityCheck(state.getDeviceId(), state);
         } else {
             log.debug("[{}] Device belongs to external partition {}", state.getDeviceId(), tpi.getFullTopicName());
             throw new RuntimeException("Device belongs to external partition " + tpi.getFullTopicName() + "!");
@@ -447,17 +716,18 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
 
     void updateInactivityStateIfExpired() {
         final long ts = System.currentTimeMillis();
-        partitionedDevices.forEach((tpi, deviceIds) -> {
-            log.debug("Calculating state updates. tpi {} for {} devices", tpi.getFullTopicName(), deviceIds.size());
-            for (DeviceId deviceId : deviceIds) {
-                updateInactivityStateIfExpired(ts, deviceId);
-            }
-        });
+        log.debug("Calculating state updates for {} scheduled devices", inactivityTimers.size());
+        inactivityTimers.advance(ts, this::onInactivityTimerExpired);
     }
 
-    void updateInactivityStateIfExpired(long ts, DeviceId deviceId) {
-        DeviceStateData stateData = getOrFetchDeviceStateData(deviceId);
+    void onInactivityTimerExpired(DeviceId deviceId, long ts) {
+        DeviceStateData stateData = deviceStates.get(deviceId);
+        if (stateData == null) {
+            // Device was removed or belongs to the other server now
+            return;
+        }
         updateInactivityStateIfExpired(ts, deviceId, stateData);
+        scheduleInactivityCheck(deviceId, stateData);
     }
 
     void updateInactivityStateIfExpired(long ts, DeviceId deviceId, DeviceStateData stateData) {
@@ -524,6 +794,7 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
 
     private void cleanUpDeviceStateMap(DeviceId deviceId) {
         deviceStates.remove(deviceId);
+        inactivityTimers.cancel(deviceId);
     }
 
     private ListenableFuture<DeviceStateData> fetchDeviceState(Device device) {
@@ -38,4 +38,6 @@ public interface DeviceStateService extends ApplicationListener<PartitionChangeE
 
     void onQueueMsg(TransportProtos.DeviceStateServiceMsgProto proto, TbCallback bytes);
 
+    void onDeviceStateSnapshot(TransportProtos.DeviceStateSnapshotMsg msg, TbCallback callback);
+
 }
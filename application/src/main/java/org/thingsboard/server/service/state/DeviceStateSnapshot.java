@@ -0,0 +1,59 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.state;
+
+import lombok.Getter;
+import org.thingsboard.server.gen.transport.TransportProtos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Device states of the partition received from its previous owner. The snapshot is sent in chunks.
+ */
+class DeviceStateSnapshot {
+
+    @Getter
+    private final UUID id;
+    @Getter
+    private final long createdTime;
+    private final List<List<TransportProtos.DeviceStateProto>> chunks;
+    private int receivedChunks;
+
+    DeviceStateSnapshot(UUID id, int chunksCount, long createdTime) {
+        this.id = id;
+        this.createdTime = createdTime;
+        this.chunks = new ArrayList<>(Collections.nCopies(Math.max(chunksCount, 0), null));
+    }
+
+    void addChunk(int chunkIdx, List<TransportProtos.DeviceStateProto> states) {
+        if (chunkIdx >= 0 && chunkIdx < chunks.size() && chunks.get(chunkIdx) == null) {
+            chunks.set(chunkIdx, states);
+            receivedChunks++;
+        }
+    }
+
+    boolean isComplete() {
+        return receivedChunks == chunks.size();
+    }
+
+    List<List<TransportProtos.DeviceStateProto>> getChunks() {
+        return chunks;
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Hierarchical timing wheel that keeps a single deadline per key.
+ * <p>
+ * Level 0 has a slot per tick, every next level has a slot per full rotation of the previous level.
+ * Timers of the upper levels are cascaded to the lower levels when the lower level wraps, so each tick
+ * touches only the timers that expire in this tick and the timers of the cascaded slots.
+ * <p>
+ * {@link #schedule} and {@link #cancel} may be called from any thread. {@link #advance} must be called from a single thread.
+ * Timers scheduled concurrently become visible to the wheel on the next {@link #advance}.
+ */
+class InactivityTimingWheel<K> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickDurationMs;
+    private final List<List<Timer<K>>> slots;
+    private final ConcurrentMap<K, Long> deadlines = new ConcurrentHashMap<>();
+    private final Queue<Timer<K>> scheduled = new ConcurrentLinkedQueue<>();
+    private long nextTick = -1;
+
+    InactivityTimingWheel(long tickDurationMs) {
+        this.tickDurationMs = tickDurationMs;
+        this.slots = new ArrayList<>(LEVELS * SLOTS);
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedules the timer of the key. If the key already has an earlier or the same deadline, the call is ignored.
+     * The owner is expected to reschedule the timer on expiry if the deadline has moved forward meanwhile.
+     */
+    void schedule(K key, long deadlineTs) {
+        Long current = deadlines.get(key);
+        if (current != null && current <= deadlineTs) {
+            return;
+        }
+        boolean[] updated = new boolean[1];
+        deadlines.compute(key, (k, existing) -> {
+            if (existing == null || deadlineTs < existing) {
+                updated[0] = true;
+                return deadlineTs;
+            }
+            return existing;
+        });
+        if (updated[0]) {
+            scheduled.add(new Timer<>(key, deadlineTs));
+        }
+    }
+
+    void cancel(K key) {
+        deadlines.remove(key);
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Processes all ticks up to the given time and passes the keys with the deadline before this time to the consumer.
+     */
+    void advance(long ts, BiConsumer<K, Long> onExpired) {
+        long currentTick = ts / tickDurationMs;
+        if (nextTick < 0) {
+            nextTick = currentTick;
+        }
+        Timer<K> timer;
+        while ((timer = scheduled.poll()) != null) {
+            Long deadline = deadlines.get(timer.key);
+            if (deadline != null && deadline == timer.deadlineTs) {
+                add(timer);
+            }
+        }
+        while (nextTick <= currentTick) {
+            int idx = (int) (nextTick & SLOT_MASK);
+            if (idx == 0) {
+                cascade();
+            }
+            List<Timer<K>> expired = slots.get(idx);
+            if (expired.isEmpty()) {
+                nextTick++;
+                continue;
+            }
+            slots.set(idx, new ArrayList<>());
+            nextTick++;
+            for (Timer<K> t : expired) {
+                if (deadlines.remove(t.key, t.deadlineTs)) {
+                    onExpired.accept(t.key, ts);
+                }
+            }
+        }
+    }
+
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int idx = (int) ((nextTick >> (SLOT_BITS * level)) & SLOT_MASK);
+            int slotIdx = level * SLOTS + idx;
+            List<Timer<K>> timers = slots.get(slotIdx);
+            if (!timers.isEmpty()) {
+                slots.set(slotIdx, new ArrayList<>());
+                for (Timer<K> t : timers) {
+                    // Timers rescheduled or canceled meanwhile are dropped here instead of on expiry
+                    Long deadline = deadlines.get(t.key);
+                    if (deadline != null && deadline == t.deadlineTs) {
+                        add(t);
+                    }
+                }
+            }
+            if (idx != 0) {
+                break;
+            }
+        }
+    }
+
+    private void add(Timer<K> timer) {
+        // The timer fires on the first tick that starts after the deadline
+        long expirationTick = Math.max(timer.deadlineTs / tickDurationMs + 1, nextTick);
+        long delta = Math.min(expirationTick - nextTick, MAX_TICKS);
+        expirationTick = nextTick + delta;
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int idx = (int) ((expirationTick >> (SLOT_BITS * level)) & SLOT_MASK);
+        slots.get(level * SLOTS + idx).add(timer);
+    }
+
+    private static final class Timer<K> {
+        private final K key;
+        private final long deadlineTs;
+
+        private Timer(K key, long deadlineTs) {
+            this.key = key;
+            this.deadlineTs = deadlineTs;
+        }
+    }
+
+}
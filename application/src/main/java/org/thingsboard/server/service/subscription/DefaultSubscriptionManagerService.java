@@ -65,15 +65,12 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Function;
-import java.util.function.Predicate;
 
 @Slf4j
 @TbCoreComponent
@@ -104,8 +101,7 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
     @Autowired
     private TbClusterService clusterService;
 
-    private final Map<EntityId, Set<TbSubscription>> subscriptionsByEntityId = new ConcurrentHashMap<>();
-    private final Map<String, Map<Integer, TbSubscription>> subscriptionsByWsSessionId = new ConcurrentHashMap<>();
+    private final TbSubscriptionRegistry subscriptionRegistry = new TbSubscriptionRegistry();
     private final ConcurrentMap<TopicPartitionInfo, Set<TbSubscription>> partitionedSubscriptions = new ConcurrentHashMap<>();
     private final Set<TopicPartitionInfo> currentPartitions = ConcurrentHashMap.newKeySet();
 
@@ -140,9 +136,7 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
                     , subscription.getTenantId(), subscription.getEntityId(), tpi.getFullTopicName());
             callback.onFailure(new RuntimeException("Entity belongs to external partition " + tpi.getFullTopicName() + "!"));
         }
-        boolean newSubscription = subscriptionsByEntityId
-                .computeIfAbsent(subscription.getEntityId(), k -> ConcurrentHashMap.newKeySet()).add(subscription);
-        subscriptionsByWsSessionId.computeIfAbsent(subscription.getSessionId(), k -> new ConcurrentHashMap<>()).put(subscription.getSubscriptionId(), subscription);
+        boolean newSubscription = subscriptionRegistry.add(subscription);
         if (newSubscription) {
             switch (subscription.getType()) {
                 case TIMESERIES:
@@ -161,20 +155,11 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
     @Override
     public void cancelSubscription(String sessionId, int subscriptionId, TbCallback callback) {
         log.debug("[{}][{}] Going to remove subscription.", sessionId, subscriptionId);
-        Map<Integer, TbSubscription> sessionSubscriptions = subscriptionsByWsSessionId.get(sessionId);
-        if (sessionSubscriptions != null) {
-            TbSubscription subscription = sessionSubscriptions.remove(subscriptionId);
-            if (subscription != null) {
-                removeSubscriptionFromEntityMap(subscription);
-                removeSubscriptionFromPartitionMap(subscription);
-                if (sessionSubscriptions.isEmpty()) {
-                    subscriptionsByWsSessionId.remove(sessionId);
-                }
-            } else {
-                log.debug("[{}][{}] Subscription not found!", sessionId, subscriptionId);
-            }
+        TbSubscription subscription = subscriptionRegistry.remove(sessionId, subscriptionId);
+        if (subscription != null) {
+            removeSubscriptionFromPartitionMap(subscription);
         } else {
-            log.debug("[{}] No session subscriptions found!", sessionId);
+            log.debug("[{}][{}] Subscription not found!", sessionId, subscriptionId);
         }
         callback.onSuccess();
     }
@@ -194,7 +179,7 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
                 if (subs != null) {
                     subs.forEach(sub -> {
                         if (!serviceId.equals(sub.getServiceId())) {
-                            removeSubscriptionFromEntityMap(sub);
+                            subscriptionRegistry.removeFromEntity(sub);
                         }
                     });
                 }
@@ -204,25 +189,7 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
 
     @Override
     public void onTimeSeriesUpdate(TenantId tenantId, EntityId entityId, List<TsKvEntry> ts, TbCallback callback) {
-        onLocalTelemetrySubUpdate(entityId,
-                s -> {
-                    if (TbSubscriptionType.TIMESERIES.equals(s.getType())) {
-                        return (TbTimeseriesSubscription) s;
-                    } else {
-                        return null;
-                    }
-                }, s -> true, s -> {
-                    List<TsKvEntry> subscriptionUpdate = null;
-                    for (TsKvEntry kv : ts) {
-                        if ((s.isAllKeys() || s.getKeyStates().containsKey((kv.getKey())))) {
-                            if (subscriptionUpdate == null) {
-                                subscriptionUpdate = new ArrayList<>();
-                            }
-                            subscriptionUpdate.add(kv);
-                        }
-                    }
-                    return subscriptionUpdate;
-                });
+        onLocalTelemetrySubUpdate(entityId, subscriptionRegistry.getTimeseriesUpdates(entityId, ts));
         if (entityId.getEntityType() == EntityType.DEVICE) {
             updateDeviceInactivityTimeout(tenantId, entityId, ts);
         }
@@ -236,27 +203,11 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
 
     @Override
     public void onAttributesUpdate(TenantId tenantId, EntityId entityId, String scope, List<AttributeKvEntry> attributes, boolean notifyDevice, TbCallback callback) {
-        onLocalTelemetrySubUpdate(entityId,
-                s -> {
-                    if (TbSubscriptionType.ATTRIBUTES.equals(s.getType())) {
-                        return (TbAttributeSubscription) s;
-                    } else {
-                        return null;
-                    }
-                },
-                s -> (TbAttributeSubscriptionScope.ANY_SCOPE.equals(s.getScope()) || scope.equals(s.getScope().name())),
-                s -> {
-                    List<TsKvEntry> subscriptionUpdate = null;
-                    for (AttributeKvEntry kv : attributes) {
-                        if (s.isAllKeys() || s.getKeyStates().containsKey(kv.getKey())) {
-                            if (subscriptionUpdate == null) {
-                                subscriptionUpdate = new ArrayList<>();
-                            }
-                            subscriptionUpdate.add(new BasicTsKvEntry(kv.getLastUpdateTs(), kv));
-                        }
-                    }
-                    return subscriptionUpdate;
-                });
+        List<TsKvEntry> entries = new ArrayList<>(attributes.size());
+        for (AttributeKvEntry kv : attributes) {
+            entries.add(new BasicTsKvEntry(kv.getLastUpdateTs(), kv));
+        }
+        onLocalTelemetrySubUpdate(entityId, subscriptionRegistry.getAttributesUpdates(entityId, scope, entries));
         if (entityId.getEntityType() == EntityType.DEVICE) {
             if (TbAttributeSubscriptionScope.SERVER_SCOPE.name().equalsIgnoreCase(scope)) {
                 updateDeviceInactivityTimeout(tenantId, entityId, attributes);
@@ -279,116 +230,57 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
 
     @Override
     public void onAlarmUpdate(TenantId tenantId, EntityId entityId, Alarm alarm, TbCallback callback) {
-        onLocalAlarmSubUpdate(entityId,
-                s -> {
-                    if (TbSubscriptionType.ALARMS.equals(s.getType())) {
-                        return (TbAlarmsSubscription) s;
-                    } else {
-                        return null;
-                    }
-                },
-                s -> alarm.getCreatedTime() >= s.getTs(),
-                s -> alarm,
-                false
-        );
+        onLocalAlarmSubUpdate(entityId, alarm, false);
         callback.onSuccess();
     }
 
     @Override
     public void onAlarmDeleted(TenantId tenantId, EntityId entityId, Alarm alarm, TbCallback callback) {
-        onLocalAlarmSubUpdate(entityId,
-                s -> {
-                    if (TbSubscriptionType.ALARMS.equals(s.getType())) {
-                        return (TbAlarmsSubscription) s;
-                    } else {
-                        return null;
-                    }
-                },
-                s -> alarm.getCreatedTime() >= s.getTs(),
-                s -> alarm,
-                true
-        );
+        onLocalAlarmSubUpdate(entityId, alarm, true);
         callback.onSuccess();
     }
 
     @Override
     public void onAttributesDelete(TenantId tenantId, EntityId entityId, String scope, List<String> keys, TbCallback callback) {
-        onLocalTelemetrySubUpdate(entityId,
-                s -> {
-                    if (TbSubscriptionType.ATTRIBUTES.equals(s.getType())) {
-                        return (TbAttributeSubscription) s;
-                    } else {
-                        return null;
-                    }
-                },
-                s -> (TbAttributeSubscriptionScope.ANY_SCOPE.equals(s.getScope()) || scope.equals(s.getScope().name())),
-                s -> {
-                    List<TsKvEntry> subscriptionUpdate = null;
-                    for (String key : keys) {
-                        if (s.isAllKeys() || s.getKeyStates().containsKey(key)) {
-                            if (subscriptionUpdate == null) {
-                                subscriptionUpdate = new ArrayList<>();
-                            }
-                            subscriptionUpdate.add(new BasicTsKvEntry(0, new StringDataEntry(key, null)));
-                        }
-                    }
-                    return subscriptionUpdate;
-                });
+        List<TsKvEntry> entries = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            entries.add(new BasicTsKvEntry(0, new StringDataEntry(key, null)));
+        }
+        onLocalTelemetrySubUpdate(entityId, subscriptionRegistry.getAttributesUpdates(entityId, scope, entries));
         callback.onSuccess();
     }
 
-    private <T extends TbSubscription> void onLocalTelemetrySubUpdate(EntityId entityId,
-                                                                      Function<TbSubscription, T> castFunction,
-                                                                      Predicate<T> filterFunction,
-                                                                      Function<T, List<TsKvEntry>> processFunction) {
-        Set<TbSubscription> entitySubscriptions = subscriptionsByEntityId.get(entityId);
-        if (entitySubscriptions != null) {
-            entitySubscriptions.stream().map(castFunction).filter(Objects::nonNull).filter(filterFunction).forEach(s -> {
-                List<TsKvEntry> subscriptionUpdate = processFunction.apply(s);
-                if (subscriptionUpdate != null && !subscriptionUpdate.isEmpty()) {
-                    if (serviceId.equals(s.getServiceId())) {
-                        TelemetrySubscriptionUpdate update = new TelemetrySubscriptionUpdate(s.getSubscriptionId(), subscriptionUpdate);
-                        localSubscriptionService.onSubscriptionUpdate(s.getSessionId(), update, TbCallback.EMPTY);
-                    } else {
-                        TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_CORE, s.getServiceId());
-                        toCoreNotificationsProducer.send(tpi, toProto(s, subscriptionUpdate), null);
-                    }
-                }
-            });
-        } else {
+    private void onLocalTelemetrySubUpdate(EntityId entityId, Map<TbSubscription, List<TsKvEntry>> updates) {
+        if (updates.isEmpty()) {
             log.debug("[{}] No device subscriptions to process!", entityId);
+            return;
         }
+        updates.forEach((s, subscriptionUpdate) -> {
+            if (serviceId.equals(s.getServiceId())) {
+                TelemetrySubscriptionUpdate update = new TelemetrySubscriptionUpdate(s.getSubscriptionId(), subscriptionUpdate);
+                localSubscriptionService.onSubscriptionUpdate(s.getSessionId(), update, TbCallback.EMPTY);
+            } else {
+                TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_CORE, s.getServiceId());
+                toCoreNotificationsProducer.send(tpi, toProto(s, subscriptionUpdate), null);
+            }
+        });
     }
 
-    private void onLocalAlarmSubUpdate(EntityId entityId,
-                                       Function<TbSubscription, TbAlarmsSubscription> castFunction,
-                                       Predicate<TbAlarmsSubscription> filterFunction,
-                                       Function<TbAlarmsSubscription, Alarm> processFunction, boolean deleted) {
-        Set<TbSubscription> entitySubscriptions = subscriptionsByEntityId.get(entityId);
-        if (entitySubscriptions != null) {
-            entitySubscriptions.stream().map(castFunction).filter(Objects::nonNull).filter(filterFunction).forEach(s -> {
-                Alarm alarm = processFunction.apply(s);
-                if (alarm != null) {
-                    if (serviceId.equals(s.getServiceId())) {
-                        AlarmSubscriptionUpdate update = new AlarmSubscriptionUpdate(s.getSubscriptionId(), alarm, deleted);
-                        localSubscriptionService.onSubscriptionUpdate(s.getSessionId(), update, TbCallback.EMPTY);
-                    } else {
-                        TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_CORE, s.getServiceId());
-                        toCoreNotificationsProducer.send(tpi, toProto(s, alarm, deleted), null);
-                    }
-                }
-            });
-        } else {
+    private void onLocalAlarmSubUpdate(EntityId entityId, Alarm alarm, boolean deleted) {
+        List<TbAlarmsSubscription> entitySubscriptions = subscriptionRegistry.getAlarmsSubscriptions(entityId);
+        if (entitySubscriptions.isEmpty()) {
             log.debug("[{}] No device subscriptions to process!", entityId);
+            return;
         }
-    }
-
-    private void removeSubscriptionFromEntityMap(TbSubscription sub) {
-        Set<TbSubscription> entitySubSet = subscriptionsByEntityId.get(sub.getEntityId());
-        if (entitySubSet != null) {
-            entitySubSet.remove(sub);
-            if (entitySubSet.isEmpty()) {
-                subscriptionsByEntityId.remove(sub.getEntityId());
+        for (TbAlarmsSubscription s : entitySubscriptions) {
+            if (alarm.getCreatedTime() >= s.getTs()) {
+                if (serviceId.equals(s.getServiceId())) {
+                    AlarmSubscriptionUpdate update = new AlarmSubscriptionUpdate(s.getSubscriptionId(), alarm, deleted);
+                    localSubscriptionService.onSubscriptionUpdate(s.getSessionId(), update, TbCallback.EMPTY);
+                } else {
+                    TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_CORE, s.getServiceId());
+                    toCoreNotificationsProducer.send(tpi, toProto(s, alarm, deleted), null);
+                }
             }
         }
     }
@@ -129,6 +129,16 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
     private long dynamicPageLinkRefreshInterval;
     @Value("${server.ws.dynamic_page_link.refresh_pool_size:1}")
     private int dynamicPageLinkRefreshPoolSize;
+    @Value("${server.ws.dynamic_page_link.incremental_refresh.enabled:false}")
+    private boolean incrementalRefreshEnabled;
+    @Value("${server.ws.dynamic_page_link.incremental_refresh.delay:1000}")
+    private long incrementalRefreshDelay;
+    @Value("${server.ws.dynamic_page_link.incremental_refresh.safety_refresh_interval:600}")
+    private long incrementalRefreshSafetyInterval;
+    @Value("${server.ws.dynamic_page_link.shared_queries.enabled:false}")
+    private boolean sharedQueriesEnabled;
+    @Value("${server.ws.dynamic_page_link.shared_queries.max_age:5000}")
+    private long sharedQueriesMaxAge;
     @Value("${server.ws.max_entities_per_data_subscription:1000}")
     private int maxEntitiesPerDataSubscription;
     @Value("${server.ws.max_entities_per_alarm_subscription:1000}")
@@ -138,6 +148,7 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
     private boolean tsInSqlDB;
     private String serviceId;
     private SubscriptionServiceStatistics stats = new SubscriptionServiceStatistics();
+    private SharedEntityDataQueries sharedQueries;
 
     @PostConstruct
     public void initExecutor() {
@@ -150,6 +161,9 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
         } else {
             scheduler = Executors.newScheduledThreadPool(dynamicPageLinkRefreshPoolSize, tbThreadFactory);
         }
+        if (sharedQueriesEnabled) {
+            sharedQueries = new SharedEntityDataQueries(stats, sharedQueriesMaxAge);
+        }
     }
 
     @PreDestroy
@@ -193,6 +207,14 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
                     }
                 });
             }
+            //Step 2. Fetch the values of the filter and sort keys to know the states of the query keys subscriptions
+            if (incrementalRefreshEnabled && query.getPageLink().isDynamic() && query.getLatestValues() != null) {
+                ctx.getQueryKeys().forEach(key -> {
+                    if (!query.getLatestValues().contains(key)) {
+                        query.getLatestValues().add(key);
+                    }
+                });
+            }
             long start = System.currentTimeMillis();
             ctx.fetchData();
             long end = System.currentTimeMillis();
@@ -202,10 +224,17 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
             if (ctx.getQuery().getPageLink().isDynamic()) {
                 //TODO: validate number of dynamic page links against rate limits. Ignore dynamic flag if limit is reached.
                 TbEntityDataSubCtx finalCtx = ctx;
+                long refreshInterval = dynamicPageLinkRefreshInterval;
+                if (incrementalRefreshEnabled) {
+                    finalCtx.initQueryKeysSubscriptions(scheduler, incrementalRefreshDelay, () -> refreshDynamicQuery(finalCtx));
+                    refreshInterval = incrementalRefreshSafetyInterval;
+                }
                 ScheduledFuture<?> task = scheduler.scheduleWithFixedDelay(
                         () -> refreshDynamicQuery(finalCtx),
-                        dynamicPageLinkRefreshInterval, dynamicPageLinkRefreshInterval, TimeUnit.SECONDS);
+                        refreshInterval, refreshInterval, TimeUnit.SECONDS);
                 finalCtx.setRefreshTask(task);
+            } else {
+                ctx.clearQueryKeysSubscriptions();
             }
         }
         ListenableFuture<TbEntityDataSubCtx> historyFuture;
@@ -309,13 +338,17 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
         int dynamicQueryInvocationCntValue = stats.getDynamicQueryInvocationCnt().getAndSet(0);
         long dynamicQueryInvocationTimeValue = stats.getDynamicQueryTimeSpent().getAndSet(0);
         long dynamicQueryCnt = subscriptionsBySessionId.values().stream().map(Map::values).count();
+        int sharedQueryHitCntValue = stats.getSharedQueryHitCnt().getAndSet(0);
+        int sharedQueryGroupsCnt = sharedQueries != null ? sharedQueries.getGroupsCount() : 0;
         if (regularQueryInvocationCntValue > 0 || dynamicQueryInvocationCntValue > 0 || dynamicQueryCnt > 0 || alarmQueryInvocationCntValue > 0) {
             log.info("Stats: regularQueryInvocationCnt = [{}], regularQueryInvocationTime = [{}], " +
                             "dynamicQueryCnt = [{}] dynamicQueryInvocationCnt = [{}], dynamicQueryInvocationTime = [{}], " +
-                            "alarmQueryInvocationCnt = [{}], alarmQueryInvocationTime = [{}]",
+                            "alarmQueryInvocationCnt = [{}], alarmQueryInvocationTime = [{}], " +
+                            "sharedQueryGroupsCnt = [{}], sharedQueryHitCnt = [{}]",
                     regularQueryInvocationCntValue, regularQueryInvocationTimeValue,
                     dynamicQueryCnt, dynamicQueryInvocationCntValue, dynamicQueryInvocationTimeValue,
-                    alarmQueryInvocationCntValue, alarmQueryInvocationTimeValue);
+                    alarmQueryInvocationCntValue, alarmQueryInvocationTimeValue,
+                    sharedQueryGroupsCnt, sharedQueryHitCntValue);
         }
     }
 
@@ -323,6 +356,7 @@ public class DefaultTbEntityDataSubscriptionService implements TbEntityDataSubsc
         Map<Integer, TbAbstractSubCtx> sessionSubs = subscriptionsBySessionId.computeIfAbsent(sessionRef.getSessionId(), k -> new HashMap<>());
         TbEntityDataSubCtx ctx = new TbEntityDataSubCtx(serviceId, wsService, entityService, localSubscriptionService,
                 attributesService, stats, sessionRef, cmd.getCmdId(), maxEntitiesPerDataSubscription);
+        ctx.setSharedQueries(sharedQueries);
         if (cmd.getQuery() != null) {
             ctx.setAndResolveQuery(cmd.getQuery());
         }
@@ -17,6 +17,7 @@ package org.thingsboard.server.service.subscription;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
@@ -61,8 +62,13 @@ public class DefaultTbLocalSubscriptionService implements TbLocalSubscriptionSer
     @Lazy
     private SubscriptionManagerService subscriptionManagerService;
 
+    @Value("${server.ws.shared_subscriptions.enabled:false}")
+    private boolean sharedSubscriptionsEnabled;
+
     private ExecutorService subscriptionUpdateExecutor;
 
+    private SharedSubscriptions sharedSubscriptions;
+
     private TbApplicationEventListener<PartitionChangeEvent> partitionChangeListener = new TbApplicationEventListener<>() {
         @Override
         protected void onTbApplicationEvent(PartitionChangeEvent event) {
@@ -94,6 +100,9 @@ public class DefaultTbLocalSubscriptionService implements TbLocalSubscriptionSer
     @PostConstruct
     public void initExecutor() {
         subscriptionUpdateExecutor = ThingsBoardExecutors.newWorkStealingPool(20, getClass());
+        if (sharedSubscriptionsEnabled) {
+            sharedSubscriptions = new SharedSubscriptions();
+        }
     }
 
     @PreDestroy
@@ -117,7 +126,15 @@ public class DefaultTbLocalSubscriptionService implements TbLocalSubscriptionSer
 
     //TODO 3.1: replace null callbacks with callbacks from websocket service.
     @Override
+    @SuppressWarnings("unchecked")
     public void addSubscription(TbSubscription subscription) {
+        if (sharedSubscriptions != null && SharedSubscriptions.isShareable(subscription)) {
+            // Only the first subscription of the group is pushed to the subscription manager, the rest receive its updates
+            subscription = sharedSubscriptions.join(subscription);
+            if (subscription == null) {
+                return;
+            }
+        }
         pushSubscriptionToManagerService(subscription, true);
         registerSubscription(subscription);
     }
@@ -171,6 +188,13 @@ public class DefaultTbLocalSubscriptionService implements TbLocalSubscriptionSer
     @Override
     public void cancelSubscription(String sessionId, int subscriptionId) {
         log.debug("[{}][{}] Going to remove subscription.", sessionId, subscriptionId);
+        if (sharedSubscriptions != null && sharedSubscriptions.isMember(sessionId, subscriptionId)) {
+            TbSubscription upstream = sharedSubscriptions.leave(sessionId, subscriptionId);
+            if (upstream != null) {
+                cancelSubscription(upstream.getSessionId(), upstream.getSubscriptionId());
+            }
+            return;
+        }
         Map<Integer, TbSubscription> sessionSubscriptions = subscriptionsBySessionId.get(sessionId);
         if (sessionSubscriptions != null) {
             TbSubscription subscription = sessionSubscriptions.remove(subscriptionId);
@@ -202,6 +226,9 @@ public class DefaultTbLocalSubscriptionService implements TbLocalSubscriptionSer
             Set<Integer> toRemove = new HashSet<>(subscriptions.keySet());
             toRemove.forEach(id -> cancelSubscription(sessionId, id));
         }
+        if (sharedSubscriptions != null) {
+            sharedSubscriptions.getSessionSubscriptionIds(sessionId).forEach(id -> cancelSubscription(sessionId, id));
+        }
     }
 
     private void registerSubscription(TbSubscription subscription) {
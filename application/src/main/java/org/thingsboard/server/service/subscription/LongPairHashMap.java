@@ -0,0 +1,160 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import java.util.Objects;
+
+/**
+ * Open addressing hash map with the keys that consist of two longs, for example most and least significant bits of UUID.
+ * Keys are stored in the primitive array, so neither key objects nor map entries are allocated.
+ * Uses linear probing and backward shift deletion. Null values are not permitted. Not thread safe.
+ */
+final class LongPairHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    LongPairHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongPairHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key1, long key2) {
+        int idx = index(key1, key2);
+        Object value;
+        while ((value = values[idx]) != null) {
+            if (keys[idx << 1] == key1 && keys[(idx << 1) + 1] == key2) {
+                return (V) value;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key1, long key2, V value) {
+        Objects.requireNonNull(value);
+        int idx = index(key1, key2);
+        Object current;
+        while ((current = values[idx]) != null) {
+            if (keys[idx << 1] == key1 && keys[(idx << 1) + 1] == key2) {
+                values[idx] = value;
+                return (V) current;
+            }
+            idx = (idx + 1) & mask;
+        }
+        keys[idx << 1] = key1;
+        keys[(idx << 1) + 1] = key2;
+        values[idx] = value;
+        if (++size > resizeThreshold) {
+            rehash(values.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key1, long key2) {
+        int idx = index(key1, key2);
+        Object value;
+        while ((value = values[idx]) != null) {
+            if (keys[idx << 1] == key1 && keys[(idx << 1) + 1] == key2) {
+                values[idx] = null;
+                size--;
+                shiftBack(idx);
+                if (values.length > MIN_CAPACITY && size < resizeThreshold >> 2) {
+                    rehash(values.length >> 1);
+                }
+                return (V) value;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    // Moves the following entries of the probe sequence to the freed slot, so the lookups do not stop at the gap.
+    private void shiftBack(int gap) {
+        int idx = (gap + 1) & mask;
+        while (values[idx] != null) {
+            int home = index(keys[idx << 1], keys[(idx << 1) + 1]);
+            if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                keys[gap << 1] = keys[idx << 1];
+                keys[(gap << 1) + 1] = keys[(idx << 1) + 1];
+                values[gap] = values[idx];
+                values[idx] = null;
+                gap = idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            if (value != null) {
+                int idx = index(oldKeys[i << 1], oldKeys[(i << 1) + 1]);
+                while (values[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx << 1] = oldKeys[i << 1];
+                keys[(idx << 1) + 1] = oldKeys[(i << 1) + 1];
+                values[idx] = value;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity << 1];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int index(long key1, long key2) {
+        long h = key1 * 0x9E3779B97F4A7C15L ^ key2;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return (int) (h ^ (h >>> 33)) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.common.util.JacksonUtil;
+import org.thingsboard.server.common.data.id.CustomerId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.page.PageData;
+import org.thingsboard.server.common.data.query.EntityData;
+import org.thingsboard.server.common.data.query.EntityDataQuery;
+import org.thingsboard.server.common.data.query.EntityKeyType;
+import org.thingsboard.server.common.data.query.TsValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Shares the results of identical entity data queries between the subscriptions of different web socket sessions.
+ * <p>
+ * Queries are identical if they belong to the same tenant and customer, have the same JSON representation
+ * and the same resolved dynamic values. Each query group is reference counted by the subscriptions that use it
+ * and is removed once the last subscription is released. Only one subscription of the group executes the query,
+ * the others wait for it and receive the copy of the result as long as the result is not older than the max age.
+ * The query is executed outside of the group lock, so the subscriptions that need a newer result don't wait for the running query.
+ */
+@Slf4j
+class SharedEntityDataQueries {
+
+    private final Map<QueryKey, QueryGroup> groups = new ConcurrentHashMap<>();
+    private final SubscriptionServiceStatistics stats;
+    private final long maxAge;
+
+    SharedEntityDataQueries(SubscriptionServiceStatistics stats, long maxAge) {
+        this.stats = stats;
+        this.maxAge = maxAge;
+    }
+
+    static QueryKey toQueryKey(TenantId tenantId, CustomerId customerId, EntityDataQuery query, Map<?, ?> resolvedDynamicValues) {
+        return new QueryKey(tenantId, customerId, JacksonUtil.toString(query), resolvedDynamicValues);
+    }
+
+    void acquire(QueryKey key) {
+        groups.compute(key, (k, group) -> {
+            if (group == null) {
+                group = new QueryGroup();
+            }
+            group.refCount++;
+            return group;
+        });
+    }
+
+    void release(QueryKey key) {
+        groups.computeIfPresent(key, (k, group) -> --group.refCount > 0 ? group : null);
+    }
+
+    /**
+     * Returns the shared result of the query if it was fetched after the given timestamp and is not older than max age.
+     * Otherwise fetches the result using the given function and shares it with the rest of the group.
+     */
+    QueryResult find(QueryKey key, long minTs, Supplier<PageData<EntityData>> fetchFunction) {
+        QueryGroup group = groups.get(key);
+        if (group == null) {
+            return new QueryResult(System.currentTimeMillis(), fetchFunction.get());
+        }
+        long ts;
+        CompletableFuture<PageData<EntityData>> future;
+        boolean fetch = false;
+        synchronized (group) {
+            long now = System.currentTimeMillis();
+            ts = group.ts;
+            future = group.future;
+            if (future == null || future.isCompletedExceptionally() || ts <= minTs || now - ts > maxAge) {
+                ts = now;
+                future = new CompletableFuture<>();
+                group.ts = ts;
+                group.future = future;
+                fetch = true;
+            }
+        }
+        PageData<EntityData> data;
+        if (fetch) {
+            try {
+                data = fetchFunction.get();
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+            future.complete(data);
+        } else {
+            log.trace("[{}] Reusing query result fetched at {}", key.getTenantId(), ts);
+            stats.getSharedQueryHitCnt().incrementAndGet();
+            try {
+                data = future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        return new QueryResult(ts, copy(data));
+    }
+
+    int getGroupsCount() {
+        return groups.size();
+    }
+
+    // Subscription contexts update the latest values of the entity data in place, so each of them needs own copy.
+    private static PageData<EntityData> copy(PageData<EntityData> data) {
+        List<EntityData> entities = new ArrayList<>(data.getData().size());
+        for (EntityData entityData : data.getData()) {
+            Map<EntityKeyType, Map<String, TsValue>> latest = null;
+            if (entityData.getLatest() != null) {
+                latest = new HashMap<>();
+                for (Map.Entry<EntityKeyType, Map<String, TsValue>> entry : entityData.getLatest().entrySet()) {
+                    latest.put(entry.getKey(), entry.getValue() != null ? new HashMap<>(entry.getValue()) : null);
+                }
+            }
+            Map<String, TsValue[]> timeseries = entityData.getTimeseries() != null ? new HashMap<>(entityData.getTimeseries()) : null;
+            entities.add(new EntityData(entityData.getEntityId(), latest, timeseries));
+        }
+        return new PageData<>(entities, data.getTotalPages(), data.getTotalElements(), data.hasNext());
+    }
+
+    @Data
+    static class QueryKey {
+        private final TenantId tenantId;
+        private final CustomerId customerId;
+        private final String query;
+        private final Map<?, ?> resolvedDynamicValues;
+    }
+
+    @Data
+    static class QueryResult {
+        private final long ts;
+        private final PageData<EntityData> data;
+    }
+
+    private static class QueryGroup {
+        private int refCount;
+        private long ts;
+        private CompletableFuture<PageData<EntityData>> future;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.service.telemetry.sub.SubscriptionErrorCode;
+import org.thingsboard.server.service.telemetry.sub.TelemetrySubscriptionUpdate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers identical latest value subscriptions of different web socket sessions once.
+ * <p>
+ * Subscriptions are identical if they belong to the same tenant and entity and have the same type, scope and keys.
+ * The first member of the group creates the upstream subscription of the shared session, that is pushed to the
+ * subscription manager instead of the members. Updates of the upstream subscription are fanned out to all members.
+ * Each group is reference counted by its members and the upstream subscription is cancelled with the last member.
+ * The member that joins the existing group receives the latest values of the group that are newer than its key states
+ * before it is attached to the group, so the replay never overtakes the updates fanned out after the join. Keys with
+ * the zero state have no value in the member's query result and are not replayed.
+ */
+@Slf4j
+class SharedSubscriptions {
+
+    private static final String SESSION_ID_PREFIX = "shared-";
+
+    private final Map<GroupKey, Group> groups = new HashMap<>();
+    private final Map<String, Map<Integer, GroupKey>> membersBySessionId = new ConcurrentHashMap<>();
+    private final AtomicInteger upstreamSubIdSeq = new AtomicInteger();
+
+    static boolean isShareable(TbSubscription<?> subscription) {
+        switch (subscription.getType()) {
+            case TIMESERIES:
+                TbTimeseriesSubscription tsSub = (TbTimeseriesSubscription) subscription;
+                return tsSub.isLatestValues() && !tsSub.isAllKeys();
+            case ATTRIBUTES:
+                return !((TbAttributeSubscription) subscription).isAllKeys();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds the subscription to its group. Returns the upstream subscription to register if the group is created, or null otherwise.
+     */
+    synchronized TbSubscription<TelemetrySubscriptionUpdate> join(TbSubscription<TelemetrySubscriptionUpdate> member) {
+        GroupKey key = toGroupKey(member);
+        membersBySessionId.computeIfAbsent(member.getSessionId(), k -> new ConcurrentHashMap<>()).put(member.getSubscriptionId(), key);
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group();
+            group.upstream = createUpstream(member, group);
+            group.members.add(member);
+            groups.put(key, group);
+            log.trace("[{}][{}] Created shared subscription [{}] for keys: {}", key.getTenantId(), key.getEntityId(), group.upstream.getSubscriptionId(), key.getKeys());
+            return group.upstream;
+        }
+        synchronized (group) {
+            TelemetrySubscriptionUpdate missedUpdate = getMissedUpdate(group, member);
+            if (missedUpdate != null) {
+                member.getUpdateConsumer().accept(member.getSessionId(), missedUpdate);
+            }
+            group.members.add(member);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the subscription from its group. Returns the upstream subscription to cancel if it was the last member, or null otherwise.
+     */
+    synchronized TbSubscription<TelemetrySubscriptionUpdate> leave(String sessionId, int subscriptionId) {
+        Map<Integer, GroupKey> sessionMembers = membersBySessionId.get(sessionId);
+        GroupKey key = sessionMembers != null ? sessionMembers.remove(subscriptionId) : null;
+        if (key == null) {
+            return null;
+        }
+        if (sessionMembers.isEmpty()) {
+            membersBySessionId.remove(sessionId);
+        }
+        Group group = groups.get(key);
+        synchronized (group) {
+            group.members.removeIf(member -> member.getSubscriptionId() == subscriptionId && member.getSessionId().equals(sessionId));
+            if (!group.members.isEmpty()) {
+                return null;
+            }
+        }
+        groups.remove(key);
+        log.trace("[{}][{}] Removed shared subscription [{}]", key.getTenantId(), key.getEntityId(), group.upstream.getSubscriptionId());
+        return group.upstream;
+    }
+
+    boolean isMember(String sessionId, int subscriptionId) {
+        return membersBySessionId.getOrDefault(sessionId, Collections.emptyMap()).containsKey(subscriptionId);
+    }
+
+    Set<Integer> getSessionSubscriptionIds(String sessionId) {
+        return new HashSet<>(membersBySessionId.getOrDefault(sessionId, Collections.emptyMap()).keySet());
+    }
+
+    synchronized int getGroupsCount() {
+        return groups.size();
+    }
+
+    private void onUpdate(Group group, TelemetrySubscriptionUpdate update) {
+        List<TbSubscription<TelemetrySubscriptionUpdate>> members;
+        synchronized (group) {
+            if (update.getErrorCode() == 0 && update.getData() != null) {
+                update.getData().forEach((key, values) -> {
+                    if (!values.isEmpty()) {
+                        Object[] latest = (Object[]) values.get(values.size() - 1);
+                        long ts = (long) latest[0];
+                        Object[] current = group.latestValues.get(key);
+                        // Zero ts stands for the deleted attribute
+                        if (ts == 0) {
+                            group.latestValues.remove(key);
+                        } else if (current == null || (long) current[0] <= ts) {
+                            group.latestValues.put(key, latest);
+                        }
+                    }
+                });
+            }
+            members = new ArrayList<>(group.members);
+        }
+        for (TbSubscription<TelemetrySubscriptionUpdate> member : members) {
+            member.getUpdateConsumer().accept(member.getSessionId(), toMemberUpdate(update, member.getSubscriptionId()));
+        }
+    }
+
+    private static TelemetrySubscriptionUpdate toMemberUpdate(TelemetrySubscriptionUpdate update, int subscriptionId) {
+        if (update.getErrorCode() != 0) {
+            return new TelemetrySubscriptionUpdate(subscriptionId, SubscriptionErrorCode.forCode(update.getErrorCode()), update.getErrorMsg());
+        }
+        return new TelemetrySubscriptionUpdate(subscriptionId, update.getData());
+    }
+
+    private static TelemetrySubscriptionUpdate getMissedUpdate(Group group, TbSubscription<TelemetrySubscriptionUpdate> member) {
+        Map<String, Long> keyStates = getKeyStates(member);
+        Map<String, List<Object>> data = new TreeMap<>();
+        group.latestValues.forEach((key, value) -> {
+            Long ts = keyStates.get(key);
+            if (ts != null && ts > 0 && ts < (long) value[0]) {
+                data.put(key, Collections.singletonList(value));
+            }
+        });
+        return data.isEmpty() ? null : new TelemetrySubscriptionUpdate(member.getSubscriptionId(), data);
+    }
+
+    private TbSubscription<TelemetrySubscriptionUpdate> createUpstream(TbSubscription<TelemetrySubscriptionUpdate> member, Group group) {
+        String sessionId = SESSION_ID_PREFIX + member.getServiceId();
+        int subscriptionId = upstreamSubIdSeq.incrementAndGet();
+        Map<String, Long> keyStates = new ConcurrentHashMap<>(getKeyStates(member));
+        if (member.getType() == TbSubscriptionType.TIMESERIES) {
+            return TbTimeseriesSubscription.builder()
+                    .serviceId(member.getServiceId())
+                    .sessionId(sessionId)
+                    .subscriptionId(subscriptionId)
+                    .tenantId(member.getTenantId())
+                    .entityId(member.getEntityId())
+                    .updateConsumer((s, update) -> onUpdate(group, update))
+                    .allKeys(false)
+                    .keyStates(keyStates)
+                    .latestValues(true)
+                    .build();
+        } else {
+            return TbAttributeSubscription.builder()
+                    .serviceId(member.getServiceId())
+                    .sessionId(sessionId)
+                    .subscriptionId(subscriptionId)
+                    .tenantId(member.getTenantId())
+                    .entityId(member.getEntityId())
+                    .updateConsumer((s, update) -> onUpdate(group, update))
+                    .allKeys(false)
+                    .keyStates(keyStates)
+                    .scope(((TbAttributeSubscription) member).getScope())
+                    .build();
+        }
+    }
+
+    private static GroupKey toGroupKey(TbSubscription<TelemetrySubscriptionUpdate> member) {
+        TbAttributeSubscriptionScope scope = member.getType() == TbSubscriptionType.ATTRIBUTES ? ((TbAttributeSubscription) member).getScope() : null;
+        return new GroupKey(member.getTenantId(), member.getEntityId(), member.getType(), scope, new HashSet<>(getKeyStates(member).keySet()));
+    }
+
+    private static Map<String, Long> getKeyStates(TbSubscription<TelemetrySubscriptionUpdate> member) {
+        if (member.getType() == TbSubscriptionType.TIMESERIES) {
+            return ((TbTimeseriesSubscription) member).getKeyStates();
+        } else {
+            return ((TbAttributeSubscription) member).getKeyStates();
+        }
+    }
+
+    @Data
+    private static class GroupKey {
+        private final TenantId tenantId;
+        private final EntityId entityId;
+        private final TbSubscriptionType type;
+        private final TbAttributeSubscriptionScope scope;
+        private final Set<String> keys;
+    }
+
+    private static class Group {
+        private final List<TbSubscription<TelemetrySubscriptionUpdate>> members = new ArrayList<>();
+        private final Map<String, Object[]> latestValues = new HashMap<>();
+        private TbSubscription<TelemetrySubscriptionUpdate> upstream;
+    }
+}
@@ -28,4 +28,5 @@ public class SubscriptionServiceStatistics {
     private AtomicLong alarmQueryTimeSpent = new AtomicLong();
     private AtomicLong regularQueryTimeSpent = new AtomicLong();
     private AtomicLong dynamicQueryTimeSpent = new AtomicLong();
+    private AtomicInteger sharedQueryHitCnt = new AtomicInteger();
 }
@@ -39,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -138,32 +139,42 @@ public abstract class TbAbstractDataSubCtx<T extends AbstractDataQuery<? extends
     }
 
     protected List<TbSubscription> addSubscriptions(EntityData entityData, Map<EntityKeyType, List<EntityKey>> keysByType, boolean latestValues, long startTs, long endTs) {
+        return addSubscriptions(entityData, keysByType, subToEntityIdMap, latestValues, startTs, endTs, null);
+    }
+
+    /**
+     * Creates subscriptions that are registered in the given map and delivered to the given consumer.
+     * Updates are sent to the web socket session if the consumer is null.
+     */
+    protected List<TbSubscription> addSubscriptions(EntityData entityData, Map<EntityKeyType, List<EntityKey>> keysByType, Map<Integer, EntityId> subsMap,
+                                                    boolean latestValues, long startTs, long endTs, BiConsumer<String, TelemetrySubscriptionUpdate> updateConsumer) {
         List<TbSubscription> subscriptionList = new ArrayList<>();
         keysByType.forEach((keysType, keysList) -> {
             int subIdx = sessionRef.getSessionSubIdSeq().incrementAndGet();
-            subToEntityIdMap.put(subIdx, entityData.getEntityId());
+            subsMap.put(subIdx, entityData.getEntityId());
             switch (keysType) {
                 case TIME_SERIES:
-                    subscriptionList.add(createTsSub(entityData, subIdx, keysList, latestValues, startTs, endTs));
+                    subscriptionList.add(createTsSub(entityData, subIdx, keysList, latestValues, startTs, endTs, updateConsumer));
                     break;
                 case CLIENT_ATTRIBUTE:
-                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.CLIENT_SCOPE, keysList));
+                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.CLIENT_SCOPE, keysList, updateConsumer));
                     break;
                 case SHARED_ATTRIBUTE:
-                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.SHARED_SCOPE, keysList));
+                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.SHARED_SCOPE, keysList, updateConsumer));
                     break;
                 case SERVER_ATTRIBUTE:
-                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.SERVER_SCOPE, keysList));
+                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.SERVER_SCOPE, keysList, updateConsumer));
                     break;
                 case ATTRIBUTE:
-                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.ANY_SCOPE, keysList));
+                    subscriptionList.add(createAttrSub(entityData, subIdx, keysType, TbAttributeSubscriptionScope.ANY_SCOPE, keysList, updateConsumer));
                     break;
             }
         });
         return subscriptionList;
     }
 
-    private TbSubscription createAttrSub(EntityData entityData, int subIdx, EntityKeyType keysType, TbAttributeSubscriptionScope scope, List<EntityKey> subKeys) {
+    private TbSubscription createAttrSub(EntityData entityData, int subIdx, EntityKeyType keysType, TbAttributeSubscriptionScope scope, List<EntityKey> subKeys,
+                                         BiConsumer<String, TelemetrySubscriptionUpdate> updateConsumer) {
         Map<String, Long> keyStates = buildKeyStats(entityData, keysType, subKeys);
         log.trace("[{}][{}][{}] Creating attributes subscription for [{}] with keys: {}", serviceId, cmdId, subIdx, entityData.getEntityId(), keyStates);
         return TbAttributeSubscription.builder()
@@ -172,14 +183,15 @@ public abstract class TbAbstractDataSubCtx<T extends AbstractDataQuery<? extends
                 .subscriptionId(subIdx)
                 .tenantId(sessionRef.getSecurityCtx().getTenantId())
                 .entityId(entityData.getEntityId())
-                .updateConsumer((s, subscriptionUpdate) -> sendWsMsg(s, subscriptionUpdate, keysType))
+                .updateConsumer(updateConsumer != null ? updateConsumer : (s, subscriptionUpdate) -> sendWsMsg(s, subscriptionUpdate, keysType))
                 .allKeys(false)
                 .keyStates(keyStates)
                 .scope(scope)
                 .build();
     }
 
-    private TbSubscription createTsSub(EntityData entityData, int subIdx, List<EntityKey> subKeys, boolean latestValues, long startTs, long endTs) {
+    private TbSubscription createTsSub(EntityData entityData, int subIdx, List<EntityKey> subKeys, boolean latestValues, long startTs, long endTs,
+                                       BiConsumer<String, TelemetrySubscriptionUpdate> updateConsumer) {
         Map<String, Long> keyStates = buildKeyStats(entityData, EntityKeyType.TIME_SERIES, subKeys);
         if (!latestValues && entityData.getTimeseries() != null) {
             entityData.getTimeseries().forEach((k, v) -> {
@@ -195,7 +207,7 @@ public abstract class TbAbstractDataSubCtx<T extends AbstractDataQuery<? extends
                 .subscriptionId(subIdx)
                 .tenantId(sessionRef.getSecurityCtx().getTenantId())
                 .entityId(entityData.getEntityId())
-                .updateConsumer((sessionId, subscriptionUpdate) -> sendWsMsg(sessionId, subscriptionUpdate, EntityKeyType.TIME_SERIES, latestValues))
+                .updateConsumer(updateConsumer != null ? updateConsumer : (sessionId, subscriptionUpdate) -> sendWsMsg(sessionId, subscriptionUpdate, EntityKeyType.TIME_SERIES, latestValues))
                 .allKeys(false)
                 .keyStates(keyStates)
                 .latestValues(latestValues)
@@ -19,10 +19,12 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.page.PageData;
 import org.thingsboard.server.common.data.query.EntityData;
 import org.thingsboard.server.common.data.query.EntityDataQuery;
 import org.thingsboard.server.common.data.query.EntityKey;
 import org.thingsboard.server.common.data.query.EntityKeyType;
+import org.thingsboard.server.common.data.query.KeyFilter;
 import org.thingsboard.server.common.data.query.TsValue;
 import org.thingsboard.server.dao.attributes.AttributesService;
 import org.thingsboard.server.dao.entity.EntityService;
@@ -43,6 +45,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -55,6 +62,19 @@ public class TbEntityDataSubCtx extends TbAbstractDataSubCtx<EntityDataQuery> {
     private LatestValueCmd latestValueCmd;
     @Getter
     private final int maxEntitiesPerDataSubscription;
+    private final Map<Integer, EntityId> queryKeysSubToEntityIdMap = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<String, Long>> queryKeyStates = new ConcurrentHashMap<>();
+    private final AtomicBoolean queryRefreshPending = new AtomicBoolean();
+    private volatile Map<EntityKeyType, List<EntityKey>> queryKeysByType = Collections.emptyMap();
+    private ScheduledExecutorService queryRefreshScheduler;
+    private long queryRefreshDelay;
+    private Runnable queryRefreshTask;
+    private volatile ScheduledFuture<?> pendingQueryRefresh;
+    private volatile long lastQueryKeysUpdateTs;
+    private volatile long minQueryTs;
+    @Setter
+    private SharedEntityDataQueries sharedQueries;
+    private SharedEntityDataQueries.QueryKey sharedQueryKey;
 
     public TbEntityDataSubCtx(String serviceId, TelemetryWebSocketService wsService, EntityService entityService,
                               TbLocalSubscriptionService localSubscriptionService, AttributesService attributesService,
@@ -161,6 +181,158 @@ public class TbEntityDataSubCtx extends TbAbstractDataSubCtx<EntityDataQuery> {
         }
     }
 
+    /**
+     * Subscribes to the filter and sort keys of the entities on the current page.
+     * Change of any of those keys schedules single refresh of the query after the given delay,
+     * so the query is re-evaluated only when its result may change.
+     */
+    public synchronized void initQueryKeysSubscriptions(ScheduledExecutorService scheduler, long refreshDelay, Runnable refreshTask) {
+        clearQueryKeysSubscriptions();
+        this.queryRefreshScheduler = scheduler;
+        this.queryRefreshDelay = refreshDelay;
+        this.queryRefreshTask = refreshTask;
+        this.queryKeysByType = getEntityKeyByTypeMap(getQueryKeys());
+        if (!queryKeysByType.isEmpty()) {
+            log.trace("[{}][{}] Subscribing to the query keys: {}", sessionRef.getSessionId(), cmdId, queryKeysByType);
+            data.getData().forEach(entityData -> addQueryKeysSubscriptions(entityData).forEach(localSubscriptionService::addSubscription));
+        }
+    }
+
+    /**
+     * Returns the subscribable filter and sort keys of the query. Their values are fetched with the query,
+     * so the query keys subscriptions start from the states the query result is based on.
+     */
+    public List<EntityKey> getQueryKeys() {
+        Set<EntityKey> keys = new HashSet<>();
+        if (query.getKeyFilters() != null) {
+            for (KeyFilter filter : query.getKeyFilters()) {
+                keys.add(filter.getKey());
+            }
+        }
+        if (query.getPageLink().getSortOrder() != null) {
+            keys.add(query.getPageLink().getSortOrder().getKey());
+        }
+        return keys.stream().filter(key -> key != null && isSubscribable(key.getType())).collect(Collectors.toList());
+    }
+
+    private static boolean isSubscribable(EntityKeyType keyType) {
+        switch (keyType) {
+            case TIME_SERIES:
+            case ATTRIBUTE:
+            case CLIENT_ATTRIBUTE:
+            case SHARED_ATTRIBUTE:
+            case SERVER_ATTRIBUTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private List<TbSubscription> addQueryKeysSubscriptions(EntityData entityData) {
+        List<TbSubscription> subscriptions = addSubscriptions(entityData, queryKeysByType, queryKeysSubToEntityIdMap, true, 0, 0, this::onQueryKeysUpdate);
+        subscriptions.forEach(subscription -> queryKeyStates.put(subscription.getSubscriptionId(), new ConcurrentHashMap<>(getKeyStates(subscription))));
+        return subscriptions;
+    }
+
+    private static Map<String, Long> getKeyStates(TbSubscription subscription) {
+        if (subscription instanceof TbTimeseriesSubscription) {
+            return ((TbTimeseriesSubscription) subscription).getKeyStates();
+        } else if (subscription instanceof TbAttributeSubscription) {
+            return ((TbAttributeSubscription) subscription).getKeyStates();
+        } else {
+            return Collections.emptyMap();
+        }
+    }
+
+    private void onQueryKeysUpdate(String sessionId, TelemetrySubscriptionUpdate subscriptionUpdate) {
+        Map<String, Long> keyStates = queryKeyStates.get(subscriptionUpdate.getSubscriptionId());
+        if (keyStates == null || !queryKeysSubToEntityIdMap.containsKey(subscriptionUpdate.getSubscriptionId())) {
+            log.trace("[{}][{}][{}] Received stale query keys update: {}", sessionId, cmdId, subscriptionUpdate.getSubscriptionId(), subscriptionUpdate);
+            return;
+        }
+        // Values that are not newer than the known state are already reflected in the query result,
+        // e.g. the latest values pushed once the subscription is registered.
+        boolean changed = false;
+        for (Map.Entry<String, Long> entry : subscriptionUpdate.getLatestValues().entrySet()) {
+            Long knownTs = keyStates.get(entry.getKey());
+            if (knownTs == null || entry.getValue() > knownTs) {
+                keyStates.merge(entry.getKey(), entry.getValue(), Math::max);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            log.trace("[{}][{}][{}] Ignoring query keys update that is not newer than the known state: {}", sessionId, cmdId, subscriptionUpdate.getSubscriptionId(), subscriptionUpdate);
+            return;
+        }
+        lastQueryKeysUpdateTs = System.currentTimeMillis();
+        if (queryRefreshPending.compareAndSet(false, true)) {
+            log.trace("[{}][{}][{}] Scheduling query refresh due to update: {}", sessionId, cmdId, subscriptionUpdate.getSubscriptionId(), subscriptionUpdate);
+            pendingQueryRefresh = queryRefreshScheduler.schedule(() -> {
+                queryRefreshPending.set(false);
+                // Shared query result fetched before the last received update is not suitable for this refresh
+                minQueryTs = lastQueryKeysUpdateTs;
+                try {
+                    queryRefreshTask.run();
+                } finally {
+                    minQueryTs = 0;
+                }
+            }, queryRefreshDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void clearQueryKeysSubscriptions() {
+        for (Integer subId : queryKeysSubToEntityIdMap.keySet()) {
+            localSubscriptionService.cancelSubscription(sessionRef.getSessionId(), subId);
+        }
+        queryKeysSubToEntityIdMap.clear();
+        queryKeyStates.clear();
+        queryKeysByType = Collections.emptyMap();
+    }
+
+    @Override
+    public void clearSubscriptions() {
+        clearQueryKeysSubscriptions();
+        releaseSharedQuery();
+        super.clearSubscriptions();
+    }
+
+    @Override
+    public void cancelTasks() {
+        super.cancelTasks();
+        ScheduledFuture<?> task = this.pendingQueryRefresh;
+        if (task != null) {
+            task.cancel(false);
+        }
+        queryRefreshPending.set(false);
+    }
+
+    @Override
+    protected synchronized PageData<EntityData> findEntityData() {
+        if (sharedQueries == null) {
+            return super.findEntityData();
+        }
+        SharedEntityDataQueries.QueryKey key = SharedEntityDataQueries.toQueryKey(getTenantId(), getCustomerId(), query, getResolvedDynamicValues());
+        if (!key.equals(sharedQueryKey)) {
+            releaseSharedQuery();
+            sharedQueries.acquire(key);
+            sharedQueryKey = key;
+        }
+        return sharedQueries.find(key, minQueryTs, super::findEntityData).getData();
+    }
+
+    private Map<DynamicValueKey, Object> getResolvedDynamicValues() {
+        Map<DynamicValueKey, Object> resolvedValues = new HashMap<>();
+        dynamicValues.forEach((key, values) -> resolvedValues.put(key, values.isEmpty() ? null : values.get(0).getResolvedValue()));
+        return resolvedValues;
+    }
+
+    private synchronized void releaseSharedQuery() {
+        if (sharedQueryKey != null) {
+            sharedQueries.release(sharedQueryKey);
+            sharedQueryKey = null;
+        }
+    }
+
     private EntityData getDataForEntity(EntityId entityId) {
         return data.getData().stream().filter(item -> item.getEntityId().equals(entityId)).findFirst().orElse(null);
     }
@@ -194,6 +366,27 @@ public class TbEntityDataSubCtx extends TbAbstractDataSubCtx<EntityDataQuery> {
                 }
             }
         }
+        if (!queryKeysByType.isEmpty()) {
+            Set<EntityId> currentQueryKeysSubs = new HashSet<>();
+            List<Integer> queryKeysSubIdsToCancel = new ArrayList<>();
+            queryKeysSubToEntityIdMap.forEach((subId, entityId) -> {
+                if (!newDataMap.containsKey(entityId)) {
+                    queryKeysSubIdsToCancel.add(subId);
+                } else {
+                    currentQueryKeysSubs.add(entityId);
+                }
+            });
+            queryKeysSubIdsToCancel.forEach(subId -> {
+                queryKeysSubToEntityIdMap.remove(subId);
+                queryKeyStates.remove(subId);
+            });
+            subIdsToCancel.addAll(queryKeysSubIdsToCancel);
+            newDataMap.forEach((entityId, entity) -> {
+                if (!currentQueryKeysSubs.contains(entityId)) {
+                    subsToAdd.addAll(addQueryKeysSubscriptions(entity));
+                }
+            });
+        }
         wsService.sendWsMsg(sessionRef.getSessionId(), new EntityDataUpdate(cmdId, data, null, maxEntitiesPerDataSubscription));
         subIdsToCancel.forEach(subId -> localSubscriptionService.cancelSubscription(getSessionId(), subId));
         subsToAdd.forEach(localSubscriptionService::addSubscription);
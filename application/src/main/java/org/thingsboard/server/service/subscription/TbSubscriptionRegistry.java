@@ -0,0 +1,371 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Registry of the subscriptions managed by {@link DefaultSubscriptionManagerService}.
+ * <p>
+ * Subscriptions of the entity are kept in the bucket indexed by subscription type and key,
+ * so the update of the key visits only the subscriptions of this key.
+ * Buckets are stored in the maps keyed by the bits of entity UUID, split between the stripes guarded by own read/write lock.
+ * Subscriptions of the web socket session are stored in the map keyed by subscription id without boxing.
+ */
+class TbSubscriptionRegistry {
+
+    private static final int STRIPES_COUNT = 64;
+
+    private final Stripe[] stripes;
+    private final Map<String, LongPairHashMap<TbSubscription>> subscriptionsBySessionId = new ConcurrentHashMap<>();
+
+    TbSubscriptionRegistry() {
+        stripes = new Stripe[STRIPES_COUNT];
+        for (int i = 0; i < STRIPES_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Registers the subscription. The previous subscription of the session with the same id is removed from the entity index first,
+     * so the keys it no longer has are not matched. Returns false if the same subscription with the same keys is already registered.
+     */
+    boolean add(TbSubscription subscription) {
+        TbSubscription[] previous = new TbSubscription[1];
+        subscriptionsBySessionId.compute(subscription.getSessionId(), (sessionId, sessionSubscriptions) -> {
+            if (sessionSubscriptions == null) {
+                sessionSubscriptions = new LongPairHashMap<>();
+            }
+            previous[0] = sessionSubscriptions.put(subscription.getSubscriptionId(), 0, subscription);
+            return sessionSubscriptions;
+        });
+        if (previous[0] != null) {
+            removeFromEntity(previous[0]);
+        }
+        UUID id = subscription.getEntityId().getId();
+        Stripe stripe = getStripe(id);
+        stripe.lock.writeLock().lock();
+        try {
+            EntitySubscriptions entitySubscriptions = stripe.subscriptions.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (entitySubscriptions == null) {
+                entitySubscriptions = new EntitySubscriptions();
+                stripe.subscriptions.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), entitySubscriptions);
+            }
+            entitySubscriptions.add(subscription);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+        return previous[0] == null || !isSameSubscription(previous[0], subscription);
+    }
+
+    /**
+     * Removes the subscription of the session from both session and entity indexes. Returns null if the subscription is not found.
+     */
+    TbSubscription remove(String sessionId, int subscriptionId) {
+        TbSubscription[] removed = new TbSubscription[1];
+        subscriptionsBySessionId.computeIfPresent(sessionId, (id, sessionSubscriptions) -> {
+            removed[0] = sessionSubscriptions.remove(subscriptionId, 0);
+            return sessionSubscriptions.isEmpty() ? null : sessionSubscriptions;
+        });
+        if (removed[0] != null) {
+            removeFromEntity(removed[0]);
+        }
+        return removed[0];
+    }
+
+    /**
+     * Removes the subscription from the entity index only. Subscription is still available by session id.
+     */
+    void removeFromEntity(TbSubscription subscription) {
+        UUID id = subscription.getEntityId().getId();
+        Stripe stripe = getStripe(id);
+        stripe.lock.writeLock().lock();
+        try {
+            EntitySubscriptions entitySubscriptions = stripe.subscriptions.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (entitySubscriptions != null && entitySubscriptions.remove(subscription) && entitySubscriptions.isEmpty()) {
+                stripe.subscriptions.remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the time-series entries grouped by the subscriptions of the entity that are interested in them.
+     */
+    Map<TbSubscription, List<TsKvEntry>> getTimeseriesUpdates(EntityId entityId, List<TsKvEntry> entries) {
+        return getUpdates(entityId, entries, TbSubscriptionType.TIMESERIES, s -> true);
+    }
+
+    /**
+     * Returns the attribute entries grouped by the subscriptions of the entity that are interested in them and in the given scope.
+     */
+    Map<TbSubscription, List<TsKvEntry>> getAttributesUpdates(EntityId entityId, String scope, List<TsKvEntry> entries) {
+        return getUpdates(entityId, entries, TbSubscriptionType.ATTRIBUTES,
+                s -> TbAttributeSubscriptionScope.ANY_SCOPE.equals(((TbAttributeSubscription) s).getScope())
+                        || scope.equals(((TbAttributeSubscription) s).getScope().name()));
+    }
+
+    List<TbAlarmsSubscription> getAlarmsSubscriptions(EntityId entityId) {
+        UUID id = entityId.getId();
+        Stripe stripe = getStripe(id);
+        stripe.lock.readLock().lock();
+        try {
+            EntitySubscriptions entitySubscriptions = stripe.subscriptions.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (entitySubscriptions == null || entitySubscriptions.alarms == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(entitySubscriptions.alarms);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    private Map<TbSubscription, List<TsKvEntry>> getUpdates(EntityId entityId, List<TsKvEntry> entries,
+                                                            TbSubscriptionType type, Predicate<TbSubscription> filter) {
+        UUID id = entityId.getId();
+        Stripe stripe = getStripe(id);
+        stripe.lock.readLock().lock();
+        try {
+            EntitySubscriptions entitySubscriptions = stripe.subscriptions.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            KeyIndex index = entitySubscriptions != null ? entitySubscriptions.getIndex(type) : null;
+            if (index == null) {
+                return Collections.emptyMap();
+            }
+            Map<TbSubscription, List<TsKvEntry>> updates = new IdentityHashMap<>();
+            index.collect(entries, filter, updates);
+            return updates;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    private static boolean isSameSubscription(TbSubscription previous, TbSubscription subscription) {
+        if (!previous.equals(subscription)) {
+            return false;
+        }
+        switch (subscription.getType()) {
+            case TIMESERIES:
+                TbTimeseriesSubscription previousTsSub = (TbTimeseriesSubscription) previous;
+                TbTimeseriesSubscription tsSub = (TbTimeseriesSubscription) subscription;
+                return previousTsSub.isAllKeys() == tsSub.isAllKeys() && previousTsSub.getKeyStates().keySet().equals(tsSub.getKeyStates().keySet());
+            case ATTRIBUTES:
+                TbAttributeSubscription previousAttrSub = (TbAttributeSubscription) previous;
+                TbAttributeSubscription attrSub = (TbAttributeSubscription) subscription;
+                return previousAttrSub.isAllKeys() == attrSub.isAllKeys() && previousAttrSub.getScope() == attrSub.getScope()
+                        && previousAttrSub.getKeyStates().keySet().equals(attrSub.getKeyStates().keySet());
+            default:
+                return true;
+        }
+    }
+
+    private Stripe getStripe(UUID id) {
+        long bits = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+        int hash = (int) (bits ^ (bits >>> 32));
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES_COUNT - 1)];
+    }
+
+    private static final class Stripe {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final LongPairHashMap<EntitySubscriptions> subscriptions = new LongPairHashMap<>();
+    }
+
+    /**
+     * Subscriptions of the single entity. Indexes are created on demand to keep the bucket small.
+     */
+    private static final class EntitySubscriptions {
+        private KeyIndex timeseries;
+        private KeyIndex attributes;
+        private List<TbAlarmsSubscription> alarms;
+
+        KeyIndex getIndex(TbSubscriptionType type) {
+            return type == TbSubscriptionType.TIMESERIES ? timeseries : attributes;
+        }
+
+        boolean add(TbSubscription subscription) {
+            switch (subscription.getType()) {
+                case TIMESERIES:
+                    TbTimeseriesSubscription tsSub = (TbTimeseriesSubscription) subscription;
+                    if (timeseries == null) {
+                        timeseries = new KeyIndex();
+                    }
+                    return timeseries.add(tsSub, tsSub.isAllKeys(), tsSub.getKeyStates().keySet());
+                case ATTRIBUTES:
+                    TbAttributeSubscription attrSub = (TbAttributeSubscription) subscription;
+                    if (attributes == null) {
+                        attributes = new KeyIndex();
+                    }
+                    return attributes.add(attrSub, attrSub.isAllKeys(), attrSub.getKeyStates().keySet());
+                case ALARMS:
+                    if (alarms == null) {
+                        alarms = new ArrayList<>(1);
+                    }
+                    if (alarms.contains(subscription)) {
+                        return false;
+                    }
+                    return alarms.add((TbAlarmsSubscription) subscription);
+                default:
+                    return false;
+            }
+        }
+
+        boolean remove(TbSubscription subscription) {
+            boolean removed = false;
+            switch (subscription.getType()) {
+                case TIMESERIES:
+                    TbTimeseriesSubscription tsSub = (TbTimeseriesSubscription) subscription;
+                    if (timeseries != null) {
+                        removed = timeseries.remove(tsSub, tsSub.isAllKeys(), tsSub.getKeyStates().keySet());
+                        if (timeseries.isEmpty()) {
+                            timeseries = null;
+                        }
+                    }
+                    break;
+                case ATTRIBUTES:
+                    TbAttributeSubscription attrSub = (TbAttributeSubscription) subscription;
+                    if (attributes != null) {
+                        removed = attributes.remove(attrSub, attrSub.isAllKeys(), attrSub.getKeyStates().keySet());
+                        if (attributes.isEmpty()) {
+                            attributes = null;
+                        }
+                    }
+                    break;
+                case ALARMS:
+                    if (alarms != null) {
+                        removed = alarms.remove(subscription);
+                        if (alarms.isEmpty()) {
+                            alarms = null;
+                        }
+                    }
+                    break;
+            }
+            return removed;
+        }
+
+        boolean isEmpty() {
+            return timeseries == null && attributes == null && alarms == null;
+        }
+    }
+
+    /**
+     * Subscriptions of the single type indexed by key. Subscriptions without keys are stored under the null key and never match the update.
+     */
+    private static final class KeyIndex {
+        private final Map<String, List<TbSubscription>> byKey = new HashMap<>();
+        private List<TbSubscription> allKeys;
+
+        boolean add(TbSubscription subscription, boolean isAllKeys, Set<String> keys) {
+            if (isAllKeys) {
+                if (allKeys == null) {
+                    allKeys = new ArrayList<>(1);
+                }
+                if (allKeys.contains(subscription)) {
+                    return false;
+                }
+                return allKeys.add(subscription);
+            }
+            if (keys.isEmpty()) {
+                return addToKey(null, subscription);
+            }
+            boolean added = false;
+            for (String key : keys) {
+                added |= addToKey(key, subscription);
+            }
+            return added;
+        }
+
+        private boolean addToKey(String key, TbSubscription subscription) {
+            List<TbSubscription> subscriptions = byKey.computeIfAbsent(key, k -> new ArrayList<>(1));
+            if (subscriptions.contains(subscription)) {
+                return false;
+            }
+            return subscriptions.add(subscription);
+        }
+
+        boolean remove(TbSubscription subscription, boolean isAllKeys, Set<String> keys) {
+            if (isAllKeys) {
+                boolean removed = allKeys != null && allKeys.remove(subscription);
+                if (allKeys != null && allKeys.isEmpty()) {
+                    allKeys = null;
+                }
+                return removed;
+            }
+            if (keys.isEmpty()) {
+                return removeFromKey(null, subscription);
+            }
+            boolean removed = false;
+            for (String key : keys) {
+                removed |= removeFromKey(key, subscription);
+            }
+            return removed;
+        }
+
+        private boolean removeFromKey(String key, TbSubscription subscription) {
+            List<TbSubscription> subscriptions = byKey.get(key);
+            if (subscriptions == null) {
+                return false;
+            }
+            boolean removed = subscriptions.remove(subscription);
+            if (subscriptions.isEmpty()) {
+                byKey.remove(key);
+            }
+            return removed;
+        }
+
+        void collect(List<TsKvEntry> entries, Predicate<TbSubscription> filter, Map<TbSubscription, List<TsKvEntry>> updates) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            if (allKeys != null) {
+                for (TbSubscription subscription : allKeys) {
+                    if (filter.test(subscription)) {
+                        updates.put(subscription, new ArrayList<>(entries));
+                    }
+                }
+            }
+            if (!byKey.isEmpty()) {
+                for (TsKvEntry entry : entries) {
+                    List<TbSubscription> subscriptions = byKey.get(entry.getKey());
+                    if (subscriptions != null) {
+                        for (TbSubscription subscription : subscriptions) {
+                            if (filter.test(subscription)) {
+                                updates.computeIfAbsent(subscription, s -> new ArrayList<>()).add(entry);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return allKeys == null && byKey.isEmpty();
+        }
+    }
+}
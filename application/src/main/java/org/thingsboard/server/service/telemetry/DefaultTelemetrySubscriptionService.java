@@ -31,6 +31,7 @@ import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.AttributeKvEntry;
 import org.thingsboard.server.common.data.kv.BaseAttributeKvEntry;
 import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DeleteTsKvQuery;
 import org.thingsboard.server.common.data.kv.DoubleDataEntry;
 import org.thingsboard.server.common.data.kv.LongDataEntry;
 import org.thingsboard.server.common.data.kv.StringDataEntry;
@@ -253,6 +254,14 @@ public class DefaultTelemetrySubscriptionService extends AbstractSubscriptionSer
     public void deleteLatestInternal(TenantId tenantId, EntityId entityId, List<String> keys, FutureCallback<Void> callback) {
         ListenableFuture<List<Void>> deleteFuture = tsService.removeLatest(tenantId, entityId, keys);
         addVoidCallback(deleteFuture, callback);
+        addWsCallback(deleteFuture, success -> onTimeSeriesDelete(tenantId, entityId, keys));
+    }
+
+    @Override
+    public void deleteTimeseriesAndNotify(TenantId tenantId, EntityId entityId, List<String> keys, List<DeleteTsKvQuery> deleteTsKvQueries, FutureCallback<Void> callback) {
+        ListenableFuture<List<Void>> deleteFuture = tsService.remove(tenantId, entityId, deleteTsKvQueries);
+        addVoidCallback(deleteFuture, callback);
+        addWsCallback(deleteFuture, success -> onTimeSeriesDelete(tenantId, entityId, keys));
     }
 
     @Override
@@ -261,6 +270,9 @@ public class DefaultTelemetrySubscriptionService extends AbstractSubscriptionSer
         Futures.addCallback(deleteFuture, new FutureCallback<Collection<String>>() {
             @Override
             public void onSuccess(@Nullable Collection<String> result) {
+                if (result != null && !result.isEmpty()) {
+                    onTimeSeriesDelete(tenantId, entityId, new ArrayList<>(result));
+                }
                 callback.onSuccess(result);
             }
 
@@ -337,6 +349,18 @@ public class DefaultTelemetrySubscriptionService extends AbstractSubscriptionSer
         }
     }
 
+    /**
+     * Latest values of the entity are cached only by the core node that owns the entity partition.
+     * If the values were removed on another node, the owner is notified to evict them.
+     */
+    private void onTimeSeriesDelete(TenantId tenantId, EntityId entityId, List<String> keys) {
+        TopicPartitionInfo tpi = partitionService.resolve(ServiceType.TB_CORE, tenantId, entityId);
+        if (!currentPartitions.contains(tpi)) {
+            TransportProtos.ToCoreMsg toCoreMsg = TbSubscriptionUtils.toTimeseriesDeleteProto(tenantId, entityId, keys);
+            clusterService.pushMsgToCore(tpi, entityId.getId(), toCoreMsg, null);
+        }
+    }
+
     private <S> void addVoidCallback(ListenableFuture<S> saveFuture, final FutureCallback<Void> callback) {
         Futures.addCallback(saveFuture, new FutureCallback<S>() {
             @Override
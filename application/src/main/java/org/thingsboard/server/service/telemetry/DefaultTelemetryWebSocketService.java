@@ -62,6 +62,7 @@ import org.thingsboard.server.service.telemetry.cmd.TelemetryPluginCmdsWrapper;
 import org.thingsboard.server.service.telemetry.cmd.v1.AttributesSubscriptionCmd;
 import org.thingsboard.server.service.telemetry.cmd.v1.GetHistoryCmd;
 import org.thingsboard.server.service.telemetry.cmd.v1.SubscriptionCmd;
+import org.thingsboard.server.service.telemetry.cmd.v1.SubscriptionConflationMode;
 import org.thingsboard.server.service.telemetry.cmd.v1.TelemetryPluginCmd;
 import org.thingsboard.server.service.telemetry.cmd.v1.TimeseriesSubscriptionCmd;
 import org.thingsboard.server.service.telemetry.cmd.v2.AlarmDataCmd;
@@ -92,6 +93,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -145,6 +147,8 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
     private int maxSubscriptionsPerRegularUser;
     @Value("${server.ws.limits.max_subscriptions_per_public_user:0}")
     private int maxSubscriptionsPerPublicUser;
+    @Value("${server.ws.conflation.window:250}")
+    private long conflationWindow;
 
     private ConcurrentMap<TenantId, Set<String>> tenantSubscriptionsMap = new ConcurrentHashMap<>();
     private ConcurrentMap<CustomerId, Set<String>> customerSubscriptionsMap = new ConcurrentHashMap<>();
@@ -155,6 +159,8 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
     private String serviceId;
 
     private ScheduledExecutorService pingExecutor;
+    private ScheduledExecutorService conflationExecutor;
+    private TelemetryUpdateConflator conflator;
 
     @PostConstruct
     public void initExecutor() {
@@ -163,6 +169,11 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
 
         pingExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("telemetry-web-socket-ping"));
         pingExecutor.scheduleWithFixedDelay(this::sendPing, 10000, 10000, TimeUnit.MILLISECONDS);
+
+        if (conflationWindow > 0) {
+            conflationExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("telemetry-web-socket-conflation"));
+            conflator = new TelemetryUpdateConflator(conflationWindow, conflationExecutor, this::sendWsMsg);
+        }
     }
 
     @PreDestroy
@@ -171,6 +182,10 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
             pingExecutor.shutdownNow();
         }
 
+        if (conflationExecutor != null) {
+            conflationExecutor.shutdownNow();
+        }
+
         if (executor != null) {
             executor.shutdownNow();
         }
@@ -191,6 +206,9 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
                 wsSessionsMap.remove(sessionId);
                 oldSubService.cancelAllSessionSubscriptions(sessionId);
                 entityDataSubService.cancelAllSessionSubscriptions(sessionId);
+                if (conflator != null) {
+                    conflator.cancelAllSessionSubscriptions(sessionId);
+                }
                 processSessionClose(sessionRef);
                 break;
         }
@@ -203,50 +221,67 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
         }
 
         try {
-            TelemetryPluginCmdsWrapper cmdsWrapper = jsonMapper.readValue(msg, TelemetryPluginCmdsWrapper.class);
-            if (cmdsWrapper != null) {
-                if (cmdsWrapper.getAttrSubCmds() != null) {
-                    cmdsWrapper.getAttrSubCmds().forEach(cmd -> {
-                        if (processSubscription(sessionRef, cmd)) {
-                            handleWsAttributesSubscriptionCmd(sessionRef, cmd);
-                        }
-                    });
-                }
-                if (cmdsWrapper.getTsSubCmds() != null) {
-                    cmdsWrapper.getTsSubCmds().forEach(cmd -> {
-                        if (processSubscription(sessionRef, cmd)) {
-                            handleWsTimeseriesSubscriptionCmd(sessionRef, cmd);
-                        }
-                    });
-                }
-                if (cmdsWrapper.getHistoryCmds() != null) {
-                    cmdsWrapper.getHistoryCmds().forEach(cmd -> handleWsHistoryCmd(sessionRef, cmd));
-                }
-                if (cmdsWrapper.getEntityDataCmds() != null) {
-                    cmdsWrapper.getEntityDataCmds().forEach(cmd -> handleWsEntityDataCmd(sessionRef, cmd));
-                }
-                if (cmdsWrapper.getAlarmDataCmds() != null) {
-                    cmdsWrapper.getAlarmDataCmds().forEach(cmd -> handleWsAlarmDataCmd(sessionRef, cmd));
-                }
-                if (cmdsWrapper.getEntityCountCmds() != null) {
-                    cmdsWrapper.getEntityCountCmds().forEach(cmd -> handleWsEntityCountCmd(sessionRef, cmd));
-                }
-                if (cmdsWrapper.getEntityDataUnsubscribeCmds() != null) {
-                    cmdsWrapper.getEntityDataUnsubscribeCmds().forEach(cmd -> handleWsDataUnsubscribeCmd(sessionRef, cmd));
-                }
-                if (cmdsWrapper.getAlarmDataUnsubscribeCmds() != null) {
-                    cmdsWrapper.getAlarmDataUnsubscribeCmds().forEach(cmd -> handleWsDataUnsubscribeCmd(sessionRef, cmd));
-                }
-                if (cmdsWrapper.getEntityCountUnsubscribeCmds() != null) {
-                    cmdsWrapper.getEntityCountUnsubscribeCmds().forEach(cmd -> handleWsDataUnsubscribeCmd(sessionRef, cmd));
-                }
-            }
+            handleWebSocketCmds(sessionRef, jsonMapper.readValue(msg, TelemetryPluginCmdsWrapper.class));
+        } catch (IOException e) {
+            log.warn("Failed to decode subscription cmd: {}", e.getMessage(), e);
+            sendWsMsg(sessionRef, new TelemetrySubscriptionUpdate(UNKNOWN_SUBSCRIPTION_ID, SubscriptionErrorCode.BAD_REQUEST, FAILED_TO_PARSE_WS_COMMAND));
+        }
+    }
+
+    @Override
+    public void handleWebSocketMsg(TelemetryWebSocketSessionRef sessionRef, byte[] msg) {
+        if (log.isTraceEnabled()) {
+            log.trace("[{}] Processing binary msg of {} bytes", sessionRef.getSessionId(), msg.length);
+        }
+
+        try {
+            handleWebSocketCmds(sessionRef, TelemetryWebSocketProtocol.CBOR_MAPPER.readValue(msg, TelemetryPluginCmdsWrapper.class));
         } catch (IOException e) {
             log.warn("Failed to decode subscription cmd: {}", e.getMessage(), e);
             sendWsMsg(sessionRef, new TelemetrySubscriptionUpdate(UNKNOWN_SUBSCRIPTION_ID, SubscriptionErrorCode.BAD_REQUEST, FAILED_TO_PARSE_WS_COMMAND));
         }
     }
 
+    private void handleWebSocketCmds(TelemetryWebSocketSessionRef sessionRef, TelemetryPluginCmdsWrapper cmdsWrapper) {
+        if (cmdsWrapper != null) {
+            if (cmdsWrapper.getAttrSubCmds() != null) {
+                cmdsWrapper.getAttrSubCmds().forEach(cmd -> {
+                    if (processSubscription(sessionRef, cmd)) {
+                        handleWsAttributesSubscriptionCmd(sessionRef, cmd);
+                    }
+                });
+            }
+            if (cmdsWrapper.getTsSubCmds() != null) {
+                cmdsWrapper.getTsSubCmds().forEach(cmd -> {
+                    if (processSubscription(sessionRef, cmd)) {
+                        handleWsTimeseriesSubscriptionCmd(sessionRef, cmd);
+                    }
+                });
+            }
+            if (cmdsWrapper.getHistoryCmds() != null) {
+                cmdsWrapper.getHistoryCmds().forEach(cmd -> handleWsHistoryCmd(sessionRef, cmd));
+            }
+            if (cmdsWrapper.getEntityDataCmds() != null) {
+                cmdsWrapper.getEntityDataCmds().forEach(cmd -> handleWsEntityDataCmd(sessionRef, cmd));
+            }
+            if (cmdsWrapper.getAlarmDataCmds() != null) {
+                cmdsWrapper.getAlarmDataCmds().forEach(cmd -> handleWsAlarmDataCmd(sessionRef, cmd));
+            }
+            if (cmdsWrapper.getEntityCountCmds() != null) {
+                cmdsWrapper.getEntityCountCmds().forEach(cmd -> handleWsEntityCountCmd(sessionRef, cmd));
+            }
+            if (cmdsWrapper.getEntityDataUnsubscribeCmds() != null) {
+                cmdsWrapper.getEntityDataUnsubscribeCmds().forEach(cmd -> handleWsDataUnsubscribeCmd(sessionRef, cmd));
+            }
+            if (cmdsWrapper.getAlarmDataUnsubscribeCmds() != null) {
+                cmdsWrapper.getAlarmDataUnsubscribeCmds().forEach(cmd -> handleWsDataUnsubscribeCmd(sessionRef, cmd));
+            }
+            if (cmdsWrapper.getEntityCountUnsubscribeCmds() != null) {
+                cmdsWrapper.getEntityCountUnsubscribeCmds().forEach(cmd -> handleWsDataUnsubscribeCmd(sessionRef, cmd));
+            }
+        }
+    }
+
     private void handleWsEntityDataCmd(TelemetryWebSocketSessionRef sessionRef, EntityDataCmd cmd) {
         String sessionId = sessionRef.getSessionId();
         log.debug("[{}] Processing: {}", sessionId, cmd);
@@ -447,7 +482,7 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
                         .allKeys(false)
                         .keyStates(subState)
                         .scope(scope)
-                        .updateConsumer(DefaultTelemetryWebSocketService.this::sendWsMsg)
+                        .updateConsumer(getUpdateConsumer(cmd))
                         .build();
                 oldSubService.addSubscription(sub);
             }
@@ -545,7 +580,7 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
                         .entityId(entityId)
                         .allKeys(true)
                         .keyStates(subState)
-                        .updateConsumer(DefaultTelemetryWebSocketService.this::sendWsMsg)
+                        .updateConsumer(getUpdateConsumer(cmd))
                         .scope(scope).build();
                 oldSubService.addSubscription(sub);
             }
@@ -626,7 +661,7 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
                         .subscriptionId(cmd.getCmdId())
                         .tenantId(sessionRef.getSecurityCtx().getTenantId())
                         .entityId(entityId)
-                        .updateConsumer(DefaultTelemetryWebSocketService.this::sendWsMsg)
+                        .updateConsumer(getUpdateConsumer(cmd))
                         .allKeys(true)
                         .keyStates(subState).build();
                 oldSubService.addSubscription(sub);
@@ -664,7 +699,7 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
                         .subscriptionId(cmd.getCmdId())
                         .tenantId(sessionRef.getSecurityCtx().getTenantId())
                         .entityId(entityId)
-                        .updateConsumer(DefaultTelemetryWebSocketService.this::sendWsMsg)
+                        .updateConsumer(getUpdateConsumer(cmd))
                         .allKeys(false)
                         .keyStates(subState).build();
                 oldSubService.addSubscription(sub);
@@ -687,11 +722,25 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
     private void unsubscribe(TelemetryWebSocketSessionRef sessionRef, SubscriptionCmd cmd, String sessionId) {
         if (cmd.getEntityId() == null || cmd.getEntityId().isEmpty()) {
             oldSubService.cancelAllSessionSubscriptions(sessionId);
+            if (conflator != null) {
+                conflator.cancelAllSessionSubscriptions(sessionId);
+            }
         } else {
             oldSubService.cancelSubscription(sessionId, cmd.getCmdId());
+            if (conflator != null) {
+                conflator.cancelSubscription(sessionId, cmd.getCmdId());
+            }
         }
     }
 
+    private BiConsumer<String, TelemetrySubscriptionUpdate> getUpdateConsumer(SubscriptionCmd cmd) {
+        SubscriptionConflationMode conflationMode = cmd.getConflation();
+        if (conflationMode == null || conflator == null) {
+            return this::sendWsMsg;
+        }
+        return (sessionId, update) -> conflator.onUpdate(sessionId, update, conflationMode);
+    }
+
     private boolean validateSubscriptionCmd(TelemetryWebSocketSessionRef sessionRef, EntityDataCmd cmd) {
         if (cmd.getCmdId() < 0) {
             TelemetrySubscriptionUpdate update = new TelemetrySubscriptionUpdate(cmd.getCmdId(), SubscriptionErrorCode.BAD_REQUEST,
@@ -773,6 +822,17 @@ public class DefaultTelemetryWebSocketService implements TelemetryWebSocketServi
 
     private void sendWsMsg(TelemetryWebSocketSessionRef sessionRef, int cmdId, Object update) {
         try {
+            if (sessionRef.getProtocol() == TelemetryWebSocketProtocol.CBOR) {
+                byte[] msg = TelemetryWebSocketProtocol.CBOR_MAPPER.writeValueAsBytes(update);
+                executor.submit(() -> {
+                    try {
+                        msgEndpoint.send(sessionRef, cmdId, msg);
+                    } catch (IOException e) {
+                        log.warn("[{}] Failed to send reply: {}", sessionRef.getSessionId(), update, e);
+                    }
+                });
+                return;
+            }
             String msg = jsonMapper.writeValueAsString(update);
             executor.submit(() -> {
                 try {
@@ -15,12 +15,20 @@
  */
 package org.thingsboard.server.service.telemetry;
 
+import com.google.common.util.concurrent.FutureCallback;
 import org.springframework.context.ApplicationListener;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.DeleteTsKvQuery;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
 
+import java.util.List;
+
 /**
  * Created by ashvayka on 27.03.18.
  */
 public interface TelemetrySubscriptionService extends InternalTelemetryService, ApplicationListener<PartitionChangeEvent> {
 
+    void deleteTimeseriesAndNotify(TenantId tenantId, EntityId entityId, List<String> keys, List<DeleteTsKvQuery> deleteTsKvQueries, FutureCallback<Void> callback);
+
 }
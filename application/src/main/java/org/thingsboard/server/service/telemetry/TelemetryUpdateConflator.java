@@ -0,0 +1,154 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.server.service.telemetry.cmd.v1.SubscriptionConflationMode;
+import org.thingsboard.server.service.telemetry.sub.TelemetrySubscriptionUpdate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Merges the telemetry updates of the websocket session subscriptions received within the conflation window
+ * and sends them as a single update per subscription once the window is over.
+ */
+@Slf4j
+class TelemetryUpdateConflator {
+
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final BiConsumer<String, TelemetrySubscriptionUpdate> sender;
+    private final ConcurrentMap<String, SessionUpdates> sessions = new ConcurrentHashMap<>();
+
+    TelemetryUpdateConflator(long windowMs, ScheduledExecutorService scheduler, BiConsumer<String, TelemetrySubscriptionUpdate> sender) {
+        this.windowMs = windowMs;
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    void onUpdate(String sessionId, TelemetrySubscriptionUpdate update, SubscriptionConflationMode mode) {
+        if (update.getErrorCode() != 0 || update.getData() == null) {
+            // Pending values are sent first to keep the order of the updates
+            flush(sessionId, update.getSubscriptionId());
+            sender.accept(sessionId, update);
+            return;
+        }
+        SessionUpdates sessionUpdates = sessions.computeIfAbsent(sessionId, id -> new SessionUpdates());
+        boolean scheduleFlush;
+        synchronized (sessionUpdates) {
+            Map<String, List<Object>> pending = sessionUpdates.subscriptions.computeIfAbsent(update.getSubscriptionId(), id -> new TreeMap<>());
+            update.getData().forEach((key, values) -> merge(pending, key, values, mode));
+            scheduleFlush = !sessionUpdates.flushScheduled;
+            sessionUpdates.flushScheduled = true;
+        }
+        if (scheduleFlush) {
+            scheduler.schedule(() -> flush(sessionId, sessionUpdates), windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void cancelSubscription(String sessionId, int subscriptionId) {
+        SessionUpdates sessionUpdates = sessions.get(sessionId);
+        if (sessionUpdates != null) {
+            synchronized (sessionUpdates) {
+                sessionUpdates.subscriptions.remove(subscriptionId);
+            }
+        }
+    }
+
+    void cancelAllSessionSubscriptions(String sessionId) {
+        SessionUpdates sessionUpdates = sessions.remove(sessionId);
+        if (sessionUpdates != null) {
+            synchronized (sessionUpdates) {
+                sessionUpdates.subscriptions.clear();
+            }
+        }
+    }
+
+    private void merge(Map<String, List<Object>> pending, String key, List<Object> values, SubscriptionConflationMode mode) {
+        if (values.isEmpty()) {
+            return;
+        }
+        if (mode == SubscriptionConflationMode.ALL) {
+            pending.computeIfAbsent(key, k -> new ArrayList<>()).addAll(values);
+        } else {
+            Object latest = null;
+            List<Object> current = pending.get(key);
+            if (current != null) {
+                latest = current.get(0);
+            }
+            for (Object value : values) {
+                if (latest == null || getTs(value) >= getTs(latest)) {
+                    latest = value;
+                }
+            }
+            pending.put(key, Collections.singletonList(latest));
+        }
+    }
+
+    private static long getTs(Object value) {
+        return (long) ((Object[]) value)[0];
+    }
+
+    private void flush(String sessionId, SessionUpdates sessionUpdates) {
+        Map<Integer, Map<String, List<Object>>> updates;
+        synchronized (sessionUpdates) {
+            updates = sessionUpdates.subscriptions;
+            sessionUpdates.subscriptions = new LinkedHashMap<>();
+            sessionUpdates.flushScheduled = false;
+            // Idle sessions are not kept. The concurrent update of the removed instance schedules its own flush
+            sessions.remove(sessionId, sessionUpdates);
+        }
+        updates.forEach((subscriptionId, data) -> send(sessionId, subscriptionId, data));
+    }
+
+    private void flush(String sessionId, int subscriptionId) {
+        SessionUpdates sessionUpdates = sessions.get(sessionId);
+        if (sessionUpdates == null) {
+            return;
+        }
+        Map<String, List<Object>> data;
+        synchronized (sessionUpdates) {
+            data = sessionUpdates.subscriptions.remove(subscriptionId);
+        }
+        if (data != null) {
+            send(sessionId, subscriptionId, data);
+        }
+    }
+
+    private void send(String sessionId, int subscriptionId, Map<String, List<Object>> data) {
+        try {
+            sender.accept(sessionId, new TelemetrySubscriptionUpdate(subscriptionId, data));
+        } catch (Exception e) {
+            log.warn("[{}][{}] Failed to send conflated update", sessionId, subscriptionId, e);
+        }
+    }
+
+    private static class SessionUpdates {
+        private Map<Integer, Map<String, List<Object>>> subscriptions = new LinkedHashMap<>();
+        private boolean flushScheduled;
+    }
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import lombok.Getter;
+
+/**
+ * Encoding of the telemetry websocket commands and updates. Binary encodings are negotiated with the websocket sub-protocol,
+ * sessions without the sub-protocol use JSON text frames.
+ */
+public enum TelemetryWebSocketProtocol {
+
+    JSON(null),
+    CBOR("tb.telemetry.cbor");
+
+    /**
+     * Mapper of the CBOR commands and updates, shared by the websocket handler and the telemetry websocket service.
+     */
+    public static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+
+    @Getter
+    private final String subProtocol;
+
+    TelemetryWebSocketProtocol(String subProtocol) {
+        this.subProtocol = subProtocol;
+    }
+
+    public static TelemetryWebSocketProtocol fromSubProtocol(String subProtocol) {
+        if (subProtocol != null) {
+            for (TelemetryWebSocketProtocol protocol : values()) {
+                if (subProtocol.equals(protocol.subProtocol)) {
+                    return protocol;
+                }
+            }
+        }
+        return JSON;
+    }
+
+}
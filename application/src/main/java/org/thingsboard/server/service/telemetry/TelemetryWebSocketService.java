@@ -28,6 +28,8 @@ public interface TelemetryWebSocketService {
 
     void handleWebSocketMsg(TelemetryWebSocketSessionRef sessionRef, String msg);
 
+    void handleWebSocketMsg(TelemetryWebSocketSessionRef sessionRef, byte[] msg);
+
     void sendWsMsg(String sessionId, TelemetrySubscriptionUpdate update);
 
     void sendWsMsg(String sessionId, CmdUpdate update);
@@ -39,12 +39,20 @@ public class TelemetryWebSocketSessionRef {
     private final InetSocketAddress remoteAddress;
     @Getter
     private final AtomicInteger sessionSubIdSeq;
+    @Getter
+    private final TelemetryWebSocketProtocol protocol;
 
     public TelemetryWebSocketSessionRef(String sessionId, SecurityUser securityCtx, InetSocketAddress localAddress, InetSocketAddress remoteAddress) {
+        this(sessionId, securityCtx, localAddress, remoteAddress, TelemetryWebSocketProtocol.JSON);
+    }
+
+    public TelemetryWebSocketSessionRef(String sessionId, SecurityUser securityCtx, InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+                                        TelemetryWebSocketProtocol protocol) {
         this.sessionId = sessionId;
         this.securityCtx = securityCtx;
         this.localAddress = localAddress;
         this.remoteAddress = remoteAddress;
+        this.protocol = protocol;
         this.sessionSubIdSeq = new AtomicInteger();
     }
 
@@ -67,6 +75,7 @@ public class TelemetryWebSocketSessionRef {
                 "sessionId='" + sessionId + '\'' +
                 ", localAddress=" + localAddress +
                 ", remoteAddress=" + remoteAddress +
+                ", protocol=" + protocol +
                 '}';
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.thingsboard.server.common.msg.queue.ServiceType;
+import org.thingsboard.server.dao.sqlts.latest.TsKvLatestCache;
+import org.thingsboard.server.queue.discovery.PartitionService;
+import org.thingsboard.server.queue.discovery.TbApplicationEventListener;
+import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+
+/**
+ * Restricts the latest timeseries cache to the entities from the core partitions of the current node
+ * and invalidates the cache on partition change.
+ * Saves and deletes made by other nodes reach the owner node as core messages and evict the entity there,
+ * see {@link org.thingsboard.server.service.queue.DefaultTbCoreConsumerService}.
+ */
+@Slf4j
+@Service
+public class TsKvLatestCachePartitionListener extends TbApplicationEventListener<PartitionChangeEvent> {
+
+    @Autowired
+    private PartitionService partitionService;
+
+    @Autowired
+    private Optional<TsKvLatestCache> latestCache;
+
+    @PostConstruct
+    public void init() {
+        latestCache.filter(TsKvLatestCache::isEnabled).ifPresent(cache -> cache.setCacheableFilter((tenantId, entityId) ->
+                partitionService.resolve(ServiceType.TB_CORE, tenantId, entityId).isMyPartition()));
+    }
+
+    @Override
+    protected void onTbApplicationEvent(PartitionChangeEvent partitionChangeEvent) {
+        if (ServiceType.TB_CORE.equals(partitionChangeEvent.getServiceType())) {
+            latestCache.filter(TsKvLatestCache::isEnabled).ifPresent(cache -> {
+                log.debug("Invalidating latest timeseries cache due to partition change");
+                cache.invalidateAll();
+            });
+        }
+    }
+}
@@ -31,12 +31,13 @@ public abstract class SubscriptionCmd implements TelemetryPluginCmd {
     private String keys;
     private String scope;
     private boolean unsubscribe;
+    private SubscriptionConflationMode conflation;
 
     public abstract TelemetryFeature getType();
 
     @Override
     public String toString() {
-        return "SubscriptionCmd [entityType=" + entityType  + ", entityId=" + entityId + ", tags=" + keys + ", unsubscribe=" + unsubscribe + "]";
+        return "SubscriptionCmd [entityType=" + entityType  + ", entityId=" + entityId + ", tags=" + keys + ", unsubscribe=" + unsubscribe + ", conflation=" + conflation + "]";
     }
 
 }
@@ -0,0 +1,32 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry.cmd.v1;
+
+/**
+ * Merge strategy of the telemetry updates received by the subscription within the conflation window.
+ */
+public enum SubscriptionConflationMode {
+
+    /**
+     * Only the latest value of each key is sent.
+     */
+    LATEST,
+    /**
+     * All values of each key are sent in the single update.
+     */
+    ALL
+
+}
@@ -80,6 +80,8 @@ import org.thingsboard.server.gen.transport.TransportProtos.GetEntityProfileRequ
 import org.thingsboard.server.gen.transport.TransportProtos.GetEntityProfileResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDeviceFromGatewayRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDeviceFromGatewayResponseMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDevicesFromGatewayRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDevicesFromGatewayResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetResourceRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetSnmpDevicesRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetSnmpDevicesResponseMsg;
@@ -89,6 +91,8 @@ import org.thingsboard.server.gen.transport.TransportProtos.TransportApiResponse
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceCredentialsResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceLwM2MCredentialsRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokenRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokensRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokensResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceX509CertRequestMsg;
 import org.thingsboard.server.queue.common.TbProtoQueueMsg;
 import org.thingsboard.server.queue.util.TbCoreComponent;
@@ -99,7 +103,13 @@ import org.thingsboard.server.cluster.TbClusterService;
 import org.thingsboard.server.service.resource.TbResourceService;
 import org.thingsboard.server.service.state.DeviceStateService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -143,6 +153,8 @@ public class DefaultTransportApiService implements TransportApiService {
         if (transportApiRequestMsg.hasValidateTokenRequestMsg()) {
             ValidateDeviceTokenRequestMsg msg = transportApiRequestMsg.getValidateTokenRequestMsg();
             result = validateCredentials(msg.getToken(), DeviceCredentialsType.ACCESS_TOKEN);
+        } else if (transportApiRequestMsg.hasValidateTokensRequestMsg()) {
+            result = handle(transportApiRequestMsg.getValidateTokensRequestMsg());
         } else if (transportApiRequestMsg.hasValidateBasicMqttCredRequestMsg()) {
             TransportProtos.ValidateBasicMqttCredRequestMsg msg = transportApiRequestMsg.getValidateBasicMqttCredRequestMsg();
             result = validateCredentials(msg);
@@ -151,6 +163,8 @@ public class DefaultTransportApiService implements TransportApiService {
             result = validateCredentials(msg.getHash(), DeviceCredentialsType.X509_CERTIFICATE);
         } else if (transportApiRequestMsg.hasGetOrCreateDeviceRequestMsg()) {
             result = handle(transportApiRequestMsg.getGetOrCreateDeviceRequestMsg());
+        } else if (transportApiRequestMsg.hasGetOrCreateDevicesRequestMsg()) {
+            result = handle(transportApiRequestMsg.getGetOrCreateDevicesRequestMsg());
         } else if (transportApiRequestMsg.hasEntityProfileRequestMsg()) {
             result = handle(transportApiRequestMsg.getEntityProfileRequestMsg());
         } else if (transportApiRequestMsg.hasLwM2MRequestMsg()) {
@@ -187,6 +201,40 @@ public class DefaultTransportApiService implements TransportApiService {
         }
     }
 
+    private ListenableFuture<TransportApiResponseMsg> handle(ValidateDeviceTokensRequestMsg requestMsg) {
+        List<ListenableFuture<TransportApiResponseMsg>> futures = new ArrayList<>(requestMsg.getTokensCount());
+        for (ValidateDeviceTokenRequestMsg msg : requestMsg.getTokensList()) {
+            try {
+                futures.add(validateCredentials(msg.getToken(), DeviceCredentialsType.ACCESS_TOKEN));
+            } catch (Exception e) {
+                futures.add(Futures.immediateFailedFuture(e));
+            }
+        }
+        return Futures.transform(Futures.successfulAsList(futures), responses -> {
+            Set<UUID> sentProfiles = new HashSet<>();
+            ValidateDeviceTokensResponseMsg.Builder result = ValidateDeviceTokensResponseMsg.newBuilder();
+            for (int i = 0; i < responses.size(); i++) {
+                TransportApiResponseMsg response = responses.get(i);
+                if (response == null) {
+                    log.debug("Failed to validate token #{} of the batch", i);
+                    result.addResponses(ValidateDeviceCredentialsResponseMsg.getDefaultInstance());
+                    result.addFailedTokens(i);
+                    continue;
+                }
+                ValidateDeviceCredentialsResponseMsg msg = response.getValidateCredResponseMsg();
+                DeviceInfoProto deviceInfo = msg.getDeviceInfo();
+                if (!msg.getProfileBody().isEmpty()
+                        && !sentProfiles.add(new UUID(deviceInfo.getDeviceProfileIdMSB(), deviceInfo.getDeviceProfileIdLSB()))) {
+                    msg = msg.toBuilder().clearProfileBody().build();
+                }
+                result.addResponses(msg);
+            }
+            return TransportApiResponseMsg.newBuilder()
+                    .setValidateTokensResponseMsg(result.build())
+                    .build();
+        }, MoreExecutors.directExecutor());
+    }
+
     private ListenableFuture<TransportApiResponseMsg> validateCredentials(TransportProtos.ValidateBasicMqttCredRequestMsg mqtt) {
         DeviceCredentials credentials = null;
         if (!StringUtils.isEmpty(mqtt.getUserName())) {
@@ -252,57 +300,106 @@ public class DefaultTransportApiService implements TransportApiService {
         DeviceId gatewayId = new DeviceId(new UUID(requestMsg.getGatewayIdMSB(), requestMsg.getGatewayIdLSB()));
         ListenableFuture<Device> gatewayFuture = deviceService.findDeviceByIdAsync(TenantId.SYS_TENANT_ID, gatewayId);
         return Futures.transform(gatewayFuture, gateway -> {
-            Lock deviceCreationLock = deviceCreationLocks.computeIfAbsent(requestMsg.getDeviceName(), id -> new ReentrantLock());
-            deviceCreationLock.lock();
-            try {
-                Device device = deviceService.findDeviceByTenantIdAndName(gateway.getTenantId(), requestMsg.getDeviceName());
-                if (device == null) {
-                    TenantId tenantId = gateway.getTenantId();
-                    device = new Device();
-                    device.setTenantId(tenantId);
-                    device.setName(requestMsg.getDeviceName());
-                    device.setType(requestMsg.getDeviceType());
-                    device.setCustomerId(gateway.getCustomerId());
-                    DeviceProfile deviceProfile = deviceProfileCache.findOrCreateDeviceProfile(gateway.getTenantId(), requestMsg.getDeviceType());
-                    device.setDeviceProfileId(deviceProfile.getId());
-                    Device savedDevice = deviceService.saveDevice(device);
-                    tbClusterService.onDeviceUpdated(savedDevice, null);
-                    device = savedDevice;
-
-                    relationService.saveRelationAsync(TenantId.SYS_TENANT_ID, new EntityRelation(gateway.getId(), device.getId(), "Created"));
-
-                    TbMsgMetaData metaData = new TbMsgMetaData();
-                    CustomerId customerId = gateway.getCustomerId();
-                    if (customerId != null && !customerId.isNullUid()) {
-                        metaData.putValue("customerId", customerId.toString());
-                    }
-                    metaData.putValue("gatewayId", gatewayId.toString());
+            Device device = getOrCreateDevice(gateway, requestMsg.getDeviceName(), requestMsg.getDeviceType());
+            GetOrCreateDeviceFromGatewayResponseMsg.Builder builder = GetOrCreateDeviceFromGatewayResponseMsg.newBuilder()
+                    .setDeviceInfo(getDeviceInfoProto(device));
+            DeviceProfile deviceProfile = deviceProfileCache.get(device.getTenantId(), device.getDeviceProfileId());
+            if (deviceProfile != null) {
+                builder.setProfileBody(ByteString.copyFrom(dataDecodingEncodingService.encode(deviceProfile)));
+            } else {
+                log.warn("[{}] Failed to find device profile [{}] for device. ", device.getId(), device.getDeviceProfileId());
+            }
+            return TransportApiResponseMsg.newBuilder()
+                    .setGetOrCreateDeviceResponseMsg(builder.build())
+                    .build();
+        }, dbCallbackExecutorService);
+    }
 
-                    DeviceId deviceId = device.getId();
-                    ObjectNode entityNode = mapper.valueToTree(device);
-                    TbMsg tbMsg = TbMsg.newMsg(DataConstants.ENTITY_CREATED, deviceId, customerId, metaData, TbMsgDataType.JSON, mapper.writeValueAsString(entityNode));
-                    tbClusterService.pushMsgToRuleEngine(tenantId, deviceId, tbMsg, null);
-                }
-                GetOrCreateDeviceFromGatewayResponseMsg.Builder builder = GetOrCreateDeviceFromGatewayResponseMsg.newBuilder()
-                        .setDeviceInfo(getDeviceInfoProto(device));
-                DeviceProfile deviceProfile = deviceProfileCache.get(device.getTenantId(), device.getDeviceProfileId());
-                if (deviceProfile != null) {
-                    builder.setProfileBody(ByteString.copyFrom(dataDecodingEncodingService.encode(deviceProfile)));
-                } else {
-                    log.warn("[{}] Failed to find device profile [{}] for device. ", device.getId(), device.getDeviceProfileId());
+    /**
+     * Resolves all devices of the gateway message at once: existing devices are fetched with a single query,
+     * only the missing ones are created one by one. The profile body is sent once per device profile.
+     */
+    private ListenableFuture<TransportApiResponseMsg> handle(GetOrCreateDevicesFromGatewayRequestMsg requestMsg) {
+        DeviceId gatewayId = new DeviceId(new UUID(requestMsg.getGatewayIdMSB(), requestMsg.getGatewayIdLSB()));
+        ListenableFuture<Device> gatewayFuture = deviceService.findDeviceByIdAsync(TenantId.SYS_TENANT_ID, gatewayId);
+        return Futures.transform(gatewayFuture, gateway -> {
+            List<String> deviceNames = requestMsg.getDevicesList().stream()
+                    .map(GetOrCreateDeviceFromGatewayRequestMsg::getDeviceName).collect(Collectors.toList());
+            Map<String, Device> existingDevices = new HashMap<>();
+            for (Device device : deviceService.findDevicesByTenantIdAndNames(gateway.getTenantId(), deviceNames)) {
+                existingDevices.put(device.getName(), device);
+            }
+            Set<DeviceProfileId> sentProfiles = new HashSet<>();
+            GetOrCreateDevicesFromGatewayResponseMsg.Builder result = GetOrCreateDevicesFromGatewayResponseMsg.newBuilder();
+            for (GetOrCreateDeviceFromGatewayRequestMsg deviceRequest : requestMsg.getDevicesList()) {
+                GetOrCreateDeviceFromGatewayResponseMsg.Builder builder = GetOrCreateDeviceFromGatewayResponseMsg.newBuilder();
+                try {
+                    Device device = existingDevices.get(deviceRequest.getDeviceName());
+                    if (device == null) {
+                        device = getOrCreateDevice(gateway, deviceRequest.getDeviceName(), deviceRequest.getDeviceType());
+                    }
+                    builder.setDeviceInfo(getDeviceInfoProto(device));
+                    if (sentProfiles.add(device.getDeviceProfileId())) {
+                        DeviceProfile deviceProfile = deviceProfileCache.get(device.getTenantId(), device.getDeviceProfileId());
+                        if (deviceProfile != null) {
+                            builder.setProfileBody(ByteString.copyFrom(dataDecodingEncodingService.encode(deviceProfile)));
+                        } else {
+                            log.warn("[{}] Failed to find device profile [{}] for device. ", device.getId(), device.getDeviceProfileId());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("[{}] Failed to get or create device [{}] for the gateway", gatewayId, deviceRequest.getDeviceName(), e);
                 }
-                return TransportApiResponseMsg.newBuilder()
-                        .setGetOrCreateDeviceResponseMsg(builder.build())
-                        .build();
-            } catch (JsonProcessingException e) {
-                log.warn("[{}] Failed to lookup device by gateway id and name: [{}]", gatewayId, requestMsg.getDeviceName(), e);
-                throw new RuntimeException(e);
-            } finally {
-                deviceCreationLock.unlock();
+                result.addDevices(builder.build());
             }
+            return TransportApiResponseMsg.newBuilder()
+                    .setGetOrCreateDevicesResponseMsg(result.build())
+                    .build();
         }, dbCallbackExecutorService);
     }
 
+    private Device getOrCreateDevice(Device gateway, String deviceName, String deviceType) {
+        DeviceId gatewayId = gateway.getId();
+        Lock deviceCreationLock = deviceCreationLocks.computeIfAbsent(deviceName, id -> new ReentrantLock());
+        deviceCreationLock.lock();
+        try {
+            Device device = deviceService.findDeviceByTenantIdAndName(gateway.getTenantId(), deviceName);
+            if (device == null) {
+                TenantId tenantId = gateway.getTenantId();
+                device = new Device();
+                device.setTenantId(tenantId);
+                device.setName(deviceName);
+                device.setType(deviceType);
+                device.setCustomerId(gateway.getCustomerId());
+                DeviceProfile deviceProfile = deviceProfileCache.findOrCreateDeviceProfile(gateway.getTenantId(), deviceType);
+                device.setDeviceProfileId(deviceProfile.getId());
+                Device savedDevice = deviceService.saveDevice(device);
+                tbClusterService.onDeviceUpdated(savedDevice, null);
+                device = savedDevice;
+
+                relationService.saveRelationAsync(TenantId.SYS_TENANT_ID, new EntityRelation(gateway.getId(), device.getId(), "Created"));
+
+                TbMsgMetaData metaData = new TbMsgMetaData();
+                CustomerId customerId = gateway.getCustomerId();
+                if (customerId != null && !customerId.isNullUid()) {
+                    metaData.putValue("customerId", customerId.toString());
+                }
+                metaData.putValue("gatewayId", gatewayId.toString());
+
+                DeviceId deviceId = device.getId();
+                ObjectNode entityNode = mapper.valueToTree(device);
+                TbMsg tbMsg = TbMsg.newMsg(DataConstants.ENTITY_CREATED, deviceId, customerId, metaData, TbMsgDataType.JSON, mapper.writeValueAsString(entityNode));
+                tbClusterService.pushMsgToRuleEngine(tenantId, deviceId, tbMsg, null);
+            }
+            return device;
+        } catch (JsonProcessingException e) {
+            log.warn("[{}] Failed to lookup device by gateway id and name: [{}]", gatewayId, deviceName, e);
+            throw new RuntimeException(e);
+        } finally {
+            deviceCreationLock.unlock();
+        }
+    }
+
     private ListenableFuture<TransportApiResponseMsg> handle(ProvisionDeviceRequestMsg requestMsg) {
         ListenableFuture<ProvisionResponse> provisionResponseFuture = null;
         try {
@@ -52,4 +52,9 @@ public class TransportToDeviceActorMsgWrapper implements TbActorMsg, DeviceAware
     public MsgType getMsgType() {
         return MsgType.TRANSPORT_TO_DEVICE_ACTOR_MSG;
     }
+
+    @Override
+    public void onTbActorMailboxOverflow() {
+        callback.onFailure(new RuntimeException("Device actor mailbox is full!"));
+    }
 }
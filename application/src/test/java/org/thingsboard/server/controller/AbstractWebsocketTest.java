@@ -25,6 +25,9 @@ import io.jsonwebtoken.Jwts;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.Matcher;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.protocols.Protocol;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -77,6 +80,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -112,4 +116,11 @@ public abstract class AbstractWebsocketTest extends AbstractWebTest {
         return wsClient;
     }
 
+    protected TbTestWebSocketClient buildAndConnectWebSocketClient(String subProtocol) throws URISyntaxException, InterruptedException {
+        Draft draft = new Draft_6455(Collections.emptyList(), Collections.singletonList(new Protocol(subProtocol)));
+        TbTestWebSocketClient wsClient = new TbTestWebSocketClient(new URI(WS_URL + wsPort + "/api/ws/plugins/telemetry?token=" + token), draft);
+        Assert.assertTrue(wsClient.connectBlocking());
+        return wsClient;
+    }
+
 }
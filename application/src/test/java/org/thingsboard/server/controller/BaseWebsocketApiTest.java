@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.util.concurrent.FutureCallback;
 import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -23,7 +24,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.thingsboard.server.common.data.Device;
+import org.thingsboard.server.common.data.exception.ThingsboardErrorCode;
 import org.thingsboard.server.common.data.Tenant;
 import org.thingsboard.server.common.data.User;
 import org.thingsboard.server.common.data.id.CustomerId;
@@ -47,8 +50,10 @@ import org.thingsboard.server.common.data.query.KeyFilter;
 import org.thingsboard.server.common.data.query.NumericFilterPredicate;
 import org.thingsboard.server.common.data.query.TsValue;
 import org.thingsboard.server.common.data.security.Authority;
+import org.thingsboard.server.controller.plugin.TbWebSocketHandler;
 import org.thingsboard.server.service.subscription.TbAttributeSubscriptionScope;
 import org.thingsboard.server.service.telemetry.TelemetrySubscriptionService;
+import org.thingsboard.server.service.telemetry.TelemetryWebSocketProtocol;
 import org.thingsboard.server.service.telemetry.cmd.TelemetryPluginCmdsWrapper;
 import org.thingsboard.server.service.telemetry.cmd.v2.EntityCountCmd;
 import org.thingsboard.server.service.telemetry.cmd.v2.EntityCountUpdate;
@@ -77,6 +82,9 @@ public abstract class BaseWebsocketApiTest extends AbstractWebsocketTest {
     @Autowired
     private TelemetrySubscriptionService tsService;
 
+    @Autowired
+    private TbWebSocketHandler wsHandler;
+
     @Before
     public void beforeTest() throws Exception {
         loginSysAdmin();
@@ -748,6 +756,70 @@ public abstract class BaseWebsocketApiTest extends AbstractWebsocketTest {
         Assert.assertEquals(new TsValue(dataPoint5.getLastUpdateTs(), dataPoint5.getValueAsString()), attrValue);
     }
 
+    @Test
+    public void testEntityDataLatestTsWsCmdOverCbor() throws Exception {
+        Device device = new Device();
+        device.setName("Device");
+        device.setType("default");
+        device.setLabel("testLabel" + (int) (Math.random() * 1000));
+        device = doPost("/api/device", device, Device.class);
+
+        String perSessionUpdatesConfiguration = (String) ReflectionTestUtils.getField(wsHandler, "perSessionUpdatesConfiguration");
+        // The data reply and the first update fit the limit, the second update is rejected
+        ReflectionTestUtils.setField(wsHandler, "perSessionUpdatesConfiguration", "2:60");
+        TbTestWebSocketClient cborClient = buildAndConnectWebSocketClient(TelemetryWebSocketProtocol.CBOR.getSubProtocol());
+        try {
+            Assert.assertEquals(TelemetryWebSocketProtocol.CBOR.getSubProtocol(), cborClient.getProtocol().getProvidedProtocol());
+
+            DeviceTypeFilter dtf = new DeviceTypeFilter();
+            dtf.setDeviceNameFilter("D");
+            dtf.setDeviceType("default");
+            EntityDataQuery edq = new EntityDataQuery(dtf, new EntityDataPageLink(1, 0, null, null), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+            LatestValueCmd latestCmd = new LatestValueCmd();
+            latestCmd.setKeys(Collections.singletonList(new EntityKey(EntityKeyType.TIME_SERIES, "temperature")));
+            EntityDataCmd cmd = new EntityDataCmd(1, edq, null, latestCmd, null);
+
+            TelemetryPluginCmdsWrapper wrapper = new TelemetryPluginCmdsWrapper();
+            wrapper.setEntityDataCmds(Collections.singletonList(cmd));
+
+            cborClient.send(TelemetryWebSocketProtocol.CBOR_MAPPER.writeValueAsBytes(wrapper));
+            byte[] msg = cborClient.waitForBinaryReply();
+            Assert.assertNotNull(msg);
+            EntityDataUpdate update = TelemetryWebSocketProtocol.CBOR_MAPPER.readValue(msg, EntityDataUpdate.class);
+            Assert.assertEquals(1, update.getCmdId());
+            PageData<EntityData> pageData = update.getData();
+            Assert.assertNotNull(pageData);
+            Assert.assertEquals(1, pageData.getData().size());
+            Assert.assertEquals(device.getId(), pageData.getData().get(0).getEntityId());
+
+            TsKvEntry dataPoint1 = new BasicTsKvEntry(System.currentTimeMillis(), new LongDataEntry("temperature", 42L));
+            cborClient.registerWaitForUpdate();
+            sendTelemetry(device, Arrays.asList(dataPoint1));
+            msg = cborClient.waitForBinaryUpdate();
+            Assert.assertNotNull(msg);
+            update = TelemetryWebSocketProtocol.CBOR_MAPPER.readValue(msg, EntityDataUpdate.class);
+            Assert.assertEquals(1, update.getCmdId());
+            List<EntityData> eData = update.getUpdate();
+            Assert.assertNotNull(eData);
+            Assert.assertEquals(1, eData.size());
+            TsValue tsValue = eData.get(0).getLatest().get(EntityKeyType.TIME_SERIES).get("temperature");
+            Assert.assertEquals(new TsValue(dataPoint1.getTs(), dataPoint1.getValueAsString()), tsValue);
+
+            TsKvEntry dataPoint2 = new BasicTsKvEntry(System.currentTimeMillis() + 1, new LongDataEntry("temperature", 43L));
+            cborClient.registerWaitForUpdate();
+            sendTelemetry(device, Arrays.asList(dataPoint2));
+            msg = cborClient.waitForBinaryUpdate();
+            Assert.assertNotNull(msg);
+            JsonNode error = TelemetryWebSocketProtocol.CBOR_MAPPER.readTree(msg);
+            Assert.assertEquals(1, error.get("subscriptionId").asInt());
+            Assert.assertEquals(ThingsboardErrorCode.TOO_MANY_UPDATES.getErrorCode(), error.get("errorCode").asInt());
+        } finally {
+            cborClient.close();
+            ReflectionTestUtils.setField(wsHandler, "perSessionUpdatesConfiguration", perSessionUpdatesConfiguration);
+        }
+    }
+
     private void sendTelemetry(Device device, List<TsKvEntry> tsData) throws InterruptedException {
         CountDownLatch latch = new CountDownLatch(1);
         tsService.saveAndNotify(device.getTenantId(), null, device.getId(), tsData, 0, new FutureCallback<Void>() {
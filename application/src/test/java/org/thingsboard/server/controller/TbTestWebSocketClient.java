@@ -17,9 +17,11 @@ package org.thingsboard.server.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 public class TbTestWebSocketClient extends WebSocketClient {
 
     private volatile String lastMsg;
+    private volatile byte[] lastBinaryMsg;
     private CountDownLatch reply;
     private CountDownLatch update;
 
@@ -35,6 +38,10 @@ public class TbTestWebSocketClient extends WebSocketClient {
         super(serverUri);
     }
 
+    public TbTestWebSocketClient(URI serverUri, Draft draft) {
+        super(serverUri, draft);
+    }
+
     @Override
     public void onOpen(ServerHandshake serverHandshake) {
 
@@ -52,6 +59,20 @@ public class TbTestWebSocketClient extends WebSocketClient {
         }
     }
 
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        log.info("RECEIVED: {} bytes", bytes.remaining());
+        byte[] msg = new byte[bytes.remaining()];
+        bytes.get(msg);
+        lastBinaryMsg = msg;
+        if (reply != null) {
+            reply.countDown();
+        }
+        if (update != null) {
+            update.countDown();
+        }
+    }
+
     @Override
     public void onClose(int i, String s, boolean b) {
         log.error("CLOSED:");
@@ -64,6 +85,7 @@ public class TbTestWebSocketClient extends WebSocketClient {
 
     public void registerWaitForUpdate() {
         lastMsg = null;
+        lastBinaryMsg = null;
         update = new CountDownLatch(1);
     }
 
@@ -73,6 +95,12 @@ public class TbTestWebSocketClient extends WebSocketClient {
         super.send(text);
     }
 
+    @Override
+    public void send(byte[] data) throws NotYetConnectedException {
+        reply = new CountDownLatch(1);
+        super.send(data);
+    }
+
     public String waitForUpdate() {
         return waitForUpdate(TimeUnit.SECONDS.toMillis(3));
     }
@@ -94,4 +122,14 @@ public class TbTestWebSocketClient extends WebSocketClient {
         }
         return lastMsg;
     }
+
+    public byte[] waitForBinaryUpdate() {
+        waitForUpdate();
+        return lastBinaryMsg;
+    }
+
+    public byte[] waitForBinaryReply() {
+        waitForReply();
+        return lastBinaryMsg;
+    }
 }
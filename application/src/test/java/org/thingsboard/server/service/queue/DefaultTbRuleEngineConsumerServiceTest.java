@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.actors.ActorSystemContext;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.common.transport.util.DataDecodingEncodingService;
+import org.thingsboard.server.dao.tenant.TbTenantProfileCache;
+import org.thingsboard.server.gen.transport.TransportProtos.ToRuleEngineMsg;
+import org.thingsboard.server.queue.TbQueueConsumer;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+import org.thingsboard.server.queue.provider.TbRuleEngineQueueFactory;
+import org.thingsboard.server.queue.settings.TbQueueRuleEngineSettings;
+import org.thingsboard.server.queue.settings.TbRuleEngineQueueConfiguration;
+import org.thingsboard.server.service.apiusage.TbApiUsageStateService;
+import org.thingsboard.server.service.profile.TbDeviceProfileCache;
+import org.thingsboard.server.service.queue.processing.TbRuleEngineProcessingStrategyFactory;
+import org.thingsboard.server.service.queue.processing.TbRuleEngineSubmitStrategyFactory;
+import org.thingsboard.server.service.rpc.TbRuleEngineDeviceRpcService;
+import org.thingsboard.server.service.stats.RuleEngineStatisticsService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultTbRuleEngineConsumerServiceTest {
+
+    @Test
+    public void testUnpackBatches() {
+        TbProtoQueueMsg<ToRuleEngineMsg> single = new TbProtoQueueMsg<>(UUID.randomUUID(), ToRuleEngineMsg.newBuilder()
+                .setTenantIdMSB(1).setTenantIdLSB(2).setTbMsg(ByteString.copyFromUtf8("single")).build());
+        TbProtoQueueMsg<ToRuleEngineMsg> batch = new TbProtoQueueMsg<>(UUID.randomUUID(), ToRuleEngineMsg.newBuilder()
+                .setTenantIdMSB(1).setTenantIdLSB(2)
+                .addTbMsgBatch(ByteString.copyFromUtf8("first"))
+                .addTbMsgBatch(ByteString.copyFromUtf8("second")).build());
+
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> msgs = Arrays.asList(single, batch);
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> result = DefaultTbRuleEngineConsumerService.unpackBatches(msgs);
+
+        assertEquals(3, result.size());
+        assertSame(single, result.get(0));
+        assertEquals("first", result.get(1).getValue().getTbMsg().toStringUtf8());
+        assertEquals("second", result.get(2).getValue().getTbMsg().toStringUtf8());
+        assertEquals(1, result.get(2).getValue().getTenantIdMSB());
+        assertEquals(2, result.get(2).getValue().getTenantIdLSB());
+        assertEquals(0, result.get(2).getValue().getTbMsgBatchCount());
+    }
+
+    @Test
+    public void testUnpackWithoutBatchesReturnsSameList() {
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> msgs = Arrays.asList(new TbProtoQueueMsg<>(UUID.randomUUID(),
+                ToRuleEngineMsg.newBuilder().setTbMsg(ByteString.copyFromUtf8("single")).build()));
+        assertSame(msgs, DefaultTbRuleEngineConsumerService.unpackBatches(msgs));
+    }
+
+    @Test
+    public void testPipelinedLoopCommitsContiguousPrefixOnly() throws Exception {
+        DefaultTbRuleEngineConsumerService service = Mockito.spy(new DefaultTbRuleEngineConsumerService(
+                mock(TbRuleEngineProcessingStrategyFactory.class), mock(TbRuleEngineSubmitStrategyFactory.class), mock(TbQueueRuleEngineSettings.class),
+                mock(TbRuleEngineQueueFactory.class), mock(RuleEngineStatisticsService.class), mock(ActorSystemContext.class),
+                mock(DataDecodingEncodingService.class), mock(TbRuleEngineDeviceRpcService.class), mock(StatsFactory.class),
+                mock(TbDeviceProfileCache.class), mock(TbTenantProfileCache.class), mock(TbApiUsageStateService.class)));
+        ReflectionTestUtils.setField(service, "pollDuration", 10L);
+
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> first = pack("first");
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> second = pack("second");
+        List<TbProtoQueueMsg<ToRuleEngineMsg>> third = pack("third");
+        AtomicLong pollPosition = new AtomicLong();
+        TbQueueConsumer<TbProtoQueueMsg<ToRuleEngineMsg>> consumer = mock(TbQueueConsumer.class);
+        when(consumer.poll(anyLong())).thenAnswer(invocation -> {
+            long position = pollPosition.incrementAndGet();
+            return position == 1 ? first : position == 2 ? second : position == 3 ? third : Collections.emptyList();
+        });
+        when(consumer.getPollPosition()).thenAnswer(invocation -> pollPosition.get());
+
+        CountDownLatch firstPackLatch = new CountDownLatch(1);
+        CountDownLatch packsStarted = new CountDownLatch(3);
+        doAnswer(invocation -> {
+            packsStarted.countDown();
+            if (invocation.getArgument(0) == first) {
+                firstPackLatch.await();
+            }
+            return null;
+        }).when(service).processPack(any(), any(), any());
+
+        TbRuleEngineQueueConfiguration configuration = new TbRuleEngineQueueConfiguration();
+        configuration.setName("Main");
+        configuration.setMaxInFlightPacks(2);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> service.pipelinedConsumerLoop(consumer, configuration, mock(TbRuleEngineConsumerStats.class), "Main"));
+
+            Thread.sleep(200);
+            assertEquals(1, packsStarted.getCount());
+            verify(consumer, times(2)).poll(anyLong());
+            verify(consumer, never()).commit(anyLong());
+
+            firstPackLatch.countDown();
+            assertTrue(packsStarted.await(5, TimeUnit.SECONDS));
+            verify(consumer, timeout(5000)).commit(3);
+            InOrder inOrder = Mockito.inOrder(consumer);
+            inOrder.verify(consumer).commit(2);
+            inOrder.verify(consumer).commit(3);
+            verify(consumer, never()).commit(1);
+            verify(consumer, never()).commit();
+        } finally {
+            ReflectionTestUtils.setField(service, "stopped", true);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            service.packExecutor.shutdownNow();
+        }
+    }
+
+    private static List<TbProtoQueueMsg<ToRuleEngineMsg>> pack(String data) {
+        return Collections.singletonList(new TbProtoQueueMsg<>(UUID.randomUUID(),
+                ToRuleEngineMsg.newBuilder().setTbMsg(ByteString.copyFromUtf8(data)).build()));
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TbMsgPackPipelineTest {
+
+    @Test
+    public void testCommitPositionIsContiguousPrefix() throws InterruptedException {
+        TbMsgPackPipeline pipeline = new TbMsgPackPipeline(3);
+        assertTrue(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+        TbMsgPackPipeline.Pack first = pipeline.register(1);
+        assertTrue(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+        TbMsgPackPipeline.Pack second = pipeline.register(2);
+        assertTrue(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+        TbMsgPackPipeline.Pack third = pipeline.register(3);
+        assertFalse(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+        pipeline.complete(second);
+        assertEquals(-1, pipeline.pollCommitPosition());
+        assertFalse(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+        pipeline.complete(first);
+        assertEquals(2, pipeline.pollCommitPosition());
+        assertEquals(1, pipeline.getInFlightCount());
+        assertTrue(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertTrue(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(pipeline.tryAcquire(0, TimeUnit.MILLISECONDS));
+        pipeline.release();
+        pipeline.release();
+
+        pipeline.complete(third);
+        assertEquals(3, pipeline.pollCommitPosition());
+        assertEquals(-1, pipeline.pollCommitPosition());
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+}
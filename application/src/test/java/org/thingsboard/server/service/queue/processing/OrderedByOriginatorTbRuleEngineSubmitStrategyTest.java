@@ -0,0 +1,149 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.processing;
+
+import com.google.protobuf.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.server.common.msg.gen.MsgProtos;
+import org.thingsboard.server.gen.transport.TransportProtos;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedByOriginatorTbRuleEngineSubmitStrategyTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderPerOriginator() throws InterruptedException {
+        List<UUID> originators = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            originators.add(UUID.randomUUID());
+        }
+        List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            for (UUID originator : originators) {
+                msgs.add(createMsg(originator, i));
+            }
+        }
+        OrderedByOriginatorTbRuleEngineSubmitStrategy strategy = new OrderedByOriginatorTbRuleEngineSubmitStrategy("test", 16);
+        strategy.init(msgs);
+        assertEquals(msgs.size(), strategy.getPendingMap().size());
+
+        List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> submitted = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(msgs.size());
+        strategy.submitAttempt((id, msg) -> executor.execute(() -> {
+            submitted.add(msg);
+            latch.countDown();
+            strategy.onSuccess(id);
+            strategy.onSuccess(id);
+        }));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(msgs.size(), submitted.size());
+
+        Map<UUID, Integer> lastSeq = new HashMap<>();
+        for (TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg> msg : submitted) {
+            MsgProtos.TbMsgProto proto = parse(msg);
+            UUID originator = new UUID(proto.getEntityIdMSB(), proto.getEntityIdLSB());
+            int seq = Integer.parseInt(proto.getData());
+            assertEquals(lastSeq.getOrDefault(originator, -1) + 1, seq);
+            lastSeq.put(originator, seq);
+        }
+    }
+
+    @Test
+    public void testUpdateResubmitsOnlyReprocessedMsgs() {
+        UUID originator = UUID.randomUUID();
+        List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            msgs.add(createMsg(originator, i));
+        }
+        msgs.add(new TbProtoQueueMsg<>(UUID.randomUUID(), TransportProtos.ToRuleEngineMsg.newBuilder()
+                .setTbMsg(ByteString.copyFromUtf8("not a message")).build()));
+        OrderedByOriginatorTbRuleEngineSubmitStrategy strategy = new OrderedByOriginatorTbRuleEngineSubmitStrategy("test", 4);
+        strategy.init(msgs);
+
+        List<UUID> submitted = new ArrayList<>();
+        strategy.submitAttempt((id, msg) -> submitted.add(id));
+        int firstAttemptSize = submitted.size();
+        assertTrue(firstAttemptSize >= 1 && firstAttemptSize <= 2);
+        UUID staleId = submitted.get(0);
+
+        ConcurrentMap<UUID, TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> reprocessMap = new ConcurrentHashMap<>(strategy.getPendingMap());
+        strategy.update(reprocessMap);
+        assertEquals(msgs.size(), strategy.getPendingMap().size());
+
+        submitted.clear();
+        strategy.submitAttempt((id, msg) -> submitted.add(id));
+        assertEquals(firstAttemptSize, submitted.size());
+        strategy.onSuccess(staleId);
+        assertEquals(firstAttemptSize, submitted.size());
+
+        List<UUID> acknowledged = new ArrayList<>();
+        while (acknowledged.size() < submitted.size()) {
+            UUID id = submitted.get(acknowledged.size());
+            acknowledged.add(id);
+            strategy.onSuccess(id);
+        }
+        assertEquals(msgs.size(), acknowledged.size());
+    }
+
+    private static TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg> createMsg(UUID originator, int seq) {
+        MsgProtos.TbMsgProto tbMsg = MsgProtos.TbMsgProto.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setType("POST_TELEMETRY_REQUEST")
+                .setEntityType("DEVICE")
+                .setEntityIdMSB(originator.getMostSignificantBits())
+                .setEntityIdLSB(originator.getLeastSignificantBits())
+                .setData(Integer.toString(seq))
+                .build();
+        return new TbProtoQueueMsg<>(UUID.randomUUID(), TransportProtos.ToRuleEngineMsg.newBuilder().setTbMsg(tbMsg.toByteString()).build());
+    }
+
+    private static MsgProtos.TbMsgProto parse(TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg> msg) {
+        try {
+            return MsgProtos.TbMsgProto.parseFrom(msg.getValue().getTbMsg());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.thingsboard.server.common.msg.gen.MsgProtos;
+import org.thingsboard.server.gen.transport.TransportProtos;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+import org.thingsboard.server.queue.settings.TbRuleEngineQueueSubmitStrategyConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the submit strategies that keep the order of messages on the pack of messages from 100k originators.
+ * Each operation initializes the strategy with the pack and waits until all messages are acknowledged
+ * by the pool of workers, which emulates the rule engine submit executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderedSubmitStrategyBenchmark {
+
+    private static final int ORIGINATORS_COUNT = 100000;
+    private static final int WORKERS_COUNT = 4;
+
+    @Param({"1", "5"})
+    private int msgsPerOriginator;
+
+    @Param({"SEQUENTIAL_BY_ORIGINATOR", "ORDERED_BY_ORIGINATOR", "SEQUENTIAL"})
+    private String strategyType;
+
+    private TbRuleEngineSubmitStrategyFactory factory;
+    private TbRuleEngineQueueSubmitStrategyConfiguration configuration;
+    private List<TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg>> msgs;
+    private ExecutorService workers;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        factory = new TbRuleEngineSubmitStrategyFactory();
+        configuration = new TbRuleEngineQueueSubmitStrategyConfiguration();
+        configuration.setType(strategyType);
+        workers = Executors.newFixedThreadPool(WORKERS_COUNT);
+
+        Random random = new Random(42);
+        List<UUID> originators = new ArrayList<>(ORIGINATORS_COUNT);
+        for (int i = 0; i < ORIGINATORS_COUNT; i++) {
+            originators.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        msgs = new ArrayList<>(ORIGINATORS_COUNT * msgsPerOriginator);
+        for (int i = 0; i < msgsPerOriginator; i++) {
+            Collections.shuffle(originators, random);
+            for (UUID originator : originators) {
+                msgs.add(createMsg(originator));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Benchmark
+    public void submitPack() throws InterruptedException {
+        TbRuleEngineSubmitStrategy strategy = factory.newInstance("benchmark", configuration);
+        CountDownLatch latch = new CountDownLatch(msgs.size());
+        strategy.init(msgs);
+        strategy.submitAttempt((id, msg) -> workers.execute(() -> {
+            latch.countDown();
+            strategy.onSuccess(id);
+        }));
+        if (!latch.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Pack was not processed in time");
+        }
+    }
+
+    private static TbProtoQueueMsg<TransportProtos.ToRuleEngineMsg> createMsg(UUID originator) {
+        MsgProtos.TbMsgProto tbMsg = MsgProtos.TbMsgProto.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setType("POST_TELEMETRY_REQUEST")
+                .setEntityType("DEVICE")
+                .setEntityIdMSB(originator.getMostSignificantBits())
+                .setEntityIdLSB(originator.getLeastSignificantBits())
+                .setData("{\"temperature\":42}")
+                .build();
+        TransportProtos.ToRuleEngineMsg msg = TransportProtos.ToRuleEngineMsg.newBuilder()
+                .setTbMsg(tbMsg.toByteString())
+                .build();
+        return new TbProtoQueueMsg<>(UUID.randomUUID(), msg);
+    }
+}
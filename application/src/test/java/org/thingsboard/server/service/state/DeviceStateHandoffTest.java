@@ -0,0 +1,253 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.state;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.cluster.TbClusterService;
+import org.thingsboard.server.common.data.DataConstants;
+import org.thingsboard.server.common.data.Device;
+import org.thingsboard.server.common.data.Tenant;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.AttributeKvEntry;
+import org.thingsboard.server.common.data.kv.BaseAttributeKvEntry;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.page.PageData;
+import org.thingsboard.server.common.msg.queue.ServiceQueue;
+import org.thingsboard.server.common.msg.queue.ServiceQueueKey;
+import org.thingsboard.server.common.msg.queue.ServiceType;
+import org.thingsboard.server.common.msg.queue.TbCallback;
+import org.thingsboard.server.common.msg.queue.TopicPartitionInfo;
+import org.thingsboard.server.dao.attributes.AttributesService;
+import org.thingsboard.server.dao.device.DeviceService;
+import org.thingsboard.server.dao.tenant.TenantService;
+import org.thingsboard.server.dao.timeseries.TimeseriesService;
+import org.thingsboard.server.gen.transport.TransportProtos;
+import org.thingsboard.server.queue.discovery.PartitionService;
+import org.thingsboard.server.queue.discovery.TbServiceInfoProvider;
+import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
+import org.thingsboard.server.service.telemetry.TelemetrySubscriptionService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceStateHandoffTest {
+
+    private static final long INACTIVITY_TIMEOUT = TimeUnit.DAYS.toMillis(1);
+
+    @Mock
+    TenantService tenantService;
+    @Mock
+    DeviceService deviceService;
+    @Mock
+    AttributesService attributesService;
+    @Mock
+    TimeseriesService tsService;
+    @Mock
+    TbClusterService clusterService;
+    @Mock
+    PartitionService partitionService;
+
+    final TopicPartitionInfo tpi = new TopicPartitionInfo("tb_core", null, 0, true);
+    final Tenant tenant = new Tenant(new TenantId(UUID.randomUUID()));
+    final List<Device> devices = new ArrayList<>();
+    final List<DefaultDeviceStateService> services = new ArrayList<>();
+    long lastActivityTime;
+
+    @Before
+    public void setUp() {
+        lastActivityTime = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+        for (int i = 0; i < 2; i++) {
+            Device device = new Device(new DeviceId(UUID.randomUUID()));
+            device.setTenantId(tenant.getId());
+            device.setName("Device " + i);
+            device.setType("default");
+            device.setCreatedTime(lastActivityTime - TimeUnit.DAYS.toMillis(1));
+            devices.add(device);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        services.forEach(service -> {
+            ReflectionTestUtils.setField(service, "handoffEnabled", false);
+            service.stop();
+        });
+    }
+
+    @Test
+    public void testStatesAreHandedOffToTheNewOwner() {
+        mockDbLoad();
+        when(partitionService.getAllServiceIds(ServiceType.TB_CORE)).thenReturn(new HashSet<>(Arrays.asList("core-1", "core-2")));
+        DefaultDeviceStateService sender = createService("core-1", 0);
+        sender.onTbApplicationEvent(partitionChangeEvent(Collections.singleton(tpi)));
+        await().atMost(10, TimeUnit.SECONDS).until(() -> isInitialized(sender));
+        Map<DeviceId, DeviceStateData> senderStates = new HashMap<>(sender.deviceStates);
+
+        sender.onTbApplicationEvent(partitionChangeEvent(Collections.emptySet()));
+        ArgumentCaptor<TransportProtos.ToCoreNotificationMsg> msgCaptor = ArgumentCaptor.forClass(TransportProtos.ToCoreNotificationMsg.class);
+        verify(clusterService, timeout(10000).times(2)).pushNotificationToCore(eq("core-2"), msgCaptor.capture(), isNull());
+        List<TransportProtos.ToCoreNotificationMsg> chunks = msgCaptor.getAllValues();
+
+        DefaultDeviceStateService receiver = createService("core-2", TimeUnit.MINUTES.toMillis(1));
+        // The first chunk arrives before the rebalance and the second one after it
+        receiver.onDeviceStateSnapshot(chunks.get(0).getDeviceStateSnapshotMsg(), TbCallback.EMPTY);
+        receiver.onTbApplicationEvent(partitionChangeEvent(Collections.singleton(tpi)));
+        awaitExecutor(receiver);
+        assertThat(receiver.deviceStates.isEmpty(), is(true));
+        receiver.onDeviceStateSnapshot(chunks.get(1).getDeviceStateSnapshotMsg(), TbCallback.EMPTY);
+        awaitExecutor(receiver);
+
+        assertThat(isInitialized(receiver), is(true));
+        for (Device device : devices) {
+            DeviceStateData expected = senderStates.get(device.getId());
+            DeviceStateData actual = receiver.deviceStates.get(device.getId());
+            assertThat(actual.getState(), is(expected.getState()));
+            assertThat(actual.getTenantId(), is(tenant.getId()));
+            assertThat(actual.getDeviceCreationTime(), is(device.getCreatedTime()));
+            assertThat(actual.getMetaData().getValue("deviceName"), is(device.getName()));
+        }
+        // Only the sender loaded the partition from the DB
+        verify(tenantService, times(1)).findTenants(any());
+    }
+
+    @Test
+    public void testSnapshotAfterPartitionLoadedFromDbIsIgnored() {
+        mockDbLoad();
+        DefaultDeviceStateService receiver = createService("core-2", 0);
+        receiver.onTbApplicationEvent(partitionChangeEvent(Collections.singleton(tpi)));
+        await().atMost(10, TimeUnit.SECONDS).until(() -> isInitialized(receiver));
+
+        TransportProtos.DeviceStateProto staleState = TransportProtos.DeviceStateProto.newBuilder()
+                .setTenantIdMSB(tenant.getId().getId().getMostSignificantBits())
+                .setTenantIdLSB(tenant.getId().getId().getLeastSignificantBits())
+                .setDeviceIdMSB(devices.get(0).getId().getId().getMostSignificantBits())
+                .setDeviceIdLSB(devices.get(0).getId().getId().getLeastSignificantBits())
+                .setActive(true)
+                .setLastActivityTime(lastActivityTime - 1000)
+                .setInactivityTimeout(INACTIVITY_TIMEOUT)
+                .build();
+        UUID snapshotId = UUID.randomUUID();
+        receiver.onDeviceStateSnapshot(TransportProtos.DeviceStateSnapshotMsg.newBuilder()
+                .setServiceId("core-1")
+                .setSnapshotIdMSB(snapshotId.getMostSignificantBits())
+                .setSnapshotIdLSB(snapshotId.getLeastSignificantBits())
+                .setPartition(tpi.getFullTopicName())
+                .setChunkIdx(0)
+                .setChunksCount(1)
+                .addStates(staleState)
+                .build(), TbCallback.EMPTY);
+        awaitExecutor(receiver);
+
+        assertThat(receiver.deviceStates.get(devices.get(0).getId()).getState().getLastActivityTime(), is(lastActivityTime));
+    }
+
+    @Test
+    public void testPartitionIsLoadedFromDbIfSnapshotIsNotReceived() {
+        mockDbLoad();
+        DefaultDeviceStateService receiver = createService(null, 1000);
+        receiver.onTbApplicationEvent(partitionChangeEvent(Collections.singleton(tpi)));
+        awaitExecutor(receiver);
+        verify(tenantService, never()).findTenants(any());
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> isInitialized(receiver));
+        assertThat(receiver.deviceStates.keySet(), is(Set.of(devices.get(0).getId(), devices.get(1).getId())));
+    }
+
+    private DefaultDeviceStateService createService(String serviceId, long handoffWaitTime) {
+        DefaultDeviceStateService service = new DefaultDeviceStateService(tenantService, deviceService, attributesService, tsService, clusterService, partitionService);
+        ReflectionTestUtils.setField(service, "defaultInactivityTimeoutInSec", 600L);
+        ReflectionTestUtils.setField(service, "defaultStateCheckIntervalInSec", 60);
+        ReflectionTestUtils.setField(service, "initFetchPackSize", 1000);
+        ReflectionTestUtils.setField(service, "handoffEnabled", true);
+        ReflectionTestUtils.setField(service, "handoffWaitTime", handoffWaitTime);
+        ReflectionTestUtils.setField(service, "handoffSnapshotTtl", TimeUnit.MINUTES.toMillis(1));
+        ReflectionTestUtils.setField(service, "handoffChunkSize", 1);
+        TbServiceInfoProvider serviceInfoProvider = mock(TbServiceInfoProvider.class);
+        if (serviceId != null) {
+            when(serviceInfoProvider.getServiceId()).thenReturn(serviceId);
+        }
+        service.setServiceInfoProvider(serviceInfoProvider);
+        service.setTsSubService(mock(TelemetrySubscriptionService.class));
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    private void mockDbLoad() {
+        when(tenantService.findTenants(any())).thenReturn(new PageData<>(Collections.singletonList(tenant), 1, 1, false));
+        when(deviceService.findDevicesByTenantId(eq(tenant.getId()), any())).thenReturn(new PageData<>(devices, 1, devices.size(), false));
+        for (Device device : devices) {
+            when(partitionService.resolve(ServiceType.TB_CORE, tenant.getId(), device.getId())).thenReturn(tpi);
+            List<AttributeKvEntry> attributes = Arrays.asList(
+                    new BaseAttributeKvEntry(new BooleanDataEntry(DefaultDeviceStateService.ACTIVITY_STATE, true), lastActivityTime),
+                    new BaseAttributeKvEntry(new LongDataEntry(DefaultDeviceStateService.LAST_ACTIVITY_TIME, lastActivityTime), lastActivityTime),
+                    new BaseAttributeKvEntry(new LongDataEntry(DefaultDeviceStateService.INACTIVITY_TIMEOUT, INACTIVITY_TIMEOUT), lastActivityTime));
+            when(attributesService.find(TenantId.SYS_TENANT_ID, device.getId(), DataConstants.SERVER_SCOPE, DefaultDeviceStateService.PERSISTENT_ATTRIBUTES))
+                    .thenReturn(Futures.immediateFuture(attributes));
+        }
+    }
+
+    private PartitionChangeEvent partitionChangeEvent(Set<TopicPartitionInfo> partitions) {
+        return new PartitionChangeEvent(this, new ServiceQueueKey(new ServiceQueue(ServiceType.TB_CORE), null), partitions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean isInitialized(DefaultDeviceStateService service) {
+        return ((Set<TopicPartitionInfo>) ReflectionTestUtils.getField(service, "initializedPartitions")).contains(tpi);
+    }
+
+    private void awaitExecutor(DefaultDeviceStateService service) {
+        ListeningScheduledExecutorService executor = (ListeningScheduledExecutorService) ReflectionTestUtils.getField(service, "scheduledExecutor");
+        try {
+            executor.submit(() -> {}).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.state;
+
+import org.junit.Test;
+import org.thingsboard.server.gen.transport.TransportProtos;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DeviceStateSnapshotTest {
+
+    @Test
+    public void testSnapshotIsCompleteOnceAllChunksAreReceived() {
+        DeviceStateSnapshot snapshot = new DeviceStateSnapshot(UUID.randomUUID(), 2, System.currentTimeMillis());
+        List<TransportProtos.DeviceStateProto> first = states(1);
+        List<TransportProtos.DeviceStateProto> second = states(2);
+
+        snapshot.addChunk(1, second);
+        assertThat(snapshot.isComplete(), is(false));
+        snapshot.addChunk(0, first);
+        assertThat(snapshot.isComplete(), is(true));
+        assertThat(snapshot.getChunks(), is(List.of(first, second)));
+    }
+
+    @Test
+    public void testDuplicateAndInvalidChunksAreIgnored() {
+        DeviceStateSnapshot snapshot = new DeviceStateSnapshot(UUID.randomUUID(), 2, System.currentTimeMillis());
+        List<TransportProtos.DeviceStateProto> first = states(1);
+
+        snapshot.addChunk(0, first);
+        snapshot.addChunk(0, states(2));
+        snapshot.addChunk(2, states(3));
+        snapshot.addChunk(-1, states(4));
+        assertThat(snapshot.isComplete(), is(false));
+        assertThat(snapshot.getChunks().get(0), is(first));
+    }
+
+    private static List<TransportProtos.DeviceStateProto> states(long lastActivityTime) {
+        UUID deviceId = UUID.randomUUID();
+        return Collections.singletonList(TransportProtos.DeviceStateProto.newBuilder()
+                .setDeviceIdMSB(deviceId.getMostSignificantBits())
+                .setDeviceIdLSB(deviceId.getLeastSignificantBits())
+                .setLastActivityTime(lastActivityTime)
+                .build());
+    }
+}
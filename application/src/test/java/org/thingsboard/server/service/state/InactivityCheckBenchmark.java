@@ -0,0 +1,117 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.state;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.thingsboard.server.common.data.id.DeviceId;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the CPU time of one inactivity check tick: the scan of all tracked device states against
+ * the advance of the timing wheel by one check interval. Devices report activity within the last inactivity timeout,
+ * so most of them stay active and the wheel touches only the expired and cascaded timers.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 20)
+@Measurement(iterations = 100)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InactivityCheckBenchmark {
+
+    private static final long INACTIVITY_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(60);
+
+    @Param({"1000000"})
+    private int devicesCount;
+
+    private ConcurrentMap<DeviceId, DeviceState> states;
+    private InactivityTimingWheel<DeviceId> wheel;
+    private DeviceId[] deviceIds;
+    private Random random;
+    private long ts;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        random = new Random(42);
+        ts = System.currentTimeMillis();
+        states = new ConcurrentHashMap<>(devicesCount);
+        wheel = new InactivityTimingWheel<>(1000);
+        deviceIds = new DeviceId[devicesCount];
+        wheel.advance(ts, (deviceId, now) -> {
+        });
+        for (int i = 0; i < devicesCount; i++) {
+            DeviceId deviceId = new DeviceId(UUID.randomUUID());
+            deviceIds[i] = deviceId;
+            DeviceState state = DeviceState.builder()
+                    .active(true)
+                    .lastActivityTime(ts - (long) (random.nextDouble() * INACTIVITY_TIMEOUT))
+                    .inactivityTimeout(INACTIVITY_TIMEOUT)
+                    .build();
+            states.put(deviceId, state);
+            wheel.schedule(deviceId, state.getLastActivityTime() + INACTIVITY_TIMEOUT);
+        }
+    }
+
+    /**
+     * Every device reports once per inactivity timeout on average, so the share of the devices updated per tick
+     * is the check interval to timeout ratio.
+     */
+    @Setup(Level.Invocation)
+    public void reportActivity() {
+        ts += CHECK_INTERVAL;
+        int updates = (int) (devicesCount * CHECK_INTERVAL / INACTIVITY_TIMEOUT);
+        for (int i = 0; i < updates; i++) {
+            states.get(deviceIds[random.nextInt(devicesCount)]).setLastActivityTime(ts);
+        }
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        for (DeviceState state : states.values()) {
+            if (state.isActive() && ts >= state.getLastActivityTime() + state.getInactivityTimeout()) {
+                blackhole.consume(state);
+            }
+        }
+    }
+
+    @Benchmark
+    public void timingWheel(Blackhole blackhole) {
+        wheel.advance(ts, (deviceId, now) -> {
+            DeviceState state = states.get(deviceId);
+            if (now < state.getLastActivityTime() + state.getInactivityTimeout()) {
+                wheel.schedule(deviceId, state.getLastActivityTime() + state.getInactivityTimeout());
+            } else {
+                blackhole.consume(state);
+            }
+        });
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.state;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class InactivityTimingWheelTest {
+
+    private static final long START_TS = 1_600_000_000_000L;
+
+    InactivityTimingWheel<String> wheel;
+    List<String> expired;
+
+    @Before
+    public void setUp() {
+        wheel = new InactivityTimingWheel<>(1000);
+        expired = new ArrayList<>();
+        wheel.advance(START_TS, (key, ts) -> expired.add(key));
+    }
+
+    @Test
+    public void givenScheduledTimer_whenDeadlineNotPassed_thenNotExpired() {
+        wheel.schedule("a", START_TS + 5000);
+        advance(START_TS + 5000);
+        assertThat(expired.isEmpty(), is(true));
+        advance(START_TS + 6000);
+        assertThat(expired, is(Collections.singletonList("a")));
+        assertThat(wheel.size(), is(0));
+    }
+
+    @Test
+    public void givenTimersOfDifferentLevels_whenAdvanced_thenExpiredInOrder() {
+        wheel.schedule("hour", START_TS + 3_600_000);
+        wheel.schedule("minute", START_TS + 60_000);
+        wheel.schedule("day", START_TS + 86_400_000);
+        for (long ts = START_TS; ts <= START_TS + 86_401_000; ts += 30_000) {
+            advance(ts);
+        }
+        advance(START_TS + 86_401_000);
+        assertThat(expired, is(Arrays.asList("minute", "hour", "day")));
+    }
+
+    @Test
+    public void givenTimerRescheduledToEarlierDeadline_whenAdvanced_thenExpiredOnce() {
+        wheel.schedule("a", START_TS + 600_000);
+        wheel.schedule("a", START_TS + 10_000);
+        wheel.schedule("a", START_TS + 300_000);
+        advance(START_TS + 11_000);
+        assertThat(expired, is(Collections.singletonList("a")));
+        advance(START_TS + 601_000);
+        assertThat(expired.size(), is(1));
+    }
+
+    @Test
+    public void givenCanceledTimer_whenAdvanced_thenNotExpired() {
+        wheel.schedule("a", START_TS + 10_000);
+        wheel.schedule("b", START_TS + 10_000);
+        wheel.cancel("a");
+        advance(START_TS + 11_000);
+        assertThat(expired, is(Collections.singletonList("b")));
+    }
+
+    @Test
+    public void givenPassedDeadline_whenScheduled_thenExpiredOnNextTick() {
+        wheel.schedule("a", START_TS - 10_000);
+        advance(START_TS + 1000);
+        assertThat(expired, is(Collections.singletonList("a")));
+    }
+
+    private void advance(long ts) {
+        wheel.advance(ts, (key, now) -> expired.add(key));
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LongPairHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongPairHashMap<String> map = new LongPairHashMap<>();
+        assertThat(map.put(1L, 2L, "a"), nullValue());
+        assertThat(map.put(2L, 1L, "b"), nullValue());
+        assertThat(map.put(1L, 2L, "c"), is("a"));
+        assertThat(map.size(), is(2));
+        assertThat(map.get(1L, 2L), is("c"));
+        assertThat(map.get(2L, 1L), is("b"));
+        assertThat(map.get(1L, 1L), nullValue());
+        assertThat(map.remove(1L, 2L), is("c"));
+        assertThat(map.remove(1L, 2L), nullValue());
+        assertThat(map.get(2L, 1L), is("b"));
+        assertThat(map.size(), is(1));
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        LongPairHashMap<Integer> map = new LongPairHashMap<>();
+        Map<List<Long>, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            long key1 = random.nextInt(2000);
+            long key2 = random.nextInt(3);
+            List<Long> key = List.of(key1, key2);
+            // Grow the map first and shrink it afterwards to cover both resize directions
+            int operation = random.nextInt(i < 100000 ? 3 : 5);
+            if (operation == 0) {
+                int value = random.nextInt();
+                assertThat(map.put(key1, key2, value), is(expected.put(key, value)));
+            } else if (operation == 1) {
+                assertThat(map.get(key1, key2), is(expected.get(key)));
+            } else {
+                assertThat(map.remove(key1, key2), is(expected.remove(key)));
+            }
+            assertThat(map.size(), is(expected.size()));
+        }
+        expected.forEach((key, value) -> assertThat(map.get(key.get(0), key.get(1)), is(value)));
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.server.common.data.EntityType;
+import org.thingsboard.server.common.data.id.CustomerId;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.page.PageData;
+import org.thingsboard.server.common.data.query.EntityData;
+import org.thingsboard.server.common.data.query.EntityDataPageLink;
+import org.thingsboard.server.common.data.query.EntityDataQuery;
+import org.thingsboard.server.common.data.query.EntityKeyType;
+import org.thingsboard.server.common.data.query.EntityTypeFilter;
+import org.thingsboard.server.common.data.query.TsValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SharedEntityDataQueriesTest {
+
+    private static final TenantId TENANT_ID = new TenantId(UUID.randomUUID());
+
+    private SubscriptionServiceStatistics stats;
+    private SharedEntityDataQueries sharedQueries;
+    private AtomicInteger fetchCount;
+    private Supplier<PageData<EntityData>> fetchFunction;
+
+    @Before
+    public void setUp() {
+        stats = new SubscriptionServiceStatistics();
+        sharedQueries = new SharedEntityDataQueries(stats, 60000);
+        fetchCount = new AtomicInteger();
+        fetchFunction = () -> {
+            fetchCount.incrementAndGet();
+            Map<EntityKeyType, Map<String, TsValue>> latest = new HashMap<>();
+            latest.put(EntityKeyType.TIME_SERIES, new HashMap<>(Collections.singletonMap("temperature", new TsValue(1L, "20"))));
+            EntityData entityData = new EntityData(new DeviceId(UUID.randomUUID()), latest, new HashMap<>());
+            return new PageData<>(new ArrayList<>(Collections.singletonList(entityData)), 1, 1, false);
+        };
+    }
+
+    @Test
+    public void testIdenticalQueriesAreExecutedOnce() {
+        SharedEntityDataQueries.QueryKey firstKey = toQueryKey(null, 10);
+        SharedEntityDataQueries.QueryKey secondKey = toQueryKey(null, 10);
+        assertThat(firstKey, is(secondKey));
+        sharedQueries.acquire(firstKey);
+        sharedQueries.acquire(secondKey);
+
+        PageData<EntityData> first = sharedQueries.find(firstKey, 0, fetchFunction).getData();
+        PageData<EntityData> second = sharedQueries.find(secondKey, 0, fetchFunction).getData();
+
+        assertThat(fetchCount.get(), is(1));
+        assertThat(stats.getSharedQueryHitCnt().get(), is(1));
+        assertThat(second.getData().get(0).getEntityId(), is(first.getData().get(0).getEntityId()));
+        assertThat(second.getData().get(0).getLatest(), not(sameInstance(first.getData().get(0).getLatest())));
+        assertThat(sharedQueries.getGroupsCount(), is(1));
+    }
+
+    @Test
+    public void testDifferentScopesAreNotShared() {
+        SharedEntityDataQueries.QueryKey tenantKey = toQueryKey(null, 10);
+        SharedEntityDataQueries.QueryKey customerKey = toQueryKey(new CustomerId(UUID.randomUUID()), 10);
+        SharedEntityDataQueries.QueryKey otherPageKey = toQueryKey(null, 20);
+        assertThat(tenantKey.equals(customerKey), is(false));
+        assertThat(tenantKey.equals(otherPageKey), is(false));
+        sharedQueries.acquire(tenantKey);
+        sharedQueries.acquire(customerKey);
+        sharedQueries.acquire(otherPageKey);
+
+        sharedQueries.find(tenantKey, 0, fetchFunction);
+        sharedQueries.find(customerKey, 0, fetchFunction);
+        sharedQueries.find(otherPageKey, 0, fetchFunction);
+
+        assertThat(fetchCount.get(), is(3));
+        assertThat(sharedQueries.getGroupsCount(), is(3));
+    }
+
+    @Test
+    public void testResultFetchedBeforeMinTsIsNotReused() {
+        SharedEntityDataQueries.QueryKey key = toQueryKey(null, 10);
+        sharedQueries.acquire(key);
+
+        long ts = sharedQueries.find(key, 0, fetchFunction).getTs();
+        sharedQueries.find(key, ts + 1, fetchFunction);
+
+        assertThat(fetchCount.get(), is(2));
+    }
+
+    @Test
+    public void testConcurrentQueryWaitsForRunningQuery() throws Exception {
+        SharedEntityDataQueries.QueryKey key = toQueryKey(null, 10);
+        sharedQueries.acquire(key);
+        sharedQueries.acquire(key);
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch fetchReleased = new CountDownLatch(1);
+        Supplier<PageData<EntityData>> slowFetchFunction = () -> {
+            fetchStarted.countDown();
+            try {
+                fetchReleased.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return fetchFunction.get();
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<PageData<EntityData>> first = executor.submit(() -> sharedQueries.find(key, 0, slowFetchFunction).getData());
+            assertThat(fetchStarted.await(5, TimeUnit.SECONDS), is(true));
+            Future<PageData<EntityData>> second = executor.submit(() -> sharedQueries.find(key, 0, slowFetchFunction).getData());
+            Thread.sleep(100);
+            assertThat(second.isDone(), is(false));
+
+            fetchReleased.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS).getData().size(), is(1));
+            assertThat(second.get(5, TimeUnit.SECONDS).getData().size(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(fetchCount.get(), is(1));
+        assertThat(stats.getSharedQueryHitCnt().get(), is(1));
+    }
+
+    @Test
+    public void testFailedQueryIsNotReused() {
+        SharedEntityDataQueries.QueryKey key = toQueryKey(null, 10);
+        sharedQueries.acquire(key);
+
+        try {
+            sharedQueries.find(key, 0, () -> {
+                throw new IllegalStateException("Query timeout");
+            });
+            fail("Query failure is expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Query timeout"));
+        }
+        sharedQueries.find(key, 0, fetchFunction);
+
+        assertThat(fetchCount.get(), is(1));
+    }
+
+    @Test
+    public void testGroupIsRemovedWhenLastSubscriptionIsReleased() {
+        SharedEntityDataQueries.QueryKey key = toQueryKey(null, 10);
+        sharedQueries.acquire(key);
+        sharedQueries.acquire(key);
+        sharedQueries.find(key, 0, fetchFunction);
+
+        sharedQueries.release(key);
+        assertThat(sharedQueries.getGroupsCount(), is(1));
+        sharedQueries.release(key);
+        assertThat(sharedQueries.getGroupsCount(), is(0));
+
+        sharedQueries.find(key, 0, fetchFunction);
+        sharedQueries.find(key, 0, fetchFunction);
+        assertThat(fetchCount.get(), is(3));
+    }
+
+    private SharedEntityDataQueries.QueryKey toQueryKey(CustomerId customerId, int pageSize) {
+        EntityTypeFilter filter = new EntityTypeFilter();
+        filter.setEntityType(EntityType.DEVICE);
+        EntityDataQuery query = new EntityDataQuery(filter, new EntityDataPageLink(pageSize, 0, null, null),
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        return SharedEntityDataQueries.toQueryKey(TENANT_ID, customerId, query, Collections.emptyMap());
+    }
+}
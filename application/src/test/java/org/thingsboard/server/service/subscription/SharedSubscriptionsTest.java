@@ -0,0 +1,158 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.service.telemetry.sub.TelemetrySubscriptionUpdate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SharedSubscriptionsTest {
+
+    private static final TenantId TENANT_ID = new TenantId(UUID.randomUUID());
+    private static final DeviceId DEVICE_ID = new DeviceId(UUID.randomUUID());
+
+    private SharedSubscriptions sharedSubscriptions;
+    private Map<String, List<TelemetrySubscriptionUpdate>> received;
+
+    @Before
+    public void setUp() {
+        sharedSubscriptions = new SharedSubscriptions();
+        received = new HashMap<>();
+    }
+
+    @Test
+    public void testIdenticalSubscriptionsShareUpstream() {
+        TbSubscription<TelemetrySubscriptionUpdate> upstream = sharedSubscriptions.join(tsSub("first", 1, "temperature", 1000L));
+        assertThat(upstream, notNullValue());
+        assertThat(sharedSubscriptions.join(tsSub("second", 5, "temperature", 1000L)), nullValue());
+        assertThat(sharedSubscriptions.getGroupsCount(), is(1));
+
+        upstream.getUpdateConsumer().accept(upstream.getSessionId(), update(upstream.getSubscriptionId(), 2000L));
+
+        assertThat(received.get("first").size(), is(1));
+        assertThat(received.get("first").get(0).getSubscriptionId(), is(1));
+        assertThat(received.get("second").size(), is(1));
+        assertThat(received.get("second").get(0).getSubscriptionId(), is(5));
+        assertThat(received.get("second").get(0).getLatestValues().get("temperature"), is(2000L));
+    }
+
+    @Test
+    public void testSubscriptionsWithDifferentKeysAreNotShared() {
+        assertThat(sharedSubscriptions.join(tsSub("first", 1, "temperature", 1000L)), notNullValue());
+        assertThat(sharedSubscriptions.join(tsSub("second", 1, "humidity", 1000L)), notNullValue());
+        assertThat(sharedSubscriptions.getGroupsCount(), is(2));
+    }
+
+    @Test
+    public void testLateMemberReceivesMissedValues() {
+        TbSubscription<TelemetrySubscriptionUpdate> upstream = sharedSubscriptions.join(tsSub("first", 1, "temperature", 1000L));
+        upstream.getUpdateConsumer().accept(upstream.getSessionId(), update(upstream.getSubscriptionId(), 2000L));
+
+        sharedSubscriptions.join(tsSub("second", 1, "temperature", 1500L));
+        sharedSubscriptions.join(tsSub("third", 1, "temperature", 2000L));
+
+        assertThat(received.get("second").size(), is(1));
+        assertThat(received.get("second").get(0).getLatestValues().get("temperature"), is(2000L));
+        assertThat(received.containsKey("third"), is(false));
+    }
+
+    @Test
+    public void testMissedValuesAreDeliveredBeforeNewerUpdates() {
+        TbSubscription<TelemetrySubscriptionUpdate> upstream = sharedSubscriptions.join(tsSub("first", 1, "temperature", 1000L));
+        upstream.getUpdateConsumer().accept(upstream.getSessionId(), update(upstream.getSubscriptionId(), 2000L));
+
+        sharedSubscriptions.join(tsSub("second", 1, "temperature", 1500L));
+        upstream.getUpdateConsumer().accept(upstream.getSessionId(), update(upstream.getSubscriptionId(), 3000L));
+
+        assertThat(received.get("second").size(), is(2));
+        assertThat(received.get("second").get(0).getLatestValues().get("temperature"), is(2000L));
+        assertThat(received.get("second").get(1).getLatestValues().get("temperature"), is(3000L));
+    }
+
+    @Test
+    public void testMissedValuesAreNotReplayedForZeroKeyStates() {
+        TbSubscription<TelemetrySubscriptionUpdate> upstream = sharedSubscriptions.join(tsSub("first", 1, "temperature", 1000L));
+        upstream.getUpdateConsumer().accept(upstream.getSessionId(), update(upstream.getSubscriptionId(), 2000L));
+
+        sharedSubscriptions.join(tsSub("second", 1, "temperature", 0L));
+
+        assertThat(received.containsKey("second"), is(false));
+    }
+
+    @Test
+    public void testUpstreamIsCancelledWithLastMember() {
+        TbSubscription<TelemetrySubscriptionUpdate> upstream = sharedSubscriptions.join(tsSub("first", 1, "temperature", 1000L));
+        sharedSubscriptions.join(tsSub("second", 1, "temperature", 1000L));
+
+        assertThat(sharedSubscriptions.leave("first", 1), nullValue());
+        assertThat(sharedSubscriptions.isMember("first", 1), is(false));
+        assertThat(sharedSubscriptions.isMember("second", 1), is(true));
+        assertThat(sharedSubscriptions.leave("second", 1), is(upstream));
+        assertThat(sharedSubscriptions.getGroupsCount(), is(0));
+        assertThat(sharedSubscriptions.leave("second", 1), nullValue());
+    }
+
+    @Test
+    public void testTimeseriesHistorySubscriptionIsNotShareable() {
+        TbTimeseriesSubscription historySub = TbTimeseriesSubscription.builder()
+                .sessionId("first")
+                .subscriptionId(1)
+                .tenantId(TENANT_ID)
+                .entityId(DEVICE_ID)
+                .keyStates(new HashMap<>(Collections.singletonMap("temperature", 1000L)))
+                .startTime(0)
+                .endTime(2000)
+                .latestValues(false)
+                .build();
+
+        assertThat(SharedSubscriptions.isShareable(historySub), is(false));
+        assertThat(SharedSubscriptions.isShareable(tsSub("first", 1, "temperature", 1000L)), is(true));
+    }
+
+    private TbTimeseriesSubscription tsSub(String sessionId, int subscriptionId, String key, long ts) {
+        return TbTimeseriesSubscription.builder()
+                .serviceId("serviceId")
+                .sessionId(sessionId)
+                .subscriptionId(subscriptionId)
+                .tenantId(TENANT_ID)
+                .entityId(DEVICE_ID)
+                .updateConsumer((s, update) -> received.computeIfAbsent(s, k -> new ArrayList<>()).add(update))
+                .allKeys(false)
+                .keyStates(new HashMap<>(Collections.singletonMap(key, ts)))
+                .latestValues(true)
+                .build();
+    }
+
+    private static TelemetrySubscriptionUpdate update(int subscriptionId, long ts) {
+        return new TelemetrySubscriptionUpdate(subscriptionId, Collections.singletonList(new BasicTsKvEntry(ts, new LongDataEntry("temperature", 25L))));
+    }
+}
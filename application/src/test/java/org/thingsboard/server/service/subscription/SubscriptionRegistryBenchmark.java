@@ -0,0 +1,139 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lookup of the subscriptions affected by the time-series update of a single key with 1M active subscriptions:
+ * the map of entity subscription sets filtered by type and keys on each update against the key indexed {@link TbSubscriptionRegistry}.
+ * Each subscription is interested in 3 of 30 keys of the entity, the number of subscriptions per entity is the parameter.
+ */
+@State(Scope.Benchmark)
+@Fork(jvmArgsAppend = "-Xmx4g")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SubscriptionRegistryBenchmark {
+
+    private static final int SUBSCRIPTIONS_COUNT = 1_000_000;
+    private static final int KEYS_COUNT = 30;
+    private static final int KEYS_PER_SUBSCRIPTION = 3;
+
+    @Param({"10", "1000"})
+    private int subscriptionsPerEntity;
+
+    private Map<EntityId, Set<TbSubscription>> subscriptionsByEntityId;
+    private TbSubscriptionRegistry registry;
+    private EntityId[] entityIds;
+    private List<TsKvEntry>[] updates;
+    private Random random;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        random = new Random(42);
+        TenantId tenantId = new TenantId(UUID.randomUUID());
+        subscriptionsByEntityId = new ConcurrentHashMap<>();
+        registry = new TbSubscriptionRegistry();
+        entityIds = new EntityId[SUBSCRIPTIONS_COUNT / subscriptionsPerEntity];
+        for (int i = 0; i < entityIds.length; i++) {
+            entityIds[i] = new DeviceId(UUID.randomUUID());
+        }
+        for (int i = 0; i < SUBSCRIPTIONS_COUNT; i++) {
+            EntityId entityId = entityIds[i % entityIds.length];
+            Map<String, Long> keyStates = new HashMap<>();
+            while (keyStates.size() < KEYS_PER_SUBSCRIPTION) {
+                keyStates.put("key" + random.nextInt(KEYS_COUNT), 0L);
+            }
+            TbSubscription subscription = TbTimeseriesSubscription.builder()
+                    .serviceId("service")
+                    .sessionId("session" + i / 100)
+                    .subscriptionId(i % 100)
+                    .tenantId(tenantId)
+                    .entityId(entityId)
+                    .keyStates(keyStates)
+                    .latestValues(true)
+                    .build();
+            subscriptionsByEntityId.computeIfAbsent(entityId, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+            registry.add(subscription);
+        }
+        updates = new List[KEYS_COUNT];
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            updates[i] = Collections.singletonList(new BasicTsKvEntry(System.currentTimeMillis(), new DoubleDataEntry("key" + i, 1.0)));
+        }
+    }
+
+    @Benchmark
+    public void entitySubscriptionSets(Blackhole blackhole) {
+        EntityId entityId = entityIds[random.nextInt(entityIds.length)];
+        List<TsKvEntry> ts = updates[random.nextInt(KEYS_COUNT)];
+        Set<TbSubscription> entitySubscriptions = subscriptionsByEntityId.get(entityId);
+        if (entitySubscriptions != null) {
+            entitySubscriptions.stream()
+                    .map(s -> TbSubscriptionType.TIMESERIES.equals(s.getType()) ? (TbTimeseriesSubscription) s : null)
+                    .filter(Objects::nonNull)
+                    .forEach(s -> {
+                        List<TsKvEntry> subscriptionUpdate = null;
+                        for (TsKvEntry kv : ts) {
+                            if (s.isAllKeys() || s.getKeyStates().containsKey(kv.getKey())) {
+                                if (subscriptionUpdate == null) {
+                                    subscriptionUpdate = new ArrayList<>();
+                                }
+                                subscriptionUpdate.add(kv);
+                            }
+                        }
+                        if (subscriptionUpdate != null) {
+                            blackhole.consume(subscriptionUpdate);
+                        }
+                    });
+        }
+    }
+
+    @Benchmark
+    public void keyIndexedRegistry(Blackhole blackhole) {
+        EntityId entityId = entityIds[random.nextInt(entityIds.length)];
+        List<TsKvEntry> ts = updates[random.nextInt(KEYS_COUNT)];
+        registry.getTimeseriesUpdates(entityId, ts).forEach((s, subscriptionUpdate) -> blackhole.consume(subscriptionUpdate));
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.data.EntityType;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.id.UserId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.common.data.page.PageData;
+import org.thingsboard.server.common.data.query.EntityData;
+import org.thingsboard.server.common.data.query.EntityDataPageLink;
+import org.thingsboard.server.common.data.query.EntityDataQuery;
+import org.thingsboard.server.common.data.query.EntityDataSortOrder;
+import org.thingsboard.server.common.data.query.EntityKey;
+import org.thingsboard.server.common.data.query.EntityKeyType;
+import org.thingsboard.server.common.data.query.EntityTypeFilter;
+import org.thingsboard.server.common.data.query.TsValue;
+import org.thingsboard.server.dao.attributes.AttributesService;
+import org.thingsboard.server.dao.entity.EntityService;
+import org.thingsboard.server.service.security.model.SecurityUser;
+import org.thingsboard.server.service.telemetry.TelemetryWebSocketService;
+import org.thingsboard.server.service.telemetry.TelemetryWebSocketSessionRef;
+import org.thingsboard.server.service.telemetry.sub.TelemetrySubscriptionUpdate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TbEntityDataSubCtxTest {
+
+    private static final String SESSION_ID = "session";
+    private static final long REFRESH_DELAY = 500;
+    private static final long VALUE_TS = 1000000L;
+
+    @Mock
+    TelemetryWebSocketService wsService;
+    @Mock
+    EntityService entityService;
+    @Mock
+    TbLocalSubscriptionService localSubscriptionService;
+    @Mock
+    AttributesService attributesService;
+    @Mock
+    ScheduledExecutorService scheduler;
+    @Mock
+    Runnable refreshTask;
+
+    TenantId tenantId;
+    TbEntityDataSubCtx ctx;
+
+    @Before
+    public void setUp() {
+        tenantId = new TenantId(UUID.randomUUID());
+        SecurityUser user = new SecurityUser(new UserId(UUID.randomUUID()));
+        user.setTenantId(tenantId);
+        TelemetryWebSocketSessionRef sessionRef = new TelemetryWebSocketSessionRef(SESSION_ID, user, null, null);
+        ctx = new TbEntityDataSubCtx("serviceId", wsService, entityService, localSubscriptionService, attributesService,
+                new SubscriptionServiceStatistics(), sessionRef, 1, 100);
+        EntityTypeFilter filter = new EntityTypeFilter();
+        filter.setEntityType(EntityType.DEVICE);
+        EntityDataSortOrder sortOrder = new EntityDataSortOrder(new EntityKey(EntityKeyType.TIME_SERIES, "temperature"));
+        ctx.setQuery(new EntityDataQuery(filter, new EntityDataPageLink(10, 0, null, sortOrder),
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+
+        Map<EntityKeyType, Map<String, TsValue>> latest = new HashMap<>();
+        latest.put(EntityKeyType.TIME_SERIES, new HashMap<>(Collections.singletonMap("temperature", new TsValue(VALUE_TS, "20"))));
+        EntityData entityData = new EntityData(new DeviceId(UUID.randomUUID()), latest, new HashMap<>());
+        when(entityService.findEntityDataByQuery(eq(tenantId), any(), any()))
+                .thenAnswer(invocation -> new PageData<>(new ArrayList<>(Collections.singletonList(entityData)), 1, 1, false));
+    }
+
+    @Test
+    public void givenUpdateWithKnownValueTs_whenReceived_thenRefreshNotScheduled() {
+        TbSubscription<TelemetrySubscriptionUpdate> subscription = initQueryKeysSubscriptions();
+
+        // The latest value pushed once the subscription is registered is already reflected in the query result
+        onQueryKeysUpdate(subscription, VALUE_TS);
+        onQueryKeysUpdate(subscription, VALUE_TS - 1);
+
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void givenUpdateWithNewerValueTs_whenReceived_thenRefreshScheduled() {
+        TbSubscription<TelemetrySubscriptionUpdate> subscription = initQueryKeysSubscriptions();
+
+        onQueryKeysUpdate(subscription, VALUE_TS + 1);
+        onQueryKeysUpdate(subscription, VALUE_TS + 1);
+
+        runScheduledRefresh(1);
+        verify(refreshTask).run();
+    }
+
+    @Test
+    public void givenUpdatesWithinDelay_whenReceived_thenSingleRefreshScheduled() {
+        TbSubscription<TelemetrySubscriptionUpdate> subscription = initQueryKeysSubscriptions();
+
+        onQueryKeysUpdate(subscription, VALUE_TS + 1);
+        onQueryKeysUpdate(subscription, VALUE_TS + 2);
+        runScheduledRefresh(1);
+
+        onQueryKeysUpdate(subscription, VALUE_TS + 3);
+        runScheduledRefresh(2);
+        verify(refreshTask, times(2)).run();
+    }
+
+    @Test
+    public void givenClearedSubscriptions_whenUpdateReceived_thenRefreshNotScheduled() {
+        TbSubscription<TelemetrySubscriptionUpdate> subscription = initQueryKeysSubscriptions();
+        ctx.clearQueryKeysSubscriptions();
+
+        onQueryKeysUpdate(subscription, VALUE_TS + 1);
+
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void givenSharedResultFetchedBeforeUpdate_whenRefreshed_thenQueryExecutedAgain() {
+        SharedEntityDataQueries sharedQueries = new SharedEntityDataQueries(new SubscriptionServiceStatistics(), 60000);
+        ctx.setSharedQueries(sharedQueries);
+        refreshTask = ctx::fetchData;
+        TbSubscription<TelemetrySubscriptionUpdate> subscription = initQueryKeysSubscriptions();
+        ctx.fetchData();
+        verify(entityService, times(1)).findEntityDataByQuery(eq(tenantId), any(), any());
+
+        onQueryKeysUpdate(subscription, VALUE_TS + 1);
+        runScheduledRefresh(1);
+
+        verify(entityService, times(2)).findEntityDataByQuery(eq(tenantId), any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private TbSubscription<TelemetrySubscriptionUpdate> initQueryKeysSubscriptions() {
+        ctx.fetchData();
+        ctx.initQueryKeysSubscriptions(scheduler, REFRESH_DELAY, refreshTask);
+        ArgumentCaptor<TbSubscription> subscriptionCaptor = ArgumentCaptor.forClass(TbSubscription.class);
+        verify(localSubscriptionService).addSubscription(subscriptionCaptor.capture());
+        return subscriptionCaptor.getValue();
+    }
+
+    private void onQueryKeysUpdate(TbSubscription<TelemetrySubscriptionUpdate> subscription, long ts) {
+        List<TsKvEntry> data = Arrays.asList(new BasicTsKvEntry(ts, new LongDataEntry("temperature", 25L)));
+        subscription.getUpdateConsumer().accept(SESSION_ID, new TelemetrySubscriptionUpdate(subscription.getSubscriptionId(), data));
+    }
+
+    private void runScheduledRefresh(int expectedSchedules) {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(expectedSchedules)).schedule(taskCaptor.capture(), eq(REFRESH_DELAY), eq(TimeUnit.MILLISECONDS));
+        taskCaptor.getValue().run();
+    }
+}
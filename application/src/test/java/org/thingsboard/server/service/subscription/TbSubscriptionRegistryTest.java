@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TbSubscriptionRegistryTest {
+
+    private static final TenantId TENANT_ID = new TenantId(UUID.randomUUID());
+    private static final String SERVICE_ID = "service";
+
+    private final TbSubscriptionRegistry registry = new TbSubscriptionRegistry();
+    private final EntityId entityId = new DeviceId(UUID.randomUUID());
+
+    @Test
+    public void testTimeseriesUpdateVisitsOnlySubscriptionsOfKey() {
+        TbSubscription temperatureSub = tsSub("s1", 1, false, "temperature");
+        TbSubscription humiditySub = tsSub("s2", 1, false, "humidity", "temperature");
+        TbSubscription allKeysSub = tsSub("s3", 1, true);
+        assertThat(registry.add(temperatureSub), is(true));
+        assertThat(registry.add(humiditySub), is(true));
+        assertThat(registry.add(allKeysSub), is(true));
+
+        TsKvEntry humidity = entry("humidity");
+        TsKvEntry pressure = entry("pressure");
+        Map<TbSubscription, List<TsKvEntry>> updates = registry.getTimeseriesUpdates(entityId, Arrays.asList(humidity, pressure));
+
+        assertThat(updates.size(), is(2));
+        assertThat(updates.get(humiditySub), is(Collections.singletonList(humidity)));
+        assertThat(updates.get(allKeysSub), is(Arrays.asList(humidity, pressure)));
+        assertThat(registry.getTimeseriesUpdates(new DeviceId(UUID.randomUUID()), Collections.singletonList(humidity)).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testAttributesUpdateFiltersByScope() {
+        TbSubscription serverSub = attrSub("s1", 1, TbAttributeSubscriptionScope.SERVER_SCOPE);
+        TbSubscription anySub = attrSub("s2", 1, TbAttributeSubscriptionScope.ANY_SCOPE);
+        registry.add(serverSub);
+        registry.add(anySub);
+        registry.add(tsSub("s3", 1, false, "active"));
+
+        List<TsKvEntry> entries = Collections.singletonList(entry("active"));
+        Map<TbSubscription, List<TsKvEntry>> updates = registry.getAttributesUpdates(entityId, "SHARED_SCOPE", entries);
+        assertThat(updates.keySet(), is(Collections.singleton(anySub)));
+
+        updates = registry.getAttributesUpdates(entityId, "SERVER_SCOPE", entries);
+        assertThat(updates.size(), is(2));
+    }
+
+    @Test
+    public void testDuplicateSubscriptionIsNotNew() {
+        assertThat(registry.add(tsSub("s1", 1, false, "temperature")), is(true));
+        assertThat(registry.add(tsSub("s1", 1, false, "temperature")), is(false));
+        assertThat(registry.getTimeseriesUpdates(entityId, Collections.singletonList(entry("temperature"))).size(), is(1));
+    }
+
+    @Test
+    public void testReregisteredSubscriptionReplacesKeys() {
+        assertThat(registry.add(tsSub("s1", 1, false, "temperature", "humidity")), is(true));
+        TbSubscription sub = tsSub("s1", 1, false, "humidity", "pressure");
+        assertThat(registry.add(sub), is(true));
+
+        assertThat(registry.getTimeseriesUpdates(entityId, Collections.singletonList(entry("temperature"))).isEmpty(), is(true));
+        assertThat(registry.getTimeseriesUpdates(entityId, Collections.singletonList(entry("pressure"))).keySet(), is(Collections.singleton(sub)));
+
+        assertThat(registry.remove("s1", 1), is(sub));
+        assertThat(registry.getTimeseriesUpdates(entityId, Arrays.asList(entry("humidity"), entry("pressure"))).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRemoveSubscription() {
+        TbSubscription sub = tsSub("s1", 1, false, "temperature", "humidity");
+        TbSubscription alarmSub = TbAlarmsSubscription.builder()
+                .serviceId(SERVICE_ID).sessionId("s1").subscriptionId(2).tenantId(TENANT_ID).entityId(entityId).ts(0).build();
+        registry.add(sub);
+        registry.add(alarmSub);
+        assertThat(registry.getAlarmsSubscriptions(entityId), is(Collections.singletonList(alarmSub)));
+
+        assertThat(registry.remove("s1", 1), is(sub));
+        assertThat(registry.remove("s1", 1), nullValue());
+        assertThat(registry.remove("s2", 1), nullValue());
+        assertThat(registry.getTimeseriesUpdates(entityId, Arrays.asList(entry("temperature"), entry("humidity"))).isEmpty(), is(true));
+
+        registry.removeFromEntity(alarmSub);
+        assertThat(registry.getAlarmsSubscriptions(entityId).isEmpty(), is(true));
+        assertThat(registry.remove("s1", 2), is(alarmSub));
+    }
+
+    private TbSubscription tsSub(String sessionId, int subscriptionId, boolean allKeys, String... keys) {
+        return TbTimeseriesSubscription.builder()
+                .serviceId(SERVICE_ID)
+                .sessionId(sessionId)
+                .subscriptionId(subscriptionId)
+                .tenantId(TENANT_ID)
+                .entityId(entityId)
+                .allKeys(allKeys)
+                .keyStates(keyStates(keys))
+                .latestValues(true)
+                .build();
+    }
+
+    private TbSubscription attrSub(String sessionId, int subscriptionId, TbAttributeSubscriptionScope scope) {
+        return TbAttributeSubscription.builder()
+                .serviceId(SERVICE_ID)
+                .sessionId(sessionId)
+                .subscriptionId(subscriptionId)
+                .tenantId(TENANT_ID)
+                .entityId(entityId)
+                .keyStates(keyStates("active"))
+                .scope(scope)
+                .build();
+    }
+
+    private static Map<String, Long> keyStates(String... keys) {
+        Map<String, Long> keyStates = new HashMap<>();
+        for (String key : keys) {
+            keyStates.put(key, 0L);
+        }
+        return keyStates;
+    }
+
+    private static TsKvEntry entry(String key) {
+        return new BasicTsKvEntry(System.currentTimeMillis(), new LongDataEntry(key, 1L));
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.service.telemetry.cmd.v1.SubscriptionConflationMode;
+import org.thingsboard.server.service.telemetry.sub.SubscriptionErrorCode;
+import org.thingsboard.server.service.telemetry.sub.TelemetrySubscriptionUpdate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TelemetryUpdateConflatorTest {
+
+    private static final String SESSION_ID = "session";
+
+    @Mock
+    ScheduledExecutorService scheduler;
+
+    List<TelemetrySubscriptionUpdate> sent;
+    TelemetryUpdateConflator conflator;
+
+    @Before
+    public void setUp() {
+        sent = new ArrayList<>();
+        conflator = new TelemetryUpdateConflator(250, scheduler, (sessionId, update) -> sent.add(update));
+    }
+
+    @Test
+    public void givenLatestMode_whenUpdatesWithinWindow_thenLatestValuesSentOnce() {
+        conflator.onUpdate(SESSION_ID, update(1, 1000, 1), SubscriptionConflationMode.LATEST);
+        conflator.onUpdate(SESSION_ID, update(1, 2000, 2), SubscriptionConflationMode.LATEST);
+        conflator.onUpdate(SESSION_ID, update(1, 1500, 3), SubscriptionConflationMode.LATEST);
+        assertThat(sent.isEmpty(), is(true));
+
+        flush(1);
+
+        assertThat(sent.size(), is(1));
+        assertThat(sent.get(0).getLatestValues().get("temperature"), is(2000L));
+        assertThat(sent.get(0).getData().get("temperature").size(), is(1));
+    }
+
+    @Test
+    public void givenAllMode_whenUpdatesWithinWindow_thenAllValuesSentOnce() {
+        conflator.onUpdate(SESSION_ID, update(1, 1000, 1), SubscriptionConflationMode.ALL);
+        conflator.onUpdate(SESSION_ID, update(1, 2000, 2), SubscriptionConflationMode.ALL);
+        conflator.onUpdate(SESSION_ID, update(2, 2000, 2), SubscriptionConflationMode.ALL);
+
+        flush(1);
+
+        assertThat(sent.size(), is(2));
+        assertThat(sent.get(0).getSubscriptionId(), is(1));
+        assertThat(sent.get(0).getData().get("temperature").size(), is(2));
+        assertThat(sent.get(1).getSubscriptionId(), is(2));
+    }
+
+    @Test
+    public void givenError_whenValuesPending_thenValuesSentBeforeError() {
+        conflator.onUpdate(SESSION_ID, update(1, 1000, 1), SubscriptionConflationMode.LATEST);
+        conflator.onUpdate(SESSION_ID, new TelemetrySubscriptionUpdate(1, SubscriptionErrorCode.INTERNAL_ERROR), SubscriptionConflationMode.LATEST);
+
+        assertThat(sent.size(), is(2));
+        assertThat(sent.get(0).getErrorCode(), is(0));
+        assertThat(sent.get(1).getErrorCode(), is(SubscriptionErrorCode.INTERNAL_ERROR.getCode()));
+    }
+
+    @Test
+    public void givenClosedSession_whenFlushed_thenNothingSent() {
+        conflator.onUpdate(SESSION_ID, update(1, 1000, 1), SubscriptionConflationMode.LATEST);
+        conflator.cancelAllSessionSubscriptions(SESSION_ID);
+
+        flush(1);
+
+        assertThat(sent.isEmpty(), is(true));
+    }
+
+    private void flush(int expectedSchedules) {
+        ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(expectedSchedules)).schedule(flushCaptor.capture(), eq(250L), any(TimeUnit.class));
+        flushCaptor.getAllValues().forEach(Runnable::run);
+    }
+
+    private static TelemetrySubscriptionUpdate update(int subscriptionId, long ts, long value) {
+        List<TsKvEntry> data = Arrays.asList(new BasicTsKvEntry(ts, new LongDataEntry("temperature", value)));
+        return new TelemetrySubscriptionUpdate(subscriptionId, data);
+    }
+
+}
@@ -18,17 +18,21 @@ package org.thingsboard.server.actors;
 import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.common.util.ThingsBoardExecutors;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.msg.TbActorMsg;
 
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -56,12 +60,54 @@ public class DefaultTbActorSystem implements TbActorSystem {
 
     @Override
     public void createDispatcher(String dispatcherId, ExecutorService executor) {
-        Dispatcher current = dispatchers.putIfAbsent(dispatcherId, new Dispatcher(dispatcherId, executor));
+        createDispatcher(dispatcherId, executor, getParallelism(executor));
+    }
+
+    @Override
+    public void createDispatcher(String dispatcherId, ExecutorService executor, int parallelism) {
+        createDispatcher(dispatcherId, executor, parallelism, settings.getMaxMailboxesPerDrain());
+    }
+
+    private void createDispatcher(String dispatcherId, ExecutorService executor, int parallelism, int maxMailboxesPerDrain) {
+        Dispatcher current = dispatchers.putIfAbsent(dispatcherId, new Dispatcher(dispatcherId, executor, Math.max(1, parallelism), maxMailboxesPerDrain));
         if (current != null) {
             throw new RuntimeException("Dispatcher with id [" + dispatcherId + "] is already registered!");
         }
     }
 
+    @Override
+    public void createDispatcher(String dispatcherId, TbActorDispatcherType dispatcherType, int poolSize) {
+        if (dispatcherType == TbActorDispatcherType.VIRTUAL) {
+            if (ThingsBoardExecutors.isVirtualThreadsSupported()) {
+                // Each mailbox gets own virtual thread, so the actor blocked on I/O doesn't hold the other mailboxes of the batch
+                createDispatcher(dispatcherId, ThingsBoardExecutors.newVirtualThreadPerTaskExecutor(dispatcherId), Integer.MAX_VALUE, 0);
+                return;
+            }
+            log.warn("[{}] Virtual threads are not supported by the current Java runtime, using {} dispatcher instead",
+                    dispatcherId, TbActorDispatcherType.WORK_STEALING);
+            dispatcherType = TbActorDispatcherType.WORK_STEALING;
+        }
+        ExecutorService executor;
+        if (poolSize == 1) {
+            executor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName(dispatcherId));
+        } else if (dispatcherType == TbActorDispatcherType.FIXED) {
+            executor = Executors.newFixedThreadPool(poolSize, ThingsBoardThreadFactory.forName(dispatcherId));
+        } else {
+            executor = ThingsBoardExecutors.newWorkStealingPool(poolSize, dispatcherId);
+        }
+        createDispatcher(dispatcherId, executor, poolSize);
+    }
+
+    private static int getParallelism(ExecutorService executor) {
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        } else if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        } else {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
     @Override
     public void destroyDispatcher(String dispatcherId) {
         Dispatcher dispatcher = dispatchers.remove(dispatcherId);
@@ -177,6 +223,32 @@ public class DefaultTbActorSystem implements TbActorSystem {
         }
     }
 
+    @Override
+    public boolean isOverloaded() {
+        for (Dispatcher dispatcher : dispatchers.values()) {
+            if (dispatcher.getOverloadedMailboxes().get() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getDispatcherQueueSize(String dispatcherId) {
+        Dispatcher dispatcher = dispatchers.get(dispatcherId);
+        return dispatcher != null ? dispatcher.getQueueSize().intValue() : 0;
+    }
+
+    @Override
+    public List<TbActorMailboxStats> getTopMailboxesByQueueSize(int limit) {
+        return actors.values().stream()
+                .map(mailbox -> new TbActorMailboxStats(mailbox.getSelfId(), mailbox.getDispatcher().getDispatcherId(), mailbox.getQueueSize()))
+                .filter(stats -> stats.getQueueSize() > 0)
+                .sorted(Comparator.comparingInt(TbActorMailboxStats::getQueueSize).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public void stop(TbActorRef actorRef) {
         stop(actorRef.getActorId());
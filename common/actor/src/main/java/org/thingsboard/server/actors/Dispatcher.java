@@ -15,14 +15,83 @@
  */
 package org.thingsboard.server.actors;
 
-import lombok.Data;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-@Data
+/**
+ * Runs ready mailboxes on the executor.
+ * <p>
+ * If maxMailboxesPerDrain is positive, ready mailboxes are put into the shared queue and drained by at most
+ * parallelism worker tasks. Each worker processes up to maxMailboxesPerDrain mailboxes before resubmitting itself,
+ * so the executor sees one task per batch of mailboxes instead of one task per mailbox.
+ * Otherwise, each mailbox is submitted to the executor as a separate task.
+ */
+@Slf4j
+@Getter
+@RequiredArgsConstructor
 class Dispatcher {
 
     private final String dispatcherId;
     private final ExecutorService executor;
+    private final int parallelism;
+    private final int maxMailboxesPerDrain;
+    private final LongAdder queueSize = new LongAdder();
+    private final AtomicInteger overloadedMailboxes = new AtomicInteger();
+    private final ConcurrentLinkedQueue<TbActorMailbox> readyMailboxes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+
+    boolean isBatched() {
+        return maxMailboxesPerDrain > 0;
+    }
+
+    void schedule(TbActorMailbox mailbox) {
+        if (isBatched()) {
+            readyMailboxes.add(mailbox);
+            tryStartWorker();
+        } else {
+            executor.execute(mailbox::processMailbox);
+        }
+    }
+
+    private void tryStartWorker() {
+        int active;
+        while ((active = activeWorkers.get()) < parallelism) {
+            if (activeWorkers.compareAndSet(active, active + 1)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    activeWorkers.decrementAndGet();
+                    throw e;
+                }
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < maxMailboxesPerDrain; i++) {
+                TbActorMailbox mailbox = readyMailboxes.poll();
+                if (mailbox == null) {
+                    break;
+                }
+                mailbox.processMailbox();
+            }
+        } catch (Throwable t) {
+            log.warn("[{}] Failed to drain mailboxes", dispatcherId, t);
+        } finally {
+            activeWorkers.decrementAndGet();
+        }
+        if (!readyMailboxes.isEmpty()) {
+            tryStartWorker();
+        }
+    }
 
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.actors;
+
+public enum TbActorDispatcherType {
+
+    /**
+     * Single thread executor if the pool size is 1, work stealing pool otherwise.
+     */
+    WORK_STEALING,
+    /**
+     * Fixed size thread pool.
+     */
+    FIXED,
+    /**
+     * New virtual thread for each mailbox drain, so blocking calls inside actors do not starve the dispatcher.
+     * Mailboxes are never drained in batches by this dispatcher.
+     * Requires Java 21 or later, falls back to {@link #WORK_STEALING} otherwise.
+     */
+    VIRTUAL
+
+}
@@ -15,7 +15,8 @@
  */
 package org.thingsboard.server.actors;
 
-import lombok.Data;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.server.common.msg.MsgType;
 import org.thingsboard.server.common.msg.TbActorMsg;
@@ -25,11 +26,13 @@ import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 @Slf4j
-@Data
+@Getter
+@RequiredArgsConstructor
 public final class TbActorMailbox implements TbActorCtx {
     private static final boolean HIGH_PRIORITY = true;
     private static final boolean NORMAL_PRIORITY = false;
@@ -51,6 +54,8 @@ public final class TbActorMailbox implements TbActorCtx {
     private final AtomicBoolean busy = new AtomicBoolean(FREE);
     private final AtomicBoolean ready = new AtomicBoolean(NOT_READY);
     private final AtomicBoolean destroyInProgress = new AtomicBoolean();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicBoolean overloaded = new AtomicBoolean();
     private volatile TbActorStopReason stopReason;
 
     public void initActor() {
@@ -90,9 +95,10 @@ public final class TbActorMailbox implements TbActorCtx {
     private void enqueue(TbActorMsg msg, boolean highPriority) {
         if (!destroyInProgress.get()) {
             if (highPriority) {
+                onMsgEnqueued();
                 highPriorityMsgs.add(msg);
-            } else {
-                normalPriorityMsgs.add(msg);
+            } else if (!offerNormalPriority(msg)) {
+                return;
             }
             tryProcessQueue(true);
         } else {
@@ -112,11 +118,61 @@ public final class TbActorMailbox implements TbActorCtx {
         }
     }
 
+    private boolean offerNormalPriority(TbActorMsg msg) {
+        // The slot is reserved before the capacity check, so concurrent producers can't all pass it at once.
+        int size = onMsgEnqueued();
+        if (settings.isMailboxBounded() && size > settings.getMailboxCapacity()) {
+            switch (settings.getMailboxOverflowStrategy()) {
+                case REJECT:
+                    log.debug("[{}] Mailbox is full, rejecting message: {}", selfId, msg);
+                    onMsgDequeued();
+                    msg.onTbActorMailboxOverflow();
+                    return false;
+                case DROP_OLDEST:
+                    TbActorMsg oldest = normalPriorityMsgs.poll();
+                    if (oldest != null) {
+                        log.debug("[{}] Mailbox is full, dropping oldest message: {}", selfId, oldest);
+                        onMsgDequeued();
+                        oldest.onTbActorMailboxOverflow();
+                    }
+                    break;
+                case BACKPRESSURE:
+                    if (overloaded.compareAndSet(false, true)) {
+                        log.debug("[{}] Mailbox is full, signaling backpressure", selfId);
+                        dispatcher.getOverloadedMailboxes().incrementAndGet();
+                    }
+                    break;
+            }
+        }
+        normalPriorityMsgs.add(msg);
+        return true;
+    }
+
+    private int onMsgEnqueued() {
+        dispatcher.getQueueSize().increment();
+        return queueSize.incrementAndGet();
+    }
+
+    private void onMsgDequeued() {
+        int size = queueSize.decrementAndGet();
+        dispatcher.getQueueSize().decrement();
+        if (settings.isMailboxBounded() && size <= settings.getMailboxCapacity() / 2) {
+            releaseBackpressure();
+        }
+    }
+
+    private void releaseBackpressure() {
+        if (overloaded.compareAndSet(true, false)) {
+            log.debug("[{}] Mailbox is drained, releasing backpressure", selfId);
+            dispatcher.getOverloadedMailboxes().decrementAndGet();
+        }
+    }
+
     private void tryProcessQueue(boolean newMsg) {
         if (ready.get() == READY) {
             if (newMsg || !highPriorityMsgs.isEmpty() || !normalPriorityMsgs.isEmpty()) {
                 if (busy.compareAndSet(FREE, BUSY)) {
-                    dispatcher.getExecutor().execute(this::processMailbox);
+                    dispatcher.schedule(this);
                 } else {
                     log.trace("[{}] MessageBox is busy, new msg: {}", selfId, newMsg);
                 }
@@ -128,7 +184,7 @@ public final class TbActorMailbox implements TbActorCtx {
         }
     }
 
-    private void processMailbox() {
+    void processMailbox() {
         boolean noMoreElements = false;
         for (int i = 0; i < settings.getActorThroughput(); i++) {
             TbActorMsg msg = highPriorityMsgs.poll();
@@ -136,6 +192,7 @@ public final class TbActorMailbox implements TbActorCtx {
                 msg = normalPriorityMsgs.poll();
             }
             if (msg != null) {
+                onMsgDequeued();
                 try {
                     log.debug("[{}] Going to process message: {}", selfId, msg);
                     actor.process(msg);
@@ -156,9 +213,13 @@ public final class TbActorMailbox implements TbActorCtx {
         }
         if (noMoreElements) {
             busy.set(FREE);
-            dispatcher.getExecutor().execute(() -> tryProcessQueue(false));
+            if (dispatcher.isBatched()) {
+                tryProcessQueue(false);
+            } else {
+                dispatcher.getExecutor().execute(() -> tryProcessQueue(false));
+            }
         } else {
-            dispatcher.getExecutor().execute(this::processMailbox);
+            dispatcher.schedule(this);
         }
     }
 
@@ -211,14 +272,26 @@ public final class TbActorMailbox implements TbActorCtx {
             try {
                 ready.set(NOT_READY);
                 actor.destroy();
-                highPriorityMsgs.forEach(msg -> msg.onTbActorStopped(stopReason));
-                normalPriorityMsgs.forEach(msg -> msg.onTbActorStopped(stopReason));
+                drainOnStop(highPriorityMsgs);
+                drainOnStop(normalPriorityMsgs);
             } catch (Throwable t) {
                 log.warn("[{}] Failed to destroy actor: {}", selfId, t);
             }
         });
     }
 
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    private void drainOnStop(ConcurrentLinkedQueue<TbActorMsg> msgs) {
+        TbActorMsg msg;
+        while ((msg = msgs.poll()) != null) {
+            onMsgDequeued();
+            msg.onTbActorStopped(stopReason);
+        }
+    }
+
     @Override
     public TbActorId getActorId() {
         return selfId;
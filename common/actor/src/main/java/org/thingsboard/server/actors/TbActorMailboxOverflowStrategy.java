@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.actors;
+
+public enum TbActorMailboxOverflowStrategy {
+
+    /**
+     * New message is rejected and its callback is notified via {@link org.thingsboard.server.common.msg.TbActorMsg#onTbActorMailboxOverflow()}.
+     */
+    REJECT,
+    /**
+     * The oldest normal priority message is evicted to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * New message is accepted, but the actor system is marked as overloaded until the mailbox drains.
+     * Queue consumers are expected to check {@link TbActorSystem#isOverloaded()} before polling new messages.
+     */
+    BACKPRESSURE
+
+}
@@ -28,6 +28,10 @@ public interface TbActorSystem {
 
     void createDispatcher(String dispatcherId, ExecutorService executor);
 
+    void createDispatcher(String dispatcherId, ExecutorService executor, int parallelism);
+
+    void createDispatcher(String dispatcherId, TbActorDispatcherType dispatcherType, int poolSize);
+
     void destroyDispatcher(String dispatcherId);
 
     TbActorRef getActor(TbActorId actorId);
@@ -51,4 +55,13 @@ public interface TbActorSystem {
     void broadcastToChildren(TbActorId parent, Predicate<TbActorId> childFilter, TbActorMsg msg);
 
     List<TbActorId> filterChildren(TbActorId parent, Predicate<TbActorId> childFilter);
+
+    /**
+     * @return true if at least one mailbox with {@link TbActorMailboxOverflowStrategy#BACKPRESSURE} strategy reached its capacity.
+     */
+    boolean isOverloaded();
+
+    int getDispatcherQueueSize(String dispatcherId);
+
+    List<TbActorMailboxStats> getTopMailboxesByQueueSize(int limit);
 }
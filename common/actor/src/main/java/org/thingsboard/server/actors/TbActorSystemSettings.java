@@ -20,8 +20,43 @@ import lombok.Data;
 @Data
 public class TbActorSystemSettings {
 
+    public static final int DEFAULT_MAX_MAILBOXES_PER_DRAIN = 0;
+
     private final int actorThroughput;
     private final int schedulerPoolSize;
     private final int maxActorInitAttempts;
+    /**
+     * Maximum number of messages in the actor mailbox. High priority messages are always accepted. 0 means unbounded.
+     */
+    private final int mailboxCapacity;
+    private final TbActorMailboxOverflowStrategy mailboxOverflowStrategy;
+    /**
+     * Maximum number of ready mailboxes processed by a dispatcher worker before it is resubmitted to the executor.
+     * 0 means that each mailbox is submitted to the executor as a separate task.
+     */
+    private final int maxMailboxesPerDrain;
+
+    public TbActorSystemSettings(int actorThroughput, int schedulerPoolSize, int maxActorInitAttempts) {
+        this(actorThroughput, schedulerPoolSize, maxActorInitAttempts, 0, TbActorMailboxOverflowStrategy.REJECT);
+    }
+
+    public TbActorSystemSettings(int actorThroughput, int schedulerPoolSize, int maxActorInitAttempts,
+                                 int mailboxCapacity, TbActorMailboxOverflowStrategy mailboxOverflowStrategy) {
+        this(actorThroughput, schedulerPoolSize, maxActorInitAttempts, mailboxCapacity, mailboxOverflowStrategy, DEFAULT_MAX_MAILBOXES_PER_DRAIN);
+    }
+
+    public TbActorSystemSettings(int actorThroughput, int schedulerPoolSize, int maxActorInitAttempts,
+                                 int mailboxCapacity, TbActorMailboxOverflowStrategy mailboxOverflowStrategy, int maxMailboxesPerDrain) {
+        this.actorThroughput = actorThroughput;
+        this.schedulerPoolSize = schedulerPoolSize;
+        this.maxActorInitAttempts = maxActorInitAttempts;
+        this.mailboxCapacity = mailboxCapacity;
+        this.mailboxOverflowStrategy = mailboxOverflowStrategy;
+        this.maxMailboxesPerDrain = maxMailboxesPerDrain;
+    }
+
+    public boolean isMailboxBounded() {
+        return mailboxCapacity > 0;
+    }
 
 }
@@ -18,16 +18,20 @@ package org.thingsboard.server.actors;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.thingsboard.common.util.ThingsBoardExecutors;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.msg.TbActorStopReason;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
@@ -103,6 +107,39 @@ public class ActorSystemTest {
         testActorsAndMessages(_100K, 10, 1);
     }
 
+    @Test
+    public void test100KActorsAnd10MessagesWithBatchedDrain() throws InterruptedException {
+        actorSystem.stop();
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, parallelism, 42, 0, TbActorMailboxOverflowStrategy.REJECT, 64));
+        executor = ThingsBoardExecutors.newWorkStealingPool(parallelism, getClass());
+        actorSystem.createDispatcher(ROOT_DISPATCHER, executor);
+        testActorsAndMessages(_100K, 10, 1);
+    }
+
+    @Test
+    public void test1KActorsAnd1KMessagesWithFixedDispatcher() throws InterruptedException {
+        actorSystem.createDispatcher(ROOT_DISPATCHER, TbActorDispatcherType.FIXED, parallelism);
+        testActorsAndMessages(1000, 1000, 10);
+    }
+
+    @Test
+    public void test1KActorsAnd1KMessagesWithVirtualDispatcher() throws InterruptedException {
+        actorSystem.createDispatcher(ROOT_DISPATCHER, TbActorDispatcherType.VIRTUAL, parallelism);
+        testActorsAndMessages(1000, 1000, 10);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testVirtualDispatcherDoesNotDrainMailboxesInBatches() {
+        Assume.assumeTrue(ThingsBoardExecutors.isVirtualThreadsSupported());
+        actorSystem.stop();
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, parallelism, 42, 0, TbActorMailboxOverflowStrategy.REJECT, 64));
+        actorSystem.createDispatcher(ROOT_DISPATCHER, TbActorDispatcherType.VIRTUAL, parallelism);
+
+        Map<String, Dispatcher> dispatchers = (Map<String, Dispatcher>) ReflectionTestUtils.getField(actorSystem, "dispatchers");
+        Assert.assertFalse(dispatchers.get(ROOT_DISPATCHER).isBatched());
+    }
+
     @Test
     public void test1KActorsAnd1KMessages() throws InterruptedException {
         executor = ThingsBoardExecutors.newWorkStealingPool(parallelism, getClass());
@@ -202,6 +239,84 @@ public class ActorSystemTest {
         Assert.assertTrue(testCtx1.getLatch().await(3, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testBoundedMailboxRejectsOverflow() throws InterruptedException {
+        actorSystem.stop();
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, parallelism, 42, 5, TbActorMailboxOverflowStrategy.REJECT));
+        executor = ThingsBoardExecutors.newWorkStealingPool(parallelism, getClass());
+        actorSystem.createDispatcher(ROOT_DISPATCHER, executor);
+        ActorTestCtx testCtx = getActorTestCtx(5);
+        TbActorRef actorRef = actorSystem.createRootActor(ROOT_DISPATCHER, new SlowInitActor.SlowInitActorCreator(
+                new TbEntityActorId(new DeviceId(UUID.randomUUID())), testCtx));
+
+        AtomicInteger rejected = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            actorRef.tell(new IntTbActorMsg(i) {
+                @Override
+                public void onTbActorMailboxOverflow() {
+                    rejected.incrementAndGet();
+                }
+            });
+        }
+
+        Assert.assertEquals(5, rejected.get());
+        Assert.assertEquals(5, actorSystem.getDispatcherQueueSize(ROOT_DISPATCHER));
+        Assert.assertTrue(testCtx.getLatch().await(TIMEOUT_AWAIT_MAX_SEC, TimeUnit.SECONDS));
+        Assert.assertEquals(5, testCtx.getInvocationCount().get());
+    }
+
+    @Test
+    public void testBoundedMailboxRejectsConcurrentOverflowWithStopCallback() throws InterruptedException {
+        actorSystem.stop();
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, parallelism, 42, 5, TbActorMailboxOverflowStrategy.REJECT));
+        executor = ThingsBoardExecutors.newWorkStealingPool(parallelism, getClass());
+        actorSystem.createDispatcher(ROOT_DISPATCHER, executor);
+        ActorTestCtx testCtx = getActorTestCtx(5);
+        TbActorRef actorRef = actorSystem.createRootActor(ROOT_DISPATCHER, new SlowInitActor.SlowInitActorCreator(
+                new TbEntityActorId(new DeviceId(UUID.randomUUID())), testCtx));
+
+        int msgNumber = 200;
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch submitted = new CountDownLatch(msgNumber);
+        for (int i = 0; i < msgNumber; i++) {
+            int value = i;
+            submitPool.submit(() -> {
+                actorRef.tell(new IntTbActorMsg(value) {
+                    @Override
+                    public void onTbActorStopped(TbActorStopReason reason) {
+                        if (reason == TbActorStopReason.MAILBOX_OVERFLOW) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                });
+                submitted.countDown();
+            });
+        }
+
+        Assert.assertTrue(submitted.await(TIMEOUT_AWAIT_MAX_SEC, TimeUnit.SECONDS));
+        Assert.assertEquals(msgNumber - 5, rejected.get());
+        Assert.assertTrue(testCtx.getLatch().await(TIMEOUT_AWAIT_MAX_SEC, TimeUnit.SECONDS));
+        Assert.assertEquals(5, testCtx.getInvocationCount().get());
+    }
+
+    @Test
+    public void testBoundedMailboxSignalsBackpressure() throws InterruptedException {
+        actorSystem.stop();
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, parallelism, 42, 5, TbActorMailboxOverflowStrategy.BACKPRESSURE));
+        executor = ThingsBoardExecutors.newWorkStealingPool(parallelism, getClass());
+        actorSystem.createDispatcher(ROOT_DISPATCHER, executor);
+        ActorTestCtx testCtx = getActorTestCtx(10);
+        TbActorRef actorRef = actorSystem.createRootActor(ROOT_DISPATCHER, new SlowInitActor.SlowInitActorCreator(
+                new TbEntityActorId(new DeviceId(UUID.randomUUID())), testCtx));
+
+        for (int i = 0; i < 10; i++) {
+            actorRef.tell(new IntTbActorMsg(i));
+        }
+
+        Assert.assertTrue(actorSystem.isOverloaded());
+        Assert.assertTrue(testCtx.getLatch().await(TIMEOUT_AWAIT_MAX_SEC, TimeUnit.SECONDS));
+        Assert.assertFalse(actorSystem.isOverloaded());
+    }
 
     public void testActorsAndMessages(int actorsCount, int msgNumber, int times) throws InterruptedException {
         Random random = new Random();
@@ -0,0 +1,134 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.actors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.msg.TbActorMsg;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates device actor init storm after a restart: every actor performs a blocking call (e.g. DAO lookup) during init
+ * and then processes a single message. Compares dispatcher types by the time needed to get all actors initialized.
+ * VIRTUAL falls back to WORK_STEALING on Java versions without virtual threads.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TbActorDispatcherBenchmark {
+
+    private static final String DISPATCHER = "benchmark-dispatcher";
+
+    @Param({"WORK_STEALING", "FIXED", "VIRTUAL"})
+    private TbActorDispatcherType dispatcherType;
+
+    @Param({"10000"})
+    private int actorsCount;
+
+    @Param({"5"})
+    private int initBlockingMs;
+
+    private TbActorSystem actorSystem;
+    private CountDownLatch latch;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, 1, 42));
+        actorSystem.createDispatcher(DISPATCHER, dispatcherType, 4);
+        latch = new CountDownLatch(actorsCount);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        actorSystem.stop();
+    }
+
+    @Benchmark
+    public void deviceActorInitStorm() throws InterruptedException {
+        for (int i = 0; i < actorsCount; i++) {
+            TbActorRef actorRef = actorSystem.createRootActor(DISPATCHER,
+                    new BlockingInitActor.BlockingInitActorCreator(new TbEntityActorId(new DeviceId(UUID.randomUUID())), initBlockingMs, latch));
+            actorRef.tell(new IntTbActorMsg(i));
+        }
+        latch.await();
+    }
+
+    static class BlockingInitActor extends AbstractTbActor {
+
+        private final long initBlockingMs;
+        private final CountDownLatch latch;
+
+        BlockingInitActor(long initBlockingMs, CountDownLatch latch) {
+            this.initBlockingMs = initBlockingMs;
+            this.latch = latch;
+        }
+
+        @Override
+        public void init(TbActorCtx ctx) throws TbActorException {
+            super.init(ctx);
+            try {
+                Thread.sleep(initBlockingMs);
+            } catch (InterruptedException e) {
+                throw new TbActorException("Interrupted during init", e);
+            }
+        }
+
+        @Override
+        public boolean process(TbActorMsg msg) {
+            latch.countDown();
+            return true;
+        }
+
+        static class BlockingInitActorCreator implements TbActorCreator {
+
+            private final TbActorId actorId;
+            private final long initBlockingMs;
+            private final CountDownLatch latch;
+
+            BlockingInitActorCreator(TbActorId actorId, long initBlockingMs, CountDownLatch latch) {
+                this.actorId = actorId;
+                this.initBlockingMs = initBlockingMs;
+                this.latch = latch;
+            }
+
+            @Override
+            public TbActorId createActorId() {
+                return actorId;
+            }
+
+            @Override
+            public TbActor createActor() {
+                return new BlockingInitActor(initBlockingMs, latch);
+            }
+        }
+    }
+}
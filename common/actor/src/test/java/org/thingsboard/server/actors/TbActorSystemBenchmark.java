@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.actors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.thingsboard.common.util.ThingsBoardExecutors;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.msg.TbActorMsg;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the message delivery of the dispatcher that submits a task per scheduled mailbox (maxMailboxesPerDrain = 0)
+ * against the one that drains up to 64 scheduled mailboxes per task. Messages are spread over all the actors,
+ * so with 100k actors almost every message schedules its own mailbox.
+ * <p>
+ * "throughput" reports msgs/sec. "latency" reports percentiles (including p99) of the time needed to deliver
+ * one message to each of the {@link #LATENCY_ROUND_ACTORS} actors.
+ */
+@State(Scope.Benchmark)
+public class TbActorSystemBenchmark {
+
+    private static final String DISPATCHER = "benchmark-dispatcher";
+    private static final int MSGS_PER_INVOCATION = 100_000;
+    private static final int LATENCY_ROUND_ACTORS = 1000;
+
+    @Param({"1000", "100000"})
+    private int actorsCount;
+
+    @Param({"0", "64"})
+    private int maxMailboxesPerDrain;
+
+    private TbActorSystem actorSystem;
+    private ExecutorService executor;
+    private TbActorRef[] actors;
+    private volatile CountDownLatch latch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(5, 1, 42, 0, TbActorMailboxOverflowStrategy.REJECT, maxMailboxesPerDrain));
+        executor = ThingsBoardExecutors.newWorkStealingPool(parallelism, getClass());
+        actorSystem.createDispatcher(DISPATCHER, executor, parallelism);
+        actors = new TbActorRef[actorsCount];
+        for (int i = 0; i < actorsCount; i++) {
+            actors[i] = actorSystem.createRootActor(DISPATCHER, new LatchActor.LatchActorCreator(new TbEntityActorId(new DeviceId(UUID.randomUUID())), this));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        actorSystem.stop();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(MSGS_PER_INVOCATION)
+    public void throughput() throws InterruptedException {
+        tellAndAwait(MSGS_PER_INVOCATION);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() throws InterruptedException {
+        tellAndAwait(Math.min(LATENCY_ROUND_ACTORS, actorsCount));
+    }
+
+    private void tellAndAwait(int msgCount) throws InterruptedException {
+        CountDownLatch current = new CountDownLatch(msgCount);
+        latch = current;
+        for (int i = 0; i < msgCount; i++) {
+            actors[i % actorsCount].tell(new IntTbActorMsg(i));
+        }
+        current.await();
+    }
+
+    static class LatchActor extends AbstractTbActor {
+
+        private final TbActorSystemBenchmark benchmark;
+
+        LatchActor(TbActorSystemBenchmark benchmark) {
+            this.benchmark = benchmark;
+        }
+
+        @Override
+        public boolean process(TbActorMsg msg) {
+            benchmark.latch.countDown();
+            return true;
+        }
+
+        static class LatchActorCreator implements TbActorCreator {
+
+            private final TbActorId actorId;
+            private final TbActorSystemBenchmark benchmark;
+
+            LatchActorCreator(TbActorId actorId, TbActorSystemBenchmark benchmark) {
+                this.actorId = actorId;
+                this.benchmark = benchmark;
+            }
+
+            @Override
+            public TbActorId createActorId() {
+                return actorId;
+            }
+
+            @Override
+            public TbActor createActor() {
+                return new LatchActor(benchmark);
+            }
+        }
+    }
+}
@@ -29,11 +29,13 @@ import org.thingsboard.server.common.data.id.EdgeId;
 import org.thingsboard.server.common.data.id.EntityId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.plugin.ComponentLifecycleEvent;
+import org.thingsboard.server.common.data.security.DeviceCredentials;
 import org.thingsboard.server.common.msg.TbMsg;
 import org.thingsboard.server.common.msg.queue.TopicPartitionInfo;
 import org.thingsboard.server.common.msg.rpc.FromDeviceRpcResponse;
 import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.gen.transport.TransportProtos.ToCoreMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ToCoreNotificationMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ToTransportMsg;
 import org.thingsboard.server.queue.TbQueueCallback;
 
@@ -49,6 +51,8 @@ public interface TbClusterService {
 
     void pushNotificationToCore(String targetServiceId, FromDeviceRpcResponse response, TbQueueCallback callback);
 
+    void pushNotificationToCore(String targetServiceId, ToCoreNotificationMsg msg, TbQueueCallback callback);
+
     void pushMsgToRuleEngine(TopicPartitionInfo tpi, UUID msgId, TransportProtos.ToRuleEngineMsg msg, TbQueueCallback callback);
 
     void pushMsgToRuleEngine(TenantId tenantId, EntityId entityId, TbMsg msg, TbQueueCallback callback);
@@ -79,6 +83,8 @@ public interface TbClusterService {
 
     void onDeviceDeleted(Device device, TbQueueCallback callback);
 
+    void onDeviceCredentialsUpdated(DeviceCredentials deviceCredentials, DeviceCredentials old, TbQueueCallback callback);
+
     void onResourceChange(TbResource resource, TbQueueCallback callback);
 
     void onResourceDeleted(TbResource resource, TbQueueCallback callback);
@@ -34,6 +34,28 @@ public interface TbQueueConsumer<T extends TbQueueMsg> {
 
     void commit();
 
+    /**
+     * Returns true if {@link #commit(long)} commits the polls up to the given position only.
+     */
+    default boolean isCommitByPositionSupported() {
+        return false;
+    }
+
+    /**
+     * Returns the position of the last poll to commit with {@link #commit(long)} later.
+     */
+    default long getPollPosition() {
+        return 0;
+    }
+
+    /**
+     * Commits the messages returned by the polls up to and including the given position.
+     * Consumers that don't support the commit by position commit all the polled messages.
+     */
+    default void commit(long pollPosition) {
+        commit();
+    }
+
     boolean isStopped();
 
 }
@@ -46,6 +46,8 @@ public interface DeviceService {
 
     Device findDeviceByTenantIdAndName(TenantId tenantId, String name);
 
+    List<Device> findDevicesByTenantIdAndNames(TenantId tenantId, List<String> names);
+
     Device saveDevice(Device device, boolean doValidate);
 
     Device saveDevice(Device device);
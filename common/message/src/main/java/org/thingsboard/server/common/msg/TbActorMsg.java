@@ -30,4 +30,12 @@ public interface TbActorMsg {
     default void onTbActorStopped(TbActorStopReason reason) {
     }
 
+    /**
+     * Executed when the message is rejected or evicted because the target TbActor mailbox is full.
+     * By default, the message is released the same way as if the target TbActor was stopped.
+     */
+    default void onTbActorMailboxOverflow() {
+        onTbActorStopped(TbActorStopReason.MAILBOX_OVERFLOW);
+    }
+
 }
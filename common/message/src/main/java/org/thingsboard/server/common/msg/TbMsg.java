@@ -17,7 +17,8 @@ package org.thingsboard.server.common.msg;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnsafeByteOperations;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
@@ -28,11 +29,14 @@ import org.thingsboard.server.common.data.id.EntityId;
 import org.thingsboard.server.common.data.id.EntityIdFactory;
 import org.thingsboard.server.common.data.id.RuleChainId;
 import org.thingsboard.server.common.data.id.RuleNodeId;
+import org.thingsboard.server.common.data.kv.KvEntry;
 import org.thingsboard.server.common.msg.gen.MsgProtos;
 import org.thingsboard.server.common.msg.queue.ServiceQueue;
 import org.thingsboard.server.common.msg.queue.TbMsgCallback;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -49,15 +53,32 @@ public final class TbMsg implements Serializable {
     private final String type;
     private final EntityId originator;
     private final CustomerId customerId;
-    private final TbMsgMetaData metaData;
     private final TbMsgDataType dataType;
-    private final String data;
+    @Getter(value = AccessLevel.NONE)
+    private final TbMsgPayload payload;
     private final RuleChainId ruleChainId;
     private final RuleNodeId ruleNodeId;
     @Getter(value = AccessLevel.NONE)
     private final AtomicInteger ruleNodeExecCounter;
 
 
+    public TbMsgMetaData getMetaData() {
+        return payload.getMetaData();
+    }
+
+    public String getData() {
+        return payload.getData();
+    }
+
+    /**
+     * @return data of the telemetry or attributes message as the list of key-value pairs, decoded without JSON parsing,
+     * or null if the data is not carried as key-value pairs. In the latter case the data should be parsed from {@link #getData()}.
+     */
+    @JsonIgnore
+    public List<KvEntry> getKvEntries() {
+        return payload.getKvEntries();
+    }
+
     public int getAndIncrementRuleNodeCounter() {
         return ruleNodeExecCounter.getAndIncrement();
     }
@@ -75,6 +96,16 @@ public final class TbMsg implements Serializable {
                 metaData.copy(), TbMsgDataType.JSON, data, ruleChainId, ruleNodeId, 0, TbMsgCallback.EMPTY);
     }
 
+    /**
+     * Creates the message with the data carried as the list of key-value pairs.
+     *
+     * @param kvData serialized TsKvListProto of the transport or any message with the same wire format
+     */
+    public static TbMsg newMsg(String queueName, String type, EntityId originator, CustomerId customerId, TbMsgMetaData metaData, ByteString kvData, RuleChainId ruleChainId) {
+        return new TbMsg(queueName, UUID.randomUUID(), System.currentTimeMillis(), type, originator, customerId,
+                TbMsgDataType.JSON, new TbMsgPayload(metaData.copy(), kvData), ruleChainId, null, 0, TbMsgCallback.EMPTY);
+    }
+
     public static TbMsg newMsg(String type, EntityId originator, TbMsgMetaData metaData, String data) {
         return newMsg(type, originator, null, metaData, data);
     }
@@ -117,33 +148,38 @@ public final class TbMsg implements Serializable {
     }
 
     public static TbMsg transformMsg(TbMsg tbMsg, CustomerId customerId) {
-        return new TbMsg(tbMsg.queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, customerId, tbMsg.metaData, tbMsg.dataType,
-                tbMsg.data, tbMsg.ruleChainId, tbMsg.ruleNodeId, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
+        return new TbMsg(tbMsg.queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, customerId, tbMsg.dataType,
+                tbMsg.payload, tbMsg.ruleChainId, tbMsg.ruleNodeId, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
     }
 
     public static TbMsg transformMsg(TbMsg tbMsg, RuleChainId ruleChainId) {
-        return new TbMsg(tbMsg.queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, tbMsg.customerId, tbMsg.metaData, tbMsg.dataType,
-                tbMsg.data, ruleChainId, null, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
+        return new TbMsg(tbMsg.queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, tbMsg.customerId, tbMsg.dataType,
+                tbMsg.payload, ruleChainId, null, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
     }
 
     public static TbMsg transformMsg(TbMsg tbMsg, String queueName) {
-        return new TbMsg(queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, tbMsg.customerId, tbMsg.metaData, tbMsg.dataType,
-                tbMsg.data, tbMsg.getRuleChainId(), null, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
+        return new TbMsg(queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, tbMsg.customerId, tbMsg.dataType,
+                tbMsg.payload, tbMsg.getRuleChainId(), null, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
     }
 
     public static TbMsg transformMsg(TbMsg tbMsg, RuleChainId ruleChainId, String queueName) {
-        return new TbMsg(queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, tbMsg.customerId, tbMsg.metaData, tbMsg.dataType,
-                tbMsg.data, ruleChainId, null, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
+        return new TbMsg(queueName, tbMsg.id, tbMsg.ts, tbMsg.type, tbMsg.originator, tbMsg.customerId, tbMsg.dataType,
+                tbMsg.payload, ruleChainId, null, tbMsg.ruleNodeExecCounter.get(), tbMsg.getCallback());
     }
 
     //used for enqueueForTellNext
     public static TbMsg newMsg(TbMsg tbMsg, String queueName, RuleChainId ruleChainId, RuleNodeId ruleNodeId) {
-        return new TbMsg(queueName, UUID.randomUUID(), tbMsg.getTs(), tbMsg.getType(), tbMsg.getOriginator(), tbMsg.customerId, tbMsg.getMetaData().copy(),
-                tbMsg.getDataType(), tbMsg.getData(), ruleChainId, ruleNodeId, tbMsg.ruleNodeExecCounter.get(), TbMsgCallback.EMPTY);
+        return new TbMsg(queueName, UUID.randomUUID(), tbMsg.getTs(), tbMsg.getType(), tbMsg.getOriginator(), tbMsg.customerId,
+                tbMsg.getDataType(), tbMsg.payload.copy(), ruleChainId, ruleNodeId, tbMsg.ruleNodeExecCounter.get(), TbMsgCallback.EMPTY);
     }
 
     private TbMsg(String queueName, UUID id, long ts, String type, EntityId originator, CustomerId customerId, TbMsgMetaData metaData, TbMsgDataType dataType, String data,
                   RuleChainId ruleChainId, RuleNodeId ruleNodeId, int ruleNodeExecCounter, TbMsgCallback callback) {
+        this(queueName, id, ts, type, originator, customerId, dataType, new TbMsgPayload(metaData, data), ruleChainId, ruleNodeId, ruleNodeExecCounter, callback);
+    }
+
+    private TbMsg(String queueName, UUID id, long ts, String type, EntityId originator, CustomerId customerId, TbMsgDataType dataType, TbMsgPayload payload,
+                  RuleChainId ruleChainId, RuleNodeId ruleNodeId, int ruleNodeExecCounter, TbMsgCallback callback) {
         this.id = id;
         this.queueName = queueName != null ? queueName : ServiceQueue.MAIN;
         if (ts > 0) {
@@ -162,9 +198,8 @@ public final class TbMsg implements Serializable {
         } else {
             this.customerId = customerId;
         }
-        this.metaData = metaData;
         this.dataType = dataType;
-        this.data = data;
+        this.payload = payload;
         this.ruleChainId = ruleChainId;
         this.ruleNodeId = ruleNodeId;
         this.ruleNodeExecCounter = new AtomicInteger(ruleNodeExecCounter);
@@ -176,11 +211,15 @@ public final class TbMsg implements Serializable {
     }
 
     public static ByteString toByteString(TbMsg msg) {
-        return ByteString.copyFrom(toByteArray(msg));
+        return UnsafeByteOperations.unsafeWrap(toByteArray(msg));
     }
 
+    /**
+     * Serializes the message. Metadata and data of the message received from the queue are written as is,
+     * unless the metadata was accessed by the rule nodes.
+     */
     public static byte[] toByteArray(TbMsg msg) {
-        MsgProtos.TbMsgProto.Builder builder = MsgProtos.TbMsgProto.newBuilder();
+        MsgProtos.TbMsgEnvelopeProto.Builder builder = MsgProtos.TbMsgEnvelopeProto.newBuilder();
         builder.setId(msg.getId().toString());
         builder.setTs(msg.getTs());
         builder.setType(msg.getType());
@@ -203,20 +242,35 @@ public final class TbMsg implements Serializable {
             builder.setRuleNodeIdLSB(msg.getRuleNodeId().getId().getLeastSignificantBits());
         }
 
-        if (msg.getMetaData() != null) {
-            builder.setMetaData(MsgProtos.TbMsgMetaDataProto.newBuilder().putAllData(msg.getMetaData().getData()).build());
+        ByteString metaDataBytes = msg.payload.getMetaDataBytes();
+        if (metaDataBytes != null) {
+            builder.setMetaData(metaDataBytes);
         }
 
         builder.setDataType(msg.getDataType().ordinal());
-        builder.setData(msg.getData());
+        ByteString kvData = msg.payload.getKvDataBytes();
+        if (kvData != null) {
+            builder.setKvData(kvData);
+        } else {
+            builder.setData(msg.payload.getDataBytes());
+        }
         builder.setRuleNodeExecCounter(msg.ruleNodeExecCounter.get());
         return builder.build().toByteArray();
     }
 
     public static TbMsg fromBytes(String queueName, byte[] data, TbMsgCallback callback) {
+        return fromBytes(queueName, UnsafeByteOperations.unsafeWrap(data), callback);
+    }
+
+    /**
+     * Parses the message without decoding of the metadata and data.
+     * They are decoded on first access and refer to the given bytes until then, so the bytes must not be modified.
+     */
+    public static TbMsg fromBytes(String queueName, ByteString data, TbMsgCallback callback) {
         try {
-            MsgProtos.TbMsgProto proto = MsgProtos.TbMsgProto.parseFrom(data);
-            TbMsgMetaData metaData = new TbMsgMetaData(proto.getMetaData().getDataMap());
+            CodedInputStream input = data.newCodedInput();
+            input.enableAliasing(true);
+            MsgProtos.TbMsgEnvelopeProto proto = MsgProtos.TbMsgEnvelopeProto.parseFrom(input);
             EntityId entityId = EntityIdFactory.getByTypeAndUuid(proto.getEntityType(), new UUID(proto.getEntityIdMSB(), proto.getEntityIdLSB()));
             CustomerId customerId = null;
             RuleChainId ruleChainId = null;
@@ -232,8 +286,9 @@ public final class TbMsg implements Serializable {
             }
 
             TbMsgDataType dataType = TbMsgDataType.values()[proto.getDataType()];
-            return new TbMsg(queueName, UUID.fromString(proto.getId()), proto.getTs(), proto.getType(), entityId, customerId, metaData, dataType, proto.getData(), ruleChainId, ruleNodeId, proto.getRuleNodeExecCounter(), callback);
-        } catch (InvalidProtocolBufferException e) {
+            TbMsgPayload payload = new TbMsgPayload(proto.getMetaData(), proto.getData(), proto.hasKvData() ? proto.getKvData() : null);
+            return new TbMsg(queueName, UUID.fromString(proto.getId()), proto.getTs(), proto.getType(), entityId, customerId, dataType, payload, ruleChainId, ruleNodeId, proto.getRuleNodeExecCounter(), callback);
+        } catch (IOException e) {
             throw new IllegalStateException("Could not parse protobuf for TbMsg", e);
         }
     }
@@ -243,11 +298,11 @@ public final class TbMsg implements Serializable {
     }
 
     public TbMsg copyWithRuleChainId(RuleChainId ruleChainId, UUID msgId) {
-        return new TbMsg(this.queueName, msgId, this.ts, this.type, this.originator, this.customerId, this.metaData, this.dataType, this.data, ruleChainId, null, this.ruleNodeExecCounter.get(), callback);
+        return new TbMsg(this.queueName, msgId, this.ts, this.type, this.originator, this.customerId, this.dataType, this.payload, ruleChainId, null, this.ruleNodeExecCounter.get(), callback);
     }
 
     public TbMsg copyWithRuleNodeId(RuleChainId ruleChainId, RuleNodeId ruleNodeId, UUID msgId) {
-        return new TbMsg(this.queueName, msgId, this.ts, this.type, this.originator, this.customerId, this.metaData, this.dataType, this.data, ruleChainId, ruleNodeId, this.ruleNodeExecCounter.get(), callback);
+        return new TbMsg(this.queueName, msgId, this.ts, this.type, this.originator, this.customerId, this.dataType, this.payload, ruleChainId, ruleNodeId, this.ruleNodeExecCounter.get(), callback);
     }
 
     public TbMsgCallback getCallback() {
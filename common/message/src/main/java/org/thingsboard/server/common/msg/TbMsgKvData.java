@@ -0,0 +1,115 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.msg;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.JsonDataEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.msg.gen.MsgProtos;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the data of the {@link TbMsg} that is carried as the list of key-value pairs.
+ * Type numbers are the same as in KeyValueType of the transport.
+ */
+final class TbMsgKvData {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int BOOLEAN_V = 0;
+    private static final int LONG_V = 1;
+    private static final int DOUBLE_V = 2;
+    private static final int STRING_V = 3;
+    private static final int JSON_V = 4;
+
+    private TbMsgKvData() {
+    }
+
+    static List<KvEntry> toKvEntries(ByteString kvData) {
+        List<MsgProtos.TbMsgKvProto> kvList = parse(kvData).getKvList();
+        List<KvEntry> result = new ArrayList<>(kvList.size());
+        for (MsgProtos.TbMsgKvProto kv : kvList) {
+            switch (kv.getType()) {
+                case BOOLEAN_V:
+                    result.add(new BooleanDataEntry(kv.getKey(), kv.getBoolV()));
+                    break;
+                case LONG_V:
+                    result.add(new LongDataEntry(kv.getKey(), kv.getLongV()));
+                    break;
+                case DOUBLE_V:
+                    result.add(new DoubleDataEntry(kv.getKey(), kv.getDoubleV()));
+                    break;
+                case STRING_V:
+                    result.add(new StringDataEntry(kv.getKey(), kv.getStringV()));
+                    break;
+                case JSON_V:
+                    result.add(new JsonDataEntry(kv.getKey(), kv.getJsonV()));
+                    break;
+            }
+        }
+        return result;
+    }
+
+    static String toJson(ByteString kvData) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            generator.writeStartObject();
+            for (MsgProtos.TbMsgKvProto kv : parse(kvData).getKvList()) {
+                switch (kv.getType()) {
+                    case BOOLEAN_V:
+                        generator.writeBooleanField(kv.getKey(), kv.getBoolV());
+                        break;
+                    case LONG_V:
+                        generator.writeNumberField(kv.getKey(), kv.getLongV());
+                        break;
+                    case DOUBLE_V:
+                        generator.writeNumberField(kv.getKey(), kv.getDoubleV());
+                        break;
+                    case STRING_V:
+                        generator.writeStringField(kv.getKey(), kv.getStringV());
+                        break;
+                    case JSON_V:
+                        generator.writeFieldName(kv.getKey());
+                        generator.writeTree(mapper.readTree(kv.getJsonV()));
+                        break;
+                }
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not convert TbMsg key-value data to JSON", e);
+        }
+        return writer.toString();
+    }
+
+    private static MsgProtos.TbMsgKvListProto parse(ByteString kvData) {
+        try {
+            return MsgProtos.TbMsgKvListProto.parseFrom(kvData);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Could not parse protobuf for TbMsg key-value data", e);
+        }
+    }
+}
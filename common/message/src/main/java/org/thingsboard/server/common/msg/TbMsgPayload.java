@@ -0,0 +1,152 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.msg;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.msg.gen.MsgProtos;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Metadata and data of the {@link TbMsg}.
+ * <p>
+ * Payload of the message received from the queue keeps the serialized metadata and data and decodes them on first access.
+ * Serialized data is reused on the next serialization since the data is immutable. Serialized metadata is reused only
+ * while it is not decoded, because the decoded {@link TbMsgMetaData} may be modified by the rule nodes.
+ * <p>
+ * Data of the telemetry and attributes messages may be carried as the serialized list of key-value pairs instead of JSON.
+ * JSON is built only if the data is accessed as a string.
+ */
+final class TbMsgPayload implements Serializable {
+
+    private final ByteString metaDataBytes;
+    private final ByteString dataBytes;
+    private final ByteString kvDataBytes;
+    private volatile TbMsgMetaData metaData;
+    private volatile boolean metaDataDecoded;
+    private volatile String data;
+    private volatile boolean dataDecoded;
+
+    TbMsgPayload(TbMsgMetaData metaData, String data) {
+        this(null, metaData, true, null, data, true, null);
+    }
+
+    TbMsgPayload(TbMsgMetaData metaData, ByteString kvDataBytes) {
+        this(null, metaData, true, null, null, false, kvDataBytes);
+    }
+
+    TbMsgPayload(ByteString metaDataBytes, ByteString dataBytes, ByteString kvDataBytes) {
+        this(metaDataBytes, null, false, dataBytes, null, false, kvDataBytes);
+    }
+
+    private TbMsgPayload(ByteString metaDataBytes, TbMsgMetaData metaData, boolean metaDataDecoded,
+                         ByteString dataBytes, String data, boolean dataDecoded, ByteString kvDataBytes) {
+        this.metaDataBytes = metaDataBytes;
+        this.metaData = metaData;
+        this.metaDataDecoded = metaDataDecoded;
+        this.dataBytes = dataBytes;
+        this.data = data;
+        this.dataDecoded = dataDecoded;
+        this.kvDataBytes = kvDataBytes;
+    }
+
+    TbMsgMetaData getMetaData() {
+        if (!metaDataDecoded) {
+            synchronized (this) {
+                if (!metaDataDecoded) {
+                    try {
+                        metaData = new TbMsgMetaData(MsgProtos.TbMsgMetaDataProto.parseFrom(metaDataBytes).getDataMap());
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new IllegalStateException("Could not parse protobuf for TbMsg metadata", e);
+                    }
+                    metaDataDecoded = true;
+                }
+            }
+        }
+        return metaData;
+    }
+
+    String getData() {
+        if (!dataDecoded) {
+            synchronized (this) {
+                if (!dataDecoded) {
+                    data = kvDataBytes != null ? TbMsgKvData.toJson(kvDataBytes) : dataBytes.toStringUtf8();
+                    dataDecoded = true;
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return data as the list of key-value pairs or null if the data is not carried as key-value pairs.
+     */
+    List<KvEntry> getKvEntries() {
+        return kvDataBytes != null ? TbMsgKvData.toKvEntries(kvDataBytes) : null;
+    }
+
+    /**
+     * @return serialized metadata or null if the message has no metadata.
+     */
+    ByteString getMetaDataBytes() {
+        if (!metaDataDecoded) {
+            return metaDataBytes;
+        }
+        TbMsgMetaData metaData = this.metaData;
+        return metaData != null ? MsgProtos.TbMsgMetaDataProto.newBuilder().putAllData(metaData.getData()).build().toByteString() : null;
+    }
+
+    ByteString getDataBytes() {
+        return dataBytes != null ? dataBytes : ByteString.copyFromUtf8(data);
+    }
+
+    ByteString getKvDataBytes() {
+        return kvDataBytes;
+    }
+
+    /**
+     * Copies the payload for the new message. Metadata that was not decoded yet is copied in the serialized form.
+     */
+    TbMsgPayload copy() {
+        if (!metaDataDecoded) {
+            return new TbMsgPayload(metaDataBytes, null, false, dataBytes, data, dataDecoded, kvDataBytes);
+        }
+        TbMsgMetaData metaData = this.metaData;
+        return new TbMsgPayload(null, metaData != null ? metaData.copy() : null, true, dataBytes, data, dataDecoded, kvDataBytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TbMsgPayload that = (TbMsgPayload) o;
+        return Objects.equals(getMetaData(), that.getMetaData()) && Objects.equals(getData(), that.getData());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getMetaData(), getData());
+    }
+
+    @Override
+    public String toString() {
+        return "TbMsgPayload(metaData=" + getMetaData() + ", data=" + getData() + ")";
+    }
+}
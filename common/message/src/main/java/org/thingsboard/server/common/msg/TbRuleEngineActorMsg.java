@@ -17,6 +17,7 @@ package org.thingsboard.server.common.msg;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import org.thingsboard.server.common.msg.queue.RuleEngineException;
 
 @EqualsAndHashCode
 public abstract class TbRuleEngineActorMsg implements TbActorMsg {
@@ -27,4 +28,9 @@ public abstract class TbRuleEngineActorMsg implements TbActorMsg {
     public TbRuleEngineActorMsg(TbMsg msg) {
         this.msg = msg;
     }
+
+    @Override
+    public void onTbActorMailboxOverflow() {
+        msg.getCallback().onFailure(new RuleEngineException("Actor mailbox is full!"));
+    }
 }
@@ -0,0 +1,124 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.msg;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.RuleChainId;
+import org.thingsboard.server.common.data.id.RuleNodeId;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.JsonDataEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.msg.gen.MsgProtos;
+import org.thingsboard.server.common.msg.queue.ServiceQueue;
+import org.thingsboard.server.common.msg.queue.TbMsgCallback;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TbMsgTest {
+
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        TbMsg msg = newMsg();
+        byte[] bytes = TbMsg.toByteArray(msg);
+
+        MsgProtos.TbMsgProto proto = MsgProtos.TbMsgProto.parseFrom(bytes);
+        assertEquals("value", proto.getMetaData().getDataMap().get("key"));
+        assertEquals("{\"temperature\":42}", proto.getData());
+
+        TbMsg parsed = TbMsg.fromBytes(ServiceQueue.MAIN, ByteString.copyFrom(bytes), TbMsgCallback.EMPTY);
+        assertEquals(msg.getId(), parsed.getId());
+        assertEquals(msg.getType(), parsed.getType());
+        assertEquals(msg.getOriginator(), parsed.getOriginator());
+        assertEquals(msg.getMetaData(), parsed.getMetaData());
+        assertEquals(msg.getData(), parsed.getData());
+    }
+
+    @Test
+    public void testUntouchedPayloadIsForwardedAsIs() throws Exception {
+        ByteString bytes = TbMsg.toByteString(newMsg());
+        TbMsg parsed = TbMsg.fromBytes(ServiceQueue.MAIN, bytes, TbMsgCallback.EMPTY);
+        RuleChainId ruleChainId = new RuleChainId(UUID.randomUUID());
+        RuleNodeId ruleNodeId = new RuleNodeId(UUID.randomUUID());
+        TbMsg forwarded = TbMsg.newMsg(parsed, "HighPriority", ruleChainId, ruleNodeId);
+
+        MsgProtos.TbMsgProto proto = MsgProtos.TbMsgProto.parseFrom(TbMsg.toByteArray(forwarded));
+        MsgProtos.TbMsgProto original = MsgProtos.TbMsgProto.parseFrom(bytes);
+        assertEquals(original.getMetaData(), proto.getMetaData());
+        assertEquals(original.getData(), proto.getData());
+        assertEquals(ruleChainId.getId().getMostSignificantBits(), proto.getRuleChainIdMSB());
+        assertEquals(ruleNodeId.getId().getLeastSignificantBits(), proto.getRuleNodeIdLSB());
+    }
+
+    @Test
+    public void testModifiedMetaDataIsSerialized() throws Exception {
+        TbMsg parsed = TbMsg.fromBytes(ServiceQueue.MAIN, TbMsg.toByteString(newMsg()), TbMsgCallback.EMPTY);
+        TbMsg copy = TbMsg.newMsg(parsed, ServiceQueue.MAIN, null, null);
+        parsed.getMetaData().putValue("key", "updated");
+
+        MsgProtos.TbMsgProto proto = MsgProtos.TbMsgProto.parseFrom(TbMsg.toByteArray(parsed));
+        assertEquals("updated", proto.getMetaData().getDataMap().get("key"));
+        assertEquals("value", copy.getMetaData().getValue("key"));
+
+        copy.getMetaData().putValue("other", "value");
+        assertNull(parsed.getMetaData().getValue("other"));
+    }
+
+    @Test
+    public void testKvData() throws Exception {
+        ByteString kvData = MsgProtos.TbMsgKvListProto.newBuilder()
+                .setTs(42L)
+                .addKv(MsgProtos.TbMsgKvProto.newBuilder().setKey("active").setType(0).setBoolV(true))
+                .addKv(MsgProtos.TbMsgKvProto.newBuilder().setKey("count").setType(1).setLongV(5L))
+                .addKv(MsgProtos.TbMsgKvProto.newBuilder().setKey("temperature").setType(2).setDoubleV(21.5))
+                .addKv(MsgProtos.TbMsgKvProto.newBuilder().setKey("name").setType(3).setStringV("\"sensor\""))
+                .addKv(MsgProtos.TbMsgKvProto.newBuilder().setKey("config").setType(4).setJsonV("{\"a\": [1, 2]}"))
+                .build().toByteString();
+        TbMsg msg = TbMsg.newMsg(ServiceQueue.MAIN, "POST_TELEMETRY_REQUEST", deviceId, null, new TbMsgMetaData(), kvData, null);
+
+        byte[] bytes = TbMsg.toByteArray(msg);
+        MsgProtos.TbMsgProto proto = MsgProtos.TbMsgProto.parseFrom(bytes);
+        assertEquals(5, proto.getKvData().getKvCount());
+        assertEquals("", proto.getData());
+
+        TbMsg parsed = TbMsg.fromBytes(ServiceQueue.MAIN, bytes, TbMsgCallback.EMPTY);
+        List<KvEntry> kvEntries = parsed.getKvEntries();
+        assertEquals(Arrays.asList(new BooleanDataEntry("active", true), new LongDataEntry("count", 5L), new DoubleDataEntry("temperature", 21.5),
+                new StringDataEntry("name", "\"sensor\""), new JsonDataEntry("config", "{\"a\": [1, 2]}")), kvEntries);
+        assertEquals("{\"active\":true,\"count\":5,\"temperature\":21.5,\"name\":\"\\\"sensor\\\"\",\"config\":{\"a\":[1,2]}}", parsed.getData());
+
+        TbMsg transformed = TbMsg.transformMsg(parsed, parsed.getType(), parsed.getOriginator(), parsed.getMetaData(), "{}");
+        assertNull(transformed.getKvEntries());
+        assertNull(TbMsg.newMsg(ServiceQueue.MAIN, "POST_TELEMETRY_REQUEST", deviceId, new TbMsgMetaData(), "{}").getKvEntries());
+    }
+
+    private TbMsg newMsg() {
+        TbMsgMetaData metaData = new TbMsgMetaData();
+        metaData.putValue("key", "value");
+        return TbMsg.newMsg("POST_TELEMETRY_REQUEST", deviceId, metaData, "{\"temperature\":42}");
+    }
+}
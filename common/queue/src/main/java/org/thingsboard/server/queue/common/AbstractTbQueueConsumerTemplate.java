@@ -160,6 +160,16 @@ public abstract class AbstractTbQueueConsumerTemplate<R, T extends TbQueueMsg> i
         }
     }
 
+    @Override
+    public void commit(long pollPosition) {
+        consumerLock.lock();
+        try {
+            doCommit(pollPosition);
+        } finally {
+            consumerLock.unlock();
+        }
+    }
+
     @Override
     public void unsubscribe() {
         log.info("unsubscribe topic and stop consumer {}", getTopic());
@@ -185,6 +195,14 @@ public abstract class AbstractTbQueueConsumerTemplate<R, T extends TbQueueMsg> i
 
     abstract protected void doCommit();
 
+    /**
+     * Commits the polls up to the position. Templates that support it override {@link #isCommitByPositionSupported()} too,
+     * the others commit all the polled messages.
+     */
+    protected void doCommit(long pollPosition) {
+        doCommit();
+    }
+
     abstract protected void doUnsubscribe();
 
 }
@@ -17,10 +17,14 @@ package org.thingsboard.server.queue.kafka;
 
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.util.StopWatch;
 import org.thingsboard.server.queue.TbQueueAdmin;
 import org.thingsboard.server.queue.TbQueueMsg;
@@ -29,9 +33,14 @@ import org.thingsboard.server.queue.common.AbstractTbQueueConsumerTemplate;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Properties;
+import java.util.TreeMap;
 
 /**
  * Created by ashvayka on 24.09.18.
@@ -40,23 +49,26 @@ import java.util.Properties;
 public class TbKafkaConsumerTemplate<T extends TbQueueMsg> extends AbstractTbQueueConsumerTemplate<ConsumerRecord<String, byte[]>, T> {
 
     private final TbQueueAdmin admin;
-    private final KafkaConsumer<String, byte[]> consumer;
+    private final Consumer<String, byte[]> consumer;
     private final TbKafkaDecoder<T> decoder;
 
     private final TbKafkaConsumerStatsService statsService;
     private final String groupId;
 
+    private final Map<TopicPartition, OffsetAndMetadata> polledOffsets = new HashMap<>();
+    private final NavigableMap<Long, Map<TopicPartition, OffsetAndMetadata>> pollPositionOffsets = new TreeMap<>();
+    private volatile long pollPosition;
+
     @Builder
     private TbKafkaConsumerTemplate(TbKafkaSettings settings, TbKafkaDecoder<T> decoder,
                                     String clientId, String groupId, String topic,
                                     TbQueueAdmin admin, TbKafkaConsumerStatsService statsService) {
-        super(topic);
-        Properties props = settings.toConsumerProps(topic);
-        props.put(ConsumerConfig.CLIENT_ID_CONFIG, clientId);
-        if (groupId != null) {
-            props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
-        }
+        this(createConsumer(settings, clientId, groupId, topic), decoder, groupId, topic, admin, statsService);
+    }
 
+    TbKafkaConsumerTemplate(Consumer<String, byte[]> consumer, TbKafkaDecoder<T> decoder, String groupId, String topic,
+                            TbQueueAdmin admin, TbKafkaConsumerStatsService statsService) {
+        super(topic);
         this.statsService = statsService;
         this.groupId = groupId;
 
@@ -65,16 +77,35 @@ public class TbKafkaConsumerTemplate<T extends TbQueueMsg> extends AbstractTbQue
         }
 
         this.admin = admin;
-        this.consumer = new KafkaConsumer<>(props);
+        this.consumer = consumer;
         this.decoder = decoder;
     }
 
+    private static KafkaConsumer<String, byte[]> createConsumer(TbKafkaSettings settings, String clientId, String groupId, String topic) {
+        Properties props = settings.toConsumerProps(topic);
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG, clientId);
+        if (groupId != null) {
+            props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        }
+        return new KafkaConsumer<>(props);
+    }
+
     @Override
     protected void doSubscribe(List<String> topicNames) {
         if (!topicNames.isEmpty()) {
             topicNames.forEach(admin::createTopicIfNotExists);
             log.info("subscribe topics {}", topicNames);
-            consumer.subscribe(topicNames);
+            consumer.subscribe(topicNames, new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    forgetPartitions(partitions);
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                }
+            });
+            clearPollPositions();
         } else {
             log.info("unsubscribe due to empty topic list");
             consumer.unsubscribe();
@@ -97,7 +128,12 @@ public class TbKafkaConsumerTemplate<T extends TbQueueMsg> extends AbstractTbQue
             return Collections.emptyList();
         } else {
             List<ConsumerRecord<String, byte[]>> recordList = new ArrayList<>(256);
-            records.forEach(recordList::add);
+            records.forEach(record -> {
+                recordList.add(record);
+                polledOffsets.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
+            });
+            pollPosition++;
+            pollPositionOffsets.put(pollPosition, new HashMap<>(polledOffsets));
             return recordList;
         }
     }
@@ -110,6 +146,45 @@ public class TbKafkaConsumerTemplate<T extends TbQueueMsg> extends AbstractTbQue
     @Override
     protected void doCommit() {
         consumer.commitSync();
+        pollPositionOffsets.clear();
+    }
+
+    @Override
+    public boolean isCommitByPositionSupported() {
+        return true;
+    }
+
+    @Override
+    public long getPollPosition() {
+        return pollPosition;
+    }
+
+    @Override
+    protected void doCommit(long pollPosition) {
+        Map.Entry<Long, Map<TopicPartition, OffsetAndMetadata>> entry = pollPositionOffsets.floorEntry(pollPosition);
+        if (entry == null) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>(entry.getValue());
+        offsets.keySet().retainAll(consumer.assignment());
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+        }
+        pollPositionOffsets.headMap(entry.getKey(), true).clear();
+    }
+
+    private void clearPollPositions() {
+        polledOffsets.clear();
+        pollPositionOffsets.clear();
+    }
+
+    /**
+     * Drops the offsets of the revoked partitions, so the offsets polled before the rebalance are never committed
+     * over the offsets committed by the new owner of the partition. Called by the consumer within the poll.
+     */
+    void forgetPartitions(Collection<TopicPartition> partitions) {
+        polledOffsets.keySet().removeAll(partitions);
+        pollPositionOffsets.values().forEach(offsets -> offsets.keySet().removeAll(partitions));
     }
 
     @Override
@@ -97,6 +97,20 @@ public class InMemoryTbQueueConsumer<T extends TbQueueMsg> implements TbQueueCon
     public void commit() {
     }
 
+    @Override
+    public boolean isCommitByPositionSupported() {
+        return true;
+    }
+
+    @Override
+    public long getPollPosition() {
+        return 0;
+    }
+
+    @Override
+    public void commit(long pollPosition) {
+    }
+
     @Override
     public boolean isStopped() {
         return stopped;
@@ -22,5 +22,6 @@ public class TbRuleEngineQueueSubmitStrategyConfiguration {
 
     private String type;
     private int batchSize;
+    private int lanes = 1024;
 
 }
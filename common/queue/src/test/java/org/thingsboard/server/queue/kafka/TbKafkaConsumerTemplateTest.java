@@ -0,0 +1,101 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.queue.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.server.queue.TbQueueAdmin;
+import org.thingsboard.server.queue.TbQueueMsg;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class TbKafkaConsumerTemplateTest {
+
+    private static final String TOPIC = "tb_rule_engine.main";
+    private static final TopicPartition TP0 = new TopicPartition(TOPIC, 0);
+    private static final TopicPartition TP1 = new TopicPartition(TOPIC, 1);
+
+    private MockConsumer<String, byte[]> kafkaConsumer;
+    private TbKafkaConsumerTemplate<TbQueueMsg> consumer;
+
+    @Before
+    public void before() {
+        kafkaConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer = new TbKafkaConsumerTemplate<>(kafkaConsumer, msg -> msg, "group", TOPIC, mock(TbQueueAdmin.class), null);
+        consumer.subscribe();
+        kafkaConsumer.schedulePollTask(() -> {
+            kafkaConsumer.rebalance(Arrays.asList(TP0, TP1));
+            Map<TopicPartition, Long> beginningOffsets = new HashMap<>();
+            beginningOffsets.put(TP0, 0L);
+            beginningOffsets.put(TP1, 0L);
+            kafkaConsumer.updateBeginningOffsets(beginningOffsets);
+            kafkaConsumer.addRecord(record(TP0, 0));
+            kafkaConsumer.addRecord(record(TP1, 0));
+        });
+    }
+
+    @Test
+    public void testCommitByPositionCommitsPolledOffsetsOnly() {
+        assertTrue(consumer.isCommitByPositionSupported());
+        assertEquals(2, consumer.poll(10).size());
+        long firstPosition = consumer.getPollPosition();
+        kafkaConsumer.schedulePollTask(() -> kafkaConsumer.addRecord(record(TP0, 1)));
+        assertEquals(1, consumer.poll(10).size());
+
+        consumer.commit(firstPosition);
+
+        Map<TopicPartition, OffsetAndMetadata> committed = kafkaConsumer.committed(new HashSet<>(Arrays.asList(TP0, TP1)));
+        assertEquals(1, committed.get(TP0).offset());
+        assertEquals(1, committed.get(TP1).offset());
+
+        consumer.commit(consumer.getPollPosition());
+
+        committed = kafkaConsumer.committed(new HashSet<>(Arrays.asList(TP0, TP1)));
+        assertEquals(2, committed.get(TP0).offset());
+        assertEquals(1, committed.get(TP1).offset());
+    }
+
+    @Test
+    public void testRevokedPartitionsAreNotCommitted() {
+        assertEquals(2, consumer.poll(10).size());
+        kafkaConsumer.commitSync(Collections.singletonMap(TP1, new OffsetAndMetadata(5)));
+
+        consumer.forgetPartitions(Collections.singletonList(TP1));
+        consumer.commit(consumer.getPollPosition());
+
+        Map<TopicPartition, OffsetAndMetadata> committed = kafkaConsumer.committed(new HashSet<>(Arrays.asList(TP0, TP1)));
+        assertEquals(1, committed.get(TP0).offset());
+        assertEquals(5, committed.get(TP1).offset());
+    }
+
+    private static ConsumerRecord<String, byte[]> record(TopicPartition tp, long offset) {
+        return new ConsumerRecord<>(tp.topic(), tp.partition(), offset, UUID.randomUUID().toString(), new byte[0]);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.mqtt;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of MQTT connects that are processed concurrently (credentials validation and session registration).
+ * <p>
+ * Excess connects wait in the FIFO queue. Connect is rejected if the queue is full or
+ * if it waits longer than the max queue wait time. Each admitted connect must be released once it is processed
+ * or the channel is closed, so the next connect from the queue is admitted.
+ */
+@Slf4j
+public class MqttConnectAdmissionController {
+
+    private final int maxConnectsInProgress;
+    private final int maxQueueSize;
+    private final long maxQueueWaitTime;
+
+    private final Set<Admission> queue = new LinkedHashSet<>();
+    @Getter
+    private final AtomicInteger connectsInProgress = new AtomicInteger();
+    @Getter
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    public MqttConnectAdmissionController(int maxConnectsInProgress, int maxQueueSize, long maxQueueWaitTime) {
+        this.maxConnectsInProgress = Math.max(maxConnectsInProgress, 1);
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueWaitTime = maxQueueWaitTime;
+    }
+
+    /**
+     * Runs onAdmitted if the connect may be processed right away, otherwise adds the connect to the queue.
+     * Runs onRejected if the queue is full.
+     */
+    public Admission admit(Runnable onAdmitted, Runnable onRejected) {
+        Admission admission = new Admission(onAdmitted, onRejected, System.currentTimeMillis());
+        AdmissionState state;
+        synchronized (queue) {
+            if (connectsInProgress.get() < maxConnectsInProgress) {
+                connectsInProgress.incrementAndGet();
+                admission.state = AdmissionState.ADMITTED;
+            } else if (queue.size() < maxQueueSize) {
+                queue.add(admission);
+                queueSize.set(queue.size());
+            } else {
+                admission.state = AdmissionState.RELEASED;
+            }
+            state = admission.state;
+        }
+        if (state == AdmissionState.ADMITTED) {
+            onAdmitted.run();
+        } else if (state == AdmissionState.RELEASED) {
+            log.debug("Connect queue is full [{}], rejecting connect", maxQueueSize);
+            onRejected.run();
+        }
+        return admission;
+    }
+
+    /**
+     * Rejects connects that wait in the queue longer than the max queue wait time.
+     */
+    public void checkQueueWaitTime() {
+        long expirationTs = System.currentTimeMillis() - maxQueueWaitTime;
+        List<Admission> expired = new ArrayList<>();
+        synchronized (queue) {
+            Iterator<Admission> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                Admission admission = iterator.next();
+                if (admission.queuedTs > expirationTs) {
+                    break;
+                }
+                iterator.remove();
+                admission.state = AdmissionState.RELEASED;
+                expired.add(admission);
+            }
+            queueSize.set(queue.size());
+        }
+        if (!expired.isEmpty()) {
+            log.debug("Rejecting {} connects due to queue wait timeout [{}]", expired.size(), maxQueueWaitTime);
+            expired.forEach(admission -> admission.onRejected.run());
+        }
+    }
+
+    private void release(Admission admission) {
+        Admission next = null;
+        synchronized (queue) {
+            if (admission.state == AdmissionState.QUEUED) {
+                queue.remove(admission);
+                queueSize.set(queue.size());
+            } else if (admission.state == AdmissionState.ADMITTED) {
+                Iterator<Admission> iterator = queue.iterator();
+                if (iterator.hasNext()) {
+                    next = iterator.next();
+                    iterator.remove();
+                    next.state = AdmissionState.ADMITTED;
+                    queueSize.set(queue.size());
+                } else {
+                    connectsInProgress.decrementAndGet();
+                }
+            }
+            admission.state = AdmissionState.RELEASED;
+        }
+        if (next != null) {
+            next.onAdmitted.run();
+        }
+    }
+
+    private enum AdmissionState {
+        QUEUED, ADMITTED, RELEASED
+    }
+
+    public class Admission {
+
+        private final Runnable onAdmitted;
+        private final Runnable onRejected;
+        private final long queuedTs;
+        private AdmissionState state = AdmissionState.QUEUED;
+
+        private Admission(Runnable onAdmitted, Runnable onRejected, long queuedTs) {
+            this.onAdmitted = onAdmitted;
+            this.onRejected = onRejected;
+            this.queuedTs = queuedTs;
+        }
+
+        public void release() {
+            MqttConnectAdmissionController.this.release(this);
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.transport.mqtt;
 
+import io.micrometer.core.instrument.Timer;
 import io.netty.handler.ssl.SslHandler;
 import lombok.Getter;
 import lombok.Setter;
@@ -24,6 +25,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.stereotype.Component;
 import org.thingsboard.common.util.ThingsBoardExecutors;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.common.stats.StatsType;
 import org.thingsboard.server.common.transport.TransportContext;
 import org.thingsboard.server.transport.mqtt.adaptors.JsonMqttAdaptor;
 import org.thingsboard.server.transport.mqtt.adaptors.ProtoMqttAdaptor;
@@ -31,6 +34,7 @@ import org.thingsboard.server.transport.mqtt.adaptors.ProtoMqttAdaptor;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -73,12 +77,52 @@ public class MqttTransportContext extends TransportContext {
     @Value("${transport.mqtt.timeout:10000}")
     private long timeout;
 
+    @Getter
+    @Value("${transport.mqtt.gateway_batch_enabled:false}")
+    private boolean gatewayBatchEnabled;
+
+    @Getter
+    @Value("${transport.mqtt.gateway_batch_max_devices:1000}")
+    private int gatewayBatchMaxDevices;
+
+    @Value("${transport.mqtt.connect_admission.enabled:false}")
+    private boolean connectAdmissionEnabled;
+
+    @Value("${transport.mqtt.connect_admission.max_in_progress:1000}")
+    private int connectAdmissionMaxInProgress;
+
+    @Value("${transport.mqtt.connect_admission.max_queue_size:10000}")
+    private int connectAdmissionMaxQueueSize;
+
+    @Value("${transport.mqtt.connect_admission.max_queue_wait:10000}")
+    private long connectAdmissionMaxQueueWait;
+
+    @Autowired
+    private StatsFactory statsFactory;
+
+    @Getter
+    private MqttConnectAdmissionController connectAdmissionController;
+
+    private Timer connectTimer;
+
     private final AtomicInteger connectionsCounter = new AtomicInteger();
 
     @PostConstruct
     public void init() {
         super.init();
         transportService.createGaugeStats("openConnections", connectionsCounter);
+        connectTimer = statsFactory.createTimer(StatsType.TRANSPORT.getName() + ".mqtt.connect");
+        if (connectAdmissionEnabled) {
+            connectAdmissionController = new MqttConnectAdmissionController(connectAdmissionMaxInProgress, connectAdmissionMaxQueueSize, connectAdmissionMaxQueueWait);
+            transportService.createGaugeStats("connectsInProgress", connectAdmissionController.getConnectsInProgress());
+            transportService.createGaugeStats("connectsQueueSize", connectAdmissionController.getQueueSize());
+            long checkPeriod = Math.max(Math.min(connectAdmissionMaxQueueWait, 1000), 10);
+            getScheduler().scheduleAtFixedRate(connectAdmissionController::checkQueueWaitTime, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void onConnectProcessed(long connectStartNanos) {
+        connectTimer.record(System.nanoTime() - connectStartNanos, TimeUnit.NANOSECONDS);
     }
 
     public void channelRegistered() {
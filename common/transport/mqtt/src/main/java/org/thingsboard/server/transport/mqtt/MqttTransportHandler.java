@@ -126,6 +126,8 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
     final DeviceSessionCtx deviceSessionCtx;
     volatile InetSocketAddress address;
     volatile GatewaySessionHandler gatewaySessionHandler;
+    private volatile MqttConnectAdmissionController.Admission connectAdmission;
+    private volatile long connectStartNanos;
 
     private final ConcurrentHashMap<String, String> otaPackSessions;
     private final ConcurrentHashMap<String, Integer> chunkSizes;
@@ -753,12 +755,33 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
     }
 
     void processConnect(ChannelHandlerContext ctx, MqttConnectMessage msg) {
+        releaseConnectAdmission();
+        connectStartNanos = System.nanoTime();
+        MqttConnectAdmissionController admissionController = context.getConnectAdmissionController();
+        if (admissionController == null) {
+            doProcessConnect(ctx, msg);
+        } else {
+            connectAdmission = admissionController.admit(
+                    () -> ctx.channel().eventLoop().execute(() -> doProcessConnect(ctx, msg)),
+                    () -> ctx.channel().eventLoop().execute(() -> {
+                        log.debug("[{}] Connect rejected by the admission control", sessionId);
+                        sendConnAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, msg);
+                        ctx.close();
+                    }));
+        }
+    }
+
+    private void doProcessConnect(ChannelHandlerContext ctx, MqttConnectMessage msg) {
+        if (!ctx.channel().isActive()) {
+            releaseConnectAdmission();
+            return;
+        }
         log.info("[{}] Processing connect msg for client: {}!", sessionId, msg.payload().clientIdentifier());
         String userName = msg.payload().userName();
         String clientId = msg.payload().clientIdentifier();
         if (DataConstants.PROVISION.equals(userName) || DataConstants.PROVISION.equals(clientId)) {
             deviceSessionCtx.setProvisionOnly(true);
-            ctx.writeAndFlush(createMqttConnAckMsg(CONNECTION_ACCEPTED, msg));
+            sendConnAck(ctx, CONNECTION_ACCEPTED, msg);
         } else {
             X509Certificate cert;
             if (sslHandler != null && (cert = getX509Certificate()) != null) {
@@ -792,7 +815,7 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
                     @Override
                     public void onError(Throwable e) {
                         log.trace("[{}] Failed to process credentials: {}", address, userName, e);
-                        ctx.writeAndFlush(createMqttConnAckMsg(MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connectMessage));
+                        sendConnAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connectMessage);
                         ctx.close();
                     }
                 });
@@ -815,12 +838,12 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
                         @Override
                         public void onError(Throwable e) {
                             log.trace("[{}] Failed to process credentials: {}", address, sha3Hash, e);
-                            ctx.writeAndFlush(createMqttConnAckMsg(MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connectMessage));
+                            sendConnAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connectMessage);
                             ctx.close();
                         }
                     });
         } catch (Exception e) {
-            ctx.writeAndFlush(createMqttConnAckMsg(CONNECTION_REFUSED_NOT_AUTHORIZED, connectMessage));
+            sendConnAck(ctx, CONNECTION_REFUSED_NOT_AUTHORIZED, connectMessage);
             log.trace("[{}] X509 auth failure: {}", sessionId, address, e);
             ctx.close();
         }
@@ -839,6 +862,20 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
         return null;
     }
 
+    private void sendConnAck(ChannelHandlerContext ctx, MqttConnectReturnCode returnCode, MqttConnectMessage msg) {
+        ctx.writeAndFlush(createMqttConnAckMsg(returnCode, msg));
+        context.onConnectProcessed(connectStartNanos);
+        releaseConnectAdmission();
+    }
+
+    private void releaseConnectAdmission() {
+        MqttConnectAdmissionController.Admission admission = connectAdmission;
+        if (admission != null) {
+            connectAdmission = null;
+            admission.release();
+        }
+    }
+
     private MqttConnAckMessage createMqttConnAckMsg(MqttConnectReturnCode returnCode, MqttConnectMessage msg) {
         MqttFixedHeader mqttFixedHeader =
                 new MqttFixedHeader(CONNACK, false, AT_MOST_ONCE, false, 0);
@@ -925,13 +962,14 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
             }
             deviceSessionCtx.setDisconnected();
         }
+        releaseConnectAdmission();
         deviceSessionCtx.release();
     }
 
 
     private void onValidateDeviceResponse(ValidateDeviceCredentialsResponse msg, ChannelHandlerContext ctx, MqttConnectMessage connectMessage) {
         if (!msg.hasDeviceInfo()) {
-            ctx.writeAndFlush(createMqttConnAckMsg(CONNECTION_REFUSED_NOT_AUTHORIZED, connectMessage));
+            sendConnAck(ctx, CONNECTION_REFUSED_NOT_AUTHORIZED, connectMessage);
             ctx.close();
         } else {
             deviceSessionCtx.setDeviceInfo(msg.getDeviceInfo());
@@ -942,7 +980,7 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
                 public void onSuccess(Void msg) {
                     SessionMetaData sessionMetaData = transportService.registerAsyncSession(deviceSessionCtx.getSessionInfo(), MqttTransportHandler.this);
                     checkGatewaySession(sessionMetaData);
-                    ctx.writeAndFlush(createMqttConnAckMsg(CONNECTION_ACCEPTED, connectMessage));
+                    sendConnAck(ctx, CONNECTION_ACCEPTED, connectMessage);
                     deviceSessionCtx.setConnected(true);
                     log.info("[{}] Client connected!", sessionId);
                     transportService.getCallbackExecutor().execute(() -> processMsgQueue(ctx)); //this callback will execute in Producer worker thread and hard or blocking work have to be submitted to the separate thread.
@@ -955,7 +993,7 @@ public class MqttTransportHandler extends ChannelInboundHandlerAdapter implement
                     } else {
                         log.warn("[{}] Failed to submit session event", sessionId, e);
                     }
-                    ctx.writeAndFlush(createMqttConnAckMsg(MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connectMessage));
+                    sendConnAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connectMessage);
                     ctx.close();
                 }
             });
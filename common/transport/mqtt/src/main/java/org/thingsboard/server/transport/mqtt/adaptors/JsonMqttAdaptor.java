@@ -40,6 +40,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -62,7 +63,7 @@ public class JsonMqttAdaptor implements MqttTransportAdaptor {
     public TransportProtos.PostTelemetryMsg convertToPostTelemetry(MqttDeviceAwareSessionContext ctx, MqttPublishMessage inbound) throws AdaptorException {
         String payload = validatePayload(ctx.getSessionId(), inbound.payload(), false);
         try {
-            return JsonConverter.convertToTelemetryProto(new JsonParser().parse(payload));
+            return JsonConverter.convertToTelemetryProto(payload);
         } catch (IllegalStateException | JsonSyntaxException ex) {
             log.warn("Failed to decode post telemetry request", ex);
             throw new AdaptorException(ex);
@@ -73,7 +74,7 @@ public class JsonMqttAdaptor implements MqttTransportAdaptor {
     public TransportProtos.PostAttributeMsg convertToPostAttributes(MqttDeviceAwareSessionContext ctx, MqttPublishMessage inbound) throws AdaptorException {
         String payload = validatePayload(ctx.getSessionId(), inbound.payload(), false);
         try {
-            return JsonConverter.convertToAttributesProto(new JsonParser().parse(payload));
+            return JsonConverter.convertToAttributesProto(payload);
         } catch (IllegalStateException | JsonSyntaxException ex) {
             log.warn("Failed to decode post attributes request", ex);
             throw new AdaptorException(ex);
@@ -172,6 +173,26 @@ public class JsonMqttAdaptor implements MqttTransportAdaptor {
         }
     }
 
+    public static Map<String, TransportProtos.PostTelemetryMsg> convertToGatewayTelemetry(UUID sessionId, ByteBuf payloadData) throws AdaptorException {
+        String payload = validatePayload(sessionId, payloadData, false);
+        try {
+            return JsonConverter.convertToGatewayTelemetryProto(payload);
+        } catch (IllegalStateException | JsonSyntaxException ex) {
+            log.warn("Failed to decode gateway telemetry request: {}", payload, ex);
+            throw new AdaptorException(ex);
+        }
+    }
+
+    public static Map<String, TransportProtos.PostAttributeMsg> convertToGatewayAttributes(UUID sessionId, ByteBuf payloadData) throws AdaptorException {
+        String payload = validatePayload(sessionId, payloadData, false);
+        try {
+            return JsonConverter.convertToGatewayAttributesProto(payload);
+        } catch (IllegalStateException | JsonSyntaxException ex) {
+            log.warn("Failed to decode gateway attributes request: {}", payload, ex);
+            throw new AdaptorException(ex);
+        }
+    }
+
     private TransportProtos.GetAttributeRequestMsg processGetAttributeRequestMsg(MqttPublishMessage inbound, String topicBase) throws AdaptorException {
         String topicName = inbound.variableHeader().topicName();
         try {
@@ -19,6 +19,7 @@ package org.thingsboard.server.transport.mqtt.session;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -48,6 +49,7 @@ import org.thingsboard.server.common.transport.service.DefaultTransportService;
 import org.thingsboard.server.gen.transport.TransportApiProtos;
 import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDeviceFromGatewayRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDevicesFromGatewayRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.SessionInfoProto;
 import org.thingsboard.server.transport.mqtt.MqttTransportContext;
 import org.thingsboard.server.transport.mqtt.MqttTransportHandler;
@@ -56,8 +58,11 @@ import org.thingsboard.server.transport.mqtt.adaptors.MqttTransportAdaptor;
 import org.thingsboard.server.transport.mqtt.adaptors.ProtoMqttAdaptor;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -260,22 +265,7 @@ public class GatewaySessionHandler {
                         new TransportServiceCallback<GetOrCreateDeviceFromGatewayResponse>() {
                             @Override
                             public void onSuccess(GetOrCreateDeviceFromGatewayResponse msg) {
-                                GatewayDeviceSessionCtx deviceSessionCtx = new GatewayDeviceSessionCtx(GatewaySessionHandler.this, msg.getDeviceInfo(), msg.getDeviceProfile(), mqttQoSMap, transportService);
-                                if (devices.putIfAbsent(deviceName, deviceSessionCtx) == null) {
-                                    log.trace("[{}] First got or created device [{}], type [{}] for the gateway session", sessionId, deviceName, deviceType);
-                                    SessionInfoProto deviceSessionInfo = deviceSessionCtx.getSessionInfo();
-                                    transportService.registerAsyncSession(deviceSessionInfo, deviceSessionCtx);
-                                    transportService.process(TransportProtos.TransportToDeviceActorMsg.newBuilder()
-                                            .setSessionInfo(deviceSessionInfo)
-                                            .setSessionEvent(DefaultTransportService.getSessionEventMsg(TransportProtos.SessionEvent.OPEN))
-                                            .setSubscribeToAttributes(TransportProtos.SubscribeToAttributeUpdatesMsg.newBuilder()
-                                                    .setSessionType(TransportProtos.SessionType.ASYNC).build())
-                                            .setSubscribeToRPC(TransportProtos.SubscribeToRPCMsg.newBuilder()
-                                                    .setSessionType(TransportProtos.SessionType.ASYNC).build())
-                                            .build(), null);
-                                }
-                                futureToSet.set(devices.get(deviceName));
-                                deviceFutures.remove(deviceName);
+                                onDeviceCreated(deviceName, deviceType, msg, futureToSet);
                             }
 
                             @Override
@@ -292,6 +282,111 @@ public class GatewaySessionHandler {
             }
     }
 
+    private void onDeviceCreated(String deviceName, String deviceType, GetOrCreateDeviceFromGatewayResponse msg, SettableFuture<GatewayDeviceSessionCtx> futureToSet) {
+        GatewayDeviceSessionCtx deviceSessionCtx = new GatewayDeviceSessionCtx(this, msg.getDeviceInfo(), msg.getDeviceProfile(), mqttQoSMap, transportService);
+        if (devices.putIfAbsent(deviceName, deviceSessionCtx) == null) {
+            log.trace("[{}] First got or created device [{}], type [{}] for the gateway session", sessionId, deviceName, deviceType);
+            SessionInfoProto deviceSessionInfo = deviceSessionCtx.getSessionInfo();
+            transportService.registerAsyncSession(deviceSessionInfo, deviceSessionCtx);
+            transportService.process(TransportProtos.TransportToDeviceActorMsg.newBuilder()
+                    .setSessionInfo(deviceSessionInfo)
+                    .setSessionEvent(DefaultTransportService.getSessionEventMsg(TransportProtos.SessionEvent.OPEN))
+                    .setSubscribeToAttributes(TransportProtos.SubscribeToAttributeUpdatesMsg.newBuilder()
+                            .setSessionType(TransportProtos.SessionType.ASYNC).build())
+                    .setSubscribeToRPC(TransportProtos.SubscribeToRPCMsg.newBuilder()
+                            .setSessionType(TransportProtos.SessionType.ASYNC).build())
+                    .build(), null);
+        }
+        futureToSet.set(devices.get(deviceName));
+        deviceFutures.remove(deviceName);
+    }
+
+    /**
+     * Resolves the sessions of all devices of the gateway message. Devices that are neither connected nor being connected
+     * are requested in chunks of gateway_batch_max_devices with a single transport API request per chunk.
+     * The resulting map contains only the successfully connected devices.
+     */
+    private ListenableFuture<Map<String, GatewayDeviceSessionCtx>> checkDevicesConnected(List<String> deviceNames) {
+        Map<String, ListenableFuture<GatewayDeviceSessionCtx>> futures = new LinkedHashMap<>();
+        Map<String, SettableFuture<GatewayDeviceSessionCtx>> futuresToSet = new LinkedHashMap<>();
+        for (String deviceName : deviceNames) {
+            if (futures.containsKey(deviceName)) {
+                continue;
+            }
+            GatewayDeviceSessionCtx ctx = devices.get(deviceName);
+            if (ctx != null) {
+                futures.put(deviceName, Futures.immediateFuture(ctx));
+                continue;
+            }
+            SettableFuture<GatewayDeviceSessionCtx> futureToSet = SettableFuture.create();
+            ListenableFuture<GatewayDeviceSessionCtx> future = deviceFutures.putIfAbsent(deviceName, futureToSet);
+            if (future != null) {
+                futures.put(deviceName, future);
+            } else {
+                futures.put(deviceName, futureToSet);
+                futuresToSet.put(deviceName, futureToSet);
+                if (futuresToSet.size() >= context.getGatewayBatchMaxDevices()) {
+                    getOrCreateDevices(futuresToSet);
+                    futuresToSet = new LinkedHashMap<>();
+                }
+            }
+        }
+        if (!futuresToSet.isEmpty()) {
+            getOrCreateDevices(futuresToSet);
+        }
+        List<String> uniqueDeviceNames = new ArrayList<>(futures.keySet());
+        return Futures.transform(Futures.successfulAsList(futures.values()), deviceCtxs -> {
+            Map<String, GatewayDeviceSessionCtx> result = new HashMap<>();
+            for (int i = 0; i < uniqueDeviceNames.size(); i++) {
+                GatewayDeviceSessionCtx deviceCtx = deviceCtxs.get(i);
+                if (deviceCtx != null) {
+                    result.put(uniqueDeviceNames.get(i), deviceCtx);
+                }
+            }
+            return result;
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void getOrCreateDevices(Map<String, SettableFuture<GatewayDeviceSessionCtx>> futuresToSet) {
+        log.debug("[{}] Missing {} devices for the gateway session", sessionId, futuresToSet.size());
+        GetOrCreateDevicesFromGatewayRequestMsg.Builder request = GetOrCreateDevicesFromGatewayRequestMsg.newBuilder()
+                .setGatewayIdMSB(gateway.getDeviceId().getId().getMostSignificantBits())
+                .setGatewayIdLSB(gateway.getDeviceId().getId().getLeastSignificantBits());
+        futuresToSet.keySet().forEach(deviceName -> request.addDevices(GetOrCreateDeviceFromGatewayRequestMsg.newBuilder()
+                .setDeviceName(deviceName)
+                .setDeviceType(DEFAULT_DEVICE_TYPE).build()));
+        try {
+            transportService.process(request.build(), new TransportServiceCallback<List<GetOrCreateDeviceFromGatewayResponse>>() {
+                @Override
+                public void onSuccess(List<GetOrCreateDeviceFromGatewayResponse> msgs) {
+                    int i = 0;
+                    for (Map.Entry<String, SettableFuture<GatewayDeviceSessionCtx>> entry : futuresToSet.entrySet()) {
+                        GetOrCreateDeviceFromGatewayResponse msg = i < msgs.size() ? msgs.get(i) : null;
+                        if (msg != null && msg.getDeviceInfo() != null) {
+                            onDeviceCreated(entry.getKey(), DEFAULT_DEVICE_TYPE, msg, entry.getValue());
+                        } else {
+                            onDeviceCreationFailure(entry.getKey(), entry.getValue(), new IllegalStateException("Failed to get or create device [" + entry.getKey() + "]"));
+                        }
+                        i++;
+                    }
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    log.warn("[{}] Failed to get or create {} devices for the gateway session", sessionId, futuresToSet.size(), e);
+                    futuresToSet.forEach((deviceName, futureToSet) -> onDeviceCreationFailure(deviceName, futureToSet, e));
+                }
+            });
+        } catch (Throwable e) {
+            futuresToSet.forEach((deviceName, futureToSet) -> onDeviceCreationFailure(deviceName, futureToSet, e));
+        }
+    }
+
+    private void onDeviceCreationFailure(String deviceName, SettableFuture<GatewayDeviceSessionCtx> futureToSet, Throwable e) {
+        futureToSet.setException(e);
+        deviceFutures.remove(deviceName);
+    }
+
     private int getMsgId(MqttPublishMessage mqttMsg) {
         return mqttMsg.variableHeader().packetId();
     }
@@ -335,35 +430,23 @@ public class GatewaySessionHandler {
     }
 
     private void onDeviceTelemetryJson(int msgId, ByteBuf payload) throws AdaptorException {
-        JsonElement json = JsonMqttAdaptor.validateJsonPayload(sessionId, payload);
-        if (json.isJsonObject()) {
-            JsonObject jsonObj = json.getAsJsonObject();
-            for (Map.Entry<String, JsonElement> deviceEntry : jsonObj.entrySet()) {
-                String deviceName = deviceEntry.getKey();
-                Futures.addCallback(checkDeviceConnected(deviceName),
-                        new FutureCallback<>() {
-                            @Override
-                            public void onSuccess(@Nullable GatewayDeviceSessionCtx deviceCtx) {
-                                if (!deviceEntry.getValue().isJsonArray()) {
-                                    throw new JsonSyntaxException(CAN_T_PARSE_VALUE + json);
-                                }
-                                try {
-                                    TransportProtos.PostTelemetryMsg postTelemetryMsg = JsonConverter.convertToTelemetryProto(deviceEntry.getValue().getAsJsonArray());
+        Map<String, TransportProtos.PostTelemetryMsg> deviceMsgs = JsonMqttAdaptor.convertToGatewayTelemetry(sessionId, payload);
+        if (context.isGatewayBatchEnabled()) {
+            processBatchedTelemetry(msgId, new ArrayList<>(deviceMsgs.keySet()), new ArrayList<>(deviceMsgs.values()));
+        } else {
+            deviceMsgs.forEach((deviceName, postTelemetryMsg) ->
+                    Futures.addCallback(checkDeviceConnected(deviceName),
+                            new FutureCallback<>() {
+                                @Override
+                                public void onSuccess(@Nullable GatewayDeviceSessionCtx deviceCtx) {
                                     processPostTelemetryMsg(deviceCtx, postTelemetryMsg, deviceName, msgId);
-                                } catch (Throwable e) {
-                                    log.warn("[{}][{}] Failed to convert telemetry: {}", gateway.getDeviceId(), deviceName, deviceEntry.getValue(), e);
-                                    channel.close();
                                 }
-                            }
 
-                            @Override
-                            public void onFailure(Throwable t) {
-                                log.debug("[{}] Failed to process device telemetry command: {}", sessionId, deviceName, t);
-                            }
-                        }, context.getExecutor());
-            }
-        } else {
-            throw new JsonSyntaxException(CAN_T_PARSE_VALUE + json);
+                                @Override
+                                public void onFailure(Throwable t) {
+                                    log.debug("[{}] Failed to process device telemetry command: {}", sessionId, deviceName, t);
+                                }
+                            }, context.getExecutor()));
         }
     }
 
@@ -371,7 +454,15 @@ public class GatewaySessionHandler {
         try {
             TransportApiProtos.GatewayTelemetryMsg telemetryMsgProto = TransportApiProtos.GatewayTelemetryMsg.parseFrom(getBytes(payload));
             List<TransportApiProtos.TelemetryMsg> deviceMsgList = telemetryMsgProto.getMsgList();
-            if (!CollectionUtils.isEmpty(deviceMsgList)) {
+            if (!CollectionUtils.isEmpty(deviceMsgList) && context.isGatewayBatchEnabled()) {
+                List<String> deviceNames = new ArrayList<>(deviceMsgList.size());
+                List<TransportProtos.PostTelemetryMsg> msgs = new ArrayList<>(deviceMsgList.size());
+                for (TransportApiProtos.TelemetryMsg telemetryMsg : deviceMsgList) {
+                    deviceNames.add(checkDeviceName(telemetryMsg.getDeviceName()));
+                    msgs.add(ProtoConverter.validatePostTelemetryMsg(telemetryMsg.getMsg().toByteArray()));
+                }
+                processBatchedTelemetry(msgId, deviceNames, msgs);
+            } else if (!CollectionUtils.isEmpty(deviceMsgList)) {
                 deviceMsgList.forEach(telemetryMsg -> {
                     String deviceName = checkDeviceName(telemetryMsg.getDeviceName());
                     Futures.addCallback(checkDeviceConnected(deviceName),
@@ -407,6 +498,43 @@ public class GatewaySessionHandler {
         transportService.process(deviceCtx.getSessionInfo(), postTelemetryMsg, getPubAckCallback(channel, deviceName, msgId, postTelemetryMsg));
     }
 
+    /**
+     * Pushes the telemetry of all devices of the gateway message with a single transport service call
+     * and acknowledges the message once the batch is sent. Telemetry of the devices that failed to connect is skipped,
+     * the message is acknowledged if at least one device is resolved. Otherwise the publish fails and the channel is closed.
+     */
+    private void processBatchedTelemetry(int msgId, List<String> deviceNames, List<TransportProtos.PostTelemetryMsg> msgs) {
+        Futures.addCallback(checkDevicesConnected(deviceNames),
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(@Nullable Map<String, GatewayDeviceSessionCtx> deviceCtxs) {
+                        List<TransportProtos.TransportToRuleEngineMsg> batch = new ArrayList<>(msgs.size());
+                        for (int i = 0; i < deviceNames.size(); i++) {
+                            GatewayDeviceSessionCtx deviceCtx = deviceCtxs.get(deviceNames.get(i));
+                            if (deviceCtx != null) {
+                                batch.add(TransportProtos.TransportToRuleEngineMsg.newBuilder()
+                                        .setSessionInfo(deviceCtx.getSessionInfo())
+                                        .setPostTelemetry(msgs.get(i)).build());
+                            } else {
+                                log.debug("[{}] Failed to process device telemetry command: {}", sessionId, deviceNames.get(i));
+                            }
+                        }
+                        if (batch.isEmpty()) {
+                            log.warn("[{}] Failed to get or create any device of the telemetry command: {}", sessionId, deviceNames);
+                            channel.close();
+                        } else {
+                            transportService.process(batch, getPubAckCallback(channel, gateway.getDeviceName(), msgId, deviceNames));
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        log.debug("[{}] Failed to process devices telemetry command: {}", sessionId, deviceNames, t);
+                        channel.close();
+                    }
+                }, context.getExecutor());
+    }
+
     private void onDeviceClaimJson(int msgId, ByteBuf payload) throws AdaptorException {
         JsonElement json = JsonMqttAdaptor.validateJsonPayload(sessionId, payload);
         if (json.isJsonObject()) {
@@ -484,19 +612,12 @@ public class GatewaySessionHandler {
     }
 
     private void onDeviceAttributesJson(int msgId, ByteBuf payload) throws AdaptorException {
-        JsonElement json = JsonMqttAdaptor.validateJsonPayload(sessionId, payload);
-        if (json.isJsonObject()) {
-            JsonObject jsonObj = json.getAsJsonObject();
-            for (Map.Entry<String, JsonElement> deviceEntry : jsonObj.entrySet()) {
-                String deviceName = deviceEntry.getKey();
+        Map<String, TransportProtos.PostAttributeMsg> deviceMsgs = JsonMqttAdaptor.convertToGatewayAttributes(sessionId, payload);
+        deviceMsgs.forEach((deviceName, postAttributeMsg) ->
                 Futures.addCallback(checkDeviceConnected(deviceName),
                         new FutureCallback<GatewayDeviceSessionCtx>() {
                             @Override
                             public void onSuccess(@Nullable GatewayDeviceSessionCtx deviceCtx) {
-                                if (!deviceEntry.getValue().isJsonObject()) {
-                                    throw new JsonSyntaxException(CAN_T_PARSE_VALUE + json);
-                                }
-                                TransportProtos.PostAttributeMsg postAttributeMsg = JsonConverter.convertToAttributesProto(deviceEntry.getValue().getAsJsonObject());
                                 processPostAttributesMsg(deviceCtx, postAttributeMsg, deviceName, msgId);
                             }
 
@@ -504,11 +625,7 @@ public class GatewaySessionHandler {
                             public void onFailure(Throwable t) {
                                 log.debug("[{}] Failed to process device attributes command: {}", sessionId, deviceName, t);
                             }
-                        }, context.getExecutor());
-            }
-        } else {
-            throw new JsonSyntaxException(CAN_T_PARSE_VALUE + json);
-        }
+                        }, context.getExecutor()));
     }
 
     private void onDeviceAttributesProto(int msgId, ByteBuf payload) throws AdaptorException {
@@ -0,0 +1,87 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.mqtt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class MqttConnectAdmissionControllerTest {
+
+    private final List<String> admitted = new ArrayList<>();
+    private final List<String> rejected = new ArrayList<>();
+
+    @Test
+    public void givenConnectsOverLimit_whenAdmit_thenQueueAndReject() {
+        MqttConnectAdmissionController controller = new MqttConnectAdmissionController(2, 1, 60000);
+
+        MqttConnectAdmissionController.Admission first = admit(controller, "first");
+        admit(controller, "second");
+        admit(controller, "third");
+        admit(controller, "fourth");
+
+        assertThat(admitted, contains("first", "second"));
+        assertThat(rejected, contains("fourth"));
+        assertThat(controller.getConnectsInProgress().get(), is(2));
+        assertThat(controller.getQueueSize().get(), is(1));
+
+        first.release();
+        first.release();
+
+        assertThat(admitted, contains("first", "second", "third"));
+        assertThat(controller.getConnectsInProgress().get(), is(2));
+        assertThat(controller.getQueueSize().get(), is(0));
+    }
+
+    @Test
+    public void givenQueuedConnect_whenReleased_thenRemovedFromQueue() {
+        MqttConnectAdmissionController controller = new MqttConnectAdmissionController(1, 10, 60000);
+
+        MqttConnectAdmissionController.Admission first = admit(controller, "first");
+        admit(controller, "second").release();
+        first.release();
+
+        assertThat(admitted, contains("first"));
+        assertThat(rejected, empty());
+        assertThat(controller.getConnectsInProgress().get(), is(0));
+        assertThat(controller.getQueueSize().get(), is(0));
+    }
+
+    @Test
+    public void givenQueueWaitTimeout_whenCheckQueueWaitTime_thenReject() {
+        MqttConnectAdmissionController controller = new MqttConnectAdmissionController(1, 10, 0);
+
+        MqttConnectAdmissionController.Admission first = admit(controller, "first");
+        admit(controller, "second");
+        controller.checkQueueWaitTime();
+        first.release();
+
+        assertThat(admitted, contains("first"));
+        assertThat(rejected, contains("second"));
+        assertThat(controller.getConnectsInProgress().get(), is(0));
+        assertThat(controller.getQueueSize().get(), is(0));
+    }
+
+    private MqttConnectAdmissionController.Admission admit(MqttConnectAdmissionController controller, String name) {
+        return controller.admit(() -> admitted.add(name), () -> rejected.add(name));
+    }
+}
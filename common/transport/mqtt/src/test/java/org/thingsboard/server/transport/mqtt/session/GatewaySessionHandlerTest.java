@@ -15,18 +15,50 @@
  */
 package org.thingsboard.server.transport.mqtt.session;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
+import io.netty.handler.codec.mqtt.MqttQoS;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.thingsboard.server.common.data.id.CustomerId;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.DeviceProfileId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.transport.TransportService;
+import org.thingsboard.server.common.transport.TransportServiceCallback;
+import org.thingsboard.server.common.transport.auth.GetOrCreateDeviceFromGatewayResponse;
+import org.thingsboard.server.common.transport.auth.TransportDeviceInfo;
+import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDevicesFromGatewayRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportToRuleEngineMsg;
+import org.thingsboard.server.transport.mqtt.MqttTransportContext;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.BDDMockito.willCallRealMethod;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class GatewaySessionHandlerTest {
 
@@ -58,4 +90,85 @@ public class GatewaySessionHandlerTest {
         await().atMost(10, TimeUnit.SECONDS).until(() -> !map.containsKey("device"));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void givenBatchWithUnresolvedDevice_whenTelemetryReceived_thenResolvedDevicesForwardedAndAcknowledged() throws Exception {
+        TransportService transportService = mock(TransportService.class);
+        ChannelHandlerContext channel = mock(ChannelHandlerContext.class);
+        GatewaySessionHandler handler = createBatchedHandler(transportService, channel);
+        mockGetOrCreateDevices(transportService,
+                GetOrCreateDeviceFromGatewayResponse.builder().deviceInfo(createDeviceInfo("device1")).build(),
+                GetOrCreateDeviceFromGatewayResponse.builder().build());
+
+        handler.onDeviceTelemetry(createTelemetryMsg());
+
+        ArgumentCaptor<List<TransportToRuleEngineMsg>> batchCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<TransportServiceCallback<Void>> callbackCaptor = ArgumentCaptor.forClass(TransportServiceCallback.class);
+        verify(transportService).process(batchCaptor.capture(), callbackCaptor.capture());
+        assertEquals(1, batchCaptor.getValue().size());
+        assertEquals("device1", batchCaptor.getValue().get(0).getSessionInfo().getDeviceName());
+
+        callbackCaptor.getValue().onSuccess(null);
+        verify(channel).writeAndFlush(any());
+        verify(channel, never()).close();
+    }
+
+    @Test
+    public void givenBatchWithoutResolvedDevices_whenTelemetryReceived_thenPublishFailed() throws Exception {
+        TransportService transportService = mock(TransportService.class);
+        ChannelHandlerContext channel = mock(ChannelHandlerContext.class);
+        GatewaySessionHandler handler = createBatchedHandler(transportService, channel);
+        mockGetOrCreateDevices(transportService,
+                GetOrCreateDeviceFromGatewayResponse.builder().build(),
+                GetOrCreateDeviceFromGatewayResponse.builder().build());
+
+        handler.onDeviceTelemetry(createTelemetryMsg());
+
+        verify(transportService, never()).process(anyList(), any());
+        verify(channel, never()).writeAndFlush(any());
+        verify(channel).close();
+    }
+
+    private GatewaySessionHandler createBatchedHandler(TransportService transportService, ChannelHandlerContext channel) {
+        MqttTransportContext context = mock(MqttTransportContext.class);
+        when(context.getTransportService()).thenReturn(transportService);
+        when(context.isGatewayBatchEnabled()).thenReturn(true);
+        when(context.getGatewayBatchMaxDevices()).thenReturn(10);
+        when(context.getExecutor()).thenReturn(MoreExecutors.newDirectExecutorService());
+        when(context.getNodeId()).thenReturn("node");
+        DeviceSessionCtx deviceSessionCtx = mock(DeviceSessionCtx.class);
+        when(deviceSessionCtx.getContext()).thenReturn(context);
+        when(deviceSessionCtx.getDeviceInfo()).thenReturn(createDeviceInfo("gateway"));
+        when(deviceSessionCtx.getMqttQoSMap()).thenReturn(new ConcurrentHashMap<>());
+        when(deviceSessionCtx.getChannel()).thenReturn(channel);
+        when(deviceSessionCtx.isJsonPayloadType()).thenReturn(true);
+        return new GatewaySessionHandler(deviceSessionCtx, UUID.randomUUID());
+    }
+
+    private void mockGetOrCreateDevices(TransportService transportService, GetOrCreateDeviceFromGatewayResponse... responses) {
+        doAnswer(invocation -> {
+            TransportServiceCallback<List<GetOrCreateDeviceFromGatewayResponse>> callback = invocation.getArgument(1);
+            callback.onSuccess(Arrays.asList(responses));
+            return null;
+        }).when(transportService).process(any(GetOrCreateDevicesFromGatewayRequestMsg.class), any());
+    }
+
+    private MqttPublishMessage createTelemetryMsg() {
+        String payload = "{\"device1\":[{\"ts\":1000,\"values\":{\"temperature\":42}}]," +
+                "\"device2\":[{\"ts\":1000,\"values\":{\"temperature\":43}}]}";
+        return new MqttPublishMessage(new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_LEAST_ONCE, false, 0),
+                new MqttPublishVariableHeader("v1/gateway/telemetry", 1), Unpooled.wrappedBuffer(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private TransportDeviceInfo createDeviceInfo(String deviceName) {
+        TransportDeviceInfo deviceInfo = new TransportDeviceInfo();
+        deviceInfo.setTenantId(new TenantId(UUID.randomUUID()));
+        deviceInfo.setCustomerId(new CustomerId(UUID.randomUUID()));
+        deviceInfo.setDeviceProfileId(new DeviceProfileId(UUID.randomUUID()));
+        deviceInfo.setDeviceId(new DeviceId(UUID.randomUUID()));
+        deviceInfo.setDeviceName(deviceName);
+        deviceInfo.setDeviceType("default");
+        return deviceInfo;
+    }
+
 }
\ No newline at end of file
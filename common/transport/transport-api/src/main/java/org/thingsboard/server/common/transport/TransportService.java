@@ -31,6 +31,7 @@ import org.thingsboard.server.gen.transport.TransportProtos.GetDeviceResponseMsg
 import org.thingsboard.server.gen.transport.TransportProtos.GetEntityProfileRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetEntityProfileResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDeviceFromGatewayRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.GetOrCreateDevicesFromGatewayRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetOtaPackageRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetOtaPackageResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.GetResourceRequestMsg;
@@ -52,11 +53,13 @@ import org.thingsboard.server.gen.transport.TransportProtos.ToDeviceRpcRequestMs
 import org.thingsboard.server.gen.transport.TransportProtos.ToDeviceRpcResponseMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ToServerRpcRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.TransportToDeviceActorMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportToRuleEngineMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateBasicMqttCredRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceLwM2MCredentialsRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokenRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceX509CertRequestMsg;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -90,6 +93,13 @@ public interface TransportService {
     void process(GetOrCreateDeviceFromGatewayRequestMsg msg,
                  TransportServiceCallback<GetOrCreateDeviceFromGatewayResponse> callback);
 
+    /**
+     * Gets or creates the gateway devices with a single transport API request.
+     * Responses are in the order of the requested devices, the device info is null for devices that were not created.
+     */
+    void process(GetOrCreateDevicesFromGatewayRequestMsg msg,
+                 TransportServiceCallback<List<GetOrCreateDeviceFromGatewayResponse>> callback);
+
     void process(ProvisionDeviceRequestMsg msg,
                  TransportServiceCallback<ProvisionDeviceResponseMsg> callback);
 
@@ -102,6 +112,14 @@ public interface TransportService {
 
     void process(SessionInfoProto sessionInfo, PostTelemetryMsg msg, TransportServiceCallback<Void> callback);
 
+    /**
+     * Pushes the telemetry of multiple devices, e.g. devices of the same gateway message, to the rule engine.
+     * Telemetry of the devices that share the rule engine partition is sent as a single queue message.
+     * All devices must belong to the same tenant. Only the post telemetry part of the messages is processed.
+     * Telemetry of the rate limited devices is skipped, the callback fails only if all the devices are rate limited.
+     */
+    void process(List<TransportToRuleEngineMsg> msgs, TransportServiceCallback<Void> callback);
+
     void process(SessionInfoProto sessionInfo, PostAttributeMsg msg, TransportServiceCallback<Void> callback);
 
     void process(SessionInfoProto sessionInfo, GetAttributeRequestMsg msg, TransportServiceCallback<Void> callback);
@@ -18,10 +18,15 @@ package org.thingsboard.server.common.transport.adaptor;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.springframework.util.StringUtils;
 import org.thingsboard.server.common.data.DataConstants;
@@ -51,10 +56,14 @@ import org.thingsboard.server.gen.transport.TransportProtos.ValidateBasicMqttCre
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokenRequestMsg;
 import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceX509CertRequestMsg;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -84,6 +93,80 @@ public class JsonConverter {
         return convertToTelemetryProto(jsonElement, System.currentTimeMillis());
     }
 
+    /**
+     * Streaming counterpart of {@link #convertToTelemetryProto(JsonElement, long)}: reads the payload with the
+     * {@link JsonReader} and builds the key-value protos without the intermediate JSON tree.
+     * Only nested object and array values are parsed to the tree, since they are stored as the JSON string.
+     * Value type detection is the same as for the tree based conversion.
+     */
+    public static PostTelemetryMsg convertToTelemetryProto(String json, long ts) throws JsonSyntaxException {
+        PostTelemetryMsg.Builder builder = PostTelemetryMsg.newBuilder();
+        JsonReader reader = newReader(json);
+        try {
+            readTelemetry(reader, peekDocument(reader), ts, builder);
+            checkDocumentEnd(reader);
+        } catch (MalformedJsonException | EOFException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return builder.build();
+    }
+
+    public static PostTelemetryMsg convertToTelemetryProto(String json) throws JsonSyntaxException {
+        return convertToTelemetryProto(json, System.currentTimeMillis());
+    }
+
+    /**
+     * Streaming conversion of the gateway telemetry payload {"device name": [...], ...}.
+     * Returns the telemetry of each device in the payload order.
+     */
+    public static Map<String, PostTelemetryMsg> convertToGatewayTelemetryProto(String json, long ts) throws JsonSyntaxException {
+        Map<String, PostTelemetryMsg> result = new LinkedHashMap<>();
+        JsonReader reader = newReader(json);
+        try {
+            beginGatewayDocument(reader);
+            while (reader.hasNext()) {
+                String deviceName = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    throw new JsonSyntaxException(CAN_T_PARSE_VALUE + JSON_PARSER.parse(reader));
+                }
+                PostTelemetryMsg.Builder builder = PostTelemetryMsg.newBuilder();
+                readTelemetry(reader, JsonToken.BEGIN_ARRAY, ts, builder);
+                result.put(deviceName, builder.build());
+            }
+            reader.endObject();
+            checkDocumentEnd(reader);
+        } catch (MalformedJsonException | EOFException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return result;
+    }
+
+    public static Map<String, PostTelemetryMsg> convertToGatewayTelemetryProto(String json) throws JsonSyntaxException {
+        return convertToGatewayTelemetryProto(json, System.currentTimeMillis());
+    }
+
+    private static void readTelemetry(JsonReader reader, JsonToken token, long ts, PostTelemetryMsg.Builder builder) throws IOException {
+        if (token == JsonToken.BEGIN_OBJECT) {
+            readTelemetryObject(reader, ts, builder);
+        } else if (token == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readTelemetryObject(reader, ts, builder);
+                } else {
+                    throw new JsonSyntaxException(CAN_T_PARSE_VALUE + JSON_PARSER.parse(reader));
+                }
+            }
+            reader.endArray();
+        } else {
+            throw new JsonSyntaxException(CAN_T_PARSE_VALUE + (token != null ? JSON_PARSER.parse(reader) : JsonNull.INSTANCE));
+        }
+    }
+
     private static void convertToTelemetry(JsonElement jsonElement, long systemTs, Map<Long, List<KvEntry>> result, PostTelemetryMsg.Builder builder) {
         if (jsonElement.isJsonObject()) {
             parseObject(systemTs, result, builder, jsonElement.getAsJsonObject());
@@ -154,6 +237,204 @@ public class JsonConverter {
         }
     }
 
+    /**
+     * Streaming counterpart of {@link #convertToAttributesProto(JsonElement)}.
+     */
+    public static PostAttributeMsg convertToAttributesProto(String json) throws JsonSyntaxException {
+        JsonReader reader = newReader(json);
+        try {
+            JsonToken token = peekDocument(reader);
+            if (token != JsonToken.BEGIN_OBJECT) {
+                throw new JsonSyntaxException(CAN_T_PARSE_VALUE + (token != null ? JSON_PARSER.parse(reader) : JsonNull.INSTANCE));
+            }
+            PostAttributeMsg.Builder result = PostAttributeMsg.newBuilder();
+            result.addAllKv(toProtoValues(readValues(reader)));
+            checkDocumentEnd(reader);
+            return result.build();
+        } catch (MalformedJsonException | EOFException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Streaming conversion of the gateway attributes payload {"device name": {...}, ...}.
+     * Returns the attributes of each device in the payload order.
+     */
+    public static Map<String, PostAttributeMsg> convertToGatewayAttributesProto(String json) throws JsonSyntaxException {
+        Map<String, PostAttributeMsg> result = new LinkedHashMap<>();
+        JsonReader reader = newReader(json);
+        try {
+            beginGatewayDocument(reader);
+            while (reader.hasNext()) {
+                String deviceName = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    throw new JsonSyntaxException(CAN_T_PARSE_VALUE + JSON_PARSER.parse(reader));
+                }
+                result.put(deviceName, PostAttributeMsg.newBuilder().addAllKv(toProtoValues(readValues(reader))).build());
+            }
+            reader.endObject();
+            checkDocumentEnd(reader);
+        } catch (MalformedJsonException | EOFException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return result;
+    }
+
+    private static void beginGatewayDocument(JsonReader reader) throws IOException {
+        JsonToken token = peekDocument(reader);
+        if (token != JsonToken.BEGIN_OBJECT) {
+            throw new JsonSyntaxException(CAN_T_PARSE_VALUE + (token != null ? JSON_PARSER.parse(reader) : JsonNull.INSTANCE));
+        }
+        reader.beginObject();
+    }
+
+    private static JsonReader newReader(String json) {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * Returns the first token of the document or null if the document is empty, the same way as the empty document
+     * is parsed to {@link JsonNull} by the {@link JsonParser}.
+     */
+    private static JsonToken peekDocument(JsonReader reader) throws IOException {
+        try {
+            return reader.peek();
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void checkDocumentEnd(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonSyntaxException("Did not consume the entire document.");
+        }
+    }
+
+    /**
+     * Reads the telemetry object, either {"ts": ..., "values": {...}} or the plain key-value object.
+     * The "values" object is streamed if "ts" precedes it, otherwise it is parsed to the tree because
+     * the object shape is not known until the end of the object.
+     */
+    private static void readTelemetryObject(JsonReader reader, long systemTs, PostTelemetryMsg.Builder request) throws IOException {
+        Map<String, StreamedValue> members = new LinkedHashMap<>();
+        JsonElement tsElement = null;
+        StreamedValue valuesValue = null;
+        Map<String, StreamedValue> streamedValues = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("ts".equals(name)) {
+                tsElement = JSON_PARSER.parse(reader);
+                members.put(name, new StreamedValue(tsElement));
+            } else if ("values".equals(name) && tsElement != null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                streamedValues = readValues(reader);
+                valuesValue = null;
+            } else {
+                StreamedValue value = readValue(reader);
+                members.put(name, value);
+                if ("values".equals(name)) {
+                    valuesValue = value;
+                    streamedValues = null;
+                }
+            }
+        }
+        reader.endObject();
+        TsKvListProto.Builder builder = TsKvListProto.newBuilder();
+        if (tsElement != null && (valuesValue != null || streamedValues != null)) {
+            builder.setTs(tsElement.getAsLong());
+            if (streamedValues != null) {
+                builder.addAllKv(toProtoValues(streamedValues));
+            } else {
+                builder.addAllKv(parseProtoValues(valuesValue.toJsonElement().getAsJsonObject()));
+            }
+        } else {
+            builder.setTs(systemTs);
+            builder.addAllKv(toProtoValues(members));
+        }
+        request.addTsKvList(builder.build());
+    }
+
+    private static Map<String, StreamedValue> readValues(JsonReader reader) throws IOException {
+        Map<String, StreamedValue> values = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            values.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return values;
+    }
+
+    private static StreamedValue readValue(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return new StreamedValue(token, reader.nextString());
+            case BOOLEAN:
+                return new StreamedValue(token, Boolean.toString(reader.nextBoolean()));
+            case NULL:
+                reader.nextNull();
+                return new StreamedValue(JsonNull.INSTANCE);
+            default:
+                return new StreamedValue(JSON_PARSER.parse(reader));
+        }
+    }
+
+    private static List<KeyValueProto> toProtoValues(Map<String, StreamedValue> values) {
+        List<KeyValueProto> result = new ArrayList<>(values.size());
+        for (Entry<String, StreamedValue> valueEntry : values.entrySet()) {
+            StreamedValue value = valueEntry.getValue();
+            if (value.element != null) {
+                addProtoValue(result, valueEntry.getKey(), value.element);
+            } else if (value.token == JsonToken.STRING) {
+                result.add(buildStringKeyValueProto(value.value, valueEntry.getKey()));
+            } else if (value.token == JsonToken.BOOLEAN) {
+                result.add(KeyValueProto.newBuilder().setKey(valueEntry.getKey()).setType(KeyValueType.BOOLEAN_V)
+                        .setBoolV(Boolean.parseBoolean(value.value)).build());
+            } else {
+                result.add(buildNumericKeyValueProto(value.value, valueEntry.getKey()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Object member read by the {@link JsonReader}: either the primitive token with its string value
+     * or the parsed element for null, nested objects and arrays.
+     */
+    private static final class StreamedValue {
+
+        private final JsonToken token;
+        private final String value;
+        private final JsonElement element;
+
+        StreamedValue(JsonToken token, String value) {
+            this.token = token;
+            this.value = value;
+            this.element = null;
+        }
+
+        StreamedValue(JsonElement element) {
+            this.token = null;
+            this.value = null;
+            this.element = element;
+        }
+
+        JsonElement toJsonElement() {
+            if (element != null) {
+                return element;
+            }
+            return JSON_PARSER.parse(token == JsonToken.STRING ? GSON.toJson(value) : value);
+        }
+    }
+
     public static JsonElement toJson(TransportProtos.ToDeviceRpcRequestMsg msg, boolean includeRequestId) {
         JsonObject result = new JsonObject();
         if (includeRequestId) {
@@ -189,44 +470,47 @@ public class JsonConverter {
     private static List<KeyValueProto> parseProtoValues(JsonObject valuesObject) {
         List<KeyValueProto> result = new ArrayList<>();
         for (Entry<String, JsonElement> valueEntry : valuesObject.entrySet()) {
-            JsonElement element = valueEntry.getValue();
-            if (element.isJsonPrimitive()) {
-                JsonPrimitive value = element.getAsJsonPrimitive();
-                if (value.isString()) {
-                    if (maxStringValueLength > 0 && value.getAsString().length() > maxStringValueLength) {
-                        String message = String.format("String value length [%d] for key [%s] is greater than maximum allowed [%d]", value.getAsString().length(), valueEntry.getKey(), maxStringValueLength);
-                        throw new JsonSyntaxException(message);
-                    }
-                    if (isTypeCastEnabled && NumberUtils.isParsable(value.getAsString())) {
-                        try {
-                            result.add(buildNumericKeyValueProto(value, valueEntry.getKey()));
-                        } catch (RuntimeException th) {
-                            result.add(KeyValueProto.newBuilder().setKey(valueEntry.getKey()).setType(KeyValueType.STRING_V)
-                                    .setStringV(value.getAsString()).build());
-                        }
-                    } else {
-                        result.add(KeyValueProto.newBuilder().setKey(valueEntry.getKey()).setType(KeyValueType.STRING_V)
-                                .setStringV(value.getAsString()).build());
-                    }
-                } else if (value.isBoolean()) {
-                    result.add(KeyValueProto.newBuilder().setKey(valueEntry.getKey()).setType(KeyValueType.BOOLEAN_V)
-                            .setBoolV(value.getAsBoolean()).build());
-                } else if (value.isNumber()) {
-                    result.add(buildNumericKeyValueProto(value, valueEntry.getKey()));
-                } else if (!value.isJsonNull()) {
-                    throw new JsonSyntaxException(CAN_T_PARSE_VALUE + value);
-                }
-            } else if (element.isJsonObject() || element.isJsonArray()) {
-                result.add(KeyValueProto.newBuilder().setKey(valueEntry.getKey()).setType(KeyValueType.JSON_V).setJsonV(element.toString()).build());
-            } else if (!element.isJsonNull()) {
-                throw new JsonSyntaxException(CAN_T_PARSE_VALUE + element);
-            }
+            addProtoValue(result, valueEntry.getKey(), valueEntry.getValue());
         }
         return result;
     }
 
-    private static KeyValueProto buildNumericKeyValueProto(JsonPrimitive value, String key) {
-        String valueAsString = value.getAsString();
+    private static void addProtoValue(List<KeyValueProto> result, String key, JsonElement element) {
+        if (element.isJsonPrimitive()) {
+            JsonPrimitive value = element.getAsJsonPrimitive();
+            if (value.isString()) {
+                result.add(buildStringKeyValueProto(value.getAsString(), key));
+            } else if (value.isBoolean()) {
+                result.add(KeyValueProto.newBuilder().setKey(key).setType(KeyValueType.BOOLEAN_V)
+                        .setBoolV(value.getAsBoolean()).build());
+            } else if (value.isNumber()) {
+                result.add(buildNumericKeyValueProto(value.getAsString(), key));
+            } else if (!value.isJsonNull()) {
+                throw new JsonSyntaxException(CAN_T_PARSE_VALUE + value);
+            }
+        } else if (element.isJsonObject() || element.isJsonArray()) {
+            result.add(KeyValueProto.newBuilder().setKey(key).setType(KeyValueType.JSON_V).setJsonV(element.toString()).build());
+        } else if (!element.isJsonNull()) {
+            throw new JsonSyntaxException(CAN_T_PARSE_VALUE + element);
+        }
+    }
+
+    private static KeyValueProto buildStringKeyValueProto(String value, String key) {
+        if (maxStringValueLength > 0 && value.length() > maxStringValueLength) {
+            String message = String.format("String value length [%d] for key [%s] is greater than maximum allowed [%d]", value.length(), key, maxStringValueLength);
+            throw new JsonSyntaxException(message);
+        }
+        if (isTypeCastEnabled && NumberUtils.isParsable(value)) {
+            try {
+                return buildNumericKeyValueProto(value, key);
+            } catch (RuntimeException th) {
+                return KeyValueProto.newBuilder().setKey(key).setType(KeyValueType.STRING_V).setStringV(value).build();
+            }
+        }
+        return KeyValueProto.newBuilder().setKey(key).setType(KeyValueType.STRING_V).setStringV(value).build();
+    }
+
+    private static KeyValueProto buildNumericKeyValueProto(String valueAsString, String key) {
         KeyValueProto.Builder builder = KeyValueProto.newBuilder().setKey(key);
         var bd = new BigDecimal(valueAsString);
         if (bd.stripTrailingZeros().scale() <= 0 && !isSimpleDouble(valueAsString)) {
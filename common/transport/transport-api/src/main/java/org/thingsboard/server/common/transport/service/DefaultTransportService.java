@@ -96,7 +96,9 @@ import org.thingsboard.server.queue.util.TbTransportComponent;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -113,6 +115,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -141,6 +144,22 @@ public class DefaultTransportService implements TransportService {
     private int notificationsPollDuration;
     @Value("${transport.stats.enabled:false}")
     private boolean statsEnabled;
+    @Value("${transport.json.kv_payload_enabled:false}")
+    private boolean kvPayloadEnabled;
+    @Value("${transport.credentials.batch_enabled:false}")
+    private boolean credentialsBatchEnabled;
+    @Value("${transport.credentials.batch_max_size:100}")
+    private int credentialsBatchMaxSize;
+    @Value("${transport.credentials.batch_max_delay:20}")
+    private long credentialsBatchMaxDelay;
+    @Value("${transport.credentials.cache_enabled:false}")
+    private boolean credentialsCacheEnabled;
+    @Value("${transport.credentials.cache_positive_ttl:30000}")
+    private long credentialsCachePositiveTtl;
+    @Value("${transport.credentials.cache_negative_ttl:5000}")
+    private long credentialsCacheNegativeTtl;
+    @Value("${transport.credentials.cache_max_size:100000}")
+    private int credentialsCacheMaxSize;
 
     private final Map<String, Number> statsMap = new LinkedHashMap<>();
 
@@ -169,6 +188,7 @@ public class DefaultTransportService implements TransportService {
     protected MessagesStats transportApiStats;
 
     protected ExecutorService transportCallbackExecutor;
+    private DeviceTokenValidator deviceTokenValidator;
     private ExecutorService mainConsumerExecutor;
 
     private final ConcurrentMap<UUID, SessionMetaData> sessions = new ConcurrentHashMap<>();
@@ -217,6 +237,14 @@ public class DefaultTransportService implements TransportService {
         TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_TRANSPORT, serviceInfoProvider.getServiceId());
         transportNotificationsConsumer.subscribe(Collections.singleton(tpi));
         transportApiRequestTemplate.init();
+        if (credentialsBatchEnabled || credentialsCacheEnabled) {
+            deviceTokenValidator = new DeviceTokenValidator(
+                    request -> Futures.transform(transportApiRequestTemplate.send(new TbProtoQueueMsg<>(UUID.randomUUID(), request)),
+                            TbProtoQueueMsg::getValue, MoreExecutors.directExecutor()),
+                    scheduler, credentialsBatchEnabled, credentialsBatchMaxSize, credentialsBatchMaxDelay,
+                    credentialsCacheEnabled, credentialsCachePositiveTtl, credentialsCacheNegativeTtl, credentialsCacheMaxSize);
+            deviceTokenValidator.init();
+        }
         mainConsumerExecutor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("transport-consumer"));
         mainConsumerExecutor.execute(() -> {
             while (!stopped) {
@@ -352,6 +380,12 @@ public class DefaultTransportService implements TransportService {
     public void process(DeviceTransportType transportType, TransportProtos.ValidateDeviceTokenRequestMsg msg,
                         TransportServiceCallback<ValidateDeviceCredentialsResponse> callback) {
         log.trace("Processing msg: {}", msg);
+        if (deviceTokenValidator != null) {
+            ListenableFuture<ValidateDeviceCredentialsResponse> response = Futures.transform(deviceTokenValidator.validate(msg.getToken()),
+                    responseMsg -> toValidateDeviceCredentialsResponse(transportType, responseMsg), MoreExecutors.directExecutor());
+            AsyncCallbackTemplate.withCallback(response, callback::onSuccess, callback::onError, transportCallbackExecutor);
+            return;
+        }
         TbProtoQueueMsg<TransportApiRequestMsg> protoMsg = new TbProtoQueueMsg<>(UUID.randomUUID(),
                 TransportApiRequestMsg.newBuilder().setValidateTokenRequestMsg(msg).build());
         doProcess(transportType, protoMsg, callback);
@@ -397,49 +431,79 @@ public class DefaultTransportService implements TransportService {
 
     private void doProcess(DeviceTransportType transportType, TbProtoQueueMsg<TransportApiRequestMsg> protoMsg,
                            TransportServiceCallback<ValidateDeviceCredentialsResponse> callback) {
-        ListenableFuture<ValidateDeviceCredentialsResponse> response = Futures.transform(transportApiRequestTemplate.send(protoMsg), tmp -> {
-            TransportProtos.ValidateDeviceCredentialsResponseMsg msg = tmp.getValue().getValidateCredResponseMsg();
-            ValidateDeviceCredentialsResponse.ValidateDeviceCredentialsResponseBuilder result = ValidateDeviceCredentialsResponse.builder();
-            if (msg.hasDeviceInfo()) {
-                result.credentials(msg.getCredentialsBody());
-                TransportDeviceInfo tdi = getTransportDeviceInfo(msg.getDeviceInfo());
-                result.deviceInfo(tdi);
-                ByteString profileBody = msg.getProfileBody();
-                if (!profileBody.isEmpty()) {
-                    DeviceProfile profile = deviceProfileCache.getOrCreate(tdi.getDeviceProfileId(), profileBody);
-                    if (transportType != DeviceTransportType.DEFAULT
-                            && profile != null && profile.getTransportType() != DeviceTransportType.DEFAULT && profile.getTransportType() != transportType) {
-                        log.debug("[{}] Device profile [{}] has different transport type: {}, expected: {}", tdi.getDeviceId(), tdi.getDeviceProfileId(), profile.getTransportType(), transportType);
-                        throw new IllegalStateException("Device profile has different transport type: " + profile.getTransportType() + ". Expected: " + transportType);
-                    }
-                    result.deviceProfile(profile);
+        ListenableFuture<ValidateDeviceCredentialsResponse> response = Futures.transform(transportApiRequestTemplate.send(protoMsg),
+                tmp -> toValidateDeviceCredentialsResponse(transportType, tmp.getValue().getValidateCredResponseMsg()), MoreExecutors.directExecutor());
+        AsyncCallbackTemplate.withCallback(response, callback::onSuccess, callback::onError, transportCallbackExecutor);
+    }
+
+    private ValidateDeviceCredentialsResponse toValidateDeviceCredentialsResponse(DeviceTransportType transportType, TransportProtos.ValidateDeviceCredentialsResponseMsg msg) {
+        ValidateDeviceCredentialsResponse.ValidateDeviceCredentialsResponseBuilder result = ValidateDeviceCredentialsResponse.builder();
+        if (msg.hasDeviceInfo()) {
+            result.credentials(msg.getCredentialsBody());
+            TransportDeviceInfo tdi = getTransportDeviceInfo(msg.getDeviceInfo());
+            result.deviceInfo(tdi);
+            ByteString profileBody = msg.getProfileBody();
+            if (!profileBody.isEmpty()) {
+                DeviceProfile profile = deviceProfileCache.getOrCreate(tdi.getDeviceProfileId(), profileBody);
+                if (transportType != DeviceTransportType.DEFAULT
+                        && profile != null && profile.getTransportType() != DeviceTransportType.DEFAULT && profile.getTransportType() != transportType) {
+                    log.debug("[{}] Device profile [{}] has different transport type: {}, expected: {}", tdi.getDeviceId(), tdi.getDeviceProfileId(), profile.getTransportType(), transportType);
+                    throw new IllegalStateException("Device profile has different transport type: " + profile.getTransportType() + ". Expected: " + transportType);
                 }
+                result.deviceProfile(profile);
             }
-            return result.build();
-        }, MoreExecutors.directExecutor());
-        AsyncCallbackTemplate.withCallback(response, callback::onSuccess, callback::onError, transportCallbackExecutor);
+        }
+        return result.build();
     }
 
     @Override
     public void process(TransportProtos.GetOrCreateDeviceFromGatewayRequestMsg requestMsg, TransportServiceCallback<GetOrCreateDeviceFromGatewayResponse> callback) {
         TbProtoQueueMsg<TransportApiRequestMsg> protoMsg = new TbProtoQueueMsg<>(UUID.randomUUID(), TransportApiRequestMsg.newBuilder().setGetOrCreateDeviceRequestMsg(requestMsg).build());
         log.trace("Processing msg: {}", requestMsg);
-        ListenableFuture<GetOrCreateDeviceFromGatewayResponse> response = Futures.transform(transportApiRequestTemplate.send(protoMsg), tmp -> {
-            TransportProtos.GetOrCreateDeviceFromGatewayResponseMsg msg = tmp.getValue().getGetOrCreateDeviceResponseMsg();
-            GetOrCreateDeviceFromGatewayResponse.GetOrCreateDeviceFromGatewayResponseBuilder result = GetOrCreateDeviceFromGatewayResponse.builder();
-            if (msg.hasDeviceInfo()) {
-                TransportDeviceInfo tdi = getTransportDeviceInfo(msg.getDeviceInfo());
-                result.deviceInfo(tdi);
-                ByteString profileBody = msg.getProfileBody();
-                if (profileBody != null && !profileBody.isEmpty()) {
-                    result.deviceProfile(deviceProfileCache.getOrCreate(tdi.getDeviceProfileId(), profileBody));
-                }
+        ListenableFuture<GetOrCreateDeviceFromGatewayResponse> response = Futures.transform(transportApiRequestTemplate.send(protoMsg), tmp ->
+                        toGetOrCreateDeviceFromGatewayResponse(tmp.getValue().getGetOrCreateDeviceResponseMsg(), new HashMap<>())
+                , MoreExecutors.directExecutor());
+        AsyncCallbackTemplate.withCallback(response, callback::onSuccess, callback::onError, transportCallbackExecutor);
+    }
+
+    @Override
+    public void process(TransportProtos.GetOrCreateDevicesFromGatewayRequestMsg requestMsg, TransportServiceCallback<List<GetOrCreateDeviceFromGatewayResponse>> callback) {
+        TbProtoQueueMsg<TransportApiRequestMsg> protoMsg = new TbProtoQueueMsg<>(UUID.randomUUID(), TransportApiRequestMsg.newBuilder().setGetOrCreateDevicesRequestMsg(requestMsg).build());
+        log.trace("Processing msg: {}", requestMsg);
+        ListenableFuture<List<GetOrCreateDeviceFromGatewayResponse>> response = Futures.transform(transportApiRequestTemplate.send(protoMsg), tmp -> {
+            List<TransportProtos.GetOrCreateDeviceFromGatewayResponseMsg> msgs = tmp.getValue().getGetOrCreateDevicesResponseMsg().getDevicesList();
+            Map<DeviceProfileId, DeviceProfile> deviceProfiles = new HashMap<>();
+            List<GetOrCreateDeviceFromGatewayResponse> result = new ArrayList<>(msgs.size());
+            for (TransportProtos.GetOrCreateDeviceFromGatewayResponseMsg msg : msgs) {
+                result.add(toGetOrCreateDeviceFromGatewayResponse(msg, deviceProfiles));
             }
-            return result.build();
+            return result;
         }, MoreExecutors.directExecutor());
         AsyncCallbackTemplate.withCallback(response, callback::onSuccess, callback::onError, transportCallbackExecutor);
     }
 
+    /**
+     * The batched response carries the profile body only once per device profile,
+     * so the profiles decoded from the previous responses are passed in.
+     */
+    private GetOrCreateDeviceFromGatewayResponse toGetOrCreateDeviceFromGatewayResponse(TransportProtos.GetOrCreateDeviceFromGatewayResponseMsg msg,
+                                                                                      Map<DeviceProfileId, DeviceProfile> deviceProfiles) {
+        GetOrCreateDeviceFromGatewayResponse.GetOrCreateDeviceFromGatewayResponseBuilder result = GetOrCreateDeviceFromGatewayResponse.builder();
+        if (msg.hasDeviceInfo()) {
+            TransportDeviceInfo tdi = getTransportDeviceInfo(msg.getDeviceInfo());
+            result.deviceInfo(tdi);
+            ByteString profileBody = msg.getProfileBody();
+            if (profileBody != null && !profileBody.isEmpty()) {
+                DeviceProfile deviceProfile = deviceProfileCache.getOrCreate(tdi.getDeviceProfileId(), profileBody);
+                deviceProfiles.put(tdi.getDeviceProfileId(), deviceProfile);
+                result.deviceProfile(deviceProfile);
+            } else {
+                result.deviceProfile(deviceProfiles.get(tdi.getDeviceProfileId()));
+            }
+        }
+        return result.build();
+    }
+
     @Override
     public void process(TransportProtos.LwM2MRequestMsg msg, TransportServiceCallback<TransportProtos.LwM2MResponseMsg> callback) {
         log.trace("Processing msg: {}", msg);
@@ -517,14 +581,78 @@ public class DefaultTransportService implements TransportService {
             CustomerId customerId = getCustomerId(sessionInfo);
             MsgPackCallback packCallback = new MsgPackCallback(msg.getTsKvListCount(), new ApiStatsProxyCallback<>(tenantId, customerId, dataPoints, callback));
             for (TransportProtos.TsKvListProto tsKv : msg.getTsKvListList()) {
-                TbMsgMetaData metaData = new TbMsgMetaData();
-                metaData.putValue("deviceName", sessionInfo.getDeviceName());
-                metaData.putValue("deviceType", sessionInfo.getDeviceType());
-                metaData.putValue("ts", tsKv.getTs() + "");
-                JsonObject json = JsonUtils.getJsonObject(tsKv.getKvList());
-                sendToRuleEngine(tenantId, deviceId, customerId, sessionInfo, json, metaData, SessionMsgType.POST_TELEMETRY_REQUEST, packCallback);
+                sendToRuleEngine(tenantId, newPostTelemetryTbMsg(deviceId, customerId, sessionInfo, tsKv), packCallback);
+            }
+        }
+    }
+
+    @Override
+    public void process(List<TransportProtos.TransportToRuleEngineMsg> msgs, TransportServiceCallback<Void> callback) {
+        TenantId tenantId = null;
+        Map<CustomerId, Integer> msgCounts = new HashMap<>();
+        Map<CustomerId, Integer> dataPointCounts = new HashMap<>();
+        Map<TopicPartitionInfo, List<TbMsg>> partitionMsgs = new LinkedHashMap<>();
+        TbRateLimitsException rateLimitsException = null;
+        for (TransportProtos.TransportToRuleEngineMsg msg : msgs) {
+            TransportProtos.SessionInfoProto sessionInfo = msg.getSessionInfo();
+            TransportProtos.PostTelemetryMsg postTelemetryMsg = msg.getPostTelemetry();
+            int dataPoints = 0;
+            for (TransportProtos.TsKvListProto tsKv : postTelemetryMsg.getTsKvListList()) {
+                dataPoints += tsKv.getKvCount();
+            }
+            EntityType rateLimitedEntityType = checkLimits(sessionInfo, postTelemetryMsg, dataPoints);
+            if (rateLimitedEntityType != null) {
+                log.debug("[{}][{}] Telemetry of the device is skipped from the batch due to {} rate limits",
+                        toSessionId(sessionInfo), sessionInfo.getDeviceName(), rateLimitedEntityType);
+                rateLimitsException = new TbRateLimitsException(rateLimitedEntityType);
+                continue;
+            }
+            reportActivityInternal(sessionInfo);
+            tenantId = getTenantId(sessionInfo);
+            DeviceId deviceId = getDeviceId(sessionInfo);
+            CustomerId customerId = getCustomerId(sessionInfo);
+            msgCounts.merge(customerId, 1, Integer::sum);
+            dataPointCounts.merge(customerId, dataPoints, Integer::sum);
+            for (TransportProtos.TsKvListProto tsKv : postTelemetryMsg.getTsKvListList()) {
+                TbMsg tbMsg = newPostTelemetryTbMsg(deviceId, customerId, sessionInfo, tsKv);
+                TopicPartitionInfo tpi = partitionService.resolve(ServiceType.TB_RULE_ENGINE, tbMsg.getQueueName(), tenantId, tbMsg.getOriginator());
+                partitionMsgs.computeIfAbsent(tpi, key -> new ArrayList<>()).add(tbMsg);
             }
         }
+        TransportServiceCallback<Void> statsCallback = callback;
+        for (Map.Entry<CustomerId, Integer> entry : msgCounts.entrySet()) {
+            statsCallback = new ApiStatsProxyCallback<>(tenantId, entry.getKey(), entry.getValue(), dataPointCounts.get(entry.getKey()), statsCallback);
+        }
+        if (partitionMsgs.isEmpty() && rateLimitsException != null) {
+            callback.onError(rateLimitsException);
+            return;
+        }
+        if (partitionMsgs.isEmpty()) {
+            TransportServiceCallback<Void> emptyBatchCallback = statsCallback;
+            transportCallbackExecutor.submit(() -> emptyBatchCallback.onSuccess(null));
+            return;
+        }
+        MsgPackCallback packCallback = new MsgPackCallback(partitionMsgs.size(), statsCallback);
+        for (Map.Entry<TopicPartitionInfo, List<TbMsg>> entry : partitionMsgs.entrySet()) {
+            sendToRuleEngine(tenantId, entry.getKey(), entry.getValue(), packCallback);
+        }
+    }
+
+    private TbMsg newPostTelemetryTbMsg(DeviceId deviceId, CustomerId customerId, TransportProtos.SessionInfoProto sessionInfo, TransportProtos.TsKvListProto tsKv) {
+        TbMsgMetaData metaData = new TbMsgMetaData();
+        metaData.putValue("deviceName", sessionInfo.getDeviceName());
+        metaData.putValue("deviceType", sessionInfo.getDeviceType());
+        metaData.putValue("ts", tsKv.getTs() + "");
+        String type = SessionMsgType.POST_TELEMETRY_REQUEST.name();
+        if (kvPayloadEnabled) {
+            ByteString kvData = tsKv.toByteString();
+            return newTbMsg(sessionInfo, (queueName, ruleChainId) ->
+                    TbMsg.newMsg(queueName, type, deviceId, customerId, metaData, kvData, ruleChainId));
+        } else {
+            JsonObject json = JsonUtils.getJsonObject(tsKv.getKvList());
+            return newTbMsg(sessionInfo, (queueName, ruleChainId) ->
+                    TbMsg.newMsg(queueName, type, deviceId, customerId, metaData, gson.toJson(json), ruleChainId, null));
+        }
     }
 
     @Override
@@ -533,14 +661,19 @@ public class DefaultTransportService implements TransportService {
             reportActivityInternal(sessionInfo);
             TenantId tenantId = getTenantId(sessionInfo);
             DeviceId deviceId = new DeviceId(new UUID(sessionInfo.getDeviceIdMSB(), sessionInfo.getDeviceIdLSB()));
-            JsonObject json = JsonUtils.getJsonObject(msg.getKvList());
             TbMsgMetaData metaData = new TbMsgMetaData();
             metaData.putValue("deviceName", sessionInfo.getDeviceName());
             metaData.putValue("deviceType", sessionInfo.getDeviceType());
             metaData.putValue("notifyDevice", "false");
             CustomerId customerId = getCustomerId(sessionInfo);
-            sendToRuleEngine(tenantId, deviceId, customerId, sessionInfo, json, metaData, SessionMsgType.POST_ATTRIBUTES_REQUEST,
-                    new TransportTbQueueCallback(new ApiStatsProxyCallback<>(tenantId, customerId, msg.getKvList().size(), callback)));
+            TransportTbQueueCallback queueCallback = new TransportTbQueueCallback(new ApiStatsProxyCallback<>(tenantId, customerId, msg.getKvList().size(), callback));
+            if (kvPayloadEnabled) {
+                ByteString kvData = TransportProtos.TsKvListProto.newBuilder().addAllKv(msg.getKvList()).build().toByteString();
+                sendToRuleEngine(tenantId, deviceId, customerId, sessionInfo, kvData, metaData, SessionMsgType.POST_ATTRIBUTES_REQUEST, queueCallback);
+            } else {
+                JsonObject json = JsonUtils.getJsonObject(msg.getKvList());
+                sendToRuleEngine(tenantId, deviceId, customerId, sessionInfo, json, metaData, SessionMsgType.POST_ATTRIBUTES_REQUEST, queueCallback);
+            }
         }
     }
 
@@ -802,13 +935,7 @@ public class DefaultTransportService implements TransportService {
     }
 
     private boolean checkLimits(TransportProtos.SessionInfoProto sessionInfo, Object msg, TransportServiceCallback<?> callback, int dataPoints) {
-        if (log.isTraceEnabled()) {
-            log.trace("[{}] Processing msg: {}", toSessionId(sessionInfo), msg);
-        }
-        TenantId tenantId = new TenantId(new UUID(sessionInfo.getTenantIdMSB(), sessionInfo.getTenantIdLSB()));
-        DeviceId deviceId = new DeviceId(new UUID(sessionInfo.getDeviceIdMSB(), sessionInfo.getDeviceIdLSB()));
-
-        EntityType rateLimitedEntityType = rateLimitService.checkLimits(tenantId, deviceId, dataPoints);
+        EntityType rateLimitedEntityType = checkLimits(sessionInfo, msg, dataPoints);
         if (rateLimitedEntityType == null) {
             return true;
         } else {
@@ -819,6 +946,15 @@ public class DefaultTransportService implements TransportService {
         }
     }
 
+    private EntityType checkLimits(TransportProtos.SessionInfoProto sessionInfo, Object msg, int dataPoints) {
+        if (log.isTraceEnabled()) {
+            log.trace("[{}] Processing msg: {}", toSessionId(sessionInfo), msg);
+        }
+        TenantId tenantId = new TenantId(new UUID(sessionInfo.getTenantIdMSB(), sessionInfo.getTenantIdLSB()));
+        DeviceId deviceId = new DeviceId(new UUID(sessionInfo.getDeviceIdMSB(), sessionInfo.getDeviceIdLSB()));
+        return rateLimitService.checkLimits(tenantId, deviceId, dataPoints);
+    }
+
     protected void processToTransportMsg(TransportProtos.ToTransportMsg toSessionMsg) {
         UUID sessionId = new UUID(toSessionMsg.getSessionIdMSB(), toSessionMsg.getSessionIdLSB());
         SessionMetaData md = sessions.get(sessionId);
@@ -882,6 +1018,9 @@ public class DefaultTransportService implements TransportService {
                 } else if (EntityType.DEVICE.equals(entityType)) {
                     Optional<Device> deviceOpt = dataDecodingEncodingService.decode(msg.getData().toByteArray());
                     deviceOpt.ifPresent(device -> {
+                        if (deviceTokenValidator != null) {
+                            deviceTokenValidator.evict(device.getId().getId());
+                        }
                         onDeviceUpdate(device);
                         eventPublisher.publishEvent(new DeviceUpdatedEvent(device));
                     });
@@ -898,8 +1037,16 @@ public class DefaultTransportService implements TransportService {
                     rateLimitService.remove(new TenantId(entityUuid));
                 } else if (EntityType.DEVICE.equals(entityType)) {
                     rateLimitService.remove(new DeviceId(entityUuid));
+                    if (deviceTokenValidator != null) {
+                        deviceTokenValidator.evict(entityUuid);
+                    }
                     onDeviceDeleted(new DeviceId(entityUuid));
                 }
+            } else if (toSessionMsg.hasDeviceCredentialsUpdateMsg()) {
+                TransportProtos.DeviceCredentialsUpdateMsg msg = toSessionMsg.getDeviceCredentialsUpdateMsg();
+                if (deviceTokenValidator != null) {
+                    deviceTokenValidator.evict(new UUID(msg.getDeviceIdMSB(), msg.getDeviceIdLSB()), msg.getPreviousCredentialsId(), msg.getCredentialsId());
+                }
             } else if (toSessionMsg.hasResourceUpdateMsg()) {
                 TransportProtos.ResourceUpdateMsg msg = toSessionMsg.getResourceUpdateMsg();
                 TenantId tenantId = new TenantId(new UUID(msg.getTenantIdMSB(), msg.getTenantIdLSB()));
@@ -1052,8 +1199,42 @@ public class DefaultTransportService implements TransportService {
         ruleEngineMsgProducer.send(tpi, new TbProtoQueueMsg<>(tbMsg.getId(), msg), wrappedCallback);
     }
 
+    private void sendToRuleEngine(TenantId tenantId, TopicPartitionInfo tpi, List<TbMsg> tbMsgs, TbQueueCallback callback) {
+        if (tbMsgs.size() == 1) {
+            sendToRuleEngine(tenantId, tbMsgs.get(0), callback);
+            return;
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("[{}] Pushing to topic {} batch of {} messages", tenantId, tpi.getFullTopicName(), tbMsgs.size());
+        }
+        ToRuleEngineMsg.Builder msg = ToRuleEngineMsg.newBuilder()
+                .setTenantIdMSB(tenantId.getId().getMostSignificantBits())
+                .setTenantIdLSB(tenantId.getId().getLeastSignificantBits());
+        for (TbMsg tbMsg : tbMsgs) {
+            msg.addTbMsgBatch(TbMsg.toByteString(tbMsg));
+        }
+        ruleEngineProducerStats.incrementTotal();
+        StatsCallback wrappedCallback = new StatsCallback(callback, ruleEngineProducerStats);
+        ruleEngineMsgProducer.send(tpi, new TbProtoQueueMsg<>(tbMsgs.get(0).getId(), msg.build()), wrappedCallback);
+    }
+
     private void sendToRuleEngine(TenantId tenantId, DeviceId deviceId, CustomerId customerId, TransportProtos.SessionInfoProto sessionInfo, JsonObject json,
                                   TbMsgMetaData metaData, SessionMsgType sessionMsgType, TbQueueCallback callback) {
+        sendToRuleEngine(tenantId, sessionInfo, (queueName, ruleChainId) ->
+                TbMsg.newMsg(queueName, sessionMsgType.name(), deviceId, customerId, metaData, gson.toJson(json), ruleChainId, null), callback);
+    }
+
+    private void sendToRuleEngine(TenantId tenantId, DeviceId deviceId, CustomerId customerId, TransportProtos.SessionInfoProto sessionInfo, ByteString kvData,
+                                  TbMsgMetaData metaData, SessionMsgType sessionMsgType, TbQueueCallback callback) {
+        sendToRuleEngine(tenantId, sessionInfo, (queueName, ruleChainId) ->
+                TbMsg.newMsg(queueName, sessionMsgType.name(), deviceId, customerId, metaData, kvData, ruleChainId), callback);
+    }
+
+    private void sendToRuleEngine(TenantId tenantId, TransportProtos.SessionInfoProto sessionInfo, BiFunction<String, RuleChainId, TbMsg> msgFactory, TbQueueCallback callback) {
+        sendToRuleEngine(tenantId, newTbMsg(sessionInfo, msgFactory), callback);
+    }
+
+    private TbMsg newTbMsg(TransportProtos.SessionInfoProto sessionInfo, BiFunction<String, RuleChainId, TbMsg> msgFactory) {
         DeviceProfileId deviceProfileId = new DeviceProfileId(new UUID(sessionInfo.getDeviceProfileIdMSB(), sessionInfo.getDeviceProfileIdLSB()));
         DeviceProfile deviceProfile = deviceProfileCache.get(deviceProfileId);
         RuleChainId ruleChainId;
@@ -1069,8 +1250,7 @@ public class DefaultTransportService implements TransportService {
             queueName = defaultQueueName != null ? defaultQueueName : ServiceQueue.MAIN;
         }
 
-        TbMsg tbMsg = TbMsg.newMsg(queueName, sessionMsgType.name(), deviceId, customerId, metaData, gson.toJson(json), ruleChainId, null);
-        sendToRuleEngine(tenantId, tbMsg, callback);
+        return msgFactory.apply(queueName, ruleChainId);
     }
 
     private class TransportTbQueueCallback implements TbQueueCallback {
@@ -1140,12 +1320,18 @@ public class DefaultTransportService implements TransportService {
     private class ApiStatsProxyCallback<T> implements TransportServiceCallback<T> {
         private final TenantId tenantId;
         private final CustomerId customerId;
+        private final int msgCount;
         private final int dataPoints;
         private final TransportServiceCallback<T> callback;
 
         public ApiStatsProxyCallback(TenantId tenantId, CustomerId customerId, int dataPoints, TransportServiceCallback<T> callback) {
+            this(tenantId, customerId, 1, dataPoints, callback);
+        }
+
+        public ApiStatsProxyCallback(TenantId tenantId, CustomerId customerId, int msgCount, int dataPoints, TransportServiceCallback<T> callback) {
             this.tenantId = tenantId;
             this.customerId = customerId;
+            this.msgCount = msgCount;
             this.dataPoints = dataPoints;
             this.callback = callback;
         }
@@ -1153,7 +1339,7 @@ public class DefaultTransportService implements TransportService {
         @Override
         public void onSuccess(T msg) {
             try {
-                apiUsageClient.report(tenantId, customerId, ApiUsageRecordKey.TRANSPORT_MSG_COUNT, 1);
+                apiUsageClient.report(tenantId, customerId, ApiUsageRecordKey.TRANSPORT_MSG_COUNT, msgCount);
                 apiUsageClient.report(tenantId, customerId, ApiUsageRecordKey.TRANSPORT_DP_COUNT, dataPoints);
             } finally {
                 callback.onSuccess(msg);
@@ -0,0 +1,272 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.transport.service;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.server.common.data.StringUtils;
+import org.thingsboard.server.gen.transport.TransportProtos.DeviceInfoProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportApiRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportApiResponseMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceCredentialsResponseMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokenRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokensRequestMsg;
+import org.thingsboard.server.queue.scheduler.SchedulerComponent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Validates device access tokens on behalf of the transport service.
+ * <p>
+ * Concurrent validations of the same token share one request. If batching is enabled, tokens are collected
+ * until the batch is full or the max delay elapses and are validated with one {@link ValidateDeviceTokensRequestMsg}.
+ * A token that the core service failed to validate fails on its own and does not affect the rest of the batch.
+ * If the core service does not support batched validation, tokens of the batch are validated one by one.
+ * <p>
+ * If caching is enabled, valid and invalid tokens are cached for the positive and negative TTL accordingly.
+ * Valid tokens are evicted once the device is updated or deleted. Once the device credentials are updated,
+ * both the previous and the new token are evicted, so neither stays cached with the outdated result.
+ */
+@Slf4j
+class DeviceTokenValidator {
+
+    private final Function<TransportApiRequestMsg, ListenableFuture<TransportApiResponseMsg>> sender;
+    private final SchedulerComponent scheduler;
+    private final boolean batchEnabled;
+    private final int batchMaxSize;
+    private final long batchMaxDelay;
+    private final boolean cacheEnabled;
+    private final long cachePositiveTtl;
+    private final long cacheNegativeTtl;
+    private final int cacheMaxSize;
+
+    private final ConcurrentMap<String, SettableFuture<ValidateDeviceCredentialsResponseMsg>> pendingValidations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CachedValidation> cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, String> deviceTokens = new ConcurrentHashMap<>();
+    private final Object batchLock = new Object();
+    private List<String> batch = new ArrayList<>();
+
+    DeviceTokenValidator(Function<TransportApiRequestMsg, ListenableFuture<TransportApiResponseMsg>> sender, SchedulerComponent scheduler,
+                         boolean batchEnabled, int batchMaxSize, long batchMaxDelay,
+                         boolean cacheEnabled, long cachePositiveTtl, long cacheNegativeTtl, int cacheMaxSize) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.batchEnabled = batchEnabled;
+        this.batchMaxSize = Math.max(batchMaxSize, 1);
+        this.batchMaxDelay = batchMaxDelay;
+        this.cacheEnabled = cacheEnabled;
+        this.cachePositiveTtl = cachePositiveTtl;
+        this.cacheNegativeTtl = cacheNegativeTtl;
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    void init() {
+        if (cacheEnabled) {
+            long cleanUpPeriod = Math.max(Math.max(cachePositiveTtl, cacheNegativeTtl), 1000);
+            scheduler.scheduleAtFixedRate(this::cleanUp, cleanUpPeriod, cleanUpPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    ListenableFuture<ValidateDeviceCredentialsResponseMsg> validate(String token) {
+        if (cacheEnabled) {
+            CachedValidation cached = cache.get(token);
+            if (cached != null) {
+                if (cached.getExpirationTime() > System.currentTimeMillis()) {
+                    return Futures.immediateFuture(cached.getResponse());
+                }
+                cache.remove(token, cached);
+            }
+        }
+        SettableFuture<ValidateDeviceCredentialsResponseMsg> future = SettableFuture.create();
+        SettableFuture<ValidateDeviceCredentialsResponseMsg> pending = pendingValidations.putIfAbsent(token, future);
+        if (pending != null) {
+            return pending;
+        }
+        if (batchEnabled) {
+            addToBatch(token);
+        } else {
+            validateOneByOne(token);
+        }
+        return future;
+    }
+
+    void evict(UUID deviceId) {
+        String token = deviceTokens.remove(deviceId);
+        if (token != null) {
+            cache.remove(token);
+        }
+    }
+
+    void evict(UUID deviceId, String previousToken, String token) {
+        evict(deviceId);
+        if (!StringUtils.isEmpty(previousToken)) {
+            cache.remove(previousToken);
+        }
+        if (!StringUtils.isEmpty(token)) {
+            cache.remove(token);
+        }
+    }
+
+    void flush() {
+        List<String> tokens;
+        synchronized (batchLock) {
+            tokens = batch;
+            batch = new ArrayList<>();
+        }
+        if (!tokens.isEmpty()) {
+            validateBatch(tokens);
+        }
+    }
+
+    private void addToBatch(String token) {
+        List<String> tokens = null;
+        synchronized (batchLock) {
+            batch.add(token);
+            if (batch.size() >= batchMaxSize) {
+                tokens = batch;
+                batch = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                scheduler.schedule(this::flush, batchMaxDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (tokens != null) {
+            validateBatch(tokens);
+        }
+    }
+
+    private void validateBatch(List<String> tokens) {
+        if (tokens.size() == 1) {
+            validateOneByOne(tokens.get(0));
+            return;
+        }
+        ValidateDeviceTokensRequestMsg.Builder request = ValidateDeviceTokensRequestMsg.newBuilder();
+        tokens.forEach(token -> request.addTokens(ValidateDeviceTokenRequestMsg.newBuilder().setToken(token)));
+        log.trace("Validating {} tokens with one request", tokens.size());
+        Futures.addCallback(sender.apply(TransportApiRequestMsg.newBuilder().setValidateTokensRequestMsg(request).build()), new FutureCallback<TransportApiResponseMsg>() {
+            @Override
+            public void onSuccess(TransportApiResponseMsg response) {
+                if (!response.hasValidateTokensResponseMsg() || response.getValidateTokensResponseMsg().getResponsesCount() != tokens.size()) {
+                    log.debug("Core service does not support batched validation of {} tokens, validating one by one", tokens.size());
+                    tokens.forEach(token -> validateOneByOne(token));
+                    return;
+                }
+                Map<UUID, ByteString> profileBodies = new HashMap<>();
+                List<ValidateDeviceCredentialsResponseMsg> responses = response.getValidateTokensResponseMsg().getResponsesList();
+                Set<Integer> failedTokens = new HashSet<>(response.getValidateTokensResponseMsg().getFailedTokensList());
+                for (int i = 0; i < tokens.size(); i++) {
+                    if (failedTokens.contains(i)) {
+                        onFailure(tokens.get(i), new RuntimeException("Core service failed to validate the token"));
+                        continue;
+                    }
+                    ValidateDeviceCredentialsResponseMsg msg = responses.get(i);
+                    if (msg.hasDeviceInfo()) {
+                        DeviceInfoProto deviceInfo = msg.getDeviceInfo();
+                        UUID profileId = new UUID(deviceInfo.getDeviceProfileIdMSB(), deviceInfo.getDeviceProfileIdLSB());
+                        if (!msg.getProfileBody().isEmpty()) {
+                            profileBodies.put(profileId, msg.getProfileBody());
+                        } else if (profileBodies.containsKey(profileId)) {
+                            msg = msg.toBuilder().setProfileBody(profileBodies.get(profileId)).build();
+                        }
+                    }
+                    onValidated(tokens.get(i), msg);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                tokens.forEach(token -> onFailure(token, t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void validateOneByOne(String token) {
+        TransportApiRequestMsg request = TransportApiRequestMsg.newBuilder()
+                .setValidateTokenRequestMsg(ValidateDeviceTokenRequestMsg.newBuilder().setToken(token)).build();
+        Futures.addCallback(sender.apply(request), new FutureCallback<TransportApiResponseMsg>() {
+            @Override
+            public void onSuccess(TransportApiResponseMsg response) {
+                onValidated(token, response.getValidateCredResponseMsg());
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                DeviceTokenValidator.this.onFailure(token, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void onValidated(String token, ValidateDeviceCredentialsResponseMsg msg) {
+        if (cacheEnabled) {
+            putToCache(token, msg);
+        }
+        SettableFuture<ValidateDeviceCredentialsResponseMsg> future = pendingValidations.remove(token);
+        if (future != null) {
+            future.set(msg);
+        }
+    }
+
+    private void onFailure(String token, Throwable t) {
+        SettableFuture<ValidateDeviceCredentialsResponseMsg> future = pendingValidations.remove(token);
+        if (future != null) {
+            future.setException(t);
+        }
+    }
+
+    private void putToCache(String token, ValidateDeviceCredentialsResponseMsg msg) {
+        long ttl = msg.hasDeviceInfo() ? cachePositiveTtl : cacheNegativeTtl;
+        if (ttl <= 0) {
+            return;
+        }
+        if (cache.size() >= cacheMaxSize) {
+            cleanUp();
+            if (cache.size() >= cacheMaxSize) {
+                return;
+            }
+        }
+        cache.put(token, new CachedValidation(msg, System.currentTimeMillis() + ttl));
+        if (msg.hasDeviceInfo()) {
+            deviceTokens.put(new UUID(msg.getDeviceInfo().getDeviceIdMSB(), msg.getDeviceInfo().getDeviceIdLSB()), token);
+        }
+    }
+
+    private void cleanUp() {
+        long ts = System.currentTimeMillis();
+        cache.entrySet().removeIf(entry -> entry.getValue().getExpirationTime() <= ts);
+        deviceTokens.entrySet().removeIf(entry -> !cache.containsKey(entry.getValue()));
+    }
+
+    @Data
+    private static class CachedValidation {
+        private final ValidateDeviceCredentialsResponseMsg response;
+        private final long expirationTime;
+    }
+}
@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import org.junit.Assert;
@@ -22,8 +23,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.thingsboard.server.common.transport.adaptor.JsonConverter;
+import org.thingsboard.server.gen.transport.TransportProtos.PostAttributeMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.PostTelemetryMsg;
 
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @RunWith(MockitoJUnitRunner.class)
 public class JsonConverterTest {
@@ -100,4 +105,87 @@ public class JsonConverterTest {
         JsonConverter.setTypeCastEnabled(false);
         JsonConverter.convertToTelemetry(JSON_PARSER.parse("{\"meterReadingDelta\": 9.9701010061400066E19}"), 0L);
     }
+
+    @Test
+    public void testStreamingTelemetryMatchesTree() {
+        String[] payloads = {
+                "{\"temperature\": 42.0, \"humidity\": 73, \"active\": true, \"serial\": \"SN-001\", \"nullValue\": null}",
+                "{\"castLong\": \"11\", \"castDouble\": \"1.1\", \"big\": 99701010061400066001, \"exp\": 1E+1, \"dbl\": 101E-1}",
+                "{\"json\": {\"a\": [1, 2, {\"b\": null}]}, \"array\": [1, \"2\"], \"duplicate\": 1, \"duplicate\": \"2\"}",
+                "{\"ts\": 1451649600512, \"values\": {\"key1\": \"value1\", \"key2\": 2}}",
+                "{\"values\": {\"key1\": \"value1\", \"key2\": 2}, \"ts\": \"1451649600512\"}",
+                "{\"ts\": 1451649600512, \"other\": 1}",
+                "[{\"ts\": 1451649600512, \"values\": {\"key1\": 1}}, {\"ts\": 1451649600513, \"values\": {\"key1\": 2}}, {\"key2\": false}]"
+        };
+        for (String payload : payloads) {
+            Assert.assertEquals(payload, JsonConverter.convertToTelemetryProto(JSON_PARSER.parse(payload), 0L),
+                    JsonConverter.convertToTelemetryProto(payload, 0L));
+            if (payload.startsWith("{")) {
+                Assert.assertEquals(payload, JsonConverter.convertToAttributesProto(JSON_PARSER.parse(payload)),
+                        JsonConverter.convertToAttributesProto(payload));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingTelemetryWithoutTypeCast() {
+        JsonConverter.setTypeCastEnabled(false);
+        String payload = "{\"castLong\": \"11\", \"castDouble\": \"1.1\", \"long\": 11}";
+        Assert.assertEquals(JsonConverter.convertToTelemetryProto(JSON_PARSER.parse(payload), 0L),
+                JsonConverter.convertToTelemetryProto(payload, 0L));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingBigIntegerWithoutTypeCast() {
+        JsonConverter.setTypeCastEnabled(false);
+        JsonConverter.convertToTelemetryProto("{\"meterReadingDelta\": 89701010051400054084}", 0L);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingPrimitivePayload() {
+        JsonConverter.convertToTelemetryProto("42", 0L);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingEmptyPayload() {
+        JsonConverter.convertToTelemetryProto("", 0L);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingMalformedPayload() {
+        JsonConverter.convertToTelemetryProto("{\"key1\": 1, \"key2\": ", 0L);
+    }
+
+    @Test
+    public void testStreamingGatewayPayloadMatchesTree() {
+        String telemetry = "{\"Device A\": [{\"ts\": 1451649600512, \"values\": {\"temperature\": 42, \"humidity\": 80}}]," +
+                " \"Device B\": [{\"active\": true}, {\"ts\": 1451649600513, \"values\": {\"json\": {\"a\": 1}}}]}";
+        Map<String, PostTelemetryMsg> telemetryMsgs = JsonConverter.convertToGatewayTelemetryProto(telemetry, 0L);
+        JsonObject telemetryObj = JSON_PARSER.parse(telemetry).getAsJsonObject();
+        Assert.assertEquals(telemetryObj.entrySet().stream().map(Map.Entry::getKey).collect(Collectors.toList()), new ArrayList<>(telemetryMsgs.keySet()));
+        telemetryObj.entrySet().forEach(entry -> Assert.assertEquals(JsonConverter.convertToTelemetryProto(entry.getValue(), 0L),
+                telemetryMsgs.get(entry.getKey())));
+
+        String attributes = "{\"Device A\": {\"firmware\": \"1.0\", \"cast\": \"11\"}, \"Device B\": {\"config\": [1, 2], \"enabled\": false}}";
+        Map<String, PostAttributeMsg> attributeMsgs = JsonConverter.convertToGatewayAttributesProto(attributes);
+        JsonObject attributesObj = JSON_PARSER.parse(attributes).getAsJsonObject();
+        Assert.assertEquals(attributesObj.entrySet().stream().map(Map.Entry::getKey).collect(Collectors.toList()), new ArrayList<>(attributeMsgs.keySet()));
+        attributesObj.entrySet().forEach(entry -> Assert.assertEquals(JsonConverter.convertToAttributesProto(entry.getValue()),
+                attributeMsgs.get(entry.getKey())));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingGatewayTelemetryNotArray() {
+        JsonConverter.convertToGatewayTelemetryProto("{\"Device A\": [{\"key1\": 1}], \"Device B\": {\"key1\": 1}}", 0L);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingGatewayAttributesNotObject() {
+        JsonConverter.convertToGatewayAttributesProto("{\"Device A\": [{\"key1\": 1}]}");
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testStreamingTrailingContent() {
+        JsonConverter.convertToTelemetryProto("{\"key1\": 1} {\"key2\": 2}", 0L);
+    }
 }
@@ -0,0 +1,114 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.transport.adaptor;
+
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.thingsboard.server.gen.transport.TransportProtos.PostAttributeMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.PostTelemetryMsg;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the tree based JSON telemetry conversion with the streaming one.
+ * <p>
+ * Payload shapes: FLAT is the plain device key-value object, TS_VALUES is the single {"ts", "values"} object,
+ * TS_ARRAY is the device array of 10 {"ts", "values"} objects and GATEWAY is the array of 1000 records that the gateway
+ * sends for a single device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonConverterBenchmark {
+
+    private static final JsonParser JSON_PARSER = new JsonParser();
+
+    @Param({"FLAT", "TS_VALUES", "TS_ARRAY", "GATEWAY"})
+    private String payloadType;
+
+    private String payload;
+    private String attributesPayload;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        attributesPayload = values(0);
+        switch (payloadType) {
+            case "FLAT":
+                payload = values(0);
+                break;
+            case "TS_VALUES":
+                payload = tsValues(0);
+                break;
+            case "TS_ARRAY":
+                payload = tsArray(10);
+                break;
+            case "GATEWAY":
+                payload = tsArray(1000);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported payload type: " + payloadType);
+        }
+    }
+
+    @Benchmark
+    public PostTelemetryMsg telemetryTree() {
+        return JsonConverter.convertToTelemetryProto(JSON_PARSER.parse(payload), 0L);
+    }
+
+    @Benchmark
+    public PostTelemetryMsg telemetryStreaming() {
+        return JsonConverter.convertToTelemetryProto(payload, 0L);
+    }
+
+    @Benchmark
+    public PostAttributeMsg attributesTree() {
+        return JsonConverter.convertToAttributesProto(JSON_PARSER.parse(attributesPayload));
+    }
+
+    @Benchmark
+    public PostAttributeMsg attributesStreaming() {
+        return JsonConverter.convertToAttributesProto(attributesPayload);
+    }
+
+    private static String tsArray(int count) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(tsValues(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String tsValues(int i) {
+        return "{\"ts\":" + (1600000000000L + i * 1000L) + ",\"values\":" + values(i) + "}";
+    }
+
+    private static String values(int i) {
+        return "{\"temperature\":" + (20.5 + i % 10) + ",\"humidity\":" + (40 + i % 20) + ",\"active\":" + (i % 2 == 0)
+                + ",\"serialNumber\":\"SN-" + i + "\",\"firmware\":\"1.2.3\",\"counter\":\"" + i + "\""
+                + ",\"voltage\":3.3,\"rssi\":-71,\"location\":{\"lat\":50.45,\"lon\":30.52},\"alarms\":[]}";
+    }
+}
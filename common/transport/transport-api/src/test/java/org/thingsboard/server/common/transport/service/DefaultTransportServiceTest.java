@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.transport.service;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.common.data.EntityType;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.msg.queue.TopicPartitionInfo;
+import org.thingsboard.server.common.msg.tools.TbRateLimitsException;
+import org.thingsboard.server.common.stats.MessagesStats;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.common.transport.TransportDeviceProfileCache;
+import org.thingsboard.server.common.transport.TransportResourceCache;
+import org.thingsboard.server.common.transport.TransportServiceCallback;
+import org.thingsboard.server.common.transport.TransportTenantProfileCache;
+import org.thingsboard.server.common.transport.limits.TransportRateLimitService;
+import org.thingsboard.server.common.transport.util.DataDecodingEncodingService;
+import org.thingsboard.server.gen.transport.TransportProtos.KeyValueProto;
+import org.thingsboard.server.gen.transport.TransportProtos.KeyValueType;
+import org.thingsboard.server.gen.transport.TransportProtos.PostTelemetryMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.SessionInfoProto;
+import org.thingsboard.server.gen.transport.TransportProtos.ToRuleEngineMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportToRuleEngineMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.TsKvListProto;
+import org.thingsboard.server.queue.TbQueueCallback;
+import org.thingsboard.server.queue.TbQueueProducer;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+import org.thingsboard.server.queue.discovery.PartitionService;
+import org.thingsboard.server.queue.discovery.TbServiceInfoProvider;
+import org.thingsboard.server.queue.provider.TbQueueProducerProvider;
+import org.thingsboard.server.queue.provider.TbTransportQueueFactory;
+import org.thingsboard.server.queue.scheduler.SchedulerComponent;
+import org.thingsboard.server.queue.usagestats.TbApiUsageClient;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultTransportServiceTest {
+
+    private static final TenantId TENANT_ID = new TenantId(UUID.randomUUID());
+
+    @Mock
+    private PartitionService partitionService;
+    @Mock
+    private TransportRateLimitService rateLimitService;
+    @Mock
+    private TbApiUsageClient apiUsageClient;
+    @Mock
+    private TbQueueProducer<TbProtoQueueMsg<ToRuleEngineMsg>> ruleEngineMsgProducer;
+    @Mock
+    private TransportServiceCallback<Void> callback;
+
+    private DefaultTransportService transportService;
+
+    @Before
+    public void before() {
+        transportService = new DefaultTransportService(mock(TbServiceInfoProvider.class), mock(TbTransportQueueFactory.class),
+                mock(TbQueueProducerProvider.class), partitionService, mock(StatsFactory.class), mock(TransportDeviceProfileCache.class),
+                mock(TransportTenantProfileCache.class), apiUsageClient, rateLimitService, mock(DataDecodingEncodingService.class),
+                mock(SchedulerComponent.class), mock(TransportResourceCache.class), mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(transportService, "ruleEngineMsgProducer", ruleEngineMsgProducer);
+        ReflectionTestUtils.setField(transportService, "ruleEngineProducerStats", mock(MessagesStats.class));
+        ReflectionTestUtils.setField(transportService, "transportCallbackExecutor", MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void testRateLimitedDeviceIsSkippedFromBatch() {
+        DeviceId limitedDeviceId = new DeviceId(UUID.randomUUID());
+        when(partitionService.resolve(any(), any(), any(), any())).thenReturn(new TopicPartitionInfo("tb_rule_engine.main", TENANT_ID, 0, true));
+        when(rateLimitService.checkLimits(eq(TENANT_ID), eq(limitedDeviceId), anyInt())).thenReturn(EntityType.DEVICE);
+
+        transportService.process(Arrays.asList(telemetryMsg(new DeviceId(UUID.randomUUID())), telemetryMsg(limitedDeviceId),
+                telemetryMsg(new DeviceId(UUID.randomUUID()))), callback);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<TbProtoQueueMsg<ToRuleEngineMsg>> msgCaptor = ArgumentCaptor.forClass(TbProtoQueueMsg.class);
+        ArgumentCaptor<TbQueueCallback> callbackCaptor = ArgumentCaptor.forClass(TbQueueCallback.class);
+        verify(ruleEngineMsgProducer).send(any(), msgCaptor.capture(), callbackCaptor.capture());
+        Assert.assertEquals(2, msgCaptor.getValue().getValue().getTbMsgBatchCount());
+
+        callbackCaptor.getValue().onSuccess(null);
+        verify(callback).onSuccess(null);
+        verify(callback, never()).onError(any());
+    }
+
+    @Test
+    public void testBatchFailsIfAllDevicesAreRateLimited() {
+        when(rateLimitService.checkLimits(eq(TENANT_ID), any(), anyInt())).thenReturn(EntityType.TENANT);
+
+        transportService.process(Arrays.asList(telemetryMsg(new DeviceId(UUID.randomUUID())),
+                telemetryMsg(new DeviceId(UUID.randomUUID()))), callback);
+
+        verify(ruleEngineMsgProducer, never()).send(any(), any(), any());
+        verify(callback).onError(any(TbRateLimitsException.class));
+        verify(callback, never()).onSuccess(any());
+    }
+
+    private static TransportToRuleEngineMsg telemetryMsg(DeviceId deviceId) {
+        SessionInfoProto sessionInfo = SessionInfoProto.newBuilder()
+                .setSessionIdMSB(deviceId.getId().getMostSignificantBits())
+                .setSessionIdLSB(deviceId.getId().getLeastSignificantBits())
+                .setTenantIdMSB(TENANT_ID.getId().getMostSignificantBits())
+                .setTenantIdLSB(TENANT_ID.getId().getLeastSignificantBits())
+                .setDeviceIdMSB(deviceId.getId().getMostSignificantBits())
+                .setDeviceIdLSB(deviceId.getId().getLeastSignificantBits())
+                .setDeviceName(deviceId.toString())
+                .setDeviceType("default")
+                .build();
+        PostTelemetryMsg postTelemetryMsg = PostTelemetryMsg.newBuilder()
+                .addTsKvList(TsKvListProto.newBuilder().setTs(System.currentTimeMillis())
+                        .addKv(KeyValueProto.newBuilder().setKey("temperature").setType(KeyValueType.LONG_V).setLongV(42)))
+                .build();
+        return TransportToRuleEngineMsg.newBuilder().setSessionInfo(sessionInfo).setPostTelemetry(postTelemetryMsg).build();
+    }
+}
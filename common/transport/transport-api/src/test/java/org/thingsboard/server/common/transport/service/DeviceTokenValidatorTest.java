@@ -0,0 +1,187 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.transport.service;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.gen.transport.TransportProtos.DeviceInfoProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportApiRequestMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.TransportApiResponseMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceCredentialsResponseMsg;
+import org.thingsboard.server.gen.transport.TransportProtos.ValidateDeviceTokensResponseMsg;
+import org.thingsboard.server.queue.scheduler.SchedulerComponent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceTokenValidatorTest {
+
+    private static final UUID PROFILE_ID = UUID.randomUUID();
+
+    @Mock
+    private SchedulerComponent scheduler;
+
+    private List<TransportApiRequestMsg> requests;
+    private List<SettableFuture<TransportApiResponseMsg>> responses;
+
+    @Before
+    public void before() {
+        requests = new ArrayList<>();
+        responses = new ArrayList<>();
+    }
+
+    @Test
+    public void testTokensAreValidatedWithOneRequest() throws Exception {
+        DeviceTokenValidator validator = createValidator(true, false);
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> first = validator.validate("token1");
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> second = validator.validate("token2");
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> duplicate = validator.validate("token1");
+        Assert.assertTrue(requests.isEmpty());
+
+        validator.flush();
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(2, requests.get(0).getValidateTokensRequestMsg().getTokensCount());
+
+        responses.get(0).set(TransportApiResponseMsg.newBuilder().setValidateTokensResponseMsg(ValidateDeviceTokensResponseMsg.newBuilder()
+                .addResponses(validResponse(UUID.randomUUID(), true))
+                .addResponses(validResponse(UUID.randomUUID(), false))).build());
+        Assert.assertTrue(first.get().hasDeviceInfo());
+        Assert.assertSame(first.get(), duplicate.get());
+        Assert.assertEquals(first.get().getProfileBody(), second.get().getProfileBody());
+    }
+
+    @Test
+    public void testFailedTokenDoesNotFailTheBatch() throws Exception {
+        DeviceTokenValidator validator = createValidator(true, true);
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> first = validator.validate("token1");
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> failed = validator.validate("token2");
+        validator.flush();
+
+        responses.get(0).set(TransportApiResponseMsg.newBuilder().setValidateTokensResponseMsg(ValidateDeviceTokensResponseMsg.newBuilder()
+                .addResponses(validResponse(UUID.randomUUID(), true))
+                .addResponses(ValidateDeviceCredentialsResponseMsg.getDefaultInstance())
+                .addFailedTokens(1)).build());
+        Assert.assertTrue(first.get().hasDeviceInfo());
+        try {
+            failed.get();
+            Assert.fail("Failed token validation must fail the future");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RuntimeException);
+        }
+
+        validator.validate("token2");
+        validator.flush();
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals("token2", requests.get(1).getValidateTokenRequestMsg().getToken());
+    }
+
+    @Test
+    public void testTokensAreValidatedOneByOneIfBatchIsNotSupported() throws Exception {
+        DeviceTokenValidator validator = createValidator(true, false);
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> first = validator.validate("token1");
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> second = validator.validate("token2");
+        validator.flush();
+
+        responses.get(0).set(TransportApiResponseMsg.newBuilder()
+                .setValidateCredResponseMsg(ValidateDeviceCredentialsResponseMsg.getDefaultInstance()).build());
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals("token1", requests.get(1).getValidateTokenRequestMsg().getToken());
+        Assert.assertEquals("token2", requests.get(2).getValidateTokenRequestMsg().getToken());
+
+        responses.get(1).set(TransportApiResponseMsg.newBuilder().setValidateCredResponseMsg(validResponse(UUID.randomUUID(), true)).build());
+        responses.get(2).set(TransportApiResponseMsg.newBuilder().setValidateCredResponseMsg(ValidateDeviceCredentialsResponseMsg.getDefaultInstance()).build());
+        Assert.assertTrue(first.get().hasDeviceInfo());
+        Assert.assertFalse(second.get().hasDeviceInfo());
+    }
+
+    @Test
+    public void testValidationResultsAreCached() throws Exception {
+        DeviceTokenValidator validator = createValidator(false, true);
+        UUID deviceId = UUID.randomUUID();
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> valid = validator.validate("token1");
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> invalid = validator.validate("token2");
+        responses.get(0).set(TransportApiResponseMsg.newBuilder().setValidateCredResponseMsg(validResponse(deviceId, true)).build());
+        responses.get(1).set(TransportApiResponseMsg.newBuilder().setValidateCredResponseMsg(ValidateDeviceCredentialsResponseMsg.getDefaultInstance()).build());
+
+        Assert.assertSame(valid.get(), validator.validate("token1").get());
+        Assert.assertSame(invalid.get(), validator.validate("token2").get());
+        Assert.assertEquals(2, requests.size());
+
+        validator.evict(deviceId);
+        validator.validate("token1");
+        Assert.assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void testPreviousAndNewTokensAreEvictedOnCredentialsUpdate() {
+        DeviceTokenValidator validator = createValidator(false, true);
+        UUID deviceId = UUID.randomUUID();
+        validator.validate("token1");
+        validator.validate("token2");
+        responses.get(0).set(TransportApiResponseMsg.newBuilder().setValidateCredResponseMsg(validResponse(deviceId, true)).build());
+        responses.get(1).set(TransportApiResponseMsg.newBuilder().setValidateCredResponseMsg(ValidateDeviceCredentialsResponseMsg.getDefaultInstance()).build());
+
+        validator.evict(deviceId, "token1", "token2");
+        validator.validate("token1");
+        validator.validate("token2");
+        Assert.assertEquals(4, requests.size());
+        Assert.assertEquals("token1", requests.get(2).getValidateTokenRequestMsg().getToken());
+        Assert.assertEquals("token2", requests.get(3).getValidateTokenRequestMsg().getToken());
+    }
+
+    @Test
+    public void testFailedValidationIsNotCached() {
+        DeviceTokenValidator validator = createValidator(false, true);
+        ListenableFuture<ValidateDeviceCredentialsResponseMsg> failed = validator.validate("token1");
+        responses.get(0).setException(new RuntimeException("Timeout"));
+        Assert.assertTrue(failed.isDone());
+
+        validator.validate("token1");
+        Assert.assertEquals(2, requests.size());
+    }
+
+    private DeviceTokenValidator createValidator(boolean batchEnabled, boolean cacheEnabled) {
+        return new DeviceTokenValidator(request -> {
+            SettableFuture<TransportApiResponseMsg> response = SettableFuture.create();
+            requests.add(request);
+            responses.add(response);
+            return response;
+        }, scheduler, batchEnabled, 100, 1000, cacheEnabled, 60000, 60000, 1000);
+    }
+
+    private static ValidateDeviceCredentialsResponseMsg validResponse(UUID deviceId, boolean withProfileBody) {
+        ValidateDeviceCredentialsResponseMsg.Builder builder = ValidateDeviceCredentialsResponseMsg.newBuilder()
+                .setDeviceInfo(DeviceInfoProto.newBuilder()
+                        .setDeviceIdMSB(deviceId.getMostSignificantBits())
+                        .setDeviceIdLSB(deviceId.getLeastSignificantBits())
+                        .setDeviceProfileIdMSB(PROFILE_ID.getMostSignificantBits())
+                        .setDeviceProfileIdLSB(PROFILE_ID.getLeastSignificantBits()));
+        if (withProfileBody) {
+            builder.setProfileBody(ByteString.copyFromUtf8("profile"));
+        }
+        return builder.build();
+    }
+}
@@ -15,8 +15,11 @@
  */
 package org.thingsboard.common.util;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
 
 public class ThingsBoardExecutors {
 
@@ -47,4 +50,35 @@ public class ThingsBoardExecutors {
     public static ExecutorService newWorkStealingPool(int parallelism, Class clazz) {
         return newWorkStealingPool(parallelism, clazz.getSimpleName());
     }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * Virtual threads are available since Java 21, so the executor is created via reflection
+     * to keep the code compatible with the older runtimes.
+     *
+     * @param namePrefix used to define thread name
+     * @return the newly created executor
+     * @throws UnsupportedOperationException if virtual threads are not supported by the current runtime
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-virtual-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by the current Java runtime", e);
+        }
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
 }
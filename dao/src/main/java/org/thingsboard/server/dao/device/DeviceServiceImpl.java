@@ -180,6 +180,13 @@ public class DeviceServiceImpl extends AbstractEntityService implements DeviceSe
         return deviceOpt.orElse(null);
     }
 
+    @Override
+    public List<Device> findDevicesByTenantIdAndNames(TenantId tenantId, List<String> names) {
+        log.trace("Executing findDevicesByTenantIdAndNames, tenantId [{}], names [{}]", tenantId, names);
+        validateId(tenantId, INCORRECT_TENANT_ID + tenantId);
+        return deviceDao.findDevicesByTenantIdAndNames(tenantId.getId(), names);
+    }
+
     @Caching(evict= {
             @CacheEvict(cacheNames = DEVICE_CACHE, key = "{#device.tenantId, #device.name}"),
             @CacheEvict(cacheNames = DEVICE_CACHE, key = "{#device.tenantId, #device.id}")
@@ -0,0 +1,210 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
+import org.thingsboard.server.common.stats.MessagesStats;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Queue that adjusts batch size and linger time to the load.
+ * <p>
+ * Elements are collected into a plain list that is swapped with an empty one on each flush.
+ * The list is split into batches as elements are added, and all elements of a batch share a single future,
+ * so no wrapper or future is allocated per element and a failed insert fails only the callers of its batch.
+ * The batch size is driven by the insert latency: it grows up to batchSize while there is a backlog
+ * and a batch is inserted within maxDelay, and shrinks if the insert of a batch takes longer than maxDelay.
+ * When the load is light, the flusher waits no longer than the last insert took, so the latency follows the database.
+ */
+@Slf4j
+public class TbSqlAdaptiveBlockingQueue<E> implements TbSqlQueue<E> {
+
+    private static final int MIN_BATCH_SIZE = 16;
+
+    private final Object lock = new Object();
+    private final TbSqlBlockingQueueParams params;
+    private final MessagesStats stats;
+    private final Timer flushTimer;
+    private final AtomicInteger queueSize;
+    private final int minBatchSize;
+
+    private ArrayList<E> buffer;
+    private ArrayList<SettableFuture<Void>> bufferFutures;
+    private int bufferBatchSize;
+    private volatile int currentBatchSize;
+    private volatile long currentDelay;
+
+    private ExecutorService executor;
+
+    public TbSqlAdaptiveBlockingQueue(TbSqlBlockingQueueParams params, MessagesStats stats, Timer flushTimer, AtomicInteger queueSize) {
+        this.params = params;
+        this.stats = stats;
+        this.flushTimer = flushTimer;
+        this.queueSize = queueSize;
+        this.minBatchSize = Math.min(MIN_BATCH_SIZE, params.getBatchSize());
+        this.currentBatchSize = params.getBatchSize();
+        this.currentDelay = params.getMaxDelay();
+        resetBuffer();
+    }
+
+    @Override
+    public void init(ScheduledLogExecutorComponent logExecutor, Consumer<List<E>> saveFunction, Comparator<E> batchUpdateComparator, int index) {
+        executor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("sql-queue-" + index + "-" + params.getLogName().toLowerCase()));
+        executor.submit(() -> {
+            String logName = params.getLogName();
+            while (!Thread.interrupted()) {
+                List<E> entities;
+                List<SettableFuture<Void>> futures;
+                int batchSize;
+                try {
+                    synchronized (lock) {
+                        while (buffer.isEmpty()) {
+                            lock.wait();
+                        }
+                        long deadline = System.currentTimeMillis() + currentDelay;
+                        long remainingDelay;
+                        while (buffer.size() < currentBatchSize && (remainingDelay = deadline - System.currentTimeMillis()) > 0) {
+                            lock.wait(remainingDelay);
+                        }
+                        entities = buffer;
+                        futures = bufferFutures;
+                        batchSize = bufferBatchSize;
+                        resetBuffer();
+                    }
+                } catch (InterruptedException e) {
+                    log.info("[{}] Queue polling was interrupted", logName);
+                    break;
+                }
+                log.debug("[{}] Going to save {} entities", logName, entities.size());
+                long flushDuration = save(saveFunction, batchUpdateComparator, entities, futures, batchSize);
+                queueSize.set(getBufferSize());
+                adjust(entities.size(), batchSize, flushDuration);
+            }
+            failPending(new InterruptedException("Queue polling was interrupted"));
+        });
+
+        logExecutor.scheduleAtFixedRate(() -> {
+            int size = getBufferSize();
+            queueSize.set(size);
+            if (size > 0 || stats.getTotal() > 0 || stats.getSuccessful() > 0 || stats.getFailed() > 0) {
+                log.info("Queue-{} [{}] queueSize [{}] batchSize [{}] lingerMs [{}] totalAdded [{}] totalSaved [{}] totalFailed [{}]", index,
+                        params.getLogName(), size, currentBatchSize, currentDelay, stats.getTotal(), stats.getSuccessful(), stats.getFailed());
+                stats.reset();
+            }
+        }, params.getStatsPrintIntervalMs(), params.getStatsPrintIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private long save(Consumer<List<E>> saveFunction, Comparator<E> batchUpdateComparator, List<E> entities,
+                      List<SettableFuture<Void>> futures, int batchSize) {
+        long maxFlushDuration = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            int from = i * batchSize;
+            List<E> batch = entities.subList(from, Math.min(entities.size(), from + batchSize));
+            SettableFuture<Void> future = futures.get(i);
+            try {
+                if (params.isBatchSortEnabled()) {
+                    batch.sort(batchUpdateComparator);
+                }
+                long startTs = System.nanoTime();
+                saveFunction.accept(batch);
+                long flushDuration = System.nanoTime() - startTs;
+                flushTimer.record(flushDuration, TimeUnit.NANOSECONDS);
+                maxFlushDuration = Math.max(maxFlushDuration, flushDuration);
+                future.set(null);
+                stats.incrementSuccessful(batch.size());
+            } catch (Exception e) {
+                log.error("[{}] Failed to save {} entities", params.getLogName(), batch.size(), e);
+                future.setException(e);
+                stats.incrementFailed(batch.size());
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(maxFlushDuration);
+    }
+
+    private void adjust(int savedCount, int batchSize, long flushDurationMs) {
+        if (flushDurationMs > params.getMaxDelay()) {
+            currentBatchSize = Math.max(minBatchSize, batchSize / 2);
+            currentDelay = params.getMaxDelay();
+        } else if (savedCount >= batchSize) {
+            currentBatchSize = Math.min(params.getBatchSize(), batchSize * 2);
+            currentDelay = 0;
+        } else {
+            currentDelay = flushDurationMs;
+        }
+    }
+
+    int getCurrentBatchSize() {
+        return currentBatchSize;
+    }
+
+    private void resetBuffer() {
+        bufferBatchSize = currentBatchSize;
+        buffer = new ArrayList<>(bufferBatchSize);
+        bufferFutures = new ArrayList<>();
+    }
+
+    private int getBufferSize() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    private void failPending(Exception e) {
+        List<SettableFuture<Void>> futures;
+        synchronized (lock) {
+            futures = bufferFutures;
+            resetBuffer();
+        }
+        futures.forEach(future -> future.setException(e));
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> add(E element) {
+        SettableFuture<Void> future;
+        synchronized (lock) {
+            int batchIdx = buffer.size() / bufferBatchSize;
+            if (batchIdx == bufferFutures.size()) {
+                bufferFutures.add(SettableFuture.create());
+            }
+            future = bufferFutures.get(batchIdx);
+            buffer.add(element);
+            if (buffer.size() == 1 || buffer.size() >= currentBatchSize) {
+                lock.notify();
+            }
+        }
+        stats.incrementTotal();
+        return future;
+    }
+}
@@ -17,6 +17,7 @@ package org.thingsboard.server.dao.sql;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.stats.MessagesStats;
@@ -29,6 +30,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -41,10 +43,14 @@ public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
 
     private ExecutorService executor;
     private final MessagesStats stats;
+    private final Timer flushTimer;
+    private final AtomicInteger queueSize;
 
-    public TbSqlBlockingQueue(TbSqlBlockingQueueParams params, MessagesStats stats) {
+    public TbSqlBlockingQueue(TbSqlBlockingQueueParams params, MessagesStats stats, Timer flushTimer, AtomicInteger queueSize) {
         this.params = params;
         this.stats = stats;
+        this.flushTimer = flushTimer;
+        this.queueSize = queueSize;
     }
 
     @Override
@@ -67,11 +73,11 @@ public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
                     queue.drainTo(entities, batchSize - 1);
                     boolean fullPack = entities.size() == batchSize;
                     log.debug("[{}] Going to save {} entities", logName, entities.size());
+                    queueSize.set(queue.size());
                     Stream<E> entitiesStream = entities.stream().map(TbSqlQueueElement::getEntity);
-                    saveFunction.accept(
-                            (params.isBatchSortEnabled() ? entitiesStream.sorted(batchUpdateComparator) : entitiesStream)
-                                    .collect(Collectors.toList())
-                    );
+                    List<E> batch = (params.isBatchSortEnabled() ? entitiesStream.sorted(batchUpdateComparator) : entitiesStream)
+                            .collect(Collectors.toList());
+                    flushTimer.record(() -> saveFunction.accept(batch));
                     entities.forEach(v -> v.getFuture().set(null));
                     stats.incrementSuccessful(entities.size());
                     if (!fullPack) {
@@ -96,6 +102,7 @@ public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
         });
 
         logExecutor.scheduleAtFixedRate(() -> {
+            queueSize.set(queue.size());
             if (queue.size() > 0 || stats.getTotal() > 0 || stats.getSuccessful() > 0 || stats.getFailed() > 0) {
                 log.info("Queue-{} [{}] queueSize [{}] totalAdded [{}] totalSaved [{}] totalFailed [{}]", index,
                         params.getLogName(), queue.size(), stats.getTotal(), stats.getSuccessful(), stats.getFailed());
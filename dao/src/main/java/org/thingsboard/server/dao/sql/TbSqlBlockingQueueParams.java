@@ -32,4 +32,14 @@ public class TbSqlBlockingQueueParams {
     private final long statsPrintIntervalMs;
     private final String statsNamePrefix;
     private final boolean batchSortEnabled;
+    /**
+     * If enabled, batch size and linger time are adjusted at runtime between 1 and batchSize / maxDelay
+     * based on the queue backlog and the observed insert latency.
+     */
+    private final boolean adaptive;
+    /**
+     * If positive, the lock-free ring buffer of the given capacity (rounded up to the power of two)
+     * is used instead of the linked blocking queue. Takes precedence over the adaptive mode.
+     */
+    private final int ringBufferSize;
 }
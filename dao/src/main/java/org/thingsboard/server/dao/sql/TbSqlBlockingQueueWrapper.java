@@ -16,6 +16,7 @@
 package org.thingsboard.server.dao.sql;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.server.common.stats.MessagesStats;
@@ -24,13 +25,14 @@ import org.thingsboard.server.common.stats.StatsFactory;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 @Slf4j
 @Data
 public class TbSqlBlockingQueueWrapper<E> {
-    private final CopyOnWriteArrayList<TbSqlBlockingQueue<E>> queues = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<TbSqlQueue<E>> queues = new CopyOnWriteArrayList<>();
     private final TbSqlBlockingQueueParams params;
     private ScheduledLogExecutorComponent logExecutor;
     private final Function<E, Integer> hashCodeFunction;
@@ -48,18 +50,30 @@ public class TbSqlBlockingQueueWrapper<E> {
     public void init(ScheduledLogExecutorComponent logExecutor, Consumer<List<E>> saveFunction, Comparator<E> batchUpdateComparator) {
         for (int i = 0; i < maxThreads; i++) {
             MessagesStats stats = statsFactory.createMessagesStats(params.getStatsNamePrefix() + ".queue." + i);
-            TbSqlBlockingQueue<E> queue = new TbSqlBlockingQueue<>(params, stats);
+            Timer flushTimer = statsFactory.createTimer(params.getStatsNamePrefix() + ".queue.flush", "queue", Integer.toString(i));
+            AtomicInteger queueSize = statsFactory.createGauge(params.getStatsNamePrefix() + ".queue.size", new AtomicInteger(0), "queue", Integer.toString(i));
+            TbSqlQueue<E> queue = createQueue(stats, flushTimer, queueSize);
             queues.add(queue);
             queue.init(logExecutor, saveFunction, batchUpdateComparator, i);
         }
     }
 
+    private TbSqlQueue<E> createQueue(MessagesStats stats, Timer flushTimer, AtomicInteger queueSize) {
+        if (params.getRingBufferSize() > 0) {
+            return new TbSqlRingBufferQueue<>(params, stats, flushTimer, queueSize);
+        } else if (params.isAdaptive()) {
+            return new TbSqlAdaptiveBlockingQueue<>(params, stats, flushTimer, queueSize);
+        } else {
+            return new TbSqlBlockingQueue<>(params, stats, flushTimer, queueSize);
+        }
+    }
+
     public ListenableFuture<Void> add(E element) {
         int queueIndex = element != null ? (hashCodeFunction.apply(element) & 0x7FFFFFFF) % maxThreads : 0;
         return queues.get(queueIndex).add(element);
     }
 
     public void destroy() {
-        queues.forEach(TbSqlBlockingQueue::destroy);
+        queues.forEach(TbSqlQueue::destroy);
     }
 }
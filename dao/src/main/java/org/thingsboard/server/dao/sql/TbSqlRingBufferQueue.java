@@ -0,0 +1,303 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
+import org.thingsboard.server.common.stats.MessagesStats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Multi-producer single-consumer queue based on the preallocated ring buffer.
+ * <p>
+ * Producers claim a slot by incrementing the tail and publish the element by updating the slot sequence,
+ * so no lock and no node is used per element. If the ring is full, producers wait until the flusher releases slots,
+ * but no longer than maxDelay: after that the element is rejected and its future fails, so callers are not blocked
+ * by a stalled insert.
+ * The flusher claims all published slots up to batchSize at once and releases them before the insert.
+ * <p>
+ * Instead of a future per element, producers share the future of the current {@link BatchFuture}.
+ * The flusher closes the current batch future on each flush and completes it once all elements registered
+ * in it are saved.
+ */
+@Slf4j
+public class TbSqlRingBufferQueue<E> implements TbSqlQueue<E> {
+
+    private static final long PRODUCER_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final TbSqlBlockingQueueParams params;
+    private final MessagesStats stats;
+    private final Timer flushTimer;
+    private final AtomicInteger queueSize;
+    private final long producerMaxWaitNanos;
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] entries;
+    private final BatchFuture[] entryFutures;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private volatile BatchFuture currentFuture = new BatchFuture();
+    private volatile long wakeupPosition = Long.MAX_VALUE;
+    private volatile Thread flusherThread;
+
+    private ExecutorService executor;
+
+    public TbSqlRingBufferQueue(TbSqlBlockingQueueParams params, MessagesStats stats, Timer flushTimer, AtomicInteger queueSize) {
+        this.params = params;
+        this.stats = stats;
+        this.flushTimer = flushTimer;
+        this.queueSize = queueSize;
+        this.producerMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(params.getMaxDelay());
+        this.capacity = roundToPowerOfTwo(Math.max(params.getRingBufferSize(), 2));
+        this.mask = capacity - 1;
+        this.entries = new Object[capacity];
+        this.entryFutures = new BatchFuture[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public void init(ScheduledLogExecutorComponent logExecutor, Consumer<List<E>> saveFunction, Comparator<E> batchUpdateComparator, int index) {
+        executor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("sql-queue-" + index + "-" + params.getLogName().toLowerCase()));
+        executor.submit(() -> {
+            flusherThread = Thread.currentThread();
+            flush(saveFunction, batchUpdateComparator);
+        });
+
+        logExecutor.scheduleAtFixedRate(() -> {
+            int size = getSize();
+            queueSize.set(size);
+            if (size > 0 || stats.getTotal() > 0 || stats.getSuccessful() > 0 || stats.getFailed() > 0) {
+                log.info("Queue-{} [{}] queueSize [{}] totalAdded [{}] totalSaved [{}] totalFailed [{}]", index,
+                        params.getLogName(), size, stats.getTotal(), stats.getSuccessful(), stats.getFailed());
+                stats.reset();
+            }
+        }, params.getStatsPrintIntervalMs(), params.getStatsPrintIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flush(Consumer<List<E>> saveFunction, Comparator<E> batchUpdateComparator) {
+        String logName = params.getLogName();
+        int batchSize = Math.min(params.getBatchSize(), capacity);
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(params.getMaxDelay());
+        List<E> entities = new ArrayList<>(batchSize);
+        BatchFuture[] batchFutures = new BatchFuture[batchSize];
+        ArrayDeque<BatchFuture> closedFutures = new ArrayDeque<>();
+        long batchStartTs = 0;
+        while (!Thread.interrupted()) {
+            long position = head.get();
+            while (entities.size() < batchSize && sequences.get((int) position & mask) == position + 1) {
+                int idx = (int) position & mask;
+                batchFutures[entities.size()] = entryFutures[idx];
+                entities.add((E) entries[idx]);
+                entries[idx] = null;
+                entryFutures[idx] = null;
+                sequences.set(idx, position + capacity);
+                position++;
+            }
+            head.set(position);
+            if (entities.isEmpty()) {
+                await(position, position, maxDelayNanos);
+                continue;
+            }
+            if (entities.size() < batchSize) {
+                long now = System.nanoTime();
+                if (batchStartTs == 0) {
+                    batchStartTs = now;
+                }
+                long remainingDelay = batchStartTs + maxDelayNanos - now;
+                if (remainingDelay > 0) {
+                    await(position, position + batchSize - entities.size() - 1, remainingDelay);
+                    continue;
+                }
+            }
+            BatchFuture closedFuture = currentFuture;
+            currentFuture = new BatchFuture();
+            closedFuture.close();
+            closedFutures.add(closedFuture);
+
+            Exception error = null;
+            try {
+                log.debug("[{}] Going to save {} entities", logName, entities.size());
+                queueSize.set(getSize());
+                if (params.isBatchSortEnabled()) {
+                    entities.sort(batchUpdateComparator);
+                }
+                flushTimer.record(() -> saveFunction.accept(entities));
+                stats.incrementSuccessful(entities.size());
+            } catch (Exception e) {
+                error = e;
+                stats.incrementFailed(entities.size());
+                log.error("[{}] Failed to save {} entities", logName, entities.size(), e);
+            }
+            for (int i = 0; i < entities.size(); i++) {
+                batchFutures[i].onSaved(error);
+                batchFutures[i] = null;
+            }
+            closedFutures.removeIf(BatchFuture::tryComplete);
+            entities.clear();
+            batchStartTs = 0;
+        }
+        log.info("[{}] Queue polling was interrupted", logName);
+        InterruptedException interrupted = new InterruptedException("Queue polling was interrupted");
+        closedFutures.forEach(future -> future.future.setException(interrupted));
+        currentFuture.future.setException(interrupted);
+    }
+
+    private void await(long position, long wakeupPosition, long timeoutNanos) {
+        this.wakeupPosition = wakeupPosition;
+        if (sequences.get((int) position & mask) != position + 1) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        this.wakeupPosition = Long.MAX_VALUE;
+    }
+
+    private int getSize() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> add(E element) {
+        long position = claimSlot();
+        if (position < 0) {
+            stats.incrementFailed(1);
+            return Futures.immediateFailedFuture(new IllegalStateException("SQL queue [" + params.getLogName() + "] is full"));
+        }
+        BatchFuture future;
+        do {
+            future = currentFuture;
+        } while (!future.tryRegister());
+        int idx = (int) position & mask;
+        entries[idx] = element;
+        entryFutures[idx] = future;
+        sequences.set(idx, position + 1);
+        if (position >= wakeupPosition) {
+            LockSupport.unpark(flusherThread);
+        }
+        stats.incrementTotal();
+        return future.future;
+    }
+
+    /**
+     * Claims the next free slot and returns its position, or -1 if the ring stays full for longer than maxDelay.
+     * The slot of the position is free when its sequence equals the position; a lower sequence means that
+     * the slot still holds the element from the previous lap.
+     */
+    private long claimSlot() {
+        long deadline = 0;
+        while (true) {
+            long position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (sequence < position) {
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + producerMaxWaitNanos;
+                } else if (now - deadline >= 0) {
+                    return -1;
+                }
+                LockSupport.parkNanos(PRODUCER_WAIT_NANOS);
+            }
+        }
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+    }
+
+    /**
+     * Future shared by all elements added between two flushes.
+     * The state holds the number of registered elements, the sign bit is set when the future is closed for registration.
+     * Saved count and error are accessed by the flusher thread only.
+     */
+    private static final class BatchFuture {
+
+        private final SettableFuture<Void> future = SettableFuture.create();
+        private final AtomicInteger state = new AtomicInteger();
+        private int saved;
+        private Exception error;
+
+        boolean tryRegister() {
+            while (true) {
+                int current = state.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void close() {
+            while (true) {
+                int current = state.get();
+                if (state.compareAndSet(current, current | Integer.MIN_VALUE)) {
+                    return;
+                }
+            }
+        }
+
+        void onSaved(Exception e) {
+            saved++;
+            if (e != null && error == null) {
+                error = e;
+            }
+        }
+
+        boolean tryComplete() {
+            if (saved < (state.get() & Integer.MAX_VALUE)) {
+                return false;
+            }
+            if (error != null) {
+                future.setException(error);
+            } else {
+                future.set(null);
+            }
+            return true;
+        }
+    }
+}
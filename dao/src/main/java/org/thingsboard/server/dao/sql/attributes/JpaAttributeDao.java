@@ -74,6 +74,12 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
     @Value("${sql.attributes.batch_threads:4}")
     private int batchThreads;
 
+    @Value("${sql.attributes.batch_adaptive:false}")
+    private boolean batchAdaptive;
+
+    @Value("${sql.attributes.ring_buffer_size:0}")
+    private int ringBufferSize;
+
     @Value("${sql.batch_sort:false}")
     private boolean batchSortEnabled;
 
@@ -88,6 +94,8 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
                 .statsPrintIntervalMs(statsPrintIntervalMs)
                 .statsNamePrefix("attributes")
                 .batchSortEnabled(batchSortEnabled)
+                .adaptive(batchAdaptive)
+                .ringBufferSize(ringBufferSize)
                 .build();
 
         Function<AttributeKvEntity, Integer> hashcodeFunction = entity -> entity.getId().getEntityId().hashCode();
@@ -19,11 +19,13 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.thingsboard.server.common.data.id.EntityId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.Aggregation;
@@ -36,7 +38,12 @@ import org.thingsboard.server.dao.model.sql.AbstractTsKvEntity;
 import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
 import org.thingsboard.server.dao.sql.TbSqlBlockingQueueParams;
 import org.thingsboard.server.dao.sql.TbSqlBlockingQueueWrapper;
+import org.thingsboard.server.dao.sqlts.block.TsKvBlockAggregator;
+import org.thingsboard.server.dao.sqlts.block.TsKvBlockService;
 import org.thingsboard.server.dao.sqlts.insert.InsertTsRepository;
+import org.thingsboard.server.dao.sqlts.rollup.TsKvRollup;
+import org.thingsboard.server.dao.sqlts.rollup.TsKvRollupGranularity;
+import org.thingsboard.server.dao.sqlts.rollup.TsKvRollupService;
 import org.thingsboard.server.dao.sqlts.ts.TsKvRepository;
 import org.thingsboard.server.dao.timeseries.TimeseriesDao;
 
@@ -60,6 +67,15 @@ public abstract class AbstractChunkedAggregationTimeseriesDao extends AbstractSq
     @Autowired
     private StatsFactory statsFactory;
 
+    @Autowired(required = false)
+    private TsKvBlockService blockService;
+
+    @Autowired(required = false)
+    private TsKvRollupService rollupService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @PostConstruct
     protected void init() {
         TbSqlBlockingQueueParams tsParams = TbSqlBlockingQueueParams.builder()
@@ -69,11 +85,23 @@ public abstract class AbstractChunkedAggregationTimeseriesDao extends AbstractSq
                 .statsPrintIntervalMs(tsStatsPrintIntervalMs)
                 .statsNamePrefix("ts")
                 .batchSortEnabled(batchSortEnabled)
+                .adaptive(tsBatchAdaptive)
+                .ringBufferSize(tsRingBufferSize)
                 .build();
 
         Function<TsKvEntity, Integer> hashcodeFunction = entity -> entity.getEntityId().hashCode();
         tsQueue = new TbSqlBlockingQueueWrapper<>(tsParams, hashcodeFunction, tsBatchThreads, statsFactory);
-        tsQueue.init(logExecutor, v -> insertRepository.saveOrUpdate(v),
+        tsQueue.init(logExecutor, v -> {
+                    if (isRollupEnabled()) {
+                        transactionTemplate.execute(status -> {
+                            rollupService.onSaving(v);
+                            insertRepository.saveOrUpdate(v);
+                            return null;
+                        });
+                    } else {
+                        insertRepository.saveOrUpdate(v);
+                    }
+                },
                 Comparator.comparing((Function<TsKvEntity, UUID>) AbstractTsKvEntity::getEntityId)
                         .thenComparing(AbstractTsKvEntity::getKey)
                         .thenComparing(AbstractTsKvEntity::getTs)
@@ -90,15 +118,31 @@ public abstract class AbstractChunkedAggregationTimeseriesDao extends AbstractSq
     @Override
     public ListenableFuture<Void> remove(TenantId tenantId, EntityId entityId, DeleteTsKvQuery query) {
         return service.submit(() -> {
-            tsKvRepository.delete(
-                    entityId.getId(),
-                    getOrSaveKeyId(query.getKey()),
-                    query.getStartTs(),
-                    query.getEndTs());
+            Integer keyId = getOrSaveKeyId(query.getKey());
+            if (isRollupEnabled()) {
+                transactionTemplate.execute(status -> {
+                    rollupService.onDeleting(entityId.getId(), keyId, query.getStartTs(), query.getEndTs());
+                    removeRows(entityId, keyId, query);
+                    return null;
+                });
+            } else {
+                removeRows(entityId, keyId, query);
+            }
             return null;
         });
     }
 
+    private void removeRows(EntityId entityId, int keyId, DeleteTsKvQuery query) {
+        tsKvRepository.delete(
+                entityId.getId(),
+                keyId,
+                query.getStartTs(),
+                query.getEndTs());
+        if (isBlockStorageEnabled()) {
+            blockService.delete(entityId.getId(), keyId, query.getStartTs(), query.getEndTs());
+        }
+    }
+
     @Override
     public ListenableFuture<Integer> savePartition(TenantId tenantId, EntityId entityId, long tsKvEntryTs, String key) {
         return Futures.immediateFuture(null);
@@ -119,13 +163,22 @@ public abstract class AbstractChunkedAggregationTimeseriesDao extends AbstractSq
         if (query.getAggregation() == Aggregation.NONE) {
             return findAllAsyncWithLimit(entityId, query);
         } else {
+            Map<Long, TsKvBlockAggregator> blockAggregates = findBlockAggregates(entityId, query);
+            RollupAggregates rollups = findRollupAggregates(entityId, query);
             long stepTs = query.getStartTs();
             List<ListenableFuture<Optional<TsKvEntry>>> futures = new ArrayList<>();
             while (stepTs < query.getEndTs()) {
                 long startTs = stepTs;
                 long endTs = stepTs + query.getInterval();
                 long ts = startTs + (endTs - startTs) / 2;
-                futures.add(findAndAggregateAsync(entityId, query.getKey(), startTs, endTs, ts, query.getAggregation()));
+                if (rollups != null && rollups.covers(startTs, endTs) && rollups.isSupported(startTs, query.getAggregation())) {
+                    TsKvRollup rollup = rollups.aggregates.get(startTs);
+                    TsKvEntity entity = rollup != null ? rollup.toTsKvEntity(query.getAggregation()) : null;
+                    futures.add(Futures.immediateFuture(toAggregatedEntry(entityId, query.getKey(), ts, entity)));
+                } else {
+                    futures.add(findAndAggregateAsync(entityId, query.getKey(), startTs, endTs, ts, query.getAggregation(),
+                            blockAggregates.get(startTs)));
+                }
                 stepTs = endTs;
             }
             return getTskvEntriesFuture(Futures.allAsList(futures));
@@ -143,21 +196,127 @@ public abstract class AbstractChunkedAggregationTimeseriesDao extends AbstractSq
                         Sort.by(Sort.Direction.fromString(
                                 query.getOrder()), "ts")));
         tsKvEntities.forEach(tsKvEntity -> tsKvEntity.setStrKey(query.getKey()));
-        return Futures.immediateFuture(DaoUtil.convertDataList(tsKvEntities));
+        List<TsKvEntry> result = DaoUtil.convertDataList(tsKvEntities);
+        boolean ascending = Sort.Direction.fromString(query.getOrder()).isAscending();
+        List<TsKvEntry> blockEntries = findBlockEntries(entityId, query.getKey(), query.getStartTs(), query.getEndTs(), query.getLimit(), ascending);
+        if (!blockEntries.isEmpty()) {
+            result = mergeWithBlockEntries(result, blockEntries, query.getLimit(), ascending);
+        }
+        return Futures.immediateFuture(result);
     }
 
-    private ListenableFuture<Optional<TsKvEntry>> findAndAggregateAsync(EntityId entityId, String key, long startTs, long endTs, long ts, Aggregation aggregation) {
+    private ListenableFuture<Optional<TsKvEntry>> findAndAggregateAsync(EntityId entityId, String key, long startTs, long endTs, long ts,
+                                                                        Aggregation aggregation, TsKvBlockAggregator blockAggregator) {
         List<CompletableFuture<TsKvEntity>> entitiesFutures = new ArrayList<>();
         switchAggregation(entityId, key, startTs, endTs, aggregation, entitiesFutures);
-        return Futures.transform(setFutures(entitiesFutures), entity -> {
-            if (entity != null && entity.isNotEmpty()) {
-                entity.setEntityId(entityId.getId());
-                entity.setStrKey(key);
-                entity.setTs(ts);
-                return Optional.of(DaoUtil.getData(entity));
-            } else {
-                return Optional.empty();
-            }
+        ListenableFuture<TsKvEntity> aggregationFuture = setFutures(entitiesFutures);
+        if (blockAggregator != null) {
+            aggregationFuture = mergeWithBlockAggregates(entityId, key, startTs, endTs, aggregation, aggregationFuture, blockAggregator);
+        }
+        return Futures.transform(aggregationFuture, entity -> toAggregatedEntry(entityId, key, ts, entity), MoreExecutors.directExecutor());
+    }
+
+    private Optional<TsKvEntry> toAggregatedEntry(EntityId entityId, String key, long ts, TsKvEntity entity) {
+        if (entity != null && entity.isNotEmpty()) {
+            entity.setEntityId(entityId.getId());
+            entity.setStrKey(key);
+            entity.setTs(ts);
+            return Optional.of(DaoUtil.getData(entity));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    private boolean isRollupEnabled() {
+        return rollupService != null && rollupService.isEnabled();
+    }
+
+    /**
+     * Finds the rollup aggregates of the query buckets that are covered by the rollups, null if rollups are not applicable.
+     */
+    private RollupAggregates findRollupAggregates(EntityId entityId, ReadTsKvQuery query) {
+        if (!isRollupEnabled()) {
+            return null;
+        }
+        long interval = query.getInterval();
+        TsKvRollupGranularity granularity = rollupService.getGranularity(query.getStartTs(), interval);
+        if (granularity == null) {
+            return null;
+        }
+        long startTs = query.getStartTs();
+        long availableSinceTs = rollupService.getAvailableSinceTs();
+        if (startTs < availableSinceTs) {
+            startTs += (availableSinceTs - startTs + interval - 1) / interval * interval;
+        }
+        long bucketsCount = (query.getEndTs() - query.getStartTs() + interval - 1) / interval;
+        long endTs = query.getStartTs() + bucketsCount * interval;
+        if (startTs >= endTs) {
+            return null;
+        }
+        int keyId = getOrSaveKeyId(query.getKey());
+        Set<Long> dirtyBuckets = rollupService.findDirtyBuckets(entityId.getId(), keyId, startTs, endTs, interval);
+        Map<Long, TsKvRollup> aggregates = rollupService.findAggregates(entityId.getId(), keyId, granularity, startTs, endTs, interval);
+        return new RollupAggregates(startTs, endTs, dirtyBuckets, aggregates);
+    }
+
+    @RequiredArgsConstructor
+    private static class RollupAggregates {
+        private final long startTs;
+        private final long endTs;
+        private final Set<Long> dirtyBuckets;
+        private final Map<Long, TsKvRollup> aggregates;
+
+        boolean covers(long bucketStartTs, long bucketEndTs) {
+            return bucketStartTs >= startTs && bucketEndTs <= endTs && !dirtyBuckets.contains(bucketStartTs);
+        }
+
+        boolean isSupported(long bucketStartTs, Aggregation aggregation) {
+            TsKvRollup rollup = aggregates.get(bucketStartTs);
+            return rollup == null || rollup.isSupported(aggregation);
+        }
+    }
+
+    private boolean isBlockStorageEnabled() {
+        return blockService != null && blockService.isEnabled();
+    }
+
+    private List<TsKvEntry> findBlockEntries(EntityId entityId, String key, long startTs, long endTs, int limit, boolean ascending) {
+        if (!isBlockStorageEnabled()) {
+            return Collections.emptyList();
+        }
+        return blockService.findEntries(entityId.getId(), getOrSaveKeyId(key), key, startTs, endTs, limit, ascending);
+    }
+
+    private Map<Long, TsKvBlockAggregator> findBlockAggregates(EntityId entityId, ReadTsKvQuery query) {
+        if (!isBlockStorageEnabled()) {
+            return Collections.emptyMap();
+        }
+        return blockService.aggregate(entityId.getId(), getOrSaveKeyId(query.getKey()), query.getStartTs(), query.getEndTs(), query.getInterval());
+    }
+
+    private List<TsKvEntry> mergeWithBlockEntries(List<TsKvEntry> entries, List<TsKvEntry> blockEntries, int limit, boolean ascending) {
+        NavigableMap<Long, TsKvEntry> merged = new TreeMap<>();
+        blockEntries.forEach(entry -> merged.put(entry.getTs(), entry));
+        entries.forEach(entry -> merged.put(entry.getTs(), entry));
+        return (ascending ? merged : merged.descendingMap()).values().stream()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private ListenableFuture<TsKvEntity> mergeWithBlockAggregates(EntityId entityId, String key, long startTs, long endTs, Aggregation aggregation,
+                                                                  ListenableFuture<TsKvEntity> aggregationFuture, TsKvBlockAggregator blockAggregator) {
+        ListenableFuture<TsKvEntity> countFuture;
+        if (aggregation == Aggregation.AVG) {
+            List<CompletableFuture<TsKvEntity>> countFutures = new ArrayList<>();
+            findCount(entityId, key, startTs, endTs, countFutures);
+            countFuture = setFutures(countFutures);
+        } else {
+            countFuture = Futures.immediateFuture(null);
+        }
+        return Futures.whenAllSucceed(aggregationFuture, countFuture).call(() -> {
+            TsKvEntity count = Futures.getDone(countFuture);
+            long dbCount = count != null && count.getLongValue() != null ? count.getLongValue() : 0L;
+            return blockAggregator.merge(Futures.getDone(aggregationFuture), aggregation, dbCount);
         }, MoreExecutors.directExecutor());
     }
 
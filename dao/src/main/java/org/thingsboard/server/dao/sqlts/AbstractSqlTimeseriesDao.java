@@ -58,6 +58,12 @@ public abstract class AbstractSqlTimeseriesDao extends BaseAbstractSqlTimeseries
     @Value("${sql.ts.batch_threads:4}")
     protected int tsBatchThreads;
 
+    @Value("${sql.ts.batch_adaptive:false}")
+    protected boolean tsBatchAdaptive;
+
+    @Value("${sql.ts.ring_buffer_size:0}")
+    protected int tsRingBufferSize;
+
     @Value("${sql.timescale.batch_threads:4}")
     protected int timescaleBatchThreads;
 
@@ -15,7 +15,6 @@
  */
 package org.thingsboard.server.dao.sqlts;
 
-import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -44,6 +43,7 @@ import org.thingsboard.server.dao.sql.TbSqlBlockingQueueParams;
 import org.thingsboard.server.dao.sql.TbSqlBlockingQueueWrapper;
 import org.thingsboard.server.dao.sqlts.insert.latest.InsertLatestTsRepository;
 import org.thingsboard.server.dao.sqlts.latest.SearchTsKvLatestRepository;
+import org.thingsboard.server.dao.sqlts.latest.TsKvLatestCache;
 import org.thingsboard.server.dao.sqlts.latest.TsKvLatestRepository;
 import org.thingsboard.server.dao.timeseries.SimpleListenableFuture;
 import org.thingsboard.server.dao.timeseries.TimeseriesLatestDao;
@@ -82,6 +82,9 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
     @Autowired
     private InsertLatestTsRepository insertLatestTsRepository;
 
+    @Autowired
+    private TsKvLatestCache latestCache;
+
     private TbSqlBlockingQueueWrapper<TsKvLatestEntity> tsLatestQueue;
 
     @Value("${sql.ts_latest.batch_size:1000}")
@@ -96,6 +99,12 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
     @Value("${sql.ts_latest.batch_threads:4}")
     private int tsLatestBatchThreads;
 
+    @Value("${sql.ts_latest.batch_adaptive:false}")
+    private boolean tsLatestBatchAdaptive;
+
+    @Value("${sql.ts_latest.ring_buffer_size:0}")
+    private int tsLatestRingBufferSize;
+
     @Value("${sql.batch_sort:false}")
     protected boolean batchSortEnabled;
 
@@ -114,6 +123,8 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
                 .statsPrintIntervalMs(tsLatestStatsPrintIntervalMs)
                 .statsNamePrefix("ts.latest")
                 .batchSortEnabled(false)
+                .adaptive(tsLatestBatchAdaptive)
+                .ringBufferSize(tsLatestRingBufferSize)
                 .build();
 
         java.util.function.Function<TsKvLatestEntity, Integer> hashcodeFunction = entity -> entity.getEntityId().hashCode();
@@ -143,7 +154,7 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
 
     @Override
     public ListenableFuture<Void> saveLatest(TenantId tenantId, EntityId entityId, TsKvEntry tsKvEntry) {
-        return getSaveLatestFuture(entityId, tsKvEntry);
+        return getSaveLatestFuture(tenantId, entityId, tsKvEntry);
     }
 
     @Override
@@ -153,12 +164,12 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
 
     @Override
     public ListenableFuture<TsKvEntry> findLatest(TenantId tenantId, EntityId entityId, String key) {
-        return getFindLatestFuture(entityId, key);
+        return getFindLatestFuture(tenantId, entityId, key);
     }
 
     @Override
     public ListenableFuture<List<TsKvEntry>> findAllLatest(TenantId tenantId, EntityId entityId) {
-        return getFindAllLatestFuture(entityId);
+        return getFindAllLatestFuture(tenantId, entityId);
     }
 
     @Override
@@ -179,7 +190,7 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
         ListenableFuture<List<TsKvEntry>> future = findNewLatestEntryFuture(tenantId, entityId, query);
         return Futures.transformAsync(future, entryList -> {
             if (entryList.size() == 1) {
-                return getSaveLatestFuture(entityId, entryList.get(0));
+                return getSaveLatestFuture(tenantId, entityId, entryList.get(0));
             } else {
                 log.trace("Could not find new latest value for [{}], key - {}", entityId, query.getKey());
             }
@@ -195,17 +206,24 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
         return aggregationTimeseriesDao.findAllAsync(tenantId, entityId, findNewLatestQuery);
     }
 
-    protected ListenableFuture<TsKvEntry> getFindLatestFuture(EntityId entityId, String key) {
+    protected ListenableFuture<TsKvEntry> getFindLatestFuture(TenantId tenantId, EntityId entityId, String key) {
+        int keyId = getOrSaveKeyId(key);
+        Optional<TsKvEntry> cachedEntry = latestCache.find(tenantId, entityId, keyId);
+        if (cachedEntry != null) {
+            return Futures.immediateFuture(cachedEntry.orElseGet(() -> new BasicTsKvEntry(System.currentTimeMillis(), new StringDataEntry(key, null))));
+        }
+        long cacheVersion = latestCache.getVersion(entityId);
         TsKvLatestCompositeKey compositeKey =
                 new TsKvLatestCompositeKey(
                         entityId.getId(),
-                        getOrSaveKeyId(key));
+                        keyId);
         Optional<TsKvLatestEntity> entry = tsKvLatestRepository.findById(compositeKey);
         TsKvEntry result;
         if (entry.isPresent()) {
             TsKvLatestEntity tsKvLatestEntity = entry.get();
             tsKvLatestEntity.setStrKey(key);
             result = DaoUtil.getData(tsKvLatestEntity);
+            latestCache.putLoaded(tenantId, entityId, cacheVersion, keyId, result);
         } else {
             result = new BasicTsKvEntry(System.currentTimeMillis(), new StringDataEntry(key, null));
         }
@@ -213,7 +231,7 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
     }
 
     protected ListenableFuture<Void> getRemoveLatestFuture(TenantId tenantId, EntityId entityId, DeleteTsKvQuery query) {
-        ListenableFuture<TsKvEntry> latestFuture = getFindLatestFuture(entityId, query.getKey());
+        ListenableFuture<TsKvEntry> latestFuture = getFindLatestFuture(tenantId, entityId, query.getKey());
 
         ListenableFuture<Boolean> booleanFuture = Futures.transform(latestFuture, tsKvEntry -> {
             long ts = tsKvEntry.getTs();
@@ -227,6 +245,7 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
                 latestEntity.setKey(getOrSaveKeyId(query.getKey()));
                 return service.submit(() -> {
                     tsKvLatestRepository.delete(latestEntity);
+                    latestCache.evict(entityId);
                     return null;
                 });
             }
@@ -263,13 +282,22 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
         return resultFuture;
     }
 
-    protected ListenableFuture<List<TsKvEntry>> getFindAllLatestFuture(EntityId entityId) {
-        return Futures.immediateFuture(
-                DaoUtil.convertDataList(Lists.newArrayList(
-                        searchTsKvLatestRepository.findAllByEntityId(entityId.getId()))));
+    protected ListenableFuture<List<TsKvEntry>> getFindAllLatestFuture(TenantId tenantId, EntityId entityId) {
+        List<TsKvEntry> cachedEntries = latestCache.findAll(tenantId, entityId);
+        if (cachedEntries != null) {
+            return Futures.immediateFuture(cachedEntries);
+        }
+        long cacheVersion = latestCache.getVersion(entityId);
+        List<TsKvLatestEntity> latestEntities = searchTsKvLatestRepository.findAllByEntityId(entityId.getId());
+        if (latestCache.isEnabled()) {
+            Map<Integer, TsKvEntry> entries = new HashMap<>();
+            latestEntities.forEach(latestEntity -> entries.put(latestEntity.getKey(), DaoUtil.getData(latestEntity)));
+            latestCache.putAllLoaded(tenantId, entityId, cacheVersion, entries);
+        }
+        return Futures.immediateFuture(DaoUtil.convertDataList(latestEntities));
     }
 
-    protected ListenableFuture<Void> getSaveLatestFuture(EntityId entityId, TsKvEntry tsKvEntry) {
+    protected ListenableFuture<Void> getSaveLatestFuture(TenantId tenantId, EntityId entityId, TsKvEntry tsKvEntry) {
         TsKvLatestEntity latestEntity = new TsKvLatestEntity();
         latestEntity.setEntityId(entityId.getId());
         latestEntity.setTs(tsKvEntry.getTs());
@@ -280,7 +308,21 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
         latestEntity.setBooleanValue(tsKvEntry.getBooleanValue().orElse(null));
         latestEntity.setJsonValue(tsKvEntry.getJsonValue().orElse(null));
 
-        return tsLatestQueue.add(latestEntity);
+        latestCache.onSave(tenantId, entityId, latestEntity.getKey(), tsKvEntry);
+        ListenableFuture<Void> saveFuture = tsLatestQueue.add(latestEntity);
+        if (latestCache.isEnabled()) {
+            Futures.addCallback(saveFuture, new FutureCallback<Void>() {
+                @Override
+                public void onSuccess(@Nullable Void result) {
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    latestCache.evict(entityId);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        return saveFuture;
     }
 
 }
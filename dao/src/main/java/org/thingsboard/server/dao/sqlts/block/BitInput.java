@@ -0,0 +1,54 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+/**
+ * Big-endian bit stream reader for the data written by {@link BitOutput}.
+ */
+final class BitInput {
+
+    private final byte[] buffer;
+    private int bytePos;
+    private int bitPos;
+
+    BitInput(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    boolean readBit() {
+        return readBits(1) == 1;
+    }
+
+    long readBits(int bits) {
+        long value = 0;
+        while (bits > 0) {
+            if (bytePos >= buffer.length) {
+                throw new IllegalStateException("Unexpected end of the timeseries block");
+            }
+            int available = 8 - bitPos;
+            int take = Math.min(available, bits);
+            int chunk = (buffer[bytePos] >>> (available - take)) & ((1 << take) - 1);
+            value = (value << take) | chunk;
+            bitPos += take;
+            bits -= take;
+            if (bitPos == 8) {
+                bytePos++;
+                bitPos = 0;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import java.util.Arrays;
+
+/**
+ * Big-endian bit stream writer.
+ */
+final class BitOutput {
+
+    private byte[] buffer;
+    private int bytePos;
+    private int bitPos;
+
+    BitOutput(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    void writeBits(long value, int bits) {
+        while (bits > 0) {
+            ensureCapacity();
+            int free = 8 - bitPos;
+            int take = Math.min(free, bits);
+            int chunk = (int) ((value >>> (bits - take)) & ((1 << take) - 1));
+            buffer[bytePos] |= (byte) (chunk << (free - take));
+            bitPos += take;
+            bits -= take;
+            if (bitPos == 8) {
+                bytePos++;
+                bitPos = 0;
+            }
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, bitPos > 0 ? bytePos + 1 : bytePos);
+    }
+
+    private void ensureCapacity() {
+        if (bytePos >= buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+
+import java.util.List;
+
+/**
+ * Merges the aggregation of the compacted points with the aggregation of the raw rows returned by the database.
+ * Follows the semantics of the aggregation queries of {@link org.thingsboard.server.dao.sqlts.ts.TsKvRepository}.
+ * Points are added one by one, so the compacted points don't need to be kept in memory.
+ */
+public final class TsKvBlockAggregator {
+
+    private long booleanCount;
+    private long strCount;
+    private long jsonCount;
+    private long longCount;
+    private long doubleCount;
+    private long longSum;
+    private double doubleSum;
+    private long longMin = Long.MAX_VALUE;
+    private long longMax = Long.MIN_VALUE;
+    private double doubleMin = Double.MAX_VALUE;
+    private double doubleMax = -Double.MAX_VALUE;
+    private String strMin;
+    private String strMax;
+
+    public TsKvBlockAggregator() {
+    }
+
+    public TsKvBlockAggregator(List<TsKvEntry> points) {
+        points.forEach(this::add);
+    }
+
+    public void add(TsKvEntry point) {
+        switch (point.getDataType()) {
+            case BOOLEAN:
+                booleanCount++;
+                break;
+            case JSON:
+                jsonCount++;
+                break;
+            case STRING:
+                strCount++;
+                String strValue = point.getStrValue().orElse("");
+                if (strMin == null || strValue.compareTo(strMin) < 0) {
+                    strMin = strValue;
+                }
+                if (strMax == null || strValue.compareTo(strMax) > 0) {
+                    strMax = strValue;
+                }
+                break;
+            case LONG:
+                longCount++;
+                long longValue = point.getLongValue().orElse(0L);
+                longSum += longValue;
+                longMin = Math.min(longMin, longValue);
+                longMax = Math.max(longMax, longValue);
+                break;
+            case DOUBLE:
+                doubleCount++;
+                double doubleValue = point.getDoubleValue().orElse(0.0);
+                doubleSum += doubleValue;
+                doubleMin = Math.min(doubleMin, doubleValue);
+                doubleMax = Math.max(doubleMax, doubleValue);
+                break;
+        }
+    }
+
+    /**
+     * @param dbResult result of the aggregation query over the raw rows, may be null
+     * @param dbCount  number of the numeric raw rows, used by {@link Aggregation#AVG} only
+     */
+    public TsKvEntity merge(TsKvEntity dbResult, Aggregation aggregation, long dbCount) {
+        switch (aggregation) {
+            case COUNT:
+                return mergeCount(dbResult);
+            case SUM:
+                return mergeSum(dbResult);
+            case AVG:
+                return mergeAvg(dbResult, dbCount);
+            case MIN:
+                return mergeMinMax(dbResult, false);
+            case MAX:
+                return mergeMinMax(dbResult, true);
+            default:
+                throw new IllegalArgumentException("Not supported aggregation type: " + aggregation);
+        }
+    }
+
+    private TsKvEntity mergeCount(TsKvEntity dbResult) {
+        long count;
+        if (booleanCount != 0) {
+            count = booleanCount;
+        } else if (strCount != 0) {
+            count = strCount;
+        } else if (jsonCount != 0) {
+            count = jsonCount;
+        } else {
+            count = longCount + doubleCount;
+        }
+        if (count == 0) {
+            return dbResult;
+        }
+        TsKvEntity result = new TsKvEntity();
+        result.setLongValue(count + (isNotEmpty(dbResult) && dbResult.getLongValue() != null ? dbResult.getLongValue() : 0L));
+        return result;
+    }
+
+    private TsKvEntity mergeSum(TsKvEntity dbResult) {
+        if (getNumericCount() == 0) {
+            return dbResult;
+        }
+        TsKvEntity result = new TsKvEntity();
+        if (doubleCount > 0 || (isNotEmpty(dbResult) && dbResult.getDoubleValue() != null)) {
+            result.setDoubleValue(doubleSum + longSum + getNumericValue(dbResult, 0.0));
+        } else {
+            result.setLongValue(longSum + (isNotEmpty(dbResult) && dbResult.getLongValue() != null ? dbResult.getLongValue() : 0L));
+        }
+        return result;
+    }
+
+    private TsKvEntity mergeAvg(TsKvEntity dbResult, long dbCount) {
+        long numericCount = getNumericCount();
+        if (numericCount == 0) {
+            return dbResult;
+        }
+        double dbSum = dbCount > 0 ? getNumericValue(dbResult, 0.0) * dbCount : 0.0;
+        TsKvEntity result = new TsKvEntity();
+        result.setDoubleValue((dbSum + doubleSum + longSum) / (dbCount + numericCount));
+        return result;
+    }
+
+    private TsKvEntity mergeMinMax(TsKvEntity dbResult, boolean max) {
+        TsKvEntity result = new TsKvEntity();
+        if (strCount > 0 || (isNotEmpty(dbResult) && dbResult.getStrValue() != null)) {
+            String value = max ? strMax : strMin;
+            String dbValue = isNotEmpty(dbResult) ? dbResult.getStrValue() : null;
+            if (value == null || (dbValue != null && (max ? dbValue.compareTo(value) > 0 : dbValue.compareTo(value) < 0))) {
+                value = dbValue;
+            }
+            result.setStrValue(value);
+        } else if (getNumericCount() == 0) {
+            return dbResult;
+        } else if (doubleCount > 0 || (isNotEmpty(dbResult) && dbResult.getDoubleValue() != null)) {
+            double value = max ? -Double.MAX_VALUE : Double.MAX_VALUE;
+            if (doubleCount > 0) {
+                value = max ? doubleMax : doubleMin;
+            }
+            if (longCount > 0) {
+                value = max ? Math.max(value, longMax) : Math.min(value, longMin);
+            }
+            if (isNotEmpty(dbResult)) {
+                double dbValue = getNumericValue(dbResult, value);
+                value = max ? Math.max(value, dbValue) : Math.min(value, dbValue);
+            }
+            result.setDoubleValue(value);
+        } else {
+            long value = max ? longMax : longMin;
+            if (isNotEmpty(dbResult) && dbResult.getLongValue() != null) {
+                value = max ? Math.max(value, dbResult.getLongValue()) : Math.min(value, dbResult.getLongValue());
+            }
+            result.setLongValue(value);
+        }
+        return result;
+    }
+
+    private long getNumericCount() {
+        return longCount + doubleCount;
+    }
+
+    private static boolean isNotEmpty(TsKvEntity entity) {
+        return entity != null && entity.isNotEmpty();
+    }
+
+    private static double getNumericValue(TsKvEntity entity, double defaultValue) {
+        if (isNotEmpty(entity)) {
+            if (entity.getDoubleValue() != null) {
+                return entity.getDoubleValue();
+            } else if (entity.getLongValue() != null) {
+                return entity.getLongValue();
+            }
+        }
+        return defaultValue;
+    }
+}
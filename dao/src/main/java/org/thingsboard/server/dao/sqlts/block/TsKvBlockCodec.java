@@ -0,0 +1,295 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DataType;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.JsonDataEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar encoding of the time series points of a single key.
+ * <p>
+ * Timestamps are stored as delta-of-delta, doubles are XOR-ed with the previous value (Gorilla encoding),
+ * longs are stored as deltas with the same variable length buckets as timestamps.
+ * Booleans take a single bit, strings and JSON are stored as length prefixed UTF-8.
+ * If all points have the same data type, the type is written once in the header.
+ * <p>
+ * Points must be sorted by timestamp in ascending order.
+ */
+public final class TsKvBlockCodec {
+
+    private static final int VERSION = 1;
+    private static final int TYPE_BITS = 3;
+
+    private TsKvBlockCodec() {
+    }
+
+    public static byte[] encode(List<? extends TsKvEntry> entries) {
+        BitOutput out = new BitOutput(entries.size() * 4);
+        out.writeBits(VERSION, 8);
+        out.writeBits(entries.size(), 32);
+        DataType uniformType = getUniformType(entries);
+        out.writeBit(uniformType != null);
+        if (uniformType != null) {
+            out.writeBits(uniformType.ordinal(), TYPE_BITS);
+        }
+        EncoderState state = new EncoderState();
+        for (TsKvEntry entry : entries) {
+            writeTs(out, state, entry.getTs());
+            if (uniformType == null) {
+                out.writeBits(entry.getDataType().ordinal(), TYPE_BITS);
+            }
+            switch (entry.getDataType()) {
+                case BOOLEAN:
+                    out.writeBit(entry.getBooleanValue().orElse(false));
+                    break;
+                case LONG:
+                    long longValue = entry.getLongValue().orElse(0L);
+                    writeVarDelta(out, longValue - state.prevLong);
+                    state.prevLong = longValue;
+                    break;
+                case DOUBLE:
+                    writeDouble(out, state, entry.getDoubleValue().orElse(0.0));
+                    break;
+                case STRING:
+                    writeString(out, entry.getStrValue().orElse(""));
+                    break;
+                case JSON:
+                    writeString(out, entry.getJsonValue().orElse(""));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported data type: " + entry.getDataType());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static List<TsKvEntry> decode(byte[] data, String key) {
+        BitInput in = new BitInput(data);
+        int version = (int) in.readBits(8);
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported timeseries block version: " + version);
+        }
+        int count = (int) in.readBits(32);
+        DataType uniformType = in.readBit() ? readType(in) : null;
+        List<TsKvEntry> result = new ArrayList<>(count);
+        DecoderState state = new DecoderState();
+        for (int i = 0; i < count; i++) {
+            long ts = readTs(in, state);
+            DataType type = uniformType != null ? uniformType : readType(in);
+            KvEntry kv;
+            switch (type) {
+                case BOOLEAN:
+                    kv = new BooleanDataEntry(key, in.readBit());
+                    break;
+                case LONG:
+                    state.prevLong += readVarDelta(in);
+                    kv = new LongDataEntry(key, state.prevLong);
+                    break;
+                case DOUBLE:
+                    kv = new DoubleDataEntry(key, readDouble(in, state));
+                    break;
+                case STRING:
+                    kv = new StringDataEntry(key, readString(in));
+                    break;
+                case JSON:
+                    kv = new JsonDataEntry(key, readString(in));
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported data type: " + type);
+            }
+            result.add(new BasicTsKvEntry(ts, kv));
+        }
+        return result;
+    }
+
+    private static DataType getUniformType(List<? extends TsKvEntry> entries) {
+        DataType type = null;
+        for (TsKvEntry entry : entries) {
+            if (type == null) {
+                type = entry.getDataType();
+            } else if (type != entry.getDataType()) {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    private static DataType readType(BitInput in) {
+        int ordinal = (int) in.readBits(TYPE_BITS);
+        DataType[] types = DataType.values();
+        if (ordinal >= types.length) {
+            throw new IllegalStateException("Unsupported data type ordinal: " + ordinal);
+        }
+        return types[ordinal];
+    }
+
+    private static void writeTs(BitOutput out, EncoderState state, long ts) {
+        if (!state.hasTs) {
+            out.writeBits(ts, 64);
+            state.hasTs = true;
+        } else {
+            long delta = ts - state.prevTs;
+            writeVarDelta(out, delta - state.prevDelta);
+            state.prevDelta = delta;
+        }
+        state.prevTs = ts;
+    }
+
+    private static long readTs(BitInput in, DecoderState state) {
+        if (!state.hasTs) {
+            state.prevTs = in.readBits(64);
+            state.hasTs = true;
+        } else {
+            state.prevDelta += readVarDelta(in);
+            state.prevTs += state.prevDelta;
+        }
+        return state.prevTs;
+    }
+
+    /**
+     * Writes the signed value using the variable length buckets: '0' for zero,
+     * '10' + 7 bits, '110' + 9 bits, '1110' + 12 bits and '1111' + 64 bits.
+     */
+    private static void writeVarDelta(BitOutput out, long value) {
+        if (value == 0) {
+            out.writeBits(0b0, 1);
+        } else if (value >= -63 && value <= 64) {
+            out.writeBits(0b10, 2);
+            out.writeBits(value + 63, 7);
+        } else if (value >= -255 && value <= 256) {
+            out.writeBits(0b110, 3);
+            out.writeBits(value + 255, 9);
+        } else if (value >= -2047 && value <= 2048) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(value + 2047, 12);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(value, 64);
+        }
+    }
+
+    private static long readVarDelta(BitInput in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return in.readBits(7) - 63;
+        }
+        if (!in.readBit()) {
+            return in.readBits(9) - 255;
+        }
+        if (!in.readBit()) {
+            return in.readBits(12) - 2047;
+        }
+        return in.readBits(64);
+    }
+
+    private static void writeDouble(BitOutput out, EncoderState state, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        if (!state.hasDouble) {
+            out.writeBits(bits, 64);
+            state.hasDouble = true;
+        } else {
+            long xor = bits ^ state.prevDoubleBits;
+            if (xor == 0) {
+                out.writeBit(false);
+            } else {
+                out.writeBit(true);
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (state.prevLeading >= 0 && leading >= state.prevLeading && trailing >= state.prevTrailing) {
+                    out.writeBit(false);
+                    out.writeBits(xor >>> state.prevTrailing, 64 - state.prevLeading - state.prevTrailing);
+                } else {
+                    int significant = 64 - leading - trailing;
+                    out.writeBit(true);
+                    out.writeBits(leading, 5);
+                    out.writeBits(significant - 1, 6);
+                    out.writeBits(xor >>> trailing, significant);
+                    state.prevLeading = leading;
+                    state.prevTrailing = trailing;
+                }
+            }
+        }
+        state.prevDoubleBits = bits;
+    }
+
+    private static double readDouble(BitInput in, DecoderState state) {
+        if (!state.hasDouble) {
+            state.prevDoubleBits = in.readBits(64);
+            state.hasDouble = true;
+        } else if (in.readBit()) {
+            if (in.readBit()) {
+                state.prevLeading = (int) in.readBits(5);
+                int significant = (int) in.readBits(6) + 1;
+                state.prevTrailing = 64 - state.prevLeading - significant;
+            }
+            long xor = in.readBits(64 - state.prevLeading - state.prevTrailing) << state.prevTrailing;
+            state.prevDoubleBits ^= xor;
+        }
+        return Double.longBitsToDouble(state.prevDoubleBits);
+    }
+
+    private static void writeString(BitOutput out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeBits(bytes.length, 32);
+        for (byte b : bytes) {
+            out.writeBits(b & 0xFF, 8);
+        }
+    }
+
+    private static String readString(BitInput in) {
+        int length = (int) in.readBits(32);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) in.readBits(8);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class EncoderState {
+        boolean hasTs;
+        long prevTs;
+        long prevDelta;
+        long prevLong;
+        boolean hasDouble;
+        long prevDoubleBits;
+        int prevLeading = -1;
+        int prevTrailing;
+    }
+
+    private static class DecoderState {
+        boolean hasTs;
+        long prevTs;
+        long prevDelta;
+        long prevLong;
+        boolean hasDouble;
+        long prevDoubleBits;
+        int prevLeading;
+        int prevTrailing;
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.JsonDataEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.util.PsqlDao;
+import org.thingsboard.server.dao.util.SqlTsDao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+@Repository
+@PsqlDao
+@SqlTsDao
+public class TsKvBlockRepository {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS ts_kv_block (" +
+            "entity_id uuid NOT NULL, key int NOT NULL, block_ts bigint NOT NULL, start_ts bigint NOT NULL, end_ts bigint NOT NULL, " +
+            "points_count int NOT NULL, data bytea NOT NULL, CONSTRAINT ts_kv_block_pkey PRIMARY KEY (entity_id, key, block_ts));";
+
+    private static final String CREATE_WATERMARK_TABLE = "CREATE TABLE IF NOT EXISTS ts_kv_block_watermark (" +
+            "id int NOT NULL, compacted_until bigint NOT NULL, CONSTRAINT ts_kv_block_watermark_pkey PRIMARY KEY (id));";
+
+    private static final String BLOCK_COLUMNS = "entity_id, key, block_ts, start_ts, end_ts, points_count, data";
+
+    private static final String FIND_BLOCKS = "SELECT " + BLOCK_COLUMNS + " FROM ts_kv_block " +
+            "WHERE entity_id = ? AND key = ? AND block_ts > ? AND block_ts < ? AND end_ts >= ? AND start_ts < ? ORDER BY block_ts ";
+
+    private static final String FIND_BLOCK_FOR_UPDATE = "SELECT " + BLOCK_COLUMNS + " FROM ts_kv_block " +
+            "WHERE entity_id = ? AND key = ? AND block_ts = ? FOR UPDATE";
+
+    private static final String UPSERT_BLOCK = "INSERT INTO ts_kv_block (" + BLOCK_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (entity_id, key, block_ts) DO UPDATE SET start_ts = EXCLUDED.start_ts, end_ts = EXCLUDED.end_ts, " +
+            "points_count = EXCLUDED.points_count, data = EXCLUDED.data;";
+
+    private static final String DELETE_BLOCK = "DELETE FROM ts_kv_block WHERE entity_id = ? AND key = ? AND block_ts = ?";
+
+    private static final String DELETE_EXPIRED_BLOCKS = "DELETE FROM ts_kv_block WHERE end_ts < ?";
+
+    /**
+     * Resolves the TTL of the devices, assets and customers the same way as the cleanup_timeseries_by_ttl procedure:
+     * the TTL attribute of the customer, then the TTL attribute of the tenant, then the system TTL.
+     */
+    private static final String DELETE_EXPIRED_ENTITY_BLOCKS = "DELETE FROM ts_kv_block b USING (" +
+            "SELECT e.id, COALESCE(c.long_v, t.long_v, ?) AS ttl FROM (" +
+            "SELECT id, tenant_id, customer_id FROM device " +
+            "UNION ALL SELECT id, tenant_id, customer_id FROM asset " +
+            "UNION ALL SELECT id, tenant_id, id AS customer_id FROM customer) e " +
+            "LEFT JOIN attribute_kv t ON t.entity_id = e.tenant_id AND t.attribute_key = 'TTL' " +
+            "LEFT JOIN attribute_kv c ON c.entity_id = e.customer_id AND c.attribute_key = 'TTL') e " +
+            "WHERE b.entity_id = e.id AND e.ttl > 0 AND b.end_ts < ? - e.ttl * 1000";
+
+    private static final String FIND_MAX_TTL = "SELECT max(attribute_kv.long_v) FROM attribute_kv " +
+            "WHERE attribute_kv.attribute_key = 'TTL' AND attribute_kv.entity_id IN (SELECT id FROM tenant UNION ALL SELECT id FROM customer)";
+
+    private static final String FIND_COMPACTION_CANDIDATES = "SELECT DISTINCT entity_id, key FROM ts_kv WHERE ts >= ? AND ts < ? LIMIT ?";
+
+    private static final String FIND_LATE_COMPACTION_CANDIDATES = "SELECT DISTINCT entity_id, key, ts - ((ts % ?) + ?) % ? AS block_ts " +
+            "FROM ts_kv WHERE ts < ? LIMIT ?";
+
+    private static final String FIND_ROW_TS = "SELECT ts FROM ts_kv WHERE entity_id = ? AND key = ? AND ts >= ? AND ts < ?";
+
+    private static final String FIND_MIN_ROW_TS = "SELECT min(ts) FROM ts_kv";
+
+    private static final String FIND_WATERMARK = "SELECT compacted_until FROM ts_kv_block_watermark WHERE id = 0";
+
+    private static final String SAVE_WATERMARK = "INSERT INTO ts_kv_block_watermark (id, compacted_until) VALUES (0, ?) " +
+            "ON CONFLICT (id) DO UPDATE SET compacted_until = EXCLUDED.compacted_until;";
+
+    private static final String DELETE_ROWS = "DELETE FROM ts_kv WHERE entity_id = ? AND key = ? AND ts >= ? AND ts < ? " +
+            "RETURNING ts, bool_v, str_v, long_v, dbl_v, json_v";
+
+    private static final RowMapper<TsKvBlock> BLOCK_ROW_MAPPER = (rs, rowNum) -> new TsKvBlock(
+            rs.getObject("entity_id", UUID.class),
+            rs.getInt("key"),
+            rs.getLong("block_ts"),
+            rs.getLong("start_ts"),
+            rs.getLong("end_ts"),
+            rs.getInt("points_count"),
+            rs.getBytes("data"));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void createTableIfNotExists() {
+        jdbcTemplate.execute(CREATE_TABLE);
+        jdbcTemplate.execute(CREATE_WATERMARK_TABLE);
+    }
+
+    public List<TsKvBlock> findBlocks(UUID entityId, int key, long startTs, long endTs, long blockDuration) {
+        return jdbcTemplate.query(FIND_BLOCKS + "ASC", BLOCK_ROW_MAPPER, entityId, key, startTs - blockDuration, endTs, startTs, endTs);
+    }
+
+    /**
+     * Passes the blocks overlapping the interval to the processor until it returns false.
+     */
+    public void processBlocks(UUID entityId, int key, long startTs, long endTs, long blockDuration, boolean ascending, Predicate<TsKvBlock> processor) {
+        jdbcTemplate.query(FIND_BLOCKS + (ascending ? "ASC" : "DESC"), (ResultSetExtractor<Void>) rs -> {
+            int rowNum = 0;
+            while (rs.next()) {
+                if (!processor.test(BLOCK_ROW_MAPPER.mapRow(rs, rowNum++))) {
+                    break;
+                }
+            }
+            return null;
+        }, entityId, key, startTs - blockDuration, endTs, startTs, endTs);
+    }
+
+    public Optional<TsKvBlock> findBlockForUpdate(UUID entityId, int key, long blockTs) {
+        return jdbcTemplate.query(FIND_BLOCK_FOR_UPDATE, BLOCK_ROW_MAPPER, entityId, key, blockTs).stream().findFirst();
+    }
+
+    public void saveBlock(TsKvBlock block) {
+        jdbcTemplate.update(UPSERT_BLOCK, block.getEntityId(), block.getKey(), block.getBlockTs(), block.getStartTs(),
+                block.getEndTs(), block.getPointsCount(), block.getData());
+    }
+
+    public void deleteBlock(UUID entityId, int key, long blockTs) {
+        jdbcTemplate.update(DELETE_BLOCK, entityId, key, blockTs);
+    }
+
+    public int deleteExpiredBlocks(long expirationTs) {
+        return jdbcTemplate.update(DELETE_EXPIRED_BLOCKS, expirationTs);
+    }
+
+    /**
+     * Deletes the blocks of the devices, assets and customers that ended before their TTL.
+     *
+     * @param systemTtl TTL in seconds used when neither the customer nor the tenant defines the TTL attribute
+     */
+    public int deleteExpiredEntityBlocks(long now, long systemTtl) {
+        return jdbcTemplate.update(DELETE_EXPIRED_ENTITY_BLOCKS, systemTtl, now);
+    }
+
+    /**
+     * Returns the max TTL in seconds defined by the TTL attribute of the tenants and customers.
+     */
+    public Optional<Long> findMaxTtl() {
+        return Optional.ofNullable(jdbcTemplate.queryForObject(FIND_MAX_TTL, Long.class));
+    }
+
+    /**
+     * Finds the entity keys that have raw rows within the block [blockTs, blockEndTs). The range scan is limited to the
+     * partitions of the block, unlike grouping all the rows older than the compaction age.
+     */
+    public List<TsKvBlock> findCompactionCandidates(long blockTs, long blockEndTs, int limit) {
+        return jdbcTemplate.query(FIND_COMPACTION_CANDIDATES, (rs, rowNum) -> {
+            TsKvBlock block = new TsKvBlock();
+            block.setEntityId(rs.getObject("entity_id", UUID.class));
+            block.setKey(rs.getInt("key"));
+            block.setBlockTs(blockTs);
+            return block;
+        }, blockTs, blockEndTs, limit);
+    }
+
+    /**
+     * Finds the blocks that have raw rows below the given timestamp. Such rows are saved after their day was compacted.
+     */
+    public List<TsKvBlock> findLateCompactionCandidates(long beforeTs, long blockDuration, int limit) {
+        return jdbcTemplate.query(FIND_LATE_COMPACTION_CANDIDATES, (rs, rowNum) -> {
+            TsKvBlock block = new TsKvBlock();
+            block.setEntityId(rs.getObject("entity_id", UUID.class));
+            block.setKey(rs.getInt("key"));
+            block.setBlockTs(rs.getLong("block_ts"));
+            return block;
+        }, blockDuration, blockDuration, blockDuration, beforeTs, limit);
+    }
+
+    /**
+     * Returns the timestamps of the raw rows of the key in the [startTs, endTs) interval.
+     */
+    public List<Long> findRowTs(UUID entityId, int key, long startTs, long endTs) {
+        return jdbcTemplate.queryForList(FIND_ROW_TS, Long.class, entityId, key, startTs, endTs);
+    }
+
+    public Optional<Long> findMinRowTs() {
+        return Optional.ofNullable(jdbcTemplate.queryForObject(FIND_MIN_ROW_TS, Long.class));
+    }
+
+    public Optional<Long> findWatermark() {
+        return jdbcTemplate.queryForList(FIND_WATERMARK, Long.class).stream().findFirst();
+    }
+
+    public void saveWatermark(long compactedUntil) {
+        jdbcTemplate.update(SAVE_WATERMARK, compactedUntil);
+    }
+
+    /**
+     * Deletes the raw rows of the key in the given interval and returns them. Must be called within the transaction.
+     */
+    public List<TsKvEntry> deleteRows(UUID entityId, int key, long startTs, long endTs) {
+        return jdbcTemplate.query(DELETE_ROWS, (rs, rowNum) -> toTsKvEntry(rs), entityId, key, startTs, endTs);
+    }
+
+    private static TsKvEntry toTsKvEntry(ResultSet rs) throws SQLException {
+        long ts = rs.getLong("ts");
+        KvEntry kv;
+        String strValue = rs.getString("str_v");
+        if (strValue != null) {
+            kv = new StringDataEntry("", strValue);
+        } else {
+            long longValue = rs.getLong("long_v");
+            if (!rs.wasNull()) {
+                kv = new LongDataEntry("", longValue);
+            } else {
+                double doubleValue = rs.getDouble("dbl_v");
+                if (!rs.wasNull()) {
+                    kv = new DoubleDataEntry("", doubleValue);
+                } else {
+                    boolean boolValue = rs.getBoolean("bool_v");
+                    if (!rs.wasNull()) {
+                        kv = new BooleanDataEntry("", boolValue);
+                    } else {
+                        kv = new JsonDataEntry("", rs.getString("json_v"));
+                    }
+                }
+            }
+        }
+        return new BasicTsKvEntry(ts, kv);
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.util.PsqlDao;
+import org.thingsboard.server.dao.util.SqlTsDao;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Columnar storage of the historical time series.
+ * <p>
+ * The compaction job periodically moves the raw rows older than the configured age from the ts_kv table
+ * into the ts_kv_block table, one row per entity, key and day encoded with {@link TsKvBlockCodec}.
+ * The timeseries DAO merges the block points with the raw rows on read, so compaction is transparent to the API.
+ * <p>
+ * Days are compacted in order. The start of the first day that is not compacted yet is stored as the watermark,
+ * so each run only looks for the rows of that day instead of grouping all the historical rows.
+ * Rows saved later with the timestamp below the watermark are merged into their blocks at the start of the next run.
+ * Until then the raw row wins over the compacted point with the same timestamp, both on raw and aggregation reads.
+ * <p>
+ * Blocks expire as a whole, once their last point is older than the TTL of the entity.
+ */
+@Component
+@Slf4j
+@PsqlDao
+@SqlTsDao
+public class TsKvBlockService {
+
+    public static final long BLOCK_DURATION = TimeUnit.DAYS.toMillis(1);
+
+    @Value("${sql.ts.compaction.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sql.ts.compaction.age_days:30}")
+    private int ageDays;
+
+    @Value("${sql.ts.compaction.interval_ms:3600000}")
+    private long intervalMs;
+
+    @Value("${sql.ts.compaction.max_blocks_per_run:10000}")
+    private int maxBlocksPerRun;
+
+    @Autowired
+    private TsKvBlockRepository blockRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            blockRepository.createTableIfNotExists();
+            scheduler = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("ts-kv-compaction"));
+            scheduler.scheduleWithFixedDelay(this::compact, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns up to limit compacted points of the key in the [startTs, endTs) interval sorted by timestamp.
+     */
+    public List<TsKvEntry> findEntries(UUID entityId, int keyId, String key, long startTs, long endTs, int limit, boolean ascending) {
+        List<TsKvEntry> result = new ArrayList<>();
+        blockRepository.processBlocks(entityId, keyId, startTs, endTs, BLOCK_DURATION, ascending, block -> {
+            List<TsKvEntry> points = TsKvBlockCodec.decode(block.getData(), key);
+            if (!ascending) {
+                Collections.reverse(points);
+            }
+            for (TsKvEntry point : points) {
+                if (point.getTs() >= startTs && point.getTs() < endTs) {
+                    result.add(point);
+                    if (result.size() >= limit) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * Aggregates the compacted points of the key in the [startTs, endTs) interval into the buckets of the given interval.
+     * Blocks are streamed from the database and decoded one by one, so only the current block is kept in memory.
+     *
+     * @return aggregators by the bucket start, buckets without compacted points are absent
+     */
+    public Map<Long, TsKvBlockAggregator> aggregate(UUID entityId, int keyId, long startTs, long endTs, long interval) {
+        Map<Long, TsKvBlockAggregator> result = new HashMap<>();
+        processPoints(entityId, keyId, startTs, endTs, point -> {
+            long bucketTs = startTs + (point.getTs() - startTs) / interval * interval;
+            result.computeIfAbsent(bucketTs, ts -> new TsKvBlockAggregator()).add(point);
+        });
+        return result;
+    }
+
+    /**
+     * Passes the compacted points of the key in the [startTs, endTs) interval to the consumer in the timestamp order.
+     * Points that have a raw row with the same timestamp are skipped, so they are not counted twice with the raw rows.
+     */
+    public void processPoints(UUID entityId, int keyId, long startTs, long endTs, Consumer<TsKvEntry> consumer) {
+        long blocksEndTs = Math.min(endTs, getBlocksEndTs());
+        if (startTs >= blocksEndTs) {
+            return;
+        }
+        Set<Long> rowTs = new HashSet<>(blockRepository.findRowTs(entityId, keyId, startTs, blocksEndTs));
+        blockRepository.processBlocks(entityId, keyId, startTs, blocksEndTs, BLOCK_DURATION, true, block -> {
+            for (TsKvEntry point : TsKvBlockCodec.decode(block.getData(), "")) {
+                if (point.getTs() >= startTs && point.getTs() < blocksEndTs && !rowTs.contains(point.getTs())) {
+                    consumer.accept(point);
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Returns the timestamp no compacted points exist at or after. Days below the watermark are compacted,
+     * the day of the watermark may be compacted partially.
+     */
+    public long getBlocksEndTs() {
+        return blockRepository.findWatermark().map(watermark -> watermark + BLOCK_DURATION).orElse(Long.MIN_VALUE);
+    }
+
+    public void delete(UUID entityId, int keyId, long startTs, long endTs) {
+        transactionTemplate.execute(status -> {
+            for (TsKvBlock block : blockRepository.findBlocks(entityId, keyId, startTs, endTs, BLOCK_DURATION)) {
+                if (block.getStartTs() >= startTs && block.getEndTs() < endTs) {
+                    blockRepository.deleteBlock(entityId, keyId, block.getBlockTs());
+                } else {
+                    List<TsKvEntry> remaining = new ArrayList<>(block.getPointsCount());
+                    for (TsKvEntry entry : TsKvBlockCodec.decode(block.getData(), "")) {
+                        if (entry.getTs() < startTs || entry.getTs() >= endTs) {
+                            remaining.add(entry);
+                        }
+                    }
+                    saveOrDeleteBlock(entityId, keyId, block.getBlockTs(), remaining);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Applies the TTL the same way as it is applied to the raw rows: the blocks of the devices, assets and customers
+     * expire by the TTL attribute of the customer or the tenant, falling back to the system TTL.
+     * Blocks of other entities expire by the max TTL, like the dropped ts_kv partitions.
+     */
+    public void cleanup(long systemTtl) {
+        long now = System.currentTimeMillis();
+        int deleted = blockRepository.deleteExpiredEntityBlocks(now, systemTtl);
+        long maxTtl = Math.max(systemTtl, blockRepository.findMaxTtl().orElse(0L));
+        if (maxTtl > 0) {
+            deleted += blockRepository.deleteExpiredBlocks(now - TimeUnit.SECONDS.toMillis(maxTtl));
+        }
+        log.info("Total timeseries blocks removed by TTL: [{}]", deleted);
+    }
+
+    void compact() {
+        try {
+            long now = System.currentTimeMillis();
+            long beforeTs = now - TimeUnit.DAYS.toMillis(ageDays);
+            beforeTs -= Math.floorMod(beforeTs, BLOCK_DURATION);
+            long blockTs = getWatermark();
+            List<TsKvBlock> lateCandidates = blockRepository.findLateCompactionCandidates(blockTs, BLOCK_DURATION, maxBlocksPerRun);
+            int compacted = compactCandidates(lateCandidates);
+            boolean failed = compacted < lateCandidates.size();
+            while (blockTs < beforeTs && compacted < maxBlocksPerRun && !failed && !Thread.currentThread().isInterrupted()) {
+                int limit = maxBlocksPerRun - compacted;
+                List<TsKvBlock> candidates = blockRepository.findCompactionCandidates(blockTs, blockTs + BLOCK_DURATION, limit);
+                int compactedCandidates = compactCandidates(candidates);
+                compacted += compactedCandidates;
+                failed = compactedCandidates < candidates.size();
+                if (!failed && candidates.size() < limit) {
+                    blockTs += BLOCK_DURATION;
+                    blockRepository.saveWatermark(blockTs);
+                }
+            }
+            if (compacted > 0) {
+                log.info("Compacted {} timeseries blocks in {} ms, compacted until [{}]", compacted, System.currentTimeMillis() - now, blockTs);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to compact timeseries", e);
+        }
+    }
+
+    /**
+     * Compacts the candidates one by one, each in a separate transaction. Stops on the first failure.
+     *
+     * @return the number of the compacted candidates
+     */
+    private int compactCandidates(List<TsKvBlock> candidates) {
+        int compacted = 0;
+        for (TsKvBlock candidate : candidates) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            try {
+                transactionTemplate.execute(status -> {
+                    compactBlock(candidate.getEntityId(), candidate.getKey(), candidate.getBlockTs());
+                    return null;
+                });
+                compacted++;
+            } catch (Exception e) {
+                log.warn("[{}][{}] Failed to compact timeseries block [{}]", candidate.getEntityId(), candidate.getKey(), candidate.getBlockTs(), e);
+                break;
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Returns the start of the first day that is not compacted yet. Initialized with the day of the oldest raw row.
+     */
+    private long getWatermark() {
+        Optional<Long> watermark = blockRepository.findWatermark();
+        if (watermark.isPresent()) {
+            return watermark.get();
+        }
+        long minTs = blockRepository.findMinRowTs().orElse(System.currentTimeMillis());
+        long blockTs = minTs - Math.floorMod(minTs, BLOCK_DURATION);
+        blockRepository.saveWatermark(blockTs);
+        return blockTs;
+    }
+
+    private void compactBlock(UUID entityId, int keyId, long blockTs) {
+        List<TsKvEntry> rows = blockRepository.deleteRows(entityId, keyId, blockTs, blockTs + BLOCK_DURATION);
+        if (rows.isEmpty()) {
+            return;
+        }
+        NavigableMap<Long, TsKvEntry> points = new TreeMap<>();
+        Optional<TsKvBlock> existing = blockRepository.findBlockForUpdate(entityId, keyId, blockTs);
+        existing.ifPresent(block -> TsKvBlockCodec.decode(block.getData(), "").forEach(entry -> points.put(entry.getTs(), entry)));
+        rows.forEach(entry -> points.put(entry.getTs(), entry));
+        saveOrDeleteBlock(entityId, keyId, blockTs, new ArrayList<>(points.values()));
+    }
+
+    private void saveOrDeleteBlock(UUID entityId, int keyId, long blockTs, List<TsKvEntry> points) {
+        if (points.isEmpty()) {
+            blockRepository.deleteBlock(entityId, keyId, blockTs);
+        } else {
+            blockRepository.saveBlock(new TsKvBlock(entityId, keyId, blockTs, points.get(0).getTs(),
+                    points.get(points.size() - 1).getTs(), points.size(), TsKvBlockCodec.encode(points)));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.dictionary;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionary;
+import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionaryCompositeKey;
+import org.thingsboard.server.dao.util.SqlTsOrTsLatestAnyDao;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Node-wide cache of the ts_kv_dictionary shared by all SQL timeseries DAOs.
+ * <p>
+ * The dictionary is preloaded in bulk on startup. Unknown keys are resolved with one query per batch of keys,
+ * and only keys that are absent in the database are created one by one under the lock.
+ * Lookups of the known keys and key ids never block.
+ */
+@Slf4j
+@Component
+@SqlTsOrTsLatestAnyDao
+public class TsKvDictionaryCache {
+
+    @Autowired
+    private TsKvDictionaryRepository dictionaryRepository;
+
+    private final ReentrantLock creationLock = new ReentrantLock();
+    private final Object preloadLock = new Object();
+    private final ConcurrentMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> keysById = new ConcurrentHashMap<>();
+    private volatile boolean preloaded;
+
+    @PostConstruct
+    public void init() {
+        preload();
+    }
+
+    public int getOrSaveKeyId(String key) {
+        Integer keyId = keyIds.get(key);
+        if (keyId == null) {
+            resolveKeys(Collections.singleton(key));
+            keyId = keyIds.get(key);
+            if (keyId == null) {
+                throw new RuntimeException("Failed to get TsKvDictionary entity from DB!");
+            }
+        }
+        return keyId;
+    }
+
+    /**
+     * Returns the key of the given key id or null if the key id is not present in the dictionary.
+     */
+    public String getKey(int keyId) {
+        String key = keysById.get(keyId);
+        if (key == null) {
+            Optional<TsKvDictionary> dictionary = dictionaryRepository.findByKeyId(keyId);
+            if (dictionary.isPresent()) {
+                key = dictionary.get().getKey();
+                put(key, keyId);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Makes sure that all keys are present in the dictionary and in the cache.
+     */
+    public void resolveKeys(Collection<String> keys) {
+        if (!preloaded) {
+            preload();
+        }
+        Set<String> missingKeys = null;
+        for (String key : keys) {
+            if (!keyIds.containsKey(key)) {
+                if (missingKeys == null) {
+                    missingKeys = new HashSet<>();
+                }
+                missingKeys.add(key);
+            }
+        }
+        if (missingKeys == null) {
+            return;
+        }
+        Map<String, Integer> found = new HashMap<>();
+        dictionaryRepository.findAllByKeyIn(missingKeys).forEach(dictionary -> found.put(dictionary.getKey(), dictionary.getKeyId()));
+        putAll(found);
+        if (found.size() < missingKeys.size()) {
+            creationLock.lock();
+            try {
+                Map<String, Integer> created = new HashMap<>();
+                for (String key : missingKeys) {
+                    if (!found.containsKey(key) && !keyIds.containsKey(key)) {
+                        created.put(key, saveKey(key));
+                    }
+                }
+                putAll(created);
+            } finally {
+                creationLock.unlock();
+            }
+        }
+    }
+
+    private int saveKey(String key) {
+        Optional<TsKvDictionary> tsKvDictionaryOptional = dictionaryRepository.findById(new TsKvDictionaryCompositeKey(key));
+        if (tsKvDictionaryOptional.isPresent()) {
+            return tsKvDictionaryOptional.get().getKeyId();
+        }
+        TsKvDictionary tsKvDictionary = new TsKvDictionary();
+        tsKvDictionary.setKey(key);
+        try {
+            return dictionaryRepository.save(tsKvDictionary).getKeyId();
+        } catch (ConstraintViolationException e) {
+            tsKvDictionaryOptional = dictionaryRepository.findById(new TsKvDictionaryCompositeKey(key));
+            return tsKvDictionaryOptional.orElseThrow(() -> new RuntimeException("Failed to get TsKvDictionary entity from DB!")).getKeyId();
+        }
+    }
+
+    private void putAll(Map<String, Integer> entries) {
+        entries.forEach(this::put);
+    }
+
+    private void put(String key, int keyId) {
+        keyIds.put(key, keyId);
+        keysById.put(keyId, key);
+    }
+
+    private void preload() {
+        synchronized (preloadLock) {
+            if (preloaded) {
+                return;
+            }
+            try {
+                Map<String, Integer> entries = new HashMap<>();
+                dictionaryRepository.findAll().forEach(dictionary -> entries.put(dictionary.getKey(), dictionary.getKeyId()));
+                putAll(entries);
+                preloaded = true;
+                log.info("Preloaded {} timeseries dictionary keys", entries.size());
+            } catch (Exception e) {
+                log.debug("Failed to preload timeseries dictionary, will retry on the first lookup", e);
+            }
+        }
+    }
+}
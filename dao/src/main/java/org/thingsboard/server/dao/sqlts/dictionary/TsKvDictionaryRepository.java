@@ -20,6 +20,8 @@ import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionary;
 import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionaryCompositeKey;
 import org.thingsboard.server.dao.util.SqlTsOrTsLatestAnyDao;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @SqlTsOrTsLatestAnyDao
@@ -27,4 +29,6 @@ public interface TsKvDictionaryRepository extends CrudRepository<TsKvDictionary,
 
     Optional<TsKvDictionary> findByKeyId(int keyId);
 
+    List<TsKvDictionary> findAllByKeyIn(Collection<String> keys);
+
 }
\ No newline at end of file
@@ -22,7 +22,7 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.thingsboard.server.dao.model.sqlts.latest.TsKvLatestEntity;
-import org.thingsboard.server.dao.sqlts.insert.AbstractInsertRepository;
+import org.thingsboard.server.dao.sqlts.insert.psql.AbstractPsqlCopyInsertRepository;
 import org.thingsboard.server.dao.sqlts.insert.latest.InsertLatestTsRepository;
 import org.thingsboard.server.dao.util.PsqlTsLatestAnyDao;
 
@@ -36,11 +36,14 @@ import java.util.List;
 @PsqlTsLatestAnyDao
 @Repository
 @Transactional
-public class PsqlLatestInsertTsRepository extends AbstractInsertRepository implements InsertLatestTsRepository {
+public class PsqlLatestInsertTsRepository extends AbstractPsqlCopyInsertRepository implements InsertLatestTsRepository {
 
     @Value("${sql.ts_latest.update_by_latest_ts:true}")
     private Boolean updateByLatestTs;
 
+    @Value("${sql.ts_latest.copy_threshold:0}")
+    private int copyThreshold;
+
     private static final String BATCH_UPDATE =
             "UPDATE ts_kv_latest SET ts = ?, bool_v = ?, str_v = ?, long_v = ?, dbl_v = ?, json_v = cast(? AS json) WHERE entity_id = ? AND key = ?";
 
@@ -52,8 +55,28 @@ public class PsqlLatestInsertTsRepository extends AbstractInsertRepository imple
 
     private static final String INSERT_OR_UPDATE_BY_LATEST_TS = INSERT_OR_UPDATE + " WHERE ts_kv_latest.ts <= ?";
 
+    private static final String STAGING_TABLE = "ts_kv_latest_copy";
+
+    private static final String MERGE_FROM_STAGING_TABLE_PREFIX =
+            "INSERT INTO ts_kv_latest (entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v) " +
+                    "SELECT DISTINCT ON (entity_id, key) entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v FROM " + STAGING_TABLE;
+
+    private static final String MERGE_FROM_STAGING_TABLE_ON_CONFLICT =
+            " ON CONFLICT (entity_id, key) DO UPDATE SET ts = excluded.ts, bool_v = excluded.bool_v, str_v = excluded.str_v, " +
+                    "long_v = excluded.long_v, dbl_v = excluded.dbl_v, json_v = excluded.json_v";
+
+    private static final String MERGE_FROM_STAGING_TABLE = MERGE_FROM_STAGING_TABLE_PREFIX +
+            " ORDER BY entity_id, key, seq DESC" + MERGE_FROM_STAGING_TABLE_ON_CONFLICT;
+
+    private static final String MERGE_FROM_STAGING_TABLE_BY_LATEST_TS = MERGE_FROM_STAGING_TABLE_PREFIX +
+            " ORDER BY entity_id, key, ts DESC, seq DESC" + MERGE_FROM_STAGING_TABLE_ON_CONFLICT + " WHERE ts_kv_latest.ts <= excluded.ts";
+
     @Override
     public void saveOrUpdate(List<TsKvLatestEntity> entities) {
+        if (copyThreshold > 0 && entities.size() >= copyThreshold) {
+            saveOrUpdateWithCopy(entities);
+            return;
+        }
         transactionTemplate.execute(new TransactionCallbackWithoutResult() {
             @Override
             protected void doInTransactionWithoutResult(TransactionStatus status) {
@@ -167,4 +190,14 @@ public class PsqlLatestInsertTsRepository extends AbstractInsertRepository imple
             }
         });
     }
+
+    private void saveOrUpdateWithCopy(List<TsKvLatestEntity> entities) {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                copyToStagingTable(STAGING_TABLE, entities);
+                jdbcTemplate.update(updateByLatestTs ? MERGE_FROM_STAGING_TABLE_BY_LATEST_TS : MERGE_FROM_STAGING_TABLE);
+            }
+        });
+    }
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert.psql;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.thingsboard.server.dao.model.sql.AbstractTsKvEntity;
+import org.thingsboard.server.dao.sqlts.insert.AbstractInsertRepository;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base repository for the bulk insert of the timeseries rows using the PostgreSQL binary COPY protocol.
+ * <p>
+ * Rows are streamed into the temporary staging table that is cleared on commit,
+ * then merged into the target table with a single INSERT ... SELECT ... ON CONFLICT statement.
+ * The staging table is created once per database connection, since temporary tables live as long as the connection.
+ * Must be called within the transaction.
+ */
+@Repository
+public abstract class AbstractPsqlCopyInsertRepository extends AbstractInsertRepository {
+
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final int COPY_BUFFER_SIZE = 65536;
+    private static final short COPY_FIELDS_COUNT = 9;
+
+    protected static final String STAGING_TABLE_COLUMNS = "(seq int, entity_id uuid, key int, ts bigint, bool_v boolean, " +
+            "str_v varchar(10000000), long_v bigint, dbl_v double precision, json_v json) ON COMMIT DELETE ROWS";
+
+    protected static final String COPY_COLUMNS = "(seq, entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v)";
+
+    // Keyed by the physical connection, so the entries are dropped together with the closed pool connections
+    private final Map<PGConnection, Set<String>> stagingTablesByConnection = Collections.synchronizedMap(new WeakHashMap<>());
+
+    protected void copyToStagingTable(String stagingTable, List<? extends AbstractTsKvEntity> entities) {
+        String copySql = "COPY " + stagingTable + " " + COPY_COLUMNS + " FROM STDIN (FORMAT BINARY)";
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            createStagingTableIfNotExists(connection, pgConnection, stagingTable);
+            PGCopyOutputStream copyOut = new PGCopyOutputStream(pgConnection, copySql, COPY_BUFFER_SIZE);
+            try {
+                DataOutputStream out = new DataOutputStream(copyOut);
+                writeHeader(out);
+                for (int i = 0; i < entities.size(); i++) {
+                    writeRow(out, i, entities.get(i));
+                }
+                out.writeShort(-1);
+                out.flush();
+                copyOut.endCopy();
+            } catch (IOException e) {
+                throw new SQLException("Failed to copy entities to " + stagingTable, e);
+            } finally {
+                if (copyOut.isActive()) {
+                    copyOut.cancelCopy();
+                }
+            }
+            return null;
+        });
+    }
+
+    private void createStagingTableIfNotExists(Connection connection, PGConnection pgConnection, String stagingTable) throws SQLException {
+        Set<String> stagingTables = stagingTablesByConnection.computeIfAbsent(pgConnection, c -> ConcurrentHashMap.newKeySet());
+        if (!stagingTables.add(stagingTable)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TEMP TABLE IF NOT EXISTS " + stagingTable + " " + STAGING_TABLE_COLUMNS);
+        } catch (SQLException e) {
+            stagingTables.remove(stagingTable);
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // The table is created within the transaction and disappears if the transaction is rolled back
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                        stagingTables.remove(stagingTable);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(COPY_SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    private void writeRow(DataOutputStream out, int seq, AbstractTsKvEntity entity) throws IOException {
+        out.writeShort(COPY_FIELDS_COUNT);
+        out.writeInt(4);
+        out.writeInt(seq);
+        writeUuid(out, entity.getEntityId());
+        out.writeInt(4);
+        out.writeInt(entity.getKey());
+        out.writeInt(8);
+        out.writeLong(entity.getTs());
+        if (entity.getBooleanValue() != null) {
+            out.writeInt(1);
+            out.writeBoolean(entity.getBooleanValue());
+        } else {
+            out.writeInt(-1);
+        }
+        writeString(out, replaceNullChars(entity.getStrValue()));
+        if (entity.getLongValue() != null) {
+            out.writeInt(8);
+            out.writeLong(entity.getLongValue());
+        } else {
+            out.writeInt(-1);
+        }
+        if (entity.getDoubleValue() != null) {
+            out.writeInt(8);
+            out.writeDouble(entity.getDoubleValue());
+        } else {
+            out.writeInt(-1);
+        }
+        writeString(out, replaceNullChars(entity.getJsonValue()));
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeInt(16);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeInt(-1);
+        }
+    }
+}
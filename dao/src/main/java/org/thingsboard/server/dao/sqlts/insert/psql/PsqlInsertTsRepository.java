@@ -15,11 +15,11 @@
  */
 package org.thingsboard.server.dao.sqlts.insert.psql;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
-import org.thingsboard.server.dao.sqlts.insert.AbstractInsertRepository;
 import org.thingsboard.server.dao.sqlts.insert.InsertTsRepository;
 import org.thingsboard.server.dao.util.PsqlDao;
 import org.thingsboard.server.dao.util.SqlTsDao;
@@ -33,13 +33,27 @@ import java.util.List;
 @PsqlDao
 @Repository
 @Transactional
-public class PsqlInsertTsRepository extends AbstractInsertRepository implements InsertTsRepository<TsKvEntity> {
+public class PsqlInsertTsRepository extends AbstractPsqlCopyInsertRepository implements InsertTsRepository<TsKvEntity> {
+
+    private static final String STAGING_TABLE = "ts_kv_copy";
+
+    private static final String MERGE_FROM_STAGING_TABLE = "INSERT INTO ts_kv (entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v) " +
+            "SELECT DISTINCT ON (entity_id, key, ts) entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v FROM " + STAGING_TABLE + " ORDER BY entity_id, key, ts, seq DESC " +
+            "ON CONFLICT (entity_id, key, ts) DO UPDATE SET bool_v = excluded.bool_v, str_v = excluded.str_v, long_v = excluded.long_v, dbl_v = excluded.dbl_v, json_v = excluded.json_v;";
 
     private static final String INSERT_ON_CONFLICT_DO_UPDATE = "INSERT INTO ts_kv (entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v) VALUES (?, ?, ?, ?, ?, ?, ?, cast(? AS json)) " +
             "ON CONFLICT (entity_id, key, ts) DO UPDATE SET bool_v = ?, str_v = ?, long_v = ?, dbl_v = ?, json_v = cast(? AS json);";
 
+    @Value("${sql.ts.copy_threshold:0}")
+    private int copyThreshold;
+
     @Override
     public void saveOrUpdate(List<TsKvEntity> entities) {
+        if (copyThreshold > 0 && entities.size() >= copyThreshold) {
+            copyToStagingTable(STAGING_TABLE, entities);
+            jdbcTemplate.update(MERGE_FROM_STAGING_TABLE);
+            return;
+        }
         jdbcTemplate.batchUpdate(INSERT_ON_CONFLICT_DO_UPDATE, new BatchPreparedStatementSetter() {
             @Override
             public void setValues(PreparedStatement ps, int i) throws SQLException {
@@ -0,0 +1,280 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.latest;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.AtomicDouble;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.dao.sql.ScheduledLogExecutorComponent;
+import org.thingsboard.server.dao.util.SqlTsLatestAnyDao;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Write-through cache of the latest timeseries values, grouped by entity and keyed by the key id inside the entity.
+ * <p>
+ * The cache is bounded by the estimated memory footprint. Only entities accepted by the cacheable filter are cached,
+ * so in the cluster mode the filter should accept entities from the partitions of the current node only,
+ * and the cache should be invalidated on partition change. Writes made by other nodes must be reported
+ * to the node that owns the entity, which evicts it with {@link #evict(EntityId)}.
+ * <p>
+ * Values loaded from the database are put with the version read before the query. Each eviction bumps the version
+ * of the entity stripe and {@link #invalidateAll()} bumps the version of all entities, so a load that raced
+ * with an eviction can't put back the value it read before the eviction.
+ */
+@Slf4j
+@Component
+@SqlTsLatestAnyDao
+public class TsKvLatestCache {
+
+    private static final int ENTITY_OVERHEAD_BYTES = 128;
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+    private static final int VERSION_STRIPES = 1024;
+
+    @Value("${sql.ts_latest.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sql.ts_latest.cache.max_size_mb:256}")
+    private long maxSizeMb;
+
+    @Value("${sql.ts_latest.cache.expire_after_write_ms:3600000}")
+    private long expireAfterWriteMs;
+
+    @Value("${sql.ts_latest.cache.stats_print_interval_ms:60000}")
+    private long statsPrintIntervalMs;
+
+    @Value("${sql.ts_latest.update_by_latest_ts:true}")
+    private boolean updateByLatestTs;
+
+    @Autowired
+    private StatsFactory statsFactory;
+
+    @Autowired
+    private ScheduledLogExecutorComponent logExecutor;
+
+    private Cache<UUID, EntityLatest> cache;
+    private volatile BiPredicate<TenantId, EntityId> cacheableFilter = (tenantId, entityId) -> true;
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicLongArray stripeVersions = new AtomicLongArray(VERSION_STRIPES);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private AtomicDouble hitRatio;
+    private AtomicLong entitiesCount;
+    private AtomicLong memoryBytes;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxSizeMb * 1024 * 1024)
+                .weigher((UUID entityId, EntityLatest latest) -> latest.weight)
+                .expireAfterWrite(expireAfterWriteMs, TimeUnit.MILLISECONDS)
+                .build();
+        hitRatio = statsFactory.createGauge("tsLatestCache.hitRatio", new AtomicDouble());
+        entitiesCount = statsFactory.createGauge("tsLatestCache.entities", new AtomicLong());
+        memoryBytes = statsFactory.createGauge("tsLatestCache.memoryBytes", new AtomicLong());
+        logExecutor.scheduleAtFixedRate(this::updateStats, statsPrintIntervalMs, statsPrintIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setCacheableFilter(BiPredicate<TenantId, EntityId> cacheableFilter) {
+        this.cacheableFilter = cacheableFilter;
+    }
+
+    public void invalidateAll() {
+        if (enabled) {
+            epoch.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return version of the entity to read before loading its values from the database and pass to the put methods
+     */
+    public long getVersion(EntityId entityId) {
+        return epoch.get() + stripeVersions.get(stripe(entityId));
+    }
+
+    /**
+     * @return cached latest value of the key, {@link Optional#empty()} if all keys of the entity are cached and the key has no value,
+     * or null in case of cache miss
+     */
+    public Optional<TsKvEntry> find(TenantId tenantId, EntityId entityId, int keyId) {
+        if (!isCacheable(tenantId, entityId)) {
+            return null;
+        }
+        EntityLatest latest = cache.getIfPresent(entityId.getId());
+        if (latest != null) {
+            TsKvEntry entry = latest.values.get(keyId);
+            if (entry != null || latest.allKeysLoaded) {
+                hits.increment();
+                return Optional.ofNullable(entry);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @return cached latest values of all keys of the entity or null if not all keys of the entity are cached
+     */
+    public List<TsKvEntry> findAll(TenantId tenantId, EntityId entityId) {
+        if (!isCacheable(tenantId, entityId)) {
+            return null;
+        }
+        EntityLatest latest = cache.getIfPresent(entityId.getId());
+        if (latest != null && latest.allKeysLoaded) {
+            hits.increment();
+            return new ArrayList<>(latest.values.values());
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Puts the value loaded from the database. Does not override the value put by the concurrent save
+     * and ignores the value if the entity was evicted after the version was read.
+     */
+    public void putLoaded(TenantId tenantId, EntityId entityId, long version, int keyId, TsKvEntry entry) {
+        if (isCacheable(tenantId, entityId)) {
+            cache.asMap().compute(entityId.getId(), (id, latest) -> {
+                if (version != getVersion(entityId)) {
+                    return latest;
+                }
+                if (latest == null) {
+                    latest = new EntityLatest();
+                }
+                latest.putIfAbsent(keyId, entry);
+                return latest;
+            });
+        }
+    }
+
+    /**
+     * Puts the values of all keys of the entity loaded from the database. Does not override the values put by the concurrent save
+     * and ignores the values if the entity was evicted after the version was read.
+     */
+    public void putAllLoaded(TenantId tenantId, EntityId entityId, long version, Map<Integer, TsKvEntry> entries) {
+        if (isCacheable(tenantId, entityId)) {
+            cache.asMap().compute(entityId.getId(), (id, latest) -> {
+                if (version != getVersion(entityId)) {
+                    return latest;
+                }
+                if (latest == null) {
+                    latest = new EntityLatest();
+                }
+                entries.forEach(latest::putIfAbsent);
+                latest.allKeysLoaded = true;
+                return latest;
+            });
+        }
+    }
+
+    public void onSave(TenantId tenantId, EntityId entityId, int keyId, TsKvEntry entry) {
+        if (isCacheable(tenantId, entityId)) {
+            cache.asMap().compute(entityId.getId(), (id, latest) -> {
+                if (latest == null) {
+                    latest = new EntityLatest();
+                }
+                latest.put(keyId, entry, updateByLatestTs);
+                return latest;
+            });
+        }
+    }
+
+    public void evict(EntityId entityId) {
+        if (enabled) {
+            stripeVersions.incrementAndGet(stripe(entityId));
+            cache.invalidate(entityId.getId());
+        }
+    }
+
+    private static int stripe(EntityId entityId) {
+        return (entityId.getId().hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+    }
+
+    private boolean isCacheable(TenantId tenantId, EntityId entityId) {
+        return enabled && cacheableFilter.test(tenantId, entityId);
+    }
+
+    private void updateStats() {
+        long hitsCount = hits.sumThenReset();
+        long missesCount = misses.sumThenReset();
+        long total = hitsCount + missesCount;
+        hitRatio.set(total > 0 ? (double) hitsCount / total : 0.0);
+        entitiesCount.set(cache.estimatedSize());
+        memoryBytes.set(cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        if (total > 0) {
+            log.info("Latest timeseries cache: hits [{}] misses [{}] hitRatio [{}] entities [{}] memoryBytes [{}]",
+                    hitsCount, missesCount, hitRatio.get(), entitiesCount.get(), memoryBytes.get());
+        }
+    }
+
+    private static int estimateSize(TsKvEntry entry) {
+        int chars = entry.getKey().length() + entry.getStrValue().map(String::length).orElse(0) + entry.getJsonValue().map(String::length).orElse(0);
+        return ENTRY_OVERHEAD_BYTES + 2 * chars;
+    }
+
+    /**
+     * Modified only inside of the cache compute, so the weight is recalculated by the cache on each update.
+     */
+    private static class EntityLatest {
+        private final ConcurrentMap<Integer, TsKvEntry> values = new ConcurrentHashMap<>();
+        private volatile boolean allKeysLoaded;
+        private int weight = ENTITY_OVERHEAD_BYTES;
+
+        void putIfAbsent(int keyId, TsKvEntry entry) {
+            if (values.putIfAbsent(keyId, entry) == null) {
+                weight += estimateSize(entry);
+            }
+        }
+
+        void put(int keyId, TsKvEntry entry, boolean updateByLatestTs) {
+            TsKvEntry old = values.get(keyId);
+            if (old != null && updateByLatestTs && old.getTs() > entry.getTs()) {
+                return;
+            }
+            values.put(keyId, entry);
+            weight += estimateSize(entry) - (old != null ? estimateSize(old) : 0);
+        }
+    }
+}
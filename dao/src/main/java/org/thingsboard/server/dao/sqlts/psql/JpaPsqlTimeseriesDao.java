@@ -29,7 +29,9 @@ import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
 import org.thingsboard.server.dao.sqlts.AbstractChunkedAggregationTimeseriesDao;
+import org.thingsboard.server.dao.sqlts.block.TsKvBlockService;
 import org.thingsboard.server.dao.sqlts.insert.psql.PsqlPartitioningRepository;
+import org.thingsboard.server.dao.sqlts.rollup.TsKvRollupService;
 import org.thingsboard.server.dao.timeseries.PsqlPartition;
 import org.thingsboard.server.dao.timeseries.SqlTsPartitionDate;
 import org.thingsboard.server.dao.util.PsqlDao;
@@ -61,6 +63,12 @@ public class JpaPsqlTimeseriesDao extends AbstractChunkedAggregationTimeseriesDa
     @Autowired
     private PsqlPartitioningRepository partitioningRepository;
 
+    @Autowired
+    private TsKvBlockService blockService;
+
+    @Autowired
+    private TsKvRollupService rollupService;
+
     private SqlTsPartitionDate tsFormat;
 
     @Value("${sql.postgres.ts_key_value_partitioning:MONTHS}")
@@ -101,6 +109,12 @@ public class JpaPsqlTimeseriesDao extends AbstractChunkedAggregationTimeseriesDa
     @Override
     public void cleanup(long systemTtl) {
         cleanupPartitions(systemTtl);
+        if (blockService.isEnabled()) {
+            blockService.cleanup(systemTtl);
+        }
+        if (rollupService.isEnabled()) {
+            rollupService.cleanup(systemTtl);
+        }
         super.cleanup(systemTtl);
     }
 
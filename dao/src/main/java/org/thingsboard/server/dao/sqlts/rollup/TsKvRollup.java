@@ -0,0 +1,152 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.rollup;
+
+import lombok.Data;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+
+/**
+ * Partial aggregate of the time series points. Aggregates of the adjacent intervals are merged
+ * and converted to the result of the aggregation query with the semantics of {@link org.thingsboard.server.dao.sqlts.ts.TsKvRepository}.
+ */
+@Data
+public class TsKvRollup {
+
+    private long booleanCount;
+    private long strCount;
+    private long jsonCount;
+    private long longCount;
+    private long doubleCount;
+    private long longSum;
+    private double doubleSum;
+    private Long longMin;
+    private Long longMax;
+    private Double doubleMin;
+    private Double doubleMax;
+
+    /**
+     * Adds the point to the rollup. String values are counted only, same as in the rollups computed by the database.
+     */
+    public void add(TsKvEntry point) {
+        switch (point.getDataType()) {
+            case BOOLEAN:
+                booleanCount++;
+                break;
+            case STRING:
+                strCount++;
+                break;
+            case JSON:
+                jsonCount++;
+                break;
+            case LONG:
+                longCount++;
+                long longValue = point.getLongValue().orElse(0L);
+                longSum += longValue;
+                longMin = min(longMin, longValue);
+                longMax = max(longMax, longValue);
+                break;
+            case DOUBLE:
+                doubleCount++;
+                double doubleValue = point.getDoubleValue().orElse(0.0);
+                doubleSum += doubleValue;
+                doubleMin = min(doubleMin, doubleValue);
+                doubleMax = max(doubleMax, doubleValue);
+                break;
+        }
+    }
+
+    public void merge(TsKvRollup other) {
+        booleanCount += other.booleanCount;
+        strCount += other.strCount;
+        jsonCount += other.jsonCount;
+        longCount += other.longCount;
+        doubleCount += other.doubleCount;
+        longSum += other.longSum;
+        doubleSum += other.doubleSum;
+        longMin = min(longMin, other.longMin);
+        longMax = max(longMax, other.longMax);
+        doubleMin = min(doubleMin, other.doubleMin);
+        doubleMax = max(doubleMax, other.doubleMax);
+    }
+
+    /**
+     * String values are not stored in the rollups, so MIN and MAX of the string keys are computed from the raw data.
+     */
+    public boolean isSupported(Aggregation aggregation) {
+        return strCount == 0 || (aggregation != Aggregation.MIN && aggregation != Aggregation.MAX);
+    }
+
+    public TsKvEntity toTsKvEntity(Aggregation aggregation) {
+        TsKvEntity entity = new TsKvEntity();
+        if (booleanCount + strCount + jsonCount + longCount + doubleCount == 0) {
+            return entity;
+        }
+        switch (aggregation) {
+            case COUNT:
+                if (booleanCount != 0) {
+                    entity.setLongValue(booleanCount);
+                } else if (strCount != 0) {
+                    entity.setLongValue(strCount);
+                } else if (jsonCount != 0) {
+                    entity.setLongValue(jsonCount);
+                } else {
+                    entity.setLongValue(longCount + doubleCount);
+                }
+                break;
+            case SUM:
+                if (doubleCount > 0) {
+                    entity.setDoubleValue(doubleSum + longSum);
+                } else {
+                    entity.setLongValue(longSum);
+                }
+                break;
+            case AVG:
+                long count = longCount + doubleCount;
+                entity.setDoubleValue(count > 0 ? (doubleSum + longSum) / count : 0.0);
+                break;
+            case MIN:
+            case MAX:
+                boolean max = aggregation == Aggregation.MAX;
+                if (longCount > 0 && doubleCount > 0) {
+                    entity.setDoubleValue(max ? Math.max(doubleMax, longMax.doubleValue()) : Math.min(doubleMin, longMin.doubleValue()));
+                } else if (doubleCount > 0) {
+                    entity.setDoubleValue(max ? doubleMax : doubleMin);
+                } else if (longCount > 0) {
+                    entity.setLongValue(max ? longMax : longMin);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Not supported aggregation type: " + aggregation);
+        }
+        return entity;
+    }
+
+    private static <T extends Comparable<T>> T min(T a, T b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static <T extends Comparable<T>> T max(T a, T b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) >= 0 ? a : b;
+    }
+}
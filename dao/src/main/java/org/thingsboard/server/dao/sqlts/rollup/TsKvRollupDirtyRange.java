@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.rollup;
+
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * Interval of the raw data of the key changed since the rollups were computed. Saved timeseries mark their minute,
+ * deleted timeseries mark the whole deleted interval.
+ */
+@Data
+public class TsKvRollupDirtyRange {
+
+    private final UUID entityId;
+    private final int key;
+    private final long startTs;
+    private final long endTs;
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.rollup;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+public enum TsKvRollupGranularity {
+
+    MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    HOUR(TimeUnit.HOURS.toMillis(1)),
+    DAY(TimeUnit.DAYS.toMillis(1));
+
+    @Getter
+    private final long durationMs;
+
+    TsKvRollupGranularity(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    /**
+     * Granularity of the rollups the current granularity is computed from, null for the raw data.
+     */
+    public TsKvRollupGranularity getSource() {
+        switch (this) {
+            case HOUR:
+                return MINUTE;
+            case DAY:
+                return HOUR;
+            default:
+                return null;
+        }
+    }
+
+    public long truncate(long ts) {
+        return ts - Math.floorMod(ts, durationMs);
+    }
+}
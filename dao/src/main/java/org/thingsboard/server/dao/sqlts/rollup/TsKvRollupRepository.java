@@ -0,0 +1,325 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.rollup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.thingsboard.server.dao.util.PsqlDao;
+import org.thingsboard.server.dao.util.SqlTsDao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Repository
+@PsqlDao
+@SqlTsDao
+public class TsKvRollupRepository {
+
+    private static final String CREATE_ROLLUP_TABLE = "CREATE TABLE IF NOT EXISTS ts_kv_rollup (" +
+            "entity_id uuid NOT NULL, key int NOT NULL, granularity bigint NOT NULL, ts bigint NOT NULL, " +
+            "bool_count bigint NOT NULL, str_count bigint NOT NULL, json_count bigint NOT NULL, long_count bigint NOT NULL, dbl_count bigint NOT NULL, " +
+            "long_sum bigint NOT NULL, dbl_sum double precision NOT NULL, long_min bigint, long_max bigint, dbl_min double precision, dbl_max double precision, " +
+            "CONSTRAINT ts_kv_rollup_pkey PRIMARY KEY (entity_id, key, granularity, ts));";
+
+    private static final String CREATE_STATE_TABLE = "CREATE TABLE IF NOT EXISTS ts_kv_rollup_state (" +
+            "name varchar(255) NOT NULL, value bigint NOT NULL, CONSTRAINT ts_kv_rollup_state_pkey PRIMARY KEY (name));";
+
+    private static final String CREATE_DIRTY_TABLE = "CREATE TABLE IF NOT EXISTS ts_kv_rollup_dirty (" +
+            "entity_id uuid NOT NULL, key int NOT NULL, start_ts bigint NOT NULL, end_ts bigint NOT NULL, version bigint NOT NULL DEFAULT 0, " +
+            "CONSTRAINT ts_kv_rollup_dirty_pkey PRIMARY KEY (entity_id, key, start_ts, end_ts));";
+
+    private static final String MARK_DIRTY = "INSERT INTO ts_kv_rollup_dirty (entity_id, key, start_ts, end_ts) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (entity_id, key, start_ts, end_ts) DO UPDATE SET version = ts_kv_rollup_dirty.version + 1;";
+
+    private static final String LOCK_DIRTY = "SELECT entity_id, key, start_ts, end_ts FROM ts_kv_rollup_dirty LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String FIND_DIRTY = "SELECT entity_id, key, start_ts, end_ts FROM ts_kv_rollup_dirty " +
+            "WHERE entity_id = ? AND key = ? AND start_ts < ? AND end_ts > ?";
+
+    private static final String DELETE_DIRTY = "DELETE FROM ts_kv_rollup_dirty WHERE entity_id = ? AND key = ? AND start_ts = ? AND end_ts = ?";
+
+    private static final String INSERT_STATE = "INSERT INTO ts_kv_rollup_state (name, value) VALUES (?, ?) ON CONFLICT (name) DO NOTHING;";
+
+    private static final String FIND_STATE = "SELECT value FROM ts_kv_rollup_state WHERE name = ?";
+
+    private static final String ROLLUP_COLUMNS = "entity_id, key, granularity, ts, bool_count, str_count, json_count, long_count, dbl_count, " +
+            "long_sum, dbl_sum, long_min, long_max, dbl_min, dbl_max";
+
+    private static final String ON_CONFLICT_UPDATE = " ON CONFLICT (entity_id, key, granularity, ts) DO UPDATE SET " +
+            "bool_count = EXCLUDED.bool_count, str_count = EXCLUDED.str_count, json_count = EXCLUDED.json_count, " +
+            "long_count = EXCLUDED.long_count, dbl_count = EXCLUDED.dbl_count, long_sum = EXCLUDED.long_sum, dbl_sum = EXCLUDED.dbl_sum, " +
+            "long_min = EXCLUDED.long_min, long_max = EXCLUDED.long_max, dbl_min = EXCLUDED.dbl_min, dbl_max = EXCLUDED.dbl_max;";
+
+    private static final String RAW_AGGREGATES = "COUNT(t.bool_v) AS bool_count, COUNT(t.str_v) AS str_count, COUNT(t.json_v) AS json_count, " +
+            "COUNT(t.long_v) AS long_count, COUNT(t.dbl_v) AS dbl_count, COALESCE(SUM(t.long_v), 0) AS long_sum, COALESCE(SUM(t.dbl_v), 0.0) AS dbl_sum, " +
+            "MIN(t.long_v) AS long_min, MAX(t.long_v) AS long_max, MIN(t.dbl_v) AS dbl_min, MAX(t.dbl_v) AS dbl_max";
+
+    private static final String ROLLUP_AGGREGATES = "SUM(r.bool_count) AS bool_count, SUM(r.str_count) AS str_count, SUM(r.json_count) AS json_count, " +
+            "SUM(r.long_count) AS long_count, SUM(r.dbl_count) AS dbl_count, SUM(r.long_sum) AS long_sum, SUM(r.dbl_sum) AS dbl_sum, " +
+            "MIN(r.long_min) AS long_min, MAX(r.long_max) AS long_max, MIN(r.dbl_min) AS dbl_min, MAX(r.dbl_max) AS dbl_max";
+
+    private static final String DELETE_ROLLUP = "DELETE FROM ts_kv_rollup WHERE entity_id = ? AND key = ? AND granularity = ? AND ts = ?";
+
+    private static final String INSERT_ROLLUP_FROM_RAW = "INSERT INTO ts_kv_rollup (" + ROLLUP_COLUMNS + ") " +
+            "SELECT t.entity_id, t.key, ?, ?, " + RAW_AGGREGATES + " FROM ts_kv t " +
+            "WHERE t.entity_id = ? AND t.key = ? AND t.ts >= ? AND t.ts < ? GROUP BY t.entity_id, t.key" + ON_CONFLICT_UPDATE;
+
+    private static final String INSERT_ROLLUP_FROM_ROLLUP = "INSERT INTO ts_kv_rollup (" + ROLLUP_COLUMNS + ") " +
+            "SELECT r.entity_id, r.key, ?, ?, " + ROLLUP_AGGREGATES + " FROM ts_kv_rollup r " +
+            "WHERE r.entity_id = ? AND r.key = ? AND r.granularity = ? AND r.ts >= ? AND r.ts < ? GROUP BY r.entity_id, r.key" + ON_CONFLICT_UPDATE;
+
+    private static final String MERGE_ROLLUP = "INSERT INTO ts_kv_rollup (" + ROLLUP_COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (entity_id, key, granularity, ts) DO UPDATE SET " +
+            "bool_count = ts_kv_rollup.bool_count + EXCLUDED.bool_count, str_count = ts_kv_rollup.str_count + EXCLUDED.str_count, " +
+            "json_count = ts_kv_rollup.json_count + EXCLUDED.json_count, long_count = ts_kv_rollup.long_count + EXCLUDED.long_count, " +
+            "dbl_count = ts_kv_rollup.dbl_count + EXCLUDED.dbl_count, long_sum = ts_kv_rollup.long_sum + EXCLUDED.long_sum, " +
+            "dbl_sum = ts_kv_rollup.dbl_sum + EXCLUDED.dbl_sum, long_min = LEAST(ts_kv_rollup.long_min, EXCLUDED.long_min), " +
+            "long_max = GREATEST(ts_kv_rollup.long_max, EXCLUDED.long_max), dbl_min = LEAST(ts_kv_rollup.dbl_min, EXCLUDED.dbl_min), " +
+            "dbl_max = GREATEST(ts_kv_rollup.dbl_max, EXCLUDED.dbl_max);";
+
+    private static final String DELETE_COVERED_ROLLUPS = "DELETE FROM ts_kv_rollup " +
+            "WHERE entity_id = ? AND key = ? AND granularity = ? AND ts >= ? AND ts + granularity <= ?";
+
+    private static final String DELETE_EXPIRED_ROLLUPS = "DELETE FROM ts_kv_rollup WHERE ts + granularity <= ?";
+
+    private static final String FIND_ROLLUPS = "SELECT (r.ts - ?) / ? AS bucket, " + ROLLUP_AGGREGATES + " FROM ts_kv_rollup r " +
+            "WHERE r.entity_id = ? AND r.key = ? AND r.granularity = ? AND r.ts >= ? AND r.ts < ? AND (r.ts - ?) % ? <= ? GROUP BY bucket";
+
+    private static final String FIND_RAW_SEGMENTS = "SELECT s.start_ts AS segment_ts, " + RAW_AGGREGATES + " " +
+            "FROM unnest(?::bigint[], ?::bigint[]) AS s(start_ts, end_ts) " +
+            "JOIN ts_kv t ON t.entity_id = ? AND t.key = ? AND t.ts >= s.start_ts AND t.ts < s.end_ts GROUP BY s.start_ts";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void createTablesIfNotExist() {
+        jdbcTemplate.execute(CREATE_ROLLUP_TABLE);
+        jdbcTemplate.execute(CREATE_STATE_TABLE);
+        jdbcTemplate.execute(CREATE_DIRTY_TABLE);
+    }
+
+    /**
+     * Marks the ranges dirty. Must be called within the transaction that changes the raw data, before the change,
+     * so the ranges locked by the running recompute are marked again once it commits.
+     */
+    public void markDirty(List<TsKvRollupDirtyRange> ranges) {
+        jdbcTemplate.batchUpdate(MARK_DIRTY, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                TsKvRollupDirtyRange range = ranges.get(i);
+                ps.setObject(1, range.getEntityId());
+                ps.setInt(2, range.getKey());
+                ps.setLong(3, range.getStartTs());
+                ps.setLong(4, range.getEndTs());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ranges.size();
+            }
+        });
+    }
+
+    /**
+     * Locks up to limit dirty ranges skipping the ones locked by the other nodes. Must be called within the transaction.
+     */
+    public List<TsKvRollupDirtyRange> lockDirty(int limit) {
+        return jdbcTemplate.query(LOCK_DIRTY, (rs, rowNum) -> toDirtyRange(rs), limit);
+    }
+
+    /**
+     * Finds the dirty ranges of the key overlapping the [startTs, endTs) interval.
+     */
+    public List<TsKvRollupDirtyRange> findDirty(UUID entityId, int key, long startTs, long endTs) {
+        return jdbcTemplate.query(FIND_DIRTY, (rs, rowNum) -> toDirtyRange(rs), entityId, key, endTs, startTs);
+    }
+
+    public void deleteDirty(List<TsKvRollupDirtyRange> ranges) {
+        jdbcTemplate.batchUpdate(DELETE_DIRTY, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                TsKvRollupDirtyRange range = ranges.get(i);
+                ps.setObject(1, range.getEntityId());
+                ps.setInt(2, range.getKey());
+                ps.setLong(3, range.getStartTs());
+                ps.setLong(4, range.getEndTs());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ranges.size();
+            }
+        });
+    }
+
+    /**
+     * Saves the value of the state if it is absent and returns the persisted value.
+     */
+    public long getOrSaveState(String name, long defaultValue) {
+        jdbcTemplate.update(INSERT_STATE, name, defaultValue);
+        Long value = jdbcTemplate.queryForObject(FIND_STATE, Long.class, name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Recomputes the rollups of the buckets from the raw data or from the rollups of the source granularity.
+     */
+    public void recompute(TsKvRollupGranularity granularity, List<TsKvRollupBucket> buckets) {
+        long duration = granularity.getDurationMs();
+        TsKvRollupGranularity source = granularity.getSource();
+        jdbcTemplate.batchUpdate(DELETE_ROLLUP, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                TsKvRollupBucket bucket = buckets.get(i);
+                ps.setObject(1, bucket.getEntityId());
+                ps.setInt(2, bucket.getKey());
+                ps.setLong(3, duration);
+                ps.setLong(4, bucket.getTs());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return buckets.size();
+            }
+        });
+        jdbcTemplate.batchUpdate(source == null ? INSERT_ROLLUP_FROM_RAW : INSERT_ROLLUP_FROM_ROLLUP, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                TsKvRollupBucket bucket = buckets.get(i);
+                int idx = 1;
+                ps.setLong(idx++, duration);
+                ps.setLong(idx++, bucket.getTs());
+                ps.setObject(idx++, bucket.getEntityId());
+                ps.setInt(idx++, bucket.getKey());
+                if (source != null) {
+                    ps.setLong(idx++, source.getDurationMs());
+                }
+                ps.setLong(idx++, bucket.getTs());
+                ps.setLong(idx, bucket.getTs() + duration);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return buckets.size();
+            }
+        });
+    }
+
+    /**
+     * Adds the rollups to the existing ones of the buckets, used for the compacted points that are absent in the raw data.
+     */
+    public void merge(TsKvRollupGranularity granularity, Map<TsKvRollupBucket, TsKvRollup> rollups) {
+        List<Map.Entry<TsKvRollupBucket, TsKvRollup>> entries = new ArrayList<>(rollups.entrySet());
+        jdbcTemplate.batchUpdate(MERGE_ROLLUP, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                TsKvRollupBucket bucket = entries.get(i).getKey();
+                TsKvRollup rollup = entries.get(i).getValue();
+                ps.setObject(1, bucket.getEntityId());
+                ps.setInt(2, bucket.getKey());
+                ps.setLong(3, granularity.getDurationMs());
+                ps.setLong(4, bucket.getTs());
+                ps.setLong(5, rollup.getBooleanCount());
+                ps.setLong(6, rollup.getStrCount());
+                ps.setLong(7, rollup.getJsonCount());
+                ps.setLong(8, rollup.getLongCount());
+                ps.setLong(9, rollup.getDoubleCount());
+                ps.setLong(10, rollup.getLongSum());
+                ps.setDouble(11, rollup.getDoubleSum());
+                ps.setObject(12, rollup.getLongMin(), Types.BIGINT);
+                ps.setObject(13, rollup.getLongMax(), Types.BIGINT);
+                ps.setObject(14, rollup.getDoubleMin(), Types.DOUBLE);
+                ps.setObject(15, rollup.getDoubleMax(), Types.DOUBLE);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return entries.size();
+            }
+        });
+    }
+
+    public void deleteCovered(UUID entityId, int key, TsKvRollupGranularity granularity, long startTs, long endTs) {
+        jdbcTemplate.update(DELETE_COVERED_ROLLUPS, entityId, key, granularity.getDurationMs(), startTs, endTs);
+    }
+
+    public int deleteExpired(long expirationTs) {
+        return jdbcTemplate.update(DELETE_EXPIRED_ROLLUPS, expirationTs);
+    }
+
+    /**
+     * Aggregates the rollups in the [startTs, endTs) interval by the buckets of the query interval starting at the queryStartTs.
+     * Rollups crossing the bucket boundary are skipped. Returns the aggregates by the bucket start timestamp.
+     */
+    public Map<Long, TsKvRollup> findRollups(UUID entityId, int key, TsKvRollupGranularity granularity,
+                                             long startTs, long endTs, long queryStartTs, long interval) {
+        long duration = granularity.getDurationMs();
+        Map<Long, TsKvRollup> result = new HashMap<>();
+        jdbcTemplate.query(FIND_ROLLUPS, rs -> {
+            result.put(queryStartTs + rs.getLong("bucket") * interval, toRollup(rs));
+        }, queryStartTs, interval, entityId, key, duration, startTs, endTs, queryStartTs, interval, interval - duration);
+        return result;
+    }
+
+    /**
+     * Aggregates the raw data within the given segments. Returns the aggregates by the segment start timestamp.
+     */
+    public Map<Long, TsKvRollup> findRawSegments(UUID entityId, int key, Long[] segmentStarts, Long[] segmentEnds) {
+        Map<Long, TsKvRollup> result = new HashMap<>();
+        jdbcTemplate.query(FIND_RAW_SEGMENTS, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("bigint", segmentStarts));
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", segmentEnds));
+            ps.setObject(3, entityId);
+            ps.setInt(4, key);
+        }, rs -> {
+            result.put(rs.getLong("segment_ts"), toRollup(rs));
+        });
+        return result;
+    }
+
+    private static TsKvRollupDirtyRange toDirtyRange(ResultSet rs) throws SQLException {
+        return new TsKvRollupDirtyRange(rs.getObject("entity_id", UUID.class), rs.getInt("key"), rs.getLong("start_ts"), rs.getLong("end_ts"));
+    }
+
+    private static TsKvRollup toRollup(ResultSet rs) throws SQLException {
+        TsKvRollup rollup = new TsKvRollup();
+        rollup.setBooleanCount(rs.getLong("bool_count"));
+        rollup.setStrCount(rs.getLong("str_count"));
+        rollup.setJsonCount(rs.getLong("json_count"));
+        rollup.setLongCount(rs.getLong("long_count"));
+        rollup.setDoubleCount(rs.getLong("dbl_count"));
+        rollup.setLongSum(rs.getLong("long_sum"));
+        rollup.setDoubleSum(rs.getDouble("dbl_sum"));
+        long longMin = rs.getLong("long_min");
+        rollup.setLongMin(rs.wasNull() ? null : longMin);
+        long longMax = rs.getLong("long_max");
+        rollup.setLongMax(rs.wasNull() ? null : longMax);
+        double doubleMin = rs.getDouble("dbl_min");
+        rollup.setDoubleMin(rs.wasNull() ? null : doubleMin);
+        double doubleMax = rs.getDouble("dbl_max");
+        rollup.setDoubleMax(rs.wasNull() ? null : doubleMax);
+        return rollup;
+    }
+}
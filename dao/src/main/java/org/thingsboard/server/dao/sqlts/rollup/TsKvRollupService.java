@@ -0,0 +1,330 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.rollup;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
+import org.thingsboard.server.dao.model.sql.AbstractTsKvEntity;
+import org.thingsboard.server.dao.sqlts.block.TsKvBlockService;
+import org.thingsboard.server.dao.util.PsqlDao;
+import org.thingsboard.server.dao.util.SqlTsDao;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the minute, hour and day rollups of the time series.
+ * <p>
+ * Saved points mark their minutes and deleted points mark the deleted interval as dirty in the database, within the
+ * transaction that changes the raw data. The flush job of any node locks a batch of the dirty ranges, recomputes the
+ * minutes from the raw data and the compacted blocks, then the hours from the minutes and the days from the hours,
+ * and removes the ranges in the same transaction, so the recomputation is idempotent and survives the restarts.
+ * Rollups are complete for the data saved after {@link #getAvailableSinceTs()}, except for the buckets overlapping
+ * the dirty ranges returned by {@link #findDirtyBuckets}.
+ */
+@Component
+@Slf4j
+@PsqlDao
+@SqlTsDao
+public class TsKvRollupService {
+
+    private static final String AVAILABLE_SINCE_STATE = "available_since";
+
+    private static final Comparator<TsKvRollupDirtyRange> DIRTY_RANGE_COMPARATOR = Comparator.comparing(TsKvRollupDirtyRange::getEntityId)
+            .thenComparingInt(TsKvRollupDirtyRange::getKey)
+            .thenComparingLong(TsKvRollupDirtyRange::getStartTs);
+
+    @Value("${sql.ts.rollup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sql.ts.rollup.flush_interval_ms:10000}")
+    private long flushIntervalMs;
+
+    @Value("${sql.ts.rollup.batch_size:1000}")
+    private int batchSize;
+
+    @Autowired
+    private TsKvRollupRepository rollupRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired(required = false)
+    private TsKvBlockService blockService;
+
+    @Getter
+    private volatile long availableSinceTs = Long.MAX_VALUE;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            rollupRepository.createTablesIfNotExist();
+            long now = System.currentTimeMillis();
+            availableSinceTs = rollupRepository.getOrSaveState(AVAILABLE_SINCE_STATE, TsKvRollupGranularity.DAY.truncate(now) + TsKvRollupGranularity.DAY.getDurationMs());
+            scheduler = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("ts-kv-rollup"));
+            scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Marks the minutes of the entities dirty. Must be called within the transaction that saves the entities, before saving them.
+     */
+    public void onSaving(List<? extends AbstractTsKvEntity> entities) {
+        long duration = TsKvRollupGranularity.MINUTE.getDurationMs();
+        Set<TsKvRollupDirtyRange> ranges = new TreeSet<>(DIRTY_RANGE_COMPARATOR);
+        for (AbstractTsKvEntity entity : entities) {
+            long minuteTs = TsKvRollupGranularity.MINUTE.truncate(entity.getTs());
+            ranges.add(new TsKvRollupDirtyRange(entity.getEntityId(), entity.getKey(), minuteTs, minuteTs + duration));
+        }
+        rollupRepository.markDirty(new ArrayList<>(ranges));
+    }
+
+    /**
+     * Marks the deleted interval dirty. Must be called within the transaction that deletes the raw data, before deleting it.
+     * The covered rollups are removed by the flush job.
+     */
+    public void onDeleting(UUID entityId, int keyId, long startTs, long endTs) {
+        if (startTs < endTs) {
+            rollupRepository.markDirty(Collections.singletonList(new TsKvRollupDirtyRange(entityId, keyId, startTs, endTs)));
+        }
+    }
+
+    /**
+     * Returns the start timestamps of the query buckets overlapping the dirty ranges of the key in the [startTs, endTs) interval.
+     * The rollups of these buckets may be stale, so they are aggregated from the raw data.
+     */
+    public Set<Long> findDirtyBuckets(UUID entityId, int keyId, long startTs, long endTs, long interval) {
+        Set<Long> result = new HashSet<>();
+        for (TsKvRollupDirtyRange range : rollupRepository.findDirty(entityId, keyId, startTs, endTs)) {
+            long rangeEndTs = Math.min(range.getEndTs(), endTs);
+            long bucketStartTs = startTs + Math.floorDiv(Math.max(range.getStartTs(), startTs) - startTs, interval) * interval;
+            for (; bucketStartTs < rangeEndTs; bucketStartTs += interval) {
+                result.add(bucketStartTs);
+            }
+        }
+        return result;
+    }
+
+    public void cleanup(long systemTtl) {
+        if (systemTtl > 0) {
+            long expirationTs = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(systemTtl);
+            int deleted = rollupRepository.deleteExpired(expirationTs);
+            log.info("Total timeseries rollups removed by TTL: [{}]", deleted);
+        }
+    }
+
+    /**
+     * Returns the coarsest granularity suitable for the query buckets or null if the interval is less than a minute.
+     * Buckets not aligned to the granularity are completed with the raw data of their edges.
+     */
+    public TsKvRollupGranularity getGranularity(long startTs, long interval) {
+        TsKvRollupGranularity[] granularities = TsKvRollupGranularity.values();
+        for (int i = granularities.length - 1; i >= 0; i--) {
+            long duration = granularities[i].getDurationMs();
+            if (interval % duration == 0 && Math.floorMod(startTs, duration) == 0) {
+                return granularities[i];
+            }
+        }
+        return interval % TsKvRollupGranularity.MINUTE.getDurationMs() == 0 ? TsKvRollupGranularity.MINUTE : null;
+    }
+
+    /**
+     * Aggregates the [startTs, endTs) interval by the buckets of the given interval.
+     * The endTs must be the end of a bucket. Returns the aggregates by the bucket start timestamp, empty buckets are absent.
+     */
+    public Map<Long, TsKvRollup> findAggregates(UUID entityId, int keyId, TsKvRollupGranularity granularity, long startTs, long endTs, long interval) {
+        long duration = granularity.getDurationMs();
+        long alignedStartTs = granularity.truncate(startTs + duration - 1);
+        long alignedEndTs = granularity.truncate(endTs);
+        Map<Long, TsKvRollup> result = alignedStartTs < alignedEndTs ?
+                rollupRepository.findRollups(entityId, keyId, granularity, alignedStartTs, alignedEndTs, startTs, interval) : new HashMap<>();
+        if (alignedStartTs != startTs) {
+            List<Long> segmentStarts = new ArrayList<>();
+            List<Long> segmentEnds = new ArrayList<>();
+            for (long bucketStartTs = startTs; bucketStartTs < endTs; bucketStartTs += interval) {
+                long bucketEndTs = bucketStartTs + interval;
+                long headEndTs = Math.min(granularity.truncate(bucketStartTs + duration - 1), bucketEndTs);
+                long tailStartTs = Math.max(granularity.truncate(bucketEndTs), headEndTs);
+                if (bucketStartTs < headEndTs) {
+                    segmentStarts.add(bucketStartTs);
+                    segmentEnds.add(headEndTs);
+                }
+                if (tailStartTs < bucketEndTs) {
+                    segmentStarts.add(tailStartTs);
+                    segmentEnds.add(bucketEndTs);
+                }
+            }
+            Long[] starts = segmentStarts.toArray(new Long[0]);
+            Long[] ends = segmentEnds.toArray(new Long[0]);
+            Map<Long, TsKvRollup> segments = rollupRepository.findRawSegments(entityId, keyId, starts, ends);
+            mergeBlockSegments(entityId, keyId, starts, ends, segments);
+            segments.forEach((segmentStartTs, segment) -> {
+                long bucketStartTs = startTs + Math.floorDiv(segmentStartTs - startTs, interval) * interval;
+                result.merge(bucketStartTs, segment, (a, b) -> {
+                    a.merge(b);
+                    return a;
+                });
+            });
+        }
+        return result;
+    }
+
+    void flush() {
+        long flushStartTs = System.currentTimeMillis();
+        int recomputed = 0;
+        try {
+            int count;
+            do {
+                Integer batchCount = transactionTemplate.execute(status -> {
+                    List<TsKvRollupDirtyRange> ranges = rollupRepository.lockDirty(batchSize);
+                    if (!ranges.isEmpty()) {
+                        recompute(ranges);
+                        rollupRepository.deleteDirty(ranges);
+                    }
+                    return ranges.size();
+                });
+                count = batchCount != null ? batchCount : 0;
+                recomputed += count;
+            } while (count == batchSize && System.currentTimeMillis() - flushStartTs < flushIntervalMs && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            log.warn("Failed to recompute timeseries rollups", e);
+        }
+        if (recomputed > 0) {
+            log.debug("Recomputed {} dirty timeseries ranges in {} ms", recomputed, System.currentTimeMillis() - flushStartTs);
+        }
+    }
+
+    private void recompute(List<TsKvRollupDirtyRange> ranges) {
+        long minuteDuration = TsKvRollupGranularity.MINUTE.getDurationMs();
+        Set<TsKvRollupBucket> minuteSet = new LinkedHashSet<>();
+        for (TsKvRollupDirtyRange range : ranges) {
+            long startTs = range.getStartTs();
+            long endTs = range.getEndTs();
+            if (endTs - startTs != minuteDuration || TsKvRollupGranularity.MINUTE.truncate(startTs) != startTs) {
+                for (TsKvRollupGranularity granularity : TsKvRollupGranularity.values()) {
+                    rollupRepository.deleteCovered(range.getEntityId(), range.getKey(), granularity, startTs, endTs);
+                }
+            }
+            minuteSet.add(new TsKvRollupBucket(range.getEntityId(), range.getKey(), TsKvRollupGranularity.MINUTE.truncate(startTs)));
+            minuteSet.add(new TsKvRollupBucket(range.getEntityId(), range.getKey(), TsKvRollupGranularity.MINUTE.truncate(endTs - 1)));
+        }
+        List<TsKvRollupBucket> minutes = new ArrayList<>(minuteSet);
+        List<TsKvRollupBucket> hours = toParentBuckets(minutes, TsKvRollupGranularity.HOUR);
+        List<TsKvRollupBucket> days = toParentBuckets(hours, TsKvRollupGranularity.DAY);
+        rollupRepository.recompute(TsKvRollupGranularity.MINUTE, minutes);
+        mergeBlockMinutes(minutes);
+        rollupRepository.recompute(TsKvRollupGranularity.HOUR, hours);
+        rollupRepository.recompute(TsKvRollupGranularity.DAY, days);
+    }
+
+    /**
+     * Adds the compacted points to the minute rollups recomputed from the raw data.
+     */
+    private void mergeBlockMinutes(List<TsKvRollupBucket> minutes) {
+        if (!isBlockStorageEnabled()) {
+            return;
+        }
+        long blocksEndTs = blockService.getBlocksEndTs();
+        long duration = TsKvRollupGranularity.MINUTE.getDurationMs();
+        Map<TsKvRollupBucket, List<Long>> minutesByDay = new LinkedHashMap<>();
+        for (TsKvRollupBucket minute : minutes) {
+            if (minute.getTs() < blocksEndTs) {
+                TsKvRollupBucket day = new TsKvRollupBucket(minute.getEntityId(), minute.getKey(), TsKvRollupGranularity.DAY.truncate(minute.getTs()));
+                minutesByDay.computeIfAbsent(day, d -> new ArrayList<>()).add(minute.getTs());
+            }
+        }
+        Map<TsKvRollupBucket, TsKvRollup> rollups = new HashMap<>();
+        minutesByDay.forEach((day, minuteStarts) -> {
+            Set<Long> dirtyMinutes = new HashSet<>(minuteStarts);
+            long startTs = Collections.min(minuteStarts);
+            long endTs = Collections.max(minuteStarts) + duration;
+            blockService.processPoints(day.getEntityId(), day.getKey(), startTs, endTs, point -> {
+                long minuteTs = TsKvRollupGranularity.MINUTE.truncate(point.getTs());
+                if (dirtyMinutes.contains(minuteTs)) {
+                    rollups.computeIfAbsent(new TsKvRollupBucket(day.getEntityId(), day.getKey(), minuteTs), b -> new TsKvRollup()).add(point);
+                }
+            });
+        });
+        if (!rollups.isEmpty()) {
+            rollupRepository.merge(TsKvRollupGranularity.MINUTE, rollups);
+        }
+    }
+
+    /**
+     * Adds the compacted points to the aggregates of the raw segments.
+     */
+    private void mergeBlockSegments(UUID entityId, int keyId, Long[] starts, Long[] ends, Map<Long, TsKvRollup> segments) {
+        if (!isBlockStorageEnabled() || starts.length == 0 || starts[0] >= blockService.getBlocksEndTs()) {
+            return;
+        }
+        blockService.processPoints(entityId, keyId, starts[0], ends[ends.length - 1], point -> {
+            int idx = Arrays.binarySearch(starts, point.getTs());
+            if (idx < 0) {
+                idx = -idx - 2;
+            }
+            if (idx >= 0 && point.getTs() < ends[idx]) {
+                segments.computeIfAbsent(starts[idx], ts -> new TsKvRollup()).add(point);
+            }
+        });
+    }
+
+    private boolean isBlockStorageEnabled() {
+        return blockService != null && blockService.isEnabled();
+    }
+
+    private static List<TsKvRollupBucket> toParentBuckets(List<TsKvRollupBucket> buckets, TsKvRollupGranularity granularity) {
+        Set<TsKvRollupBucket> parents = new LinkedHashSet<>();
+        for (TsKvRollupBucket bucket : buckets) {
+            parents.add(new TsKvRollupBucket(bucket.getEntityId(), bucket.getKey(), granularity.truncate(bucket.getTs())));
+        }
+        return new ArrayList<>(parents);
+    }
+}
@@ -81,6 +81,8 @@ public class TimescaleTimeseriesDao extends AbstractSqlTimeseriesDao implements
                 .statsPrintIntervalMs(tsStatsPrintIntervalMs)
                 .statsNamePrefix("ts.timescale")
                 .batchSortEnabled(batchSortEnabled)
+                .adaptive(tsBatchAdaptive)
+                .ringBufferSize(tsRingBufferSize)
                 .build();
 
         Function<TimescaleTsKvEntity, Integer> hashcodeFunction = entity -> entity.getEntityId().hashCode();
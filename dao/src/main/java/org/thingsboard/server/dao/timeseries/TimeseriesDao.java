@@ -22,6 +22,7 @@ import org.thingsboard.server.common.data.kv.DeleteTsKvQuery;
 import org.thingsboard.server.common.data.kv.ReadTsKvQuery;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -40,4 +41,10 @@ public interface TimeseriesDao {
     ListenableFuture<Void> removePartition(TenantId tenantId, EntityId entityId, DeleteTsKvQuery query);
 
     void cleanup(long systemTtl);
+
+    /**
+     * Resolves the keys of the batch at once before the save, so the save of each entry does not need a separate lookup.
+     */
+    default void resolveKeys(Collection<String> keys) {
+    }
 }
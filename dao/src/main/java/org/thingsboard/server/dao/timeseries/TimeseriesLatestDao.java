@@ -22,6 +22,7 @@ import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.DeleteTsKvQuery;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface TimeseriesLatestDao {
@@ -37,4 +38,10 @@ public interface TimeseriesLatestDao {
     List<String> findAllKeysByDeviceProfileId(TenantId tenantId, DeviceProfileId deviceProfileId);
 
     List<String> findAllKeysByEntityIds(TenantId tenantId, List<EntityId> entityIds);
+
+    /**
+     * Resolves the keys of the batch at once before the save, so the save of each entry does not need a separate lookup.
+     */
+    default void resolveKeys(Collection<String> keys) {
+    }
 }
@@ -27,6 +27,62 @@ CREATE TABLE IF NOT EXISTS ts_kv
     CONSTRAINT ts_kv_pkey PRIMARY KEY (entity_id, key, ts)
 ) PARTITION BY RANGE (ts);
 
+CREATE TABLE IF NOT EXISTS ts_kv_block
+(
+    entity_id    uuid   NOT NULL,
+    key          int    NOT NULL,
+    block_ts     bigint NOT NULL,
+    start_ts     bigint NOT NULL,
+    end_ts       bigint NOT NULL,
+    points_count int    NOT NULL,
+    data         bytea  NOT NULL,
+    CONSTRAINT ts_kv_block_pkey PRIMARY KEY (entity_id, key, block_ts)
+);
+
+CREATE TABLE IF NOT EXISTS ts_kv_block_watermark
+(
+    id              int    NOT NULL,
+    compacted_until bigint NOT NULL,
+    CONSTRAINT ts_kv_block_watermark_pkey PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS ts_kv_rollup
+(
+    entity_id   uuid             NOT NULL,
+    key         int              NOT NULL,
+    granularity bigint           NOT NULL,
+    ts          bigint           NOT NULL,
+    bool_count  bigint           NOT NULL,
+    str_count   bigint           NOT NULL,
+    json_count  bigint           NOT NULL,
+    long_count  bigint           NOT NULL,
+    dbl_count   bigint           NOT NULL,
+    long_sum    bigint           NOT NULL,
+    dbl_sum     double precision NOT NULL,
+    long_min    bigint,
+    long_max    bigint,
+    dbl_min     double precision,
+    dbl_max     double precision,
+    CONSTRAINT ts_kv_rollup_pkey PRIMARY KEY (entity_id, key, granularity, ts)
+);
+
+CREATE TABLE IF NOT EXISTS ts_kv_rollup_state
+(
+    name  varchar(255) NOT NULL,
+    value bigint       NOT NULL,
+    CONSTRAINT ts_kv_rollup_state_pkey PRIMARY KEY (name)
+);
+
+CREATE TABLE IF NOT EXISTS ts_kv_rollup_dirty
+(
+    entity_id uuid   NOT NULL,
+    key       int    NOT NULL,
+    start_ts  bigint NOT NULL,
+    end_ts    bigint NOT NULL,
+    version   bigint NOT NULL DEFAULT 0,
+    CONSTRAINT ts_kv_rollup_dirty_pkey PRIMARY KEY (entity_id, key, start_ts, end_ts)
+);
+
 CREATE TABLE IF NOT EXISTS ts_kv_dictionary
 (
     key    varchar(255) NOT NULL,
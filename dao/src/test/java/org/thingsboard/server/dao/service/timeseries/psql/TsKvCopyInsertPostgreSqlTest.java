@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.service.timeseries.psql;
+
+import com.datastax.oss.driver.api.core.uuid.Uuids;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.dao.model.sql.AbstractTsKvEntity;
+import org.thingsboard.server.dao.model.sqlts.latest.TsKvLatestEntity;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+import org.thingsboard.server.dao.service.AbstractServiceTest;
+import org.thingsboard.server.dao.service.DaoPostgreSqlTest;
+import org.thingsboard.server.dao.sqlts.insert.InsertTsRepository;
+import org.thingsboard.server.dao.sqlts.insert.latest.InsertLatestTsRepository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+@DaoPostgreSqlTest
+public class TsKvCopyInsertPostgreSqlTest extends AbstractServiceTest {
+
+    private static final String SELECT_TS = "SELECT key, ts, bool_v, str_v, long_v, dbl_v, json_v::text AS json_v FROM ts_kv WHERE entity_id = ? ORDER BY key, ts";
+    private static final String SELECT_LATEST = "SELECT key, ts, bool_v, str_v, long_v, dbl_v, json_v::text AS json_v FROM ts_kv_latest WHERE entity_id = ? ORDER BY key";
+
+    @Autowired
+    private InsertTsRepository<TsKvEntity> insertTsRepository;
+
+    @Autowired
+    private InsertLatestTsRepository insertLatestTsRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void before() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS ts_kv_1970_01 PARTITION OF ts_kv FOR VALUES FROM (0) TO (2678400000)");
+    }
+
+    @After
+    public void after() {
+        setCopyThreshold(insertTsRepository, 0);
+        setCopyThreshold(insertLatestTsRepository, 0);
+    }
+
+    @Test
+    public void testCopyWritesSameTimeseriesAsBatchInsert() {
+        UUID batchEntityId = Uuids.timeBased();
+        UUID copyEntityId = Uuids.timeBased();
+
+        setCopyThreshold(insertTsRepository, 0);
+        insertTsRepository.saveOrUpdate(initialRows(batchEntityId, TsKvEntity::new));
+        insertTsRepository.saveOrUpdate(updateRows(batchEntityId, TsKvEntity::new));
+
+        // The second flush reuses the staging table created by the first one
+        setCopyThreshold(insertTsRepository, 1);
+        insertTsRepository.saveOrUpdate(initialRows(copyEntityId, TsKvEntity::new));
+        insertTsRepository.saveOrUpdate(updateRows(copyEntityId, TsKvEntity::new));
+
+        List<Map<String, Object>> expected = jdbcTemplate.queryForList(SELECT_TS, batchEntityId);
+        Assert.assertEquals(7, expected.size());
+        Assert.assertEquals(expected, jdbcTemplate.queryForList(SELECT_TS, copyEntityId));
+    }
+
+    @Test
+    public void testCopyWritesSameLatestAsBatchInsert() {
+        UUID batchEntityId = Uuids.timeBased();
+        UUID copyEntityId = Uuids.timeBased();
+
+        setCopyThreshold(insertLatestTsRepository, 0);
+        insertLatestTsRepository.saveOrUpdate(initialRows(batchEntityId, TsKvLatestEntity::new));
+        insertLatestTsRepository.saveOrUpdate(updateRows(batchEntityId, TsKvLatestEntity::new));
+
+        setCopyThreshold(insertLatestTsRepository, 1);
+        insertLatestTsRepository.saveOrUpdate(initialRows(copyEntityId, TsKvLatestEntity::new));
+        insertLatestTsRepository.saveOrUpdate(updateRows(copyEntityId, TsKvLatestEntity::new));
+
+        List<Map<String, Object>> expected = jdbcTemplate.queryForList(SELECT_LATEST, batchEntityId);
+        Assert.assertEquals(4, expected.size());
+        Assert.assertEquals(expected, jdbcTemplate.queryForList(SELECT_LATEST, copyEntityId));
+    }
+
+    private static <T extends AbstractTsKvEntity> List<T> initialRows(UUID entityId, Supplier<T> factory) {
+        return Arrays.asList(
+                row(factory, entityId, 1, 1000, 10L),
+                row(factory, entityId, 2, 1000, 2.5),
+                row(factory, entityId, 3, 1000, true),
+                row(factory, entityId, 4, 2000, "{\"a\":1}"));
+    }
+
+    // Conflicts with the existing rows, an older value, a change of the value type and duplicates within the batch
+    private static <T extends AbstractTsKvEntity> List<T> updateRows(UUID entityId, Supplier<T> factory) {
+        return Arrays.asList(
+                row(factory, entityId, 1, 1000, 11L),
+                row(factory, entityId, 1, 2000, 20L),
+                row(factory, entityId, 1, 2000, 21L),
+                row(factory, entityId, 2, 1000, "text"),
+                row(factory, entityId, 3, 500, false),
+                row(factory, entityId, 4, 3000, "{\"a\":2}"),
+                row(factory, entityId, 4, 3000, "{\"a\":3}"));
+    }
+
+    private static <T extends AbstractTsKvEntity> T row(Supplier<T> factory, UUID entityId, int key, long ts, Object value) {
+        T entity = factory.get();
+        entity.setEntityId(entityId);
+        entity.setKey(key);
+        entity.setTs(ts);
+        if (value instanceof Long) {
+            entity.setLongValue((Long) value);
+        } else if (value instanceof Double) {
+            entity.setDoubleValue((Double) value);
+        } else if (value instanceof Boolean) {
+            entity.setBooleanValue((Boolean) value);
+        } else if (((String) value).startsWith("{")) {
+            entity.setJsonValue((String) value);
+        } else {
+            entity.setStrValue((String) value);
+        }
+        return entity;
+    }
+
+    private static void setCopyThreshold(Object repository, int copyThreshold) {
+        ReflectionTestUtils.setField(AopTestUtils.getUltimateTargetObject(repository), "copyThreshold", copyThreshold);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.stats.MessagesStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TbSqlAdaptiveBlockingQueueTest {
+
+    @Mock
+    private MessagesStats stats;
+
+    @Mock
+    private ScheduledLogExecutorComponent logExecutor;
+
+    private TbSqlAdaptiveBlockingQueue<Integer> queue;
+
+    @Before
+    public void before() {
+        TbSqlBlockingQueueParams params = TbSqlBlockingQueueParams.builder()
+                .logName("Test")
+                .batchSize(100)
+                .maxDelay(10)
+                .statsPrintIntervalMs(1000)
+                .statsNamePrefix("test")
+                .adaptive(true)
+                .build();
+        queue = new TbSqlAdaptiveBlockingQueue<>(params, stats, new SimpleMeterRegistry().timer("test"), new AtomicInteger());
+    }
+
+    @After
+    public void after() {
+        queue.destroy();
+    }
+
+    @Test
+    public void testAllElementsSavedInOrder() throws Exception {
+        List<Integer> saved = Collections.synchronizedList(new ArrayList<>());
+        queue.init(logExecutor, batch -> {
+            Assert.assertTrue(batch.size() <= 100);
+            saved.addAll(batch);
+        }, Comparator.naturalOrder(), 0);
+
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(queue.add(i));
+        }
+        Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1000, saved.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, saved.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testFutureFailedOnSaveError() throws Exception {
+        queue.init(logExecutor, batch -> {
+            throw new RuntimeException("Save failed");
+        }, Comparator.naturalOrder(), 0);
+
+        ListenableFuture<Void> future = queue.add(42);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("Future should fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Save failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testOnlyCallersOfFailedBatchAreFailed() throws Exception {
+        queue.init(logExecutor, batch -> {
+            if (batch.contains(0)) {
+                throw new RuntimeException("Save failed");
+            }
+        }, Comparator.naturalOrder(), 0);
+
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            futures.add(queue.add(i));
+        }
+        List<Void> results = Futures.successfulAsList(futures).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(300, results.size());
+        Assert.assertTrue(futures.get(0).isDone());
+        try {
+            futures.get(0).get();
+            Assert.fail("Future should fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Save failed", e.getCause().getMessage());
+        }
+        futures.get(299).get();
+    }
+
+    @Test
+    public void testBatchSizeFollowsLatency() throws Exception {
+        AtomicInteger latencyMs = new AtomicInteger(30);
+        queue.init(logExecutor, batch -> {
+            try {
+                Thread.sleep(latencyMs.get());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, Comparator.naturalOrder(), 0);
+
+        for (int i = 0; i < 10 && queue.getCurrentBatchSize() > 16; i++) {
+            queue.add(i).get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(16, queue.getCurrentBatchSize());
+
+        latencyMs.set(0);
+        for (int i = 0; i < 10 && queue.getCurrentBatchSize() < 100; i++) {
+            List<ListenableFuture<Void>> futures = new ArrayList<>();
+            for (int j = 0; j < 200; j++) {
+                futures.add(queue.add(j));
+            }
+            Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(100, queue.getCurrentBatchSize());
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.stats.MessagesStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TbSqlRingBufferQueueTest {
+
+    @Mock
+    private MessagesStats stats;
+
+    @Mock
+    private ScheduledLogExecutorComponent logExecutor;
+
+    private TbSqlRingBufferQueue<Integer> queue;
+
+    private void createQueue(int ringBufferSize) {
+        TbSqlBlockingQueueParams params = TbSqlBlockingQueueParams.builder()
+                .logName("Test")
+                .batchSize(100)
+                .maxDelay(10)
+                .statsPrintIntervalMs(1000)
+                .statsNamePrefix("test")
+                .ringBufferSize(ringBufferSize)
+                .build();
+        queue = new TbSqlRingBufferQueue<>(params, stats, new SimpleMeterRegistry().timer("test"), new AtomicInteger());
+    }
+
+    @After
+    public void after() {
+        queue.destroy();
+    }
+
+    @Test
+    public void testAllElementsSavedInOrder() throws Exception {
+        createQueue(1024);
+        List<Integer> saved = Collections.synchronizedList(new ArrayList<>());
+        queue.init(logExecutor, batch -> {
+            Assert.assertTrue(batch.size() <= 100);
+            saved.addAll(batch);
+        }, Comparator.naturalOrder(), 0);
+
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(queue.add(i));
+        }
+        Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1000, saved.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, saved.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducersWithWrapAround() throws Exception {
+        createQueue(16);
+        List<Integer> saved = Collections.synchronizedList(new ArrayList<>());
+        queue.init(logExecutor, batch -> {
+            Assert.assertTrue(batch.size() <= 16);
+            saved.addAll(batch);
+        }, Comparator.naturalOrder(), 0);
+
+        int producers = 4;
+        int elementsPerProducer = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<List<ListenableFuture<Void>>>> results = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int offset = p * elementsPerProducer;
+                results.add(executor.submit(() -> {
+                    List<ListenableFuture<Void>> futures = new ArrayList<>();
+                    for (int i = 0; i < elementsPerProducer; i++) {
+                        futures.add(queue.add(offset + i));
+                    }
+                    return futures;
+                }));
+            }
+            List<ListenableFuture<Void>> futures = new ArrayList<>();
+            for (Future<List<ListenableFuture<Void>>> result : results) {
+                futures.addAll(result.get(10, TimeUnit.SECONDS));
+            }
+            Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(producers * elementsPerProducer, saved.size());
+        Assert.assertEquals(producers * elementsPerProducer, new HashSet<>(saved).size());
+    }
+
+    @Test
+    public void testFutureFailedOnSaveError() throws Exception {
+        createQueue(1024);
+        queue.init(logExecutor, batch -> {
+            throw new RuntimeException("Save failed");
+        }, Comparator.naturalOrder(), 0);
+
+        ListenableFuture<Void> future = queue.add(42);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("Future should fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Save failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testProducerFailsWhenRingStaysFull() throws Exception {
+        createQueue(2);
+        CountDownLatch saveLatch = new CountDownLatch(1);
+        queue.init(logExecutor, batch -> {
+            try {
+                saveLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, Comparator.naturalOrder(), 0);
+
+        List<ListenableFuture<Void>> accepted = new ArrayList<>();
+        ListenableFuture<Void> rejected = null;
+        for (int i = 0; i < 10 && rejected == null; i++) {
+            ListenableFuture<Void> future = queue.add(i);
+            if (future.isDone()) {
+                rejected = future;
+            } else {
+                accepted.add(future);
+            }
+        }
+        Assert.assertNotNull(rejected);
+        try {
+            rejected.get();
+            Assert.fail("Future should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        saveLatch.countDown();
+        Futures.allAsList(accepted).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.JsonDataEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class TsKvBlockCodecTest {
+
+    private static final String KEY = "temperature";
+    private static final long START_TS = 1600000000000L;
+
+    @Test
+    public void testRegularDoublesRoundTrip() {
+        List<TsKvEntry> entries = new ArrayList<>();
+        double value = 20.0;
+        for (int i = 0; i < 86400; i++) {
+            if (i % 10 == 0) {
+                value = Math.round((value + 0.1) * 10) / 10.0;
+            }
+            entries.add(entry(START_TS + i * 1000L, new DoubleDataEntry(KEY, value)));
+        }
+        byte[] data = TsKvBlockCodec.encode(entries);
+        Assert.assertEquals(entries, TsKvBlockCodec.decode(data, KEY));
+        Assert.assertTrue("Block size " + data.length, data.length < entries.size() * 2);
+    }
+
+    @Test
+    public void testIrregularLongsRoundTrip() {
+        Random random = new Random(42);
+        List<TsKvEntry> entries = new ArrayList<>();
+        long ts = START_TS;
+        long value = 0;
+        for (int i = 0; i < 10000; i++) {
+            ts += 1 + random.nextInt(i % 2 == 0 ? 100 : Integer.MAX_VALUE);
+            value += i % 5 == 0 ? random.nextLong() : random.nextInt(3000) - 1500;
+            entries.add(entry(ts, new LongDataEntry(KEY, value)));
+        }
+        Assert.assertEquals(entries, TsKvBlockCodec.decode(TsKvBlockCodec.encode(entries), KEY));
+    }
+
+    @Test
+    public void testMixedTypesRoundTrip() {
+        List<TsKvEntry> entries = Arrays.asList(
+                entry(START_TS, new BooleanDataEntry(KEY, true)),
+                entry(START_TS + 1, new StringDataEntry(KEY, "température")),
+                entry(START_TS + 2, new LongDataEntry(KEY, Long.MIN_VALUE)),
+                entry(START_TS + 1000, new DoubleDataEntry(KEY, Double.NaN)),
+                entry(START_TS + 1001, new DoubleDataEntry(KEY, -0.0)),
+                entry(START_TS + 1002, new JsonDataEntry(KEY, "{\"value\":1}")),
+                entry(START_TS + 100000000L, new StringDataEntry(KEY, "")),
+                entry(START_TS + 100000001L, new BooleanDataEntry(KEY, false)));
+        Assert.assertEquals(entries, TsKvBlockCodec.decode(TsKvBlockCodec.encode(entries), KEY));
+    }
+
+    @Test
+    public void testEmptyBlock() {
+        Assert.assertTrue(TsKvBlockCodec.decode(TsKvBlockCodec.encode(Collections.emptyList()), KEY).isEmpty());
+    }
+
+    @Test
+    public void testAggregationMergedWithDatabaseResult() {
+        List<TsKvEntry> entries = Arrays.asList(
+                entry(START_TS, new LongDataEntry(KEY, 10L)),
+                entry(START_TS + 1, new DoubleDataEntry(KEY, 2.5)),
+                entry(START_TS + 2, new LongDataEntry(KEY, -4L)));
+        TsKvBlockAggregator aggregator = new TsKvBlockAggregator(entries);
+
+        TsKvEntity dbSum = new TsKvEntity();
+        dbSum.setLongValue(100L);
+        Assert.assertEquals(108.5, aggregator.merge(dbSum, Aggregation.SUM, 0).getDoubleValue(), 0.0);
+
+        TsKvEntity dbAvg = new TsKvEntity();
+        dbAvg.setDoubleValue(5.0);
+        Assert.assertEquals((5.0 * 3 + 8.5) / 6, aggregator.merge(dbAvg, Aggregation.AVG, 3).getDoubleValue(), 0.000001);
+
+        TsKvEntity dbMax = new TsKvEntity();
+        dbMax.setLongValue(7L);
+        Assert.assertEquals(10.0, aggregator.merge(dbMax, Aggregation.MAX, 0).getDoubleValue(), 0.0);
+        Assert.assertEquals(-4.0, aggregator.merge(null, Aggregation.MIN, 0).getDoubleValue(), 0.0);
+
+        TsKvEntity dbCount = new TsKvEntity();
+        dbCount.setLongValue(5L);
+        Assert.assertEquals(Long.valueOf(8L), aggregator.merge(dbCount, Aggregation.COUNT, 0).getLongValue());
+    }
+
+    @Test
+    public void testLongAggregationKeepsLongType() {
+        TsKvBlockAggregator aggregator = new TsKvBlockAggregator(Arrays.asList(
+                entry(START_TS, new LongDataEntry(KEY, 3L)),
+                entry(START_TS + 1, new LongDataEntry(KEY, 5L))));
+        TsKvEntity dbMin = new TsKvEntity();
+        dbMin.setLongValue(4L);
+        Assert.assertEquals(Long.valueOf(3L), aggregator.merge(dbMin, Aggregation.MIN, 0).getLongValue());
+        Assert.assertEquals(Long.valueOf(8L), aggregator.merge(null, Aggregation.SUM, 0).getLongValue());
+    }
+
+    private static TsKvEntry entry(long ts, KvEntry kv) {
+        return new BasicTsKvEntry(ts, kv);
+    }
+}
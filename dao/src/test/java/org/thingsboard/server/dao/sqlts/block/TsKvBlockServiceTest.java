@@ -0,0 +1,172 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.block;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TsKvBlockServiceTest {
+
+    private static final long START_TS = 1600041600000L;
+    private static final UUID ENTITY_ID = UUID.randomUUID();
+
+    @Mock
+    private TsKvBlockRepository blockRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private TsKvBlockService blockService;
+
+    @Before
+    public void before() {
+        ReflectionTestUtils.setField(blockService, "ageDays", 0);
+        ReflectionTestUtils.setField(blockService, "maxBlocksPerRun", 10);
+    }
+
+    @Test
+    public void testAggregateSplitsBlocksIntoBuckets() {
+        mockBlock();
+
+        Map<Long, TsKvBlockAggregator> buckets = blockService.aggregate(ENTITY_ID, 1, START_TS, START_TS + 90000L, 60000L);
+
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(60L, buckets.get(START_TS).merge(null, Aggregation.COUNT, 0).getLongValue().longValue());
+        Assert.assertEquals(30L, buckets.get(START_TS + 60000L).merge(null, Aggregation.COUNT, 0).getLongValue().longValue());
+    }
+
+    @Test
+    public void testAggregateSkipsPointsOfRawRows() {
+        mockBlock();
+        when(blockRepository.findRowTs(ENTITY_ID, 1, START_TS, START_TS + 90000L)).thenReturn(Arrays.asList(START_TS, START_TS + 61000L));
+
+        Map<Long, TsKvBlockAggregator> buckets = blockService.aggregate(ENTITY_ID, 1, START_TS, START_TS + 90000L, 60000L);
+
+        Assert.assertEquals(59L, buckets.get(START_TS).merge(null, Aggregation.COUNT, 0).getLongValue().longValue());
+        Assert.assertEquals(29L, buckets.get(START_TS + 60000L).merge(null, Aggregation.COUNT, 0).getLongValue().longValue());
+    }
+
+    @Test
+    public void testCompactionMergesLateRowsBelowWatermark() {
+        long today = System.currentTimeMillis() - Math.floorMod(System.currentTimeMillis(), TsKvBlockService.BLOCK_DURATION);
+        when(blockRepository.findWatermark()).thenReturn(Optional.of(today));
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        TsKvBlock candidate = new TsKvBlock();
+        candidate.setEntityId(ENTITY_ID);
+        candidate.setKey(1);
+        candidate.setBlockTs(START_TS);
+        when(blockRepository.findLateCompactionCandidates(today, TsKvBlockService.BLOCK_DURATION, 10)).thenReturn(Collections.singletonList(candidate));
+        List<TsKvEntry> existing = Arrays.asList(
+                new BasicTsKvEntry(START_TS, new LongDataEntry("", 1L)),
+                new BasicTsKvEntry(START_TS + 2000L, new LongDataEntry("", 3L)));
+        when(blockRepository.findBlockForUpdate(ENTITY_ID, 1, START_TS)).thenReturn(Optional.of(
+                new TsKvBlock(ENTITY_ID, 1, START_TS, START_TS, START_TS + 2000L, 2, TsKvBlockCodec.encode(existing))));
+        when(blockRepository.deleteRows(ENTITY_ID, 1, START_TS, START_TS + TsKvBlockService.BLOCK_DURATION)).thenReturn(Arrays.asList(
+                new BasicTsKvEntry(START_TS + 1000L, new LongDataEntry("", 2L)),
+                new BasicTsKvEntry(START_TS + 2000L, new LongDataEntry("", 4L))));
+
+        blockService.compact();
+
+        ArgumentCaptor<TsKvBlock> blockCaptor = ArgumentCaptor.forClass(TsKvBlock.class);
+        verify(blockRepository).saveBlock(blockCaptor.capture());
+        List<TsKvEntry> points = TsKvBlockCodec.decode(blockCaptor.getValue().getData(), "");
+        Assert.assertEquals(3, points.size());
+        Assert.assertEquals(2L, points.get(1).getLongValue().get().longValue());
+        Assert.assertEquals(4L, points.get(2).getLongValue().get().longValue());
+        verify(blockRepository, never()).saveWatermark(anyLong());
+    }
+
+    @Test
+    public void testCleanupAppliesEntityTtlAndMaxTtl() {
+        when(blockRepository.findMaxTtl()).thenReturn(Optional.of(TimeUnit.DAYS.toSeconds(30)));
+        long now = System.currentTimeMillis();
+
+        blockService.cleanup(TimeUnit.DAYS.toSeconds(7));
+
+        verify(blockRepository).deleteExpiredEntityBlocks(longThat(ts -> ts >= now), eq(TimeUnit.DAYS.toSeconds(7)));
+        verify(blockRepository).deleteExpiredBlocks(longThat(ts -> ts >= now - TimeUnit.DAYS.toMillis(30) && ts < now));
+    }
+
+    private void mockBlock() {
+        List<TsKvEntry> points = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            points.add(new BasicTsKvEntry(START_TS + i * 1000L, new LongDataEntry("", 1L)));
+        }
+        TsKvBlock block = new TsKvBlock(ENTITY_ID, 1, START_TS, START_TS, START_TS + 119000L, points.size(), TsKvBlockCodec.encode(points));
+        when(blockRepository.findWatermark()).thenReturn(Optional.of(START_TS));
+        doAnswer(invocation -> {
+            Predicate<TsKvBlock> processor = invocation.getArgument(6);
+            processor.test(block);
+            return null;
+        }).when(blockRepository).processBlocks(eq(ENTITY_ID), eq(1), anyLong(), anyLong(), anyLong(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testCompactionAdvancesWatermarkDayByDay() {
+        long today = System.currentTimeMillis() - Math.floorMod(System.currentTimeMillis(), TsKvBlockService.BLOCK_DURATION);
+        long watermark = today - 2 * TsKvBlockService.BLOCK_DURATION;
+        when(blockRepository.findWatermark()).thenReturn(Optional.of(watermark));
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        TsKvBlock candidate = new TsKvBlock();
+        candidate.setEntityId(ENTITY_ID);
+        candidate.setKey(1);
+        candidate.setBlockTs(watermark);
+        when(blockRepository.findCompactionCandidates(eq(watermark), anyLong(), anyInt())).thenReturn(Collections.singletonList(candidate));
+        when(blockRepository.findCompactionCandidates(eq(watermark + TsKvBlockService.BLOCK_DURATION), anyLong(), anyInt())).thenReturn(Collections.emptyList());
+
+        blockService.compact();
+
+        verify(blockRepository).deleteRows(ENTITY_ID, 1, watermark, watermark + TsKvBlockService.BLOCK_DURATION);
+        verify(blockRepository).saveWatermark(watermark + TsKvBlockService.BLOCK_DURATION);
+        verify(blockRepository).saveWatermark(today);
+    }
+}
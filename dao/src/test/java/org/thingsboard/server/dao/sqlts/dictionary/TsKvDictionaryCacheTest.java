@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.dictionary;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionary;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TsKvDictionaryCacheTest {
+
+    @Mock
+    private TsKvDictionaryRepository dictionaryRepository;
+
+    @InjectMocks
+    private TsKvDictionaryCache dictionaryCache;
+
+    @Before
+    public void before() {
+        Mockito.when(dictionaryRepository.findAll()).thenReturn(Collections.singletonList(dictionary("temperature", 1)));
+        dictionaryCache.init();
+    }
+
+    @Test
+    public void testPreloadedKeyResolvedWithoutQueries() {
+        Assert.assertEquals(1, dictionaryCache.getOrSaveKeyId("temperature"));
+        Mockito.verify(dictionaryRepository, Mockito.never()).findAllByKeyIn(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testBatchResolvedWithSingleQuery() {
+        Mockito.when(dictionaryRepository.findAllByKeyIn(ArgumentMatchers.any())).thenReturn(Collections.singletonList(dictionary("humidity", 2)));
+        Mockito.when(dictionaryRepository.findById(ArgumentMatchers.any())).thenReturn(Optional.empty());
+        Mockito.when(dictionaryRepository.save(ArgumentMatchers.any())).thenAnswer(invocation -> {
+            TsKvDictionary saved = invocation.getArgument(0);
+            saved.setKeyId(3);
+            return saved;
+        });
+
+        dictionaryCache.resolveKeys(Arrays.asList("temperature", "humidity", "pressure"));
+
+        Mockito.verify(dictionaryRepository, Mockito.times(1)).findAllByKeyIn(ArgumentMatchers.any());
+        Mockito.verify(dictionaryRepository, Mockito.times(1)).save(ArgumentMatchers.any());
+        Assert.assertEquals(1, dictionaryCache.getOrSaveKeyId("temperature"));
+        Assert.assertEquals(2, dictionaryCache.getOrSaveKeyId("humidity"));
+        Assert.assertEquals(3, dictionaryCache.getOrSaveKeyId("pressure"));
+    }
+
+    @Test
+    public void testKeyResolvedByKeyId() {
+        Mockito.when(dictionaryRepository.findByKeyId(2)).thenReturn(Optional.of(dictionary("humidity", 2)));
+        Mockito.when(dictionaryRepository.findByKeyId(3)).thenReturn(Optional.empty());
+
+        Assert.assertEquals("temperature", dictionaryCache.getKey(1));
+        Assert.assertEquals("humidity", dictionaryCache.getKey(2));
+        Assert.assertEquals("humidity", dictionaryCache.getKey(2));
+        Assert.assertNull(dictionaryCache.getKey(3));
+
+        Mockito.verify(dictionaryRepository, Mockito.never()).findByKeyId(1);
+        Mockito.verify(dictionaryRepository, Mockito.times(1)).findByKeyId(2);
+        Assert.assertEquals(2, dictionaryCache.getOrSaveKeyId("humidity"));
+    }
+
+    private static TsKvDictionary dictionary(String key, int keyId) {
+        TsKvDictionary dictionary = new TsKvDictionary();
+        dictionary.setKey(key);
+        dictionary.setKeyId(keyId);
+        return dictionary;
+    }
+}
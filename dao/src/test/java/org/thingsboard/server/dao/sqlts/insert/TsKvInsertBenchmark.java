@@ -0,0 +1,170 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.thingsboard.server.dao.model.sql.AbstractTsKvEntity;
+import org.thingsboard.server.dao.model.sqlts.latest.TsKvLatestEntity;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+import org.thingsboard.server.dao.sqlts.insert.latest.psql.PsqlLatestInsertTsRepository;
+import org.thingsboard.server.dao.sqlts.insert.psql.PsqlInsertTsRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares JDBC batch INSERT ... ON CONFLICT statements with the binary COPY into the staging table
+ * for ts_kv and ts_kv_latest. The "rows" counter reports rows/sec.
+ * <p>
+ * Requires the local PostgreSQL database, the connection is configured with
+ * "benchmark.db.url", "benchmark.db.username" and "benchmark.db.password" system properties.
+ * Benchmark creates not partitioned ts_kv and ts_kv_latest tables if absent and truncates them, so do not point it
+ * to the database with real data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TsKvInsertBenchmark {
+
+    private static final int ENTITIES_COUNT = 1000;
+    private static final int KEYS_COUNT = 10;
+
+    @Param({"1000", "10000"})
+    private int batchSize;
+
+    @Param({"BATCH", "COPY"})
+    private String insertMode;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private PsqlInsertTsRepository tsRepository;
+    private PsqlLatestInsertTsRepository latestRepository;
+    private List<TsKvEntity> tsEntities;
+    private List<TsKvLatestEntity> latestEntities;
+    private long ts;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class RowCounter {
+        public long rows;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dataSource = new SingleConnectionDataSource(
+                System.getProperty("benchmark.db.url", "jdbc:postgresql://localhost:5432/thingsboard_benchmark"),
+                System.getProperty("benchmark.db.username", "postgres"),
+                System.getProperty("benchmark.db.password", "postgres"), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS ts_kv (entity_id uuid NOT NULL, key int NOT NULL, ts bigint NOT NULL, " +
+                "bool_v boolean, str_v varchar(10000000), long_v bigint, dbl_v double precision, json_v json, " +
+                "CONSTRAINT ts_kv_pkey PRIMARY KEY (entity_id, key, ts))");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS ts_kv_latest (entity_id uuid NOT NULL, key int NOT NULL, ts bigint NOT NULL, " +
+                "bool_v boolean, str_v varchar(10000000), long_v bigint, dbl_v double precision, json_v json, " +
+                "CONSTRAINT ts_kv_latest_pkey PRIMARY KEY (entity_id, key))");
+        jdbcTemplate.execute("TRUNCATE ts_kv, ts_kv_latest");
+
+        int copyThreshold = "COPY".equals(insertMode) ? 1 : 0;
+        tsRepository = new PsqlInsertTsRepository();
+        initRepository(tsRepository, copyThreshold);
+        latestRepository = new PsqlLatestInsertTsRepository();
+        initRepository(latestRepository, copyThreshold);
+        ReflectionTestUtils.setField(latestRepository, "updateByLatestTs", true);
+
+        tsEntities = createEntities(TsKvEntity::new);
+        latestEntities = createEntities(TsKvLatestEntity::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public void tsKv(RowCounter counter) {
+        updateTs(tsEntities);
+        transactionTemplate.execute(status -> {
+            tsRepository.saveOrUpdate(tsEntities);
+            return null;
+        });
+        counter.rows += batchSize;
+    }
+
+    @Benchmark
+    public void tsKvLatest(RowCounter counter) {
+        updateTs(latestEntities);
+        latestRepository.saveOrUpdate(latestEntities);
+        counter.rows += batchSize;
+    }
+
+    private void initRepository(AbstractInsertRepository repository, int copyThreshold) {
+        ReflectionTestUtils.setField(repository, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(repository, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(repository, "copyThreshold", copyThreshold);
+    }
+
+    private <T extends AbstractTsKvEntity> List<T> createEntities(Supplier<T> entitySupplier) {
+        List<UUID> entityIds = new ArrayList<>(ENTITIES_COUNT);
+        for (int i = 0; i < ENTITIES_COUNT; i++) {
+            entityIds.add(UUID.randomUUID());
+        }
+        List<T> entities = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            T entity = entitySupplier.get();
+            entity.setEntityId(entityIds.get(i % ENTITIES_COUNT));
+            entity.setKey(i / ENTITIES_COUNT % KEYS_COUNT);
+            switch (i % 3) {
+                case 0:
+                    entity.setLongValue((long) i);
+                    break;
+                case 1:
+                    entity.setDoubleValue(i / 10.0);
+                    break;
+                default:
+                    entity.setStrValue("value-" + i);
+            }
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private void updateTs(List<? extends AbstractTsKvEntity> entities) {
+        ts++;
+        for (AbstractTsKvEntity entity : entities) {
+            entity.setTs(ts);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.latest;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.dao.sql.ScheduledLogExecutorComponent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+public class TsKvLatestCacheTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    private TsKvLatestCache cache;
+
+    @Before
+    public void before() {
+        cache = new TsKvLatestCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxSizeMb", 1L);
+        ReflectionTestUtils.setField(cache, "expireAfterWriteMs", 60000L);
+        ReflectionTestUtils.setField(cache, "statsPrintIntervalMs", 60000L);
+        ReflectionTestUtils.setField(cache, "updateByLatestTs", true);
+        ReflectionTestUtils.setField(cache, "statsFactory", Mockito.mock(StatsFactory.class, invocation -> invocation.getArgument(1)));
+        ReflectionTestUtils.setField(cache, "logExecutor", Mockito.mock(ScheduledLogExecutorComponent.class));
+        cache.init();
+    }
+
+    @Test
+    public void testSaveIsReadFromCache() {
+        Assert.assertNull(cache.find(tenantId, deviceId, 1));
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 10, 42));
+        Optional<TsKvEntry> cached = cache.find(tenantId, deviceId, 1);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(42L, cached.get().getLongValue().get().longValue());
+    }
+
+    @Test
+    public void testOlderValueIgnoredWhenUpdateByLatestTs() {
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 20, 2));
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 10, 1));
+        Assert.assertEquals(20L, cache.find(tenantId, deviceId, 1).get().getTs());
+    }
+
+    @Test
+    public void testLoadedValueDoesNotOverrideSavedValue() {
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 20, 2));
+        cache.putLoaded(tenantId, deviceId, cache.getVersion(deviceId), 1, entry("temperature", 10, 1));
+        Assert.assertEquals(20L, cache.find(tenantId, deviceId, 1).get().getTs());
+    }
+
+    @Test
+    public void testFindAllRequiresAllKeysLoaded() {
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 10, 1));
+        Assert.assertNull(cache.findAll(tenantId, deviceId));
+
+        Map<Integer, TsKvEntry> entries = new HashMap<>();
+        entries.put(1, entry("temperature", 5, 0));
+        entries.put(2, entry("humidity", 5, 50));
+        cache.putAllLoaded(tenantId, deviceId, cache.getVersion(deviceId), entries);
+
+        List<TsKvEntry> all = cache.findAll(tenantId, deviceId);
+        Assert.assertNotNull(all);
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(Optional.empty(), cache.find(tenantId, deviceId, 3));
+    }
+
+    @Test
+    public void testEvictAndFilter() {
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 10, 1));
+        cache.evict(deviceId);
+        Assert.assertNull(cache.find(tenantId, deviceId, 1));
+
+        cache.setCacheableFilter((tenantId, entityId) -> false);
+        cache.onSave(tenantId, deviceId, 1, entry("temperature", 10, 1));
+        cache.setCacheableFilter((tenantId, entityId) -> true);
+        Assert.assertNull(cache.find(tenantId, deviceId, 1));
+    }
+
+    @Test
+    public void testLoadStartedBeforeEvictIsIgnored() {
+        long version = cache.getVersion(deviceId);
+        cache.evict(deviceId);
+        cache.putLoaded(tenantId, deviceId, version, 1, entry("temperature", 10, 1));
+        Assert.assertNull(cache.find(tenantId, deviceId, 1));
+
+        version = cache.getVersion(deviceId);
+        cache.invalidateAll();
+        cache.putAllLoaded(tenantId, deviceId, version, Map.of(1, entry("temperature", 10, 1)));
+        Assert.assertNull(cache.findAll(tenantId, deviceId));
+
+        cache.putLoaded(tenantId, deviceId, cache.getVersion(deviceId), 1, entry("temperature", 10, 1));
+        Assert.assertNotNull(cache.find(tenantId, deviceId, 1));
+    }
+
+    private static TsKvEntry entry(String key, long ts, long value) {
+        return new BasicTsKvEntry(ts, new LongDataEntry(key, value));
+    }
+}
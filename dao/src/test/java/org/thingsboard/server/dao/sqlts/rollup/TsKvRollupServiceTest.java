@@ -0,0 +1,219 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.rollup;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+import org.thingsboard.server.dao.sqlts.block.TsKvBlockService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TsKvRollupServiceTest {
+
+    private static final UUID ENTITY_ID = UUID.randomUUID();
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long START_TS = 1600000000000L - Math.floorMod(1600000000000L, DAY);
+
+    @Mock
+    private TsKvRollupRepository rollupRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TsKvBlockService blockService;
+
+    @InjectMocks
+    private TsKvRollupService rollupService;
+
+    @Test
+    public void testCoarsestAlignedGranularity() {
+        Assert.assertEquals(TsKvRollupGranularity.DAY, rollupService.getGranularity(START_TS, DAY));
+        Assert.assertEquals(TsKvRollupGranularity.HOUR, rollupService.getGranularity(START_TS + HOUR, DAY));
+        Assert.assertEquals(TsKvRollupGranularity.MINUTE, rollupService.getGranularity(START_TS + 1, HOUR));
+        Assert.assertNull(rollupService.getGranularity(START_TS, 1000));
+    }
+
+    @Test
+    public void testAlignedBucketsUseRollupsOnly() {
+        Map<Long, TsKvRollup> rollups = new HashMap<>();
+        rollups.put(START_TS, numeric(3, 6L, 1L, 3L));
+        Mockito.when(rollupRepository.findRollups(ENTITY_ID, 1, TsKvRollupGranularity.HOUR, START_TS, START_TS + 2 * HOUR, START_TS, HOUR))
+                .thenReturn(rollups);
+
+        Map<Long, TsKvRollup> result = rollupService.findAggregates(ENTITY_ID, 1, TsKvRollupGranularity.HOUR, START_TS, START_TS + 2 * HOUR, HOUR);
+
+        Assert.assertEquals(rollups, result);
+        Mockito.verify(rollupRepository, Mockito.never()).findRawSegments(ArgumentMatchers.any(), ArgumentMatchers.anyInt(), ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testMisalignedBucketsMergedWithRawEdges() {
+        long startTs = START_TS + 30000;
+        long endTs = startTs + 2 * HOUR;
+        Map<Long, TsKvRollup> rollups = new HashMap<>();
+        rollups.put(startTs, numeric(2, 10L, 4L, 6L));
+        Mockito.when(rollupRepository.findRollups(ENTITY_ID, 1, TsKvRollupGranularity.MINUTE, START_TS + MINUTE, START_TS + 2 * HOUR, startTs, HOUR))
+                .thenReturn(rollups);
+        Map<Long, TsKvRollup> segments = new HashMap<>();
+        segments.put(startTs, numeric(1, 1L, 1L, 1L));
+        segments.put(START_TS + HOUR + 30000, numeric(1, 20L, 20L, 20L));
+        Mockito.when(rollupRepository.findRawSegments(ArgumentMatchers.eq(ENTITY_ID), ArgumentMatchers.eq(1), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenReturn(segments);
+
+        Map<Long, TsKvRollup> result = rollupService.findAggregates(ENTITY_ID, 1, TsKvRollupGranularity.MINUTE, startTs, endTs, HOUR);
+
+        ArgumentCaptor<Long[]> starts = ArgumentCaptor.forClass(Long[].class);
+        ArgumentCaptor<Long[]> ends = ArgumentCaptor.forClass(Long[].class);
+        Mockito.verify(rollupRepository).findRawSegments(ArgumentMatchers.eq(ENTITY_ID), ArgumentMatchers.eq(1), starts.capture(), ends.capture());
+        Assert.assertEquals(Arrays.asList(startTs, START_TS + HOUR, START_TS + HOUR + 30000, START_TS + 2 * HOUR), Arrays.asList(starts.getValue()));
+        Assert.assertEquals(Arrays.asList(START_TS + MINUTE, startTs + HOUR, START_TS + HOUR + MINUTE, endTs), Arrays.asList(ends.getValue()));
+
+        TsKvEntity first = result.get(startTs).toTsKvEntity(Aggregation.SUM);
+        Assert.assertEquals(Long.valueOf(11L), first.getLongValue());
+        Assert.assertEquals(Long.valueOf(1L), result.get(startTs).toTsKvEntity(Aggregation.MIN).getLongValue());
+        Assert.assertEquals(Long.valueOf(3L), result.get(startTs).toTsKvEntity(Aggregation.COUNT).getLongValue());
+        Assert.assertEquals(Long.valueOf(20L), result.get(startTs + HOUR).toTsKvEntity(Aggregation.MAX).getLongValue());
+    }
+
+    @Test
+    public void testStringRollupNotSupportedForMinMax() {
+        TsKvRollup rollup = new TsKvRollup();
+        rollup.setStrCount(2);
+        Assert.assertFalse(rollup.isSupported(Aggregation.MAX));
+        Assert.assertTrue(rollup.isSupported(Aggregation.COUNT));
+        Assert.assertEquals(Long.valueOf(2L), rollup.toTsKvEntity(Aggregation.COUNT).getLongValue());
+    }
+
+    @Test
+    public void testDeleteRecomputesEdgeBuckets() {
+        ReflectionTestUtils.setField(rollupService, "batchSize", 100);
+        Mockito.when(transactionTemplate.execute(ArgumentMatchers.any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        TsKvRollupDirtyRange range = new TsKvRollupDirtyRange(ENTITY_ID, 1, START_TS + 1, START_TS + HOUR);
+        Mockito.when(rollupRepository.lockDirty(100)).thenReturn(Collections.singletonList(range));
+
+        rollupService.onDeleting(ENTITY_ID, 1, START_TS + 1, START_TS + HOUR);
+        Mockito.verify(rollupRepository).markDirty(Collections.singletonList(range));
+        Mockito.verify(rollupRepository, Mockito.never()).deleteCovered(ArgumentMatchers.any(), ArgumentMatchers.anyInt(),
+                ArgumentMatchers.any(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong());
+
+        rollupService.flush();
+
+        for (TsKvRollupGranularity granularity : TsKvRollupGranularity.values()) {
+            Mockito.verify(rollupRepository).deleteCovered(ENTITY_ID, 1, granularity, START_TS + 1, START_TS + HOUR);
+        }
+        ArgumentCaptor<List<TsKvRollupBucket>> minutes = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(rollupRepository).recompute(ArgumentMatchers.eq(TsKvRollupGranularity.MINUTE), minutes.capture());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(new TsKvRollupBucket(ENTITY_ID, 1, START_TS), new TsKvRollupBucket(ENTITY_ID, 1, START_TS + HOUR - MINUTE))),
+                new HashSet<>(minutes.getValue()));
+        Mockito.verify(rollupRepository).recompute(TsKvRollupGranularity.HOUR, Collections.singletonList(new TsKvRollupBucket(ENTITY_ID, 1, START_TS)));
+        Mockito.verify(rollupRepository).recompute(TsKvRollupGranularity.DAY, Collections.singletonList(new TsKvRollupBucket(ENTITY_ID, 1, START_TS)));
+        Mockito.verify(rollupRepository).deleteDirty(Collections.singletonList(range));
+    }
+
+    @Test
+    public void testSavedMinutesMarkedDirtyOnce() {
+        TsKvEntity first = new TsKvEntity();
+        first.setEntityId(ENTITY_ID);
+        first.setKey(1);
+        first.setTs(START_TS + 1000);
+        TsKvEntity second = new TsKvEntity();
+        second.setEntityId(ENTITY_ID);
+        second.setKey(1);
+        second.setTs(START_TS + 2000);
+
+        rollupService.onSaving(Arrays.asList(first, second));
+
+        Mockito.verify(rollupRepository).markDirty(Collections.singletonList(new TsKvRollupDirtyRange(ENTITY_ID, 1, START_TS, START_TS + MINUTE)));
+    }
+
+    @Test
+    public void testDirtyRangesExcludeOverlappingBuckets() {
+        long startTs = START_TS + 30000;
+        Mockito.when(rollupRepository.findDirty(ENTITY_ID, 1, startTs, startTs + 4 * HOUR)).thenReturn(Arrays.asList(
+                new TsKvRollupDirtyRange(ENTITY_ID, 1, START_TS + HOUR, START_TS + HOUR + MINUTE),
+                new TsKvRollupDirtyRange(ENTITY_ID, 1, START_TS + 3 * HOUR, START_TS + 10 * HOUR)));
+
+        Set<Long> dirtyBuckets = rollupService.findDirtyBuckets(ENTITY_ID, 1, startTs, startTs + 4 * HOUR, HOUR);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(startTs, startTs + HOUR, startTs + 2 * HOUR, startTs + 3 * HOUR)), dirtyBuckets);
+    }
+
+    @Test
+    public void testRecomputeAddsCompactedPoints() {
+        ReflectionTestUtils.setField(rollupService, "batchSize", 100);
+        Mockito.when(blockService.isEnabled()).thenReturn(true);
+        Mockito.when(blockService.getBlocksEndTs()).thenReturn(START_TS + DAY);
+        Mockito.when(transactionTemplate.execute(ArgumentMatchers.any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        TsKvRollupDirtyRange range = new TsKvRollupDirtyRange(ENTITY_ID, 1, START_TS, START_TS + MINUTE);
+        Mockito.when(rollupRepository.lockDirty(100)).thenReturn(Collections.singletonList(range));
+        Mockito.doAnswer(invocation -> {
+            Consumer<TsKvEntry> consumer = invocation.getArgument(4);
+            consumer.accept(new BasicTsKvEntry(START_TS + 1000, new LongDataEntry("", 5L)));
+            consumer.accept(new BasicTsKvEntry(START_TS + 2000, new LongDataEntry("", 7L)));
+            return null;
+        }).when(blockService).processPoints(ArgumentMatchers.eq(ENTITY_ID), ArgumentMatchers.eq(1), ArgumentMatchers.eq(START_TS),
+                ArgumentMatchers.eq(START_TS + MINUTE), ArgumentMatchers.any());
+
+        rollupService.flush();
+
+        ArgumentCaptor<Map<TsKvRollupBucket, TsKvRollup>> merged = ArgumentCaptor.forClass(Map.class);
+        InOrder inOrder = Mockito.inOrder(rollupRepository);
+        inOrder.verify(rollupRepository).recompute(TsKvRollupGranularity.MINUTE, Collections.singletonList(new TsKvRollupBucket(ENTITY_ID, 1, START_TS)));
+        inOrder.verify(rollupRepository).merge(ArgumentMatchers.eq(TsKvRollupGranularity.MINUTE), merged.capture());
+        inOrder.verify(rollupRepository).recompute(TsKvRollupGranularity.HOUR, Collections.singletonList(new TsKvRollupBucket(ENTITY_ID, 1, START_TS)));
+        Assert.assertEquals(Collections.singletonMap(new TsKvRollupBucket(ENTITY_ID, 1, START_TS), numeric(2, 12L, 5L, 7L)), merged.getValue());
+    }
+
+    private static TsKvRollup numeric(long count, long sum, long min, long max) {
+        TsKvRollup rollup = new TsKvRollup();
+        rollup.setLongCount(count);
+        rollup.setLongSum(sum);
+        rollup.setLongMin(min);
+        rollup.setLongMax(max);
+        return rollup;
+    }
+}
@@ -25,13 +25,17 @@ import org.thingsboard.rule.engine.api.TbNodeConfiguration;
 import org.thingsboard.rule.engine.api.TbNodeException;
 import org.thingsboard.rule.engine.api.util.TbNodeUtils;
 import org.thingsboard.server.common.data.kv.AttributeKvEntry;
+import org.thingsboard.server.common.data.kv.BaseAttributeKvEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
 import org.thingsboard.server.common.data.plugin.ComponentType;
 import org.thingsboard.server.common.msg.TbMsg;
 import org.thingsboard.server.common.msg.session.SessionMsgType;
 import org.thingsboard.server.common.transport.adaptor.JsonConverter;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Slf4j
 @RuleNode(
@@ -62,8 +66,7 @@ public class TbMsgAttributesNode implements TbNode {
             ctx.tellFailure(msg, new IllegalArgumentException("Unsupported msg type: " + msg.getType()));
             return;
         }
-        String src = msg.getData();
-        Set<AttributeKvEntry> attributes = JsonConverter.convertToAttributes(new JsonParser().parse(src));
+        Set<AttributeKvEntry> attributes = convertToAttributes(msg);
         String notifyDeviceStr = msg.getMetaData().getValue("notifyDevice");
         ctx.getTelemetryService().saveAndNotify(
                 ctx.getTenantId(),
@@ -75,6 +78,18 @@ public class TbMsgAttributesNode implements TbNode {
         );
     }
 
+    /**
+     * Uses the key-value pairs of the message if the transport sent them without JSON conversion, otherwise parses the JSON data.
+     */
+    public static Set<AttributeKvEntry> convertToAttributes(TbMsg msg) {
+        List<KvEntry> kvEntries = msg.getKvEntries();
+        if (kvEntries != null) {
+            long ts = System.currentTimeMillis();
+            return kvEntries.stream().map(kv -> new BaseAttributeKvEntry(kv, ts)).collect(Collectors.toSet());
+        }
+        return JsonConverter.convertToAttributes(new JsonParser().parse(msg.getData()));
+    }
+
     @Override
     public void destroy() {
     }
@@ -36,6 +36,7 @@ import org.thingsboard.server.common.transport.adaptor.JsonConverter;
 import org.thingsboard.server.common.data.tenant.profile.DefaultTenantProfileConfiguration;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -77,10 +78,9 @@ public class TbMsgTimeseriesNode implements TbNode {
             return;
         }
         long ts = getTs(msg);
-        String src = msg.getData();
-        Map<Long, List<KvEntry>> tsKvMap = JsonConverter.convertToTelemetry(new JsonParser().parse(src), ts);
+        Map<Long, List<KvEntry>> tsKvMap = convertToTelemetry(msg, ts, false);
         if (tsKvMap.isEmpty()) {
-            ctx.tellFailure(msg, new IllegalArgumentException("Msg body is empty: " + src));
+            ctx.tellFailure(msg, new IllegalArgumentException("Msg body is empty: " + msg.getData()));
             return;
         }
         List<TsKvEntry> tsKvEntryList = new ArrayList<>();
@@ -97,6 +97,17 @@ public class TbMsgTimeseriesNode implements TbNode {
         ctx.getTelemetryService().saveAndNotify(ctx.getTenantId(), msg.getCustomerId(), msg.getOriginator(), tsKvEntryList, ttl, new TelemetryNodeCallback(ctx, msg));
     }
 
+    /**
+     * Uses the key-value pairs of the message if the transport sent them without JSON conversion, otherwise parses the JSON data.
+     */
+    public static Map<Long, List<KvEntry>> convertToTelemetry(TbMsg msg, long ts, boolean sorted) {
+        List<KvEntry> kvEntries = msg.getKvEntries();
+        if (kvEntries != null) {
+            return kvEntries.isEmpty() ? Collections.emptyMap() : Collections.singletonMap(ts, kvEntries);
+        }
+        return JsonConverter.convertToTelemetry(new JsonParser().parse(msg.getData()), ts, sorted);
+    }
+
     public static long getTs(TbMsg msg) {
         long ts = -1;
         String tsStr = msg.getMetaData().getValue("ts");